@@ -2,8 +2,10 @@ package example;
 
 import cachedb.CacheDB;
 import cachedb.SimpleDataSource;
+import cachedb.VersionedRow;
 
 import javax.sql.DataSource;
+import java.util.HashMap;
 import java.util.Map;
 
 /**
@@ -15,6 +17,7 @@ import java.util.Map;
  * - Shopping cart operations
  * - Order processing
  * - Order item management
+ * - Lock-free stock reservation (compare-and-set)
  * 
  * Features demonstrated:
  * - Fast reads from cache (no database queries)
@@ -203,6 +206,11 @@ public class ECommerceDemo {
                 Map.of("order_id", orderId, "item_id", 3),
                 Map.of("product_id", 103, "quantity", 1, "price", 79.99));
 
+        System.out.println("\n📉 Reserving stock...");
+        reserveStock(101, 1);
+        reserveStock(102, 2);
+        reserveStock(103, 1);
+
         // Calculate total
         double total = 999.99 + (2 * 29.99) + 79.99;
 
@@ -222,6 +230,35 @@ public class ECommerceDemo {
         System.out.println("\n✓ Order processing complete\n");
     }
 
+    /**
+     * Takes {@code quantity} units off a product's stock. Concurrent orders
+     * don't need a shared lock: if another order changed the product since
+     * it was read, compareAndSet fails and the reservation is retried.
+     */
+    private static boolean reserveStock(int productId, int quantity) {
+        Map<String, Object> pk = Map.of("product_id", productId);
+        while (true) {
+            VersionedRow product = cache.getWithVersion("products", pk);
+            if (product == null) {
+                System.out.println("  Product " + productId + " is not cached");
+                return false;
+            }
+
+            int stock = (Integer) product.columns.get("stock");
+            if (stock < quantity) {
+                System.out.println("  Product " + productId + " is out of stock");
+                return false;
+            }
+
+            Map<String, Object> updated = new HashMap<>(product.columns);
+            updated.put("stock", stock - quantity);
+            if (cache.compareAndSet("products", pk, product.version, updated)) {
+                System.out.println("  Product " + productId + ": stock " + stock + " → " + (stock - quantity));
+                return true;
+            }
+        }
+    }
+
     /**
      * Scenario 5: Delete Operations
      * Demonstrates removing items from cart and canceling orders
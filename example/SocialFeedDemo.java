@@ -4,6 +4,8 @@ import cachedb.CacheDB;
 import cachedb.SimpleDataSource;
 
 import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.Random;
 
@@ -196,10 +198,11 @@ public class SocialFeedDemo {
         }
 
         System.out.println("\n📝 Retrieving comments...");
+        List<Map<String, Object>> commentKeys = new ArrayList<>();
         for (int i = 0; i < comments.length; i++) {
-            int commentId = 3001 + i;
-            Map<String, Object> comment = cache.get("comments",
-                    Map.of("post_id", postId, "comment_id", commentId));
+            commentKeys.add(Map.of("post_id", postId, "comment_id", 3001 + i));
+        }
+        for (Map<String, Object> comment : cache.multiGet("comments", commentKeys)) {
             System.out.println("  @" + comment.get("username") + ": " + comment.get("content"));
         }
 
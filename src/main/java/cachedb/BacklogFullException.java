@@ -0,0 +1,15 @@
+package cachedb;
+
+/**
+ * Thrown by a write when the backlog of rows not yet flushed to the database
+ * stayed at its ceiling for the whole backpressure timeout. Nothing was
+ * written; the caller may retry later.
+ */
+public class BacklogFullException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public BacklogFullException(String message) {
+        super(message);
+    }
+}
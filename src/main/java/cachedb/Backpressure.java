@@ -0,0 +1,149 @@
+package cachedb;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Keeps the backlog of unflushed rows under its ceiling, so a slow database
+ * can't grow the heap without bound. The backlog is what the WAL still has
+ * pinned: one record per row written but not yet committed.
+ *
+ * Below {@link #THROTTLE_AT} of the ceiling writes pass untouched. Above it
+ * the rows holding the oldest records are written back at once, before their
+ * TTL or write-behind delay, until no more than {@link #WRITE_BACK_TO} of the
+ * ceiling is left waiting in the cache. While the database keeps up that is
+ * all writers see.
+ *
+ * Writers are only slowed once flushing is failing or falling behind. While
+ * the circuit breaker is open each write sleeps, up to
+ * {@link #MAX_DELAY_MICROS} as the backlog reaches the ceiling. A backlog
+ * that reaches the ceiling anyway means the database isn't keeping up: a
+ * write then waits for flushes to bring it down and is rejected if that
+ * takes longer than the timeout.
+ */
+final class Backpressure {
+
+    static final double THROTTLE_AT = 0.8;
+    static final double WRITE_BACK_TO = 0.5;
+    static final long MAX_DELAY_MICROS = 5_000;
+    private static final long POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final WALWriter wal;
+    private final FlushManager flushes;
+    private final IntUnaryOperator writeBack; // rows to write back → rows written back
+    final long maxRows;  // 0 for no limit
+    final long maxBytes; // 0 for no limit
+    private final long timeoutNanos;
+
+    private final AtomicBoolean writingBack = new AtomicBoolean();
+    private final LongAdder writtenBack = new LongAdder();
+    private final LongAdder delayed = new LongAdder();
+    private final LongAdder blocked = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    Backpressure(WALWriter wal,
+                 FlushManager flushes,
+                 IntUnaryOperator writeBack,
+                 long maxRows,
+                 long maxBytes,
+                 long timeoutMillis) {
+        this.wal = wal;
+        this.flushes = flushes;
+        this.writeBack = writeBack;
+        this.maxRows = maxRows;
+        this.maxBytes = maxBytes;
+        this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    }
+
+    /**
+     * Called before each write: returns at once, after a short delay, or once
+     * the backlog is below the ceiling again.
+     *
+     * @throws BacklogFullException if the backlog stays at the ceiling for
+     *                              the whole timeout
+     */
+    void acquire() {
+        double fill = fill();
+        if (fill < THROTTLE_AT) return;
+
+        writeBack(fill);
+        if (fill < 1) {
+            if (!flushes.circuitOpen()) return;
+            delayed.increment();
+            LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(
+                    (long) (MAX_DELAY_MICROS * (fill - THROTTLE_AT) / (1 - THROTTLE_AT))));
+            return;
+        }
+
+        blocked.increment();
+        long deadline = System.nanoTime() + timeoutNanos;
+        while ((fill = fill()) >= 1) {
+            if (System.nanoTime() - deadline >= 0) {
+                throw reject();
+            }
+            writeBack(fill);
+            LockSupport.parkNanos(POLL_NANOS);
+        }
+    }
+
+    /** For writes that must not block: rejects at the ceiling, never waits. */
+    void check() {
+        double fill = fill();
+        if (fill < THROTTLE_AT) return;
+
+        writeBack(fill);
+        if (fill >= 1) {
+            throw reject();
+        }
+    }
+
+    // hands the oldest dirty rows to the flusher, one writer at a time
+    private void writeBack(double fill) {
+        if (!writingBack.compareAndSet(false, true)) return;
+        try {
+            long rows = (long) Math.ceil(wal.pinnedRecords() * (1 - WRITE_BACK_TO / fill))
+                    - flushes.pending();
+            if (rows > 0) {
+                writtenBack.add(writeBack.applyAsInt((int) Math.min(rows, Integer.MAX_VALUE)));
+            }
+        } finally {
+            writingBack.set(false);
+        }
+    }
+
+    private BacklogFullException reject() {
+        rejected.increment();
+        return new BacklogFullException("Unflushed backlog at its ceiling: "
+                + wal.pinnedRecords() + " rows, " + wal.pinnedBytes() + " bytes");
+    }
+
+    // the larger of the two limits' usage, as a fraction of the limit
+    double fill() {
+        double rows = maxRows > 0 ? (double) wal.pinnedRecords() / maxRows : 0;
+        double bytes = maxBytes > 0 ? (double) wal.pinnedBytes() / maxBytes : 0;
+        return Math.max(rows, bytes);
+    }
+
+    /** Rows written back early because the backlog was near its ceiling. */
+    long writtenBackCount() {
+        return writtenBack.sum();
+    }
+
+    /** Writes delayed because the backlog was near its ceiling and flushing was behind. */
+    long delayedCount() {
+        return delayed.sum();
+    }
+
+    /** Writes that had to wait for the backlog to drop below its ceiling. */
+    long blockedCount() {
+        return blocked.sum();
+    }
+
+    /** Writes rejected with {@link BacklogFullException}. */
+    long rejectedCount() {
+        return rejected.sum();
+    }
+}
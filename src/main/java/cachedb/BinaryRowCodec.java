@@ -0,0 +1,230 @@
+package cachedb;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Compact, type-preserving row encoding:
+ *
+ * <pre>
+ * [COUNT:varint]
+ * COUNT x ( [NAME_LEN:varint][NAME:utf8] [TAG:byte][VALUE] )
+ * </pre>
+ *
+ * Integers are zigzag varints, so small ids and counters take one or two
+ * bytes. Values of unsupported types are stored as their string form.
+ */
+public final class BinaryRowCodec implements RowCodec {
+
+    static final byte NULL = 0;
+    static final byte INT = 1;
+    static final byte LONG = 2;
+    static final byte DOUBLE = 3;
+    static final byte DECIMAL = 4;
+    static final byte STRING = 5;
+    static final byte BYTES = 6;
+    static final byte TIMESTAMP = 7;
+    static final byte BOOLEAN = 8;
+    static final byte FLOAT = 9;
+
+    @Override
+    public byte[] encode(Map<String, Object> row) {
+        Writer out = new Writer(64 + row.size() * 32);
+
+        out.varint(row.size());
+        for (Map.Entry<String, Object> e : row.entrySet()) {
+            out.string(e.getKey());
+            putValue(out, e.getValue());
+        }
+        return out.toByteArray();
+    }
+
+    @Override
+    public Map<String, Object> decode(byte[] bytes) {
+        ByteBuffer buf = ByteBuffer.wrap(bytes);
+
+        int count = Varint.get(buf);
+        Map<String, Object> row = new HashMap<>(count * 2);
+        for (int i = 0; i < count; i++) {
+            String name = getString(buf);
+            row.put(name, getValue(buf));
+        }
+        return row;
+    }
+
+    private static void putValue(Writer out, Object v) {
+        if (v == null) {
+            out.tag(NULL);
+        } else if (v instanceof Integer || v instanceof Short || v instanceof Byte) {
+            out.tag(INT);
+            out.varlong(Varint.zigzag(((Number) v).intValue()));
+        } else if (v instanceof Long) {
+            out.tag(LONG);
+            out.varlong(Varint.zigzag((Long) v));
+        } else if (v instanceof Double) {
+            out.tag(DOUBLE);
+            out.fixed(Double.doubleToRawLongBits((Double) v), Long.BYTES);
+        } else if (v instanceof Float) {
+            out.tag(FLOAT);
+            out.fixed(Float.floatToRawIntBits((Float) v), Integer.BYTES);
+        } else if (v instanceof String) {
+            out.tag(STRING);
+            out.string((String) v);
+        } else if (v instanceof Boolean) {
+            out.tag(BOOLEAN);
+            out.tag((byte) ((Boolean) v ? 1 : 0));
+        } else if (v instanceof BigDecimal || v instanceof BigInteger) {
+            BigDecimal d = (v instanceof BigDecimal)
+                    ? (BigDecimal) v
+                    : new BigDecimal((BigInteger) v);
+            out.tag(DECIMAL);
+            out.varlong(Varint.zigzag(d.scale()));
+            out.bytes(d.unscaledValue().toByteArray());
+        } else if (v instanceof byte[]) {
+            out.tag(BYTES);
+            out.bytes((byte[]) v);
+        } else if (v instanceof java.util.Date) {
+            // java.sql.Timestamp keeps nanos; other Dates are millisecond precision
+            long millis = ((java.util.Date) v).getTime();
+            int nanos = (v instanceof Timestamp)
+                    ? ((Timestamp) v).getNanos()
+                    : (int) Math.floorMod(millis, 1000L) * 1_000_000;
+            out.tag(TIMESTAMP);
+            out.varlong(Varint.zigzag(Math.floorDiv(millis, 1000L)));
+            out.varint(nanos);
+        } else {
+            out.tag(STRING);
+            out.string(String.valueOf(v));
+        }
+    }
+
+    private static Object getValue(ByteBuffer buf) {
+        byte tag = buf.get();
+        switch (tag) {
+            case NULL:
+                return null;
+            case INT:
+                return (int) Varint.unzigzag(Varint.getLong(buf));
+            case LONG:
+                return Varint.unzigzag(Varint.getLong(buf));
+            case DOUBLE:
+                return buf.getDouble();
+            case FLOAT:
+                return buf.getFloat();
+            case STRING:
+                return getString(buf);
+            case BOOLEAN:
+                return buf.get() != 0;
+            case DECIMAL: {
+                int scale = (int) Varint.unzigzag(Varint.getLong(buf));
+                byte[] unscaled = new byte[Varint.get(buf)];
+                buf.get(unscaled);
+                return new BigDecimal(new BigInteger(unscaled), scale);
+            }
+            case BYTES: {
+                byte[] bytes = new byte[Varint.get(buf)];
+                buf.get(bytes);
+                return bytes;
+            }
+            case TIMESTAMP: {
+                long seconds = Varint.unzigzag(Varint.getLong(buf));
+                int nanos = Varint.get(buf);
+                Timestamp ts = new Timestamp(seconds * 1000L);
+                ts.setNanos(nanos);
+                return ts;
+            }
+            default:
+                throw new IllegalArgumentException("Unknown value tag: " + tag);
+        }
+    }
+
+    static String getString(ByteBuffer buf) {
+        int len = Varint.get(buf);
+        String s = new String(buf.array(), buf.arrayOffset() + buf.position(),
+                len, StandardCharsets.UTF_8);
+        buf.position(buf.position() + len);
+        return s;
+    }
+
+    // growable output buffer; ByteBuffer would need reallocating by hand anyway
+    private static final class Writer {
+
+        private byte[] buf;
+        private int pos;
+
+        Writer(int capacity) {
+            buf = new byte[capacity];
+        }
+
+        void tag(byte b) {
+            ensure(1);
+            buf[pos++] = b;
+        }
+
+        void varint(int value) {
+            varlong(value & 0xFFFFFFFFL);
+        }
+
+        void varlong(long value) {
+            ensure(10);
+            while ((value & ~0x7FL) != 0) {
+                buf[pos++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buf[pos++] = (byte) value;
+        }
+
+        // big-endian, matching ByteBuffer.getLong/getInt on the read side
+        void fixed(long bits, int width) {
+            ensure(width);
+            for (int shift = (width - 1) * 8; shift >= 0; shift -= 8) {
+                buf[pos++] = (byte) (bits >>> shift);
+            }
+        }
+
+        void bytes(byte[] bytes) {
+            varint(bytes.length);
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, buf, pos, bytes.length);
+            pos += bytes.length;
+        }
+
+        void string(String s) {
+            int len = s.length();
+            ensure(5 + len);
+            int start = pos;
+
+            // ASCII fast path: one byte per char, no intermediate array
+            if (len < 0x80) {
+                buf[pos++] = (byte) len;
+                for (int i = 0; i < len; i++) {
+                    char c = s.charAt(i);
+                    if (c >= 0x80) {
+                        pos = start;
+                        bytes(s.getBytes(StandardCharsets.UTF_8));
+                        return;
+                    }
+                    buf[pos++] = (byte) c;
+                }
+                return;
+            }
+            bytes(s.getBytes(StandardCharsets.UTF_8));
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buf, pos);
+        }
+
+        private void ensure(int bytes) {
+            if (pos + bytes > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(buf.length * 2, pos + bytes));
+            }
+        }
+    }
+}
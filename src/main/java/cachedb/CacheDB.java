@@ -2,31 +2,75 @@ package cachedb;
 
 import javax.sql.DataSource;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.LongSupplier;
 
 public final class CacheDB {
 
-    private static final Path WAL_PATH =
-            Path.of("logs", "wal.log");
+    private static final Path WAL_DIR = Path.of("logs");
+
+    // single-file WAL written before segments existed, migrated on startup
+    private static final Path LEGACY_WAL_PATH = WAL_DIR.resolve("wal.log");
 
     private final CacheStore store;
     private final ExpirationManager expirationManager;
+    private final FlushManager flushManager;
     private final WALWriter wal;
+    private final Map<String, Durability> tableDurability;
+    private final DataSource dataSource;
+    private final RowLoader loader; // null unless read-through is on
+    private final Backpressure backpressure; // null without a backlog ceiling
+    private final SchemaRegistry schemaRegistry;
     private Dashboard dashboard;
 
     private CacheDB(CacheStore store,
                     ExpirationManager expirationManager,
-                    Dashboard dashboard) throws IOException {
+                    FlushManager flushManager,
+                    RowLoader loader,
+                    Dashboard dashboard,
+                    SchemaRegistry schemaRegistry,
+                    Builder config) throws IOException {
 
         this.store = store;
+        this.schemaRegistry = schemaRegistry;
         this.expirationManager = expirationManager;
+        this.flushManager = flushManager;
+        this.loader = loader;
         this.dashboard = dashboard;
 
-        Files.createDirectories(WAL_PATH.getParent());
-        this.wal = new WALWriter(WAL_PATH);
+        this.tableDurability = Map.copyOf(config.tableDurability);
+        this.dataSource = config.dataSource;
+
+        WALWriter.Options walOptions = new WALWriter.Options();
+        walOptions.durability = config.durability;
+        walOptions.groupCommit = config.groupCommit;
+        walOptions.commitBatchSize = config.commitBatchSize;
+        walOptions.commitWaitMicros = config.commitWaitMicros;
+        walOptions.segmentBytes = config.walSegmentBytes;
+        if (config.durability == Durability.INTERVAL
+                || tableDurability.containsValue(Durability.INTERVAL)) {
+            walOptions.syncIntervalMillis = config.syncIntervalMillis;
+        }
+
+        this.wal = new WALWriter(WAL_DIR, walOptions);
+        store.coverHandler = wal::cover;
+        if (config.maxDirtyRows > 0 || config.maxDirtyBytes > 0) {
+            store.trackWriteBack(true);
+            this.backpressure = new Backpressure(wal, flushManager,
+                    rows -> store.writeBackOldest(rows, expirationManager::flush),
+                    config.maxDirtyRows, config.maxDirtyBytes, config.backpressureTimeoutMillis);
+        } else {
+            this.backpressure = null;
+        }
 
         recover();
     }
@@ -42,10 +86,14 @@ public final class CacheDB {
         }
     }
 
+    /**
+     * Syncs the WAL and deletes every segment whose mutations have all been
+     * flushed to the database. Unflushed writes are never discarded.
+     */
     public synchronized void checkpoint() {
         try {
             wal.sync();
-            wal.truncate();
+            wal.checkpoint();
         } catch (Exception e) {
             // swallow
         }
@@ -53,23 +101,92 @@ public final class CacheDB {
 
 
     private void recover() throws IOException {
-        if (!Files.exists(WAL_PATH)) return;
+        long checkpoint = wal.checkpointLsn();
+        List<Path> segments = wal.recoverableSegments();
+        // increments flushed while an older row held the checkpoint back
+        Map<String, Map<RowKey, Long>> flushed = new HashMap<>();
+        for (Path segment : segments) {
+            try (WALReader reader = new WALReader(segment)) {
+                for (LogRecord r : reader) {
+                    if (r.type() == LogType.FLUSHED && r.flushedThrough() >= checkpoint) {
+                        flushed.computeIfAbsent(r.table(), t -> new HashMap<>())
+                                .merge(store.key(r.table(), r.primaryKey()), r.flushedThrough(), Math::max);
+                    }
+                }
+            }
+        }
+        for (Path segment : segments) {
+            try (WALReader reader = new WALReader(segment)) {
+                for (LogRecord r : reader) {
+                    if (r.lsn() < checkpoint || r.type() == LogType.FLUSHED) {
+                        continue; // already in the database
+                    }
+                    Map<RowKey, Long> rows = flushed.get(r.table());
+                    Long through = (rows == null) ? null : rows.get(store.key(r.table(), r.primaryKey()));
+                    if (through != null && r.lsn() <= through) {
+                        continue;
+                    }
+                    wal.pin(r.lsn(), LogSerializer.serialize(r).remaining());
+                    replay(r, r.lsn());
+                }
+            }
+        }
 
-        WALReader reader = new WALReader(WAL_PATH);
+        if (Files.exists(LEGACY_WAL_PATH)) {
+            // re-log into segments so the records get LSNs, then drop the old file
+            try (WALReader reader = new WALReader(LEGACY_WAL_PATH)) {
+                for (LogRecord r : reader) {
+                    replay(r, wal.append(r, Durability.NONE));
+                }
+            }
+            wal.sync();
+            Files.delete(LEGACY_WAL_PATH);
+        }
+        wal.recovered();
+    }
 
-        for (LogRecord r : reader) {
-            String key = new String(r.key());
-            // key format: table|{pk}
-            String[] parts = key.split("\\|", 2);
-            String table = parts[0];
-            Map<String, Object> pk = SimpleCodec.parseMap(parts[1]);
+    private void replay(LogRecord r, long lsn) {
+        boolean owned = false;
+        if (r.type() == LogType.PUT) {
+            // records from the text WAL hold every value as a String
+            owned = store.upsert(r.table(), r.primaryKey(), typed(r.table(), r.columns()), lsn);
+        } else if (r.type() == LogType.DELETE) {
+            owned = store.delete(r.table(), r.primaryKey(), lsn);
+        } else if (r.type() == LogType.DELTA) {
+            Map.Entry<String, Object> delta = r.columns().entrySet().iterator().next();
+            try {
+                owned = store.increment(r.table(), r.primaryKey(), delta.getKey(),
+                        ((Number) delta.getValue()).longValue(), lsn);
+            } catch (RuntimeException e) {
+                // logged by an older version before being checked; nothing to flush
+            }
+        }
+        if (!owned) {
+            wal.release(lsn);
+        }
+    }
 
-            if (r.type() == LogType.PUT) {
-                String value = new String(r.value());
-                Map<String, Object> cols = SimpleCodec.parseMap(value);
-                store.upsert(table, pk, cols);
-            } else if (r.type() == LogType.DELETE) {
-                store.delete(table, pk);
+    /*
+     * Appends the record when the store calls it under the row's lock, so a
+     * row's records reach the cache in LSN order, and leaves the LSN in
+     * lsn[0]. The fsync waits for syncIfDurable, after the lock is released.
+     */
+    private LongSupplier logger(LogRecord record, long[] lsn) {
+        return () -> {
+            try {
+                return lsn[0] = wal.append(record, Durability.NONE);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        };
+    }
+
+    private void syncIfDurable(String table, long lsn) {
+        if (durabilityOf(table) == Durability.SYNC) {
+            try {
+                wal.syncThrough(lsn);
+            } catch (IOException e) {
+                throw new RuntimeException("WAL write failed", e);
             }
         }
     }
@@ -81,40 +198,234 @@ public final class CacheDB {
         Objects.requireNonNull(table);
         Objects.requireNonNull(primaryKey);
         Objects.requireNonNull(columns);
+        throttle();
+        columns = typed(table, columns);
 
-        byte[] walKey =
-                (table + "|" + primaryKey.toString()).getBytes();
-        byte[] walValue =
-                columns.toString().getBytes();
-
+        long[] lsn = new long[1];
+        boolean owned;
         try {
-            wal.append(LogRecord.put(walKey, walValue));
-        } catch (IOException e) {
-            throw new RuntimeException("WAL write failed", e);
+            owned = store.upsert(table, primaryKey, columns,
+                    logger(LogRecord.put(table, primaryKey, columns), lsn));
+        } catch (UncheckedIOException e) {
+            throw new RuntimeException("WAL write failed", e.getCause());
+        }
+        if (!owned) {
+            wal.release(lsn[0]); // an older unflushed record pins this row
         }
+        syncIfDurable(table, lsn[0]);
 
-        store.upsert(table, primaryKey, columns);
-        
         // Track write operation
         if (dashboard != null) {
             dashboard.recordWrite();
         }
     }
 
+    /**
+     * Like {@link #set} without blocking on the WAL. The returned future
+     * completes once the write is durable (per the table's durability) and
+     * visible in the cache; many writes in flight share one fsync. It
+     * completes exceptionally if the WAL write fails, or with
+     * {@link BacklogFullException} at the dirty backlog ceiling instead of
+     * waiting there.
+     *
+     * The row is updated after its WAL record is written, so a newer write
+     * to it may get to the cache first. The store then drops this one, as
+     * recovery would replay the newer one last. An increment in between is
+     * the exception: the cache keeps it without this write, while recovery
+     * replays both.
+     */
+    public CompletableFuture<Void> setAsync(String table,
+                                            Map<String, Object> primaryKey,
+                                            Map<String, Object> columns) {
+
+        Objects.requireNonNull(table);
+        Objects.requireNonNull(primaryKey);
+        Objects.requireNonNull(columns);
+        if (backpressure != null) {
+            try {
+                backpressure.check();
+            } catch (BacklogFullException e) {
+                return CompletableFuture.failedFuture(e);
+            }
+        }
+
+        Map<String, Object> row = typed(table, columns);
+        return wal.appendAsync(LogRecord.put(table, primaryKey, row), durabilityOf(table))
+                .thenAccept(lsn -> {
+                    if (!store.upsert(table, primaryKey, row, lsn)) {
+                        wal.release(lsn);
+                    }
+                    if (dashboard != null) {
+                        dashboard.recordWrite();
+                    }
+                });
+    }
+
+    /**
+     * Atomically adds {@code delta} to a numeric column; a missing or null
+     * column counts as 0. Only the delta is logged, and increments are
+     * summed in memory until the row is flushed as one
+     * "col = col + ?" update, so a hot counter costs one database write per
+     * flush rather than one per increment.
+     *
+     * A row that isn't cached isn't loaded: get() misses on it (or, with
+     * read-through, loads it and adds the pending increments).
+     *
+     * @throws IllegalArgumentException if the cached value isn't a number
+     */
+    public void increment(String table,
+                          Map<String, Object> primaryKey,
+                          String column,
+                          long delta) {
+
+        Objects.requireNonNull(table);
+        Objects.requireNonNull(primaryKey);
+        Objects.requireNonNull(column);
+        throttle();
+
+        // logged once the cached value has been checked, so a rejected
+        // increment never reaches the WAL
+        long[] lsn = new long[1];
+        boolean owned;
+        try {
+            owned = store.increment(table, primaryKey, column, delta,
+                    logger(LogRecord.delta(table, primaryKey, column, delta), lsn));
+        } catch (UncheckedIOException e) {
+            throw new RuntimeException("WAL write failed", e.getCause());
+        }
+        if (!owned) {
+            wal.release(lsn[0]);
+        }
+        syncIfDurable(table, lsn[0]);
+
+        if (dashboard != null) {
+            dashboard.recordWrite();
+        }
+    }
+
+    /**
+     * Returns the cached row, or null on a miss. With read-through enabled, a
+     * miss loads the row from the database instead; null then means the row
+     * doesn't exist (or has a pending delete).
+     */
     public Map<String, Object> get(String table,
                                    Map<String, Object> primaryKey) {
         Map<String, Object> result = store.get(table, primaryKey);
-        
+        boolean hit = result != null;
+
+        if (!hit && loader != null) {
+            result = readThrough(table, primaryKey);
+        }
+
+        recordGet(hit);
+        return result;
+    }
+
+    /**
+     * {@link #get(String, Map)} for a table with a single numeric primary
+     * key. A cache hit doesn't allocate once the table's schema is known.
+     */
+    public Map<String, Object> get(String table, long id) {
+        Map<String, Object> result = store.get(table, id);
+        boolean hit = result != null;
+
+        if (!hit && loader != null) {
+            Map<String, Object> primaryKey = store.keyOf(table, id);
+            if (primaryKey != null) {
+                result = readThrough(table, primaryKey);
+            }
+        }
+
+        recordGet(hit);
+        return result;
+    }
+
+    /**
+     * Like {@link #get(String, Map)}, also returning the row's version for
+     * {@link #compareAndSet}. Null on a miss.
+     */
+    public VersionedRow getWithVersion(String table,
+                                       Map<String, Object> primaryKey) {
+        VersionedRow result = store.getWithVersion(table, primaryKey);
+        boolean hit = result != null;
+
+        if (!hit && loader != null) {
+            Map<String, Object> columns = readThrough(table, primaryKey);
+            if (columns != null) {
+                result = store.snapshot(table, primaryKey);
+                if (result == null) {
+                    // still being flushed; the cache has no version for it
+                    result = new VersionedRow(columns, 0);
+                }
+            }
+        }
+
+        recordGet(hit);
+        return result;
+    }
+
+    /**
+     * Writes the row only if its version is still {@code expectedVersion}
+     * (from {@link #getWithVersion}; 0 for a row that isn't cached). The
+     * check and the write are atomic for the row, without a lock across
+     * rows. Nothing is logged when the check fails.
+     *
+     * @return true if the row was written; false if it changed, and the
+     *         caller should read it again and retry
+     */
+    public boolean compareAndSet(String table,
+                                 Map<String, Object> primaryKey,
+                                 long expectedVersion,
+                                 Map<String, Object> columns) {
+
+        Objects.requireNonNull(table);
+        Objects.requireNonNull(primaryKey);
+        Objects.requireNonNull(columns);
+        throttle();
+        columns = typed(table, columns);
+
+        long[] lsn = new long[1];
+        boolean written;
+        try {
+            written = store.compareAndSet(table, primaryKey, expectedVersion, columns,
+                    logger(LogRecord.put(table, primaryKey, columns), lsn),
+                    wal::release);
+        } catch (UncheckedIOException e) {
+            throw new RuntimeException("WAL write failed", e.getCause());
+        }
+        if (!written) {
+            return false;
+        }
+        syncIfDurable(table, lsn[0]);
+
+        if (dashboard != null) {
+            dashboard.recordWrite();
+        }
+        return true;
+    }
+
+    private Map<String, Object> readThrough(String table, Map<String, Object> primaryKey) {
+        CacheEntry entry = store.lookup(table, primaryKey);
+        return newerThanDatabase(entry)
+                ? entry.columns
+                : loader.load(table, primaryKey);
+    }
+
+    // expired or not-yet-flushed entries are newer than the database;
+    // increments alone need the database row to add to
+    private static boolean newerThanDatabase(CacheEntry entry) {
+        return entry != null && !CacheStore.isDeltaOnly(entry);
+    }
+
+    private void recordGet(boolean hit) {
         // Track read operation
         if (dashboard != null) {
-            if (result != null) {
+            if (hit) {
                 dashboard.recordRead();
             } else {
                 dashboard.recordMiss();
             }
         }
-        
-        return result;
     }
 
     public void delete(String table,
@@ -122,24 +433,234 @@ public final class CacheDB {
 
         Objects.requireNonNull(table);
         Objects.requireNonNull(primaryKey);
+        throttle();
 
-        byte[] walKey =
-                (table + "|" + primaryKey.toString()).getBytes();
-
+        long[] lsn = new long[1];
+        boolean owned;
         try {
-            wal.append(LogRecord.delete(walKey));
-        } catch (IOException e) {
-            throw new RuntimeException("WAL write failed", e);
+            owned = store.delete(table, primaryKey,
+                    logger(LogRecord.delete(table, primaryKey), lsn));
+        } catch (UncheckedIOException e) {
+            throw new RuntimeException("WAL write failed", e.getCause());
+        }
+        if (!owned) {
+            wal.release(lsn[0]);
         }
+        syncIfDurable(table, lsn[0]);
 
-        store.delete(table, primaryKey);
-        
         // Track delete operation
         if (dashboard != null) {
             dashboard.recordDelete();
         }
     }
 
+    /** Like {@link #delete} without blocking on the WAL; see {@link #setAsync}. */
+    public CompletableFuture<Void> deleteAsync(String table,
+                                               Map<String, Object> primaryKey) {
+
+        Objects.requireNonNull(table);
+        Objects.requireNonNull(primaryKey);
+        if (backpressure != null) {
+            try {
+                backpressure.check();
+            } catch (BacklogFullException e) {
+                return CompletableFuture.failedFuture(e);
+            }
+        }
+
+        return wal.appendAsync(LogRecord.delete(table, primaryKey), durabilityOf(table))
+                .thenAccept(lsn -> {
+                    if (!store.delete(table, primaryKey, lsn)) {
+                        wal.release(lsn);
+                    }
+                    if (dashboard != null) {
+                        dashboard.recordDelete();
+                    }
+                });
+    }
+
+    /**
+     * Looks up several rows of one table. The result has one element per key,
+     * in the same order, null where {@link #get(String, Map)} would return null.
+     * With read-through enabled, the misses are loaded with one SELECT.
+     */
+    public List<Map<String, Object>> multiGet(String table,
+                                              List<Map<String, Object>> primaryKeys) {
+        Objects.requireNonNull(table);
+        Objects.requireNonNull(primaryKeys);
+
+        List<Map<String, Object>> results = new ArrayList<>(primaryKeys.size());
+        List<Integer> misses = new ArrayList<>();
+        for (Map<String, Object> primaryKey : primaryKeys) {
+            Map<String, Object> result = store.get(table, primaryKey);
+            boolean hit = result != null;
+
+            if (!hit && loader != null) {
+                CacheEntry entry = store.lookup(table, primaryKey);
+                if (newerThanDatabase(entry)) {
+                    result = entry.columns;
+                } else {
+                    misses.add(results.size());
+                }
+            }
+
+            recordGet(hit);
+            results.add(result);
+        }
+
+        if (!misses.isEmpty()) {
+            List<Map<String, Object>> keys = new ArrayList<>(misses.size());
+            for (int i : misses) {
+                keys.add(primaryKeys.get(i));
+            }
+            List<Map<String, Object>> loaded = loader.loadAll(table, keys);
+            for (int i = 0; i < misses.size(); i++) {
+                results.set(misses.get(i), loaded.get(i));
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Writes several rows of one table (primary key → columns) with a single
+     * WAL write and fsync. Rows are applied in the map's iteration order.
+     */
+    public void multiSet(String table,
+                         Map<Map<String, Object>, Map<String, Object>> rows) {
+
+        Objects.requireNonNull(table);
+        Objects.requireNonNull(rows);
+        if (rows.isEmpty()) return;
+
+        List<LogRecord> records = new ArrayList<>(rows.size());
+        for (Map.Entry<Map<String, Object>, Map<String, Object>> row : rows.entrySet()) {
+            records.add(LogRecord.put(table,
+                    Objects.requireNonNull(row.getKey()),
+                    typed(table, Objects.requireNonNull(row.getValue()))));
+        }
+
+        throttle();
+        long lsn = appendAll(table, records);
+        for (LogRecord record : records) {
+            if (!store.upsert(table, record.primaryKey(), record.columns(), lsn)) {
+                wal.release(lsn);
+            }
+            lsn++;
+        }
+
+        if (dashboard != null) {
+            for (int i = 0; i < rows.size(); i++) dashboard.recordWrite();
+        }
+    }
+
+    /** Deletes several rows of one table with a single WAL write and fsync. */
+    public void multiDelete(String table,
+                            Collection<Map<String, Object>> primaryKeys) {
+
+        Objects.requireNonNull(table);
+        Objects.requireNonNull(primaryKeys);
+        if (primaryKeys.isEmpty()) return;
+
+        List<LogRecord> records = new ArrayList<>(primaryKeys.size());
+        for (Map<String, Object> primaryKey : primaryKeys) {
+            records.add(LogRecord.delete(table, Objects.requireNonNull(primaryKey)));
+        }
+
+        throttle();
+        long lsn = appendAll(table, records);
+        for (Map<String, Object> primaryKey : primaryKeys) {
+            if (!store.delete(table, primaryKey, lsn)) {
+                wal.release(lsn);
+            }
+            lsn++;
+        }
+
+        if (dashboard != null) {
+            for (int i = 0; i < primaryKeys.size(); i++) dashboard.recordDelete();
+        }
+    }
+
+    /**
+     * Writes the rows parked in the dead-letter file after the database kept
+     * rejecting them back through {@link #set}, {@link #delete} and
+     * {@link #increment}, and empties the file. Fix whatever made the
+     * database reject them first. If a write fails, the rows from it on stay
+     * parked.
+     *
+     * @return rows replayed
+     */
+    public int replayDeadLetters() throws IOException {
+        return flushManager.deadLetters().replay(r -> {
+            if (r.type() == LogType.PUT) {
+                set(r.table(), r.primaryKey(), r.columns());
+            } else if (r.type() == LogType.DELETE) {
+                delete(r.table(), r.primaryKey());
+            } else if (r.type() == LogType.DELTA) {
+                Map.Entry<String, Object> delta = r.columns().entrySet().iterator().next();
+                increment(r.table(), r.primaryKey(), delta.getKey(),
+                        ((Number) delta.getValue()).longValue());
+            }
+        });
+    }
+
+    /*
+     * The row with each value converted to its column's type, so the WAL and
+     * the cache hold 42 rather than "42" for an INT column (see ColumnType).
+     * While a table's schema can't be loaded its rows are kept as passed;
+     * the registry tries again after its retry delay, not on every write.
+     */
+    private Map<String, Object> typed(String table, Map<String, Object> columns) {
+        TableSchema schema = schemaRegistry.tryGet(table);
+        return (schema == null) ? columns : schema.convert(columns);
+    }
+
+    // early write-back, then backpressure, once the unflushed backlog nears its ceiling
+    private void throttle() {
+        if (backpressure != null) {
+            backpressure.acquire();
+        }
+    }
+
+    private long appendAll(String table, List<LogRecord> records) {
+        try {
+            return wal.appendAll(records, durabilityOf(table));
+        } catch (IOException e) {
+            throw new RuntimeException("WAL write failed", e);
+        }
+    }
+
+    Durability durabilityOf(String table) {
+        return tableDurability.getOrDefault(table, wal.durability());
+    }
+
+    Map<String, Durability> tableDurability() {
+        return tableDurability;
+    }
+
+    WALWriter wal() {
+        return wal;
+    }
+
+    DataSource dataSource() {
+        return dataSource;
+    }
+
+    RowLoader loader() {
+        return loader;
+    }
+
+    CacheStore store() {
+        return store;
+    }
+
+    FlushManager flushManager() {
+        return flushManager;
+    }
+
+    Backpressure backpressure() {
+        return backpressure;
+    }
+
     /* ------------ BUILDER ------------ */
 
     public static Builder builder() {
@@ -149,20 +670,82 @@ public final class CacheDB {
     public static class Builder {
 
         private DataSource dataSource;
+        private String jdbcUrl;
+        private String jdbcUser;
+        private String jdbcPassword;
+        private int poolSize = 10;
         private long ttlMillis = 2000;
+        private long writeBehindMillis = 0;
         private boolean dashboardEnabled = true;
         private int dashboardPort = 8080;
-
+        private boolean groupCommit = false;
+        private int commitBatchSize = 64;
+        private long commitWaitMicros = 0;
+        private Durability durability = Durability.SYNC;
+        private final Map<String, Durability> tableDurability = new HashMap<>();
+        private long syncIntervalMillis = 50;
+        private long walSegmentBytes = 64L * 1024 * 1024;
+        private int flushBatchSize = 500;
+        private long flushBatchWaitMillis = 0;
+        private int flushWorkers = 1;
+        private long flushMaxStatementBytes = 4L << 20;
+        private int flushMaxAttempts = 5;
+        private long flushRetryBackoffMillis = 100;
+        private long maxDirtyRows = 0;
+        private long maxDirtyBytes = 0;
+        private long backpressureTimeoutMillis = 1000;
+        private boolean readThrough = false;
+        private long maxEntries = 0;
+        private long maxBytes = 0;
+        private boolean offHeap = false;
+
+        /**
+         * Connects through {@code ds}. Flushes reuse prepared statements only
+         * through a {@link PooledDataSource}'s statement cache; with any other
+         * DataSource they are prepared again on every flush, unless the
+         * DataSource caches statements itself.
+         */
         public Builder dataSource(DataSource ds) {
             this.dataSource = ds;
             return this;
         }
 
+        /**
+         * Connects through a built-in {@link PooledDataSource}. Ignored if
+         * {@link #dataSource} is also set.
+         */
+        public Builder jdbcUrl(String url, String user, String password) {
+            this.jdbcUrl = Objects.requireNonNull(url);
+            this.jdbcUser = user;
+            this.jdbcPassword = password;
+            return this;
+        }
+
+        /** Connections in the built-in pool used with {@link #jdbcUrl}. */
+        public Builder poolSize(int connections) {
+            this.poolSize = connections;
+            return this;
+        }
+
+        /** How long a row stays cached after its last write. */
         public Builder ttlSeconds(long seconds) {
             this.ttlMillis = seconds * 1000;
             return this;
         }
 
+        /**
+         * Writes changed rows to the database this long after they first
+         * change, then keeps them cached as clean rows until {@link #ttlSeconds}
+         * (or {@link #maxEntries}) removes them. This bounds how far the
+         * database lags behind without shortening how long rows stay cached.
+         * 0, the default, writes rows back only when they leave the cache.
+         * Not supported with {@link #offHeap}.
+         */
+        public Builder writeBehindMillis(long millis) {
+            this.writeBehindMillis = millis;
+            return this;
+        }
+
         public Builder dashboard(boolean enabled) {
             this.dashboardEnabled = enabled;
             return this;
@@ -173,24 +756,214 @@ public final class CacheDB {
             return this;
         }
 
+        /**
+         * Concurrent writers share one WAL fsync instead of paying one each.
+         * Every write is still durable before set/delete returns.
+         */
+        public Builder groupCommit(boolean enabled) {
+            this.groupCommit = enabled;
+            return this;
+        }
+
+        /** Max records written together in one group commit. */
+        public Builder commitBatchSize(int records) {
+            this.commitBatchSize = records;
+            return this;
+        }
+
+        /** How long a group commit waits for more writers before syncing. */
+        public Builder commitWaitMicros(long micros) {
+            this.commitWaitMicros = micros;
+            return this;
+        }
+
+        /** WAL durability for every table without its own setting. */
+        public Builder durability(Durability durability) {
+            this.durability = Objects.requireNonNull(durability);
+            return this;
+        }
+
+        /** WAL durability for one table, e.g. counters that can lose a few ms. */
+        public Builder durability(String table, Durability durability) {
+            this.tableDurability.put(
+                    Objects.requireNonNull(table),
+                    Objects.requireNonNull(durability));
+            return this;
+        }
+
+        /** Background fsync period for {@link Durability#INTERVAL}. */
+        public Builder syncIntervalMillis(long millis) {
+            this.syncIntervalMillis = millis;
+            return this;
+        }
+
+        /** Size at which a WAL segment file is closed and a new one started. */
+        public Builder walSegmentBytes(long bytes) {
+            this.walSegmentBytes = bytes;
+            return this;
+        }
+
+        /** Max mutations written to the database in one batched transaction. */
+        public Builder flushBatchSize(int mutations) {
+            this.flushBatchSize = mutations;
+            return this;
+        }
+
+        /** How long a flush thread waits for a batch to fill before writing it. */
+        public Builder flushBatchWaitMillis(long millis) {
+            this.flushBatchWaitMillis = millis;
+            return this;
+        }
+
+        /**
+         * Threads writing to the database, each on its own connection. Rows
+         * are split between them by key, so one row's writes stay in order
+         * while a slow statement only holds up the rows behind it.
+         */
+        public Builder flushWorkers(int workers) {
+            this.flushWorkers = workers;
+            return this;
+        }
+
+        /**
+         * Times the database may reject a row's write (a constraint
+         * violation, say) before the row is parked in the dead-letter file;
+         * see {@link CacheDB#replayDeadLetters}. 1 means no retry: the first
+         * rejection of the row on its own parks it (a failed batch is first
+         * retried row by row). Writes that fail because the database is
+         * unreachable don't count.
+         */
+        public Builder flushMaxAttempts(int attempts) {
+            if (attempts < 1) {
+                throw new IllegalArgumentException("flushMaxAttempts must be >= 1");
+            }
+            this.flushMaxAttempts = attempts;
+            return this;
+        }
+
+        /**
+         * Largest multi-row INSERT or DELETE a flush sends, estimated with
+         * the values inlined. Keep it under the server's max_allowed_packet.
+         */
+        public Builder flushMaxStatementBytes(long bytes) {
+            this.flushMaxStatementBytes = bytes;
+            return this;
+        }
+
+        /**
+         * Delay before the first retry of a failed write, doubling with each
+         * further failure up to 30 s. Also how long flushing first pauses
+         * once the database is found unreachable.
+         */
+        public Builder flushRetryBackoffMillis(long millis) {
+            this.flushRetryBackoffMillis = millis;
+            return this;
+        }
+
+        /**
+         * Ceiling on rows written but not yet flushed to the database. From
+         * 80% of it the oldest dirty rows are flushed early, and writes are
+         * slowed down a little while the database is unreachable; at the
+         * ceiling they wait for flushes to catch up, up to
+         * {@link #backpressureTimeoutMillis}, then fail with
+         * {@link BacklogFullException}. 0 means no limit.
+         */
+        public Builder maxDirtyRows(long rows) {
+            this.maxDirtyRows = rows;
+            return this;
+        }
+
+        /** Like {@link #maxDirtyRows}, by the rows' WAL record size. 0 means no limit. */
+        public Builder maxDirtyBytes(long bytes) {
+            this.maxDirtyBytes = bytes;
+            return this;
+        }
+
+        /** How long a write waits at the dirty backlog ceiling before it is rejected. */
+        public Builder backpressureTimeoutMillis(long millis) {
+            this.backpressureTimeoutMillis = millis;
+            return this;
+        }
+
+        /**
+         * Most rows kept in memory; beyond it the least valuable ones are
+         * evicted (dirty rows are flushed first). 0 means no limit.
+         */
+        public Builder maxEntries(long entries) {
+            this.maxEntries = entries;
+            return this;
+        }
+
+        /** Like {@link #maxEntries}, by estimated heap bytes. 0 means no limit. */
+        public Builder maxBytes(long bytes) {
+            this.maxBytes = bytes;
+            return this;
+        }
+
+        /**
+         * Keeps cached rows in direct memory ({@link OffHeapCacheStore})
+         * instead of as heap objects, for caches large enough that GC pauses
+         * hurt. With a limit set, the oldest rows are evicted first.
+         */
+        public Builder offHeap(boolean enabled) {
+            this.offHeap = enabled;
+            return this;
+        }
+
+        /** On a miss, get() loads the row from the database and caches it. */
+        public Builder readThrough(boolean enabled) {
+            this.readThrough = enabled;
+            return this;
+        }
+
         public CacheDB build() throws IOException {
+            if (dataSource == null && jdbcUrl != null) {
+                PooledDataSource.Options poolOptions = new PooledDataSource.Options();
+                poolOptions.maxSize = poolSize;
+                dataSource = new PooledDataSource(
+                        jdbcUrl, jdbcUser, jdbcPassword, poolOptions);
+            }
             Objects.requireNonNull(dataSource);
+            if (offHeap && writeBehindMillis > 0) {
+                throw new IllegalStateException("writeBehindMillis is not supported with offHeap");
+            }
 
             SchemaRegistry schemaRegistry =
                     new SchemaRegistry(dataSource);
 
-            CacheStore store = new CacheStore(ttlMillis);
-
+            CacheStore store = offHeap
+                    ? new OffHeapCacheStore(ttlMillis, schemaRegistry, maxEntries, maxBytes,
+                            OffHeapCacheStore.DEFAULT_SLAB_BYTES)
+                    : new CacheStore(ttlMillis, schemaRegistry, maxEntries, maxBytes);
+
+            FlushManager.Options flushOptions = new FlushManager.Options();
+            flushOptions.maxBatchSize = flushBatchSize;
+            flushOptions.maxBatchWaitMillis = flushBatchWaitMillis;
+            flushOptions.workers = flushWorkers;
+            flushOptions.maxStatementBytes = flushMaxStatementBytes;
+            flushOptions.maxAttempts = flushMaxAttempts;
+            flushOptions.retryBackoffMillis = flushRetryBackoffMillis;
+            flushOptions.deadLetterPath = WAL_DIR.resolve("dead-letter.log");
             FlushManager flushManager =
-                    new FlushManager(dataSource, schemaRegistry);
+                    new FlushManager(dataSource, schemaRegistry, flushOptions);
 
             ExpirationManager expirationManager =
                     new ExpirationManager(store, flushManager);
+            store.onEvict(expirationManager::flush);
+            store.writeBehind(writeBehindMillis);
+
+            RowLoader loader = null;
+            if (readThrough) {
+                loader = new RowLoader(dataSource, schemaRegistry, store);
+                store.trackFlushing(true);
+                flushManager.onFlushed(store::flushed);
+            }
 
-            new Thread(flushManager, "flush-thread").start();
+            flushManager.start();
             new Thread(expirationManager, "expiration-thread").start();
 
-            CacheDB cacheDB = new CacheDB(store, expirationManager, null);
+            CacheDB cacheDB = new CacheDB(store, expirationManager, flushManager, loader, null,
+                    schemaRegistry, this);
             
             if (dashboardEnabled) {
                 Dashboard dashboard = new Dashboard(cacheDB, store, dashboardPort);
@@ -11,6 +11,20 @@ public class CacheEntry {
     public long version;
     public boolean dirty;
 
+    // increments not yet flushed, written as "col = col + ?" instead of the
+    // row; null unless every change since the last flush was an increment
+    public Map<String, Long> deltas;
+
+    // oldest WAL record not yet flushed for this row, 0 when clean
+    public long pendingLsn;
+
+    // newest WAL record applied to this row; an older one arriving late
+    // (from setAsync or deleteAsync) is dropped
+    public long appliedLsn;
+
+    // expiration timer and eviction-order node, set by CacheStore
+    CacheStore.Node node;
+
     public CacheEntry(Map<String, Object> pk,
                       Map<String, Object> columns,
                       long expiresAt) {
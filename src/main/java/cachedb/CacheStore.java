@@ -1,78 +1,895 @@
 package cachedb;
 
+import java.math.BigDecimal;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.LongConsumer;
+import java.util.function.LongSupplier;
 
 public class CacheStore {
 
-    private final long ttlMillis;
+    /** Resolution of TTL expiration. */
+    public static final long EXPIRATION_TICK_MILLIS = 100;
 
-    // table → keyHash → entry
-    private final Map<String, Map<String, CacheEntry>> store =
+    final long ttlMillis;
+    private final SchemaRegistry schemaRegistry;
+
+    // table → key → entry; a LongKeyMap for single integral key tables
+    private final Map<String, Map<RowKey, CacheEntry>> store =
+            new ConcurrentHashMap<>();
+
+    // table → primary key layout from its schema, once that has loaded
+    private final Map<String, KeyLayout> layouts =
+            new ConcurrentHashMap<>();
+    private final Map<String, KeyLayout> fallbackLayouts =
+            new ConcurrentHashMap<>();
+
+    // table → column ordinals that rows are stored in, likewise
+    private final Map<String, RowLayout> rowLayouts =
+            new ConcurrentHashMap<>();
+    private final Map<String, RowLayout> fallbackRowLayouts =
             new ConcurrentHashMap<>();
 
+    // one timer per entry, scheduled when the entry is created; a later
+    // write only moves expiresAt and the timer re-arms when it fires early
+    private final TimerWheel<Node> expirations =
+            new TimerWheel<>(EXPIRATION_TICK_MILLIS, System.currentTimeMillis());
+
+    // dirty entries that expired but whose flush hasn't committed yet, so a
+    // read-through load never returns the older database row in between
+    private final Map<String, Map<RowKey, CacheEntry>> flushing =
+            new ConcurrentHashMap<>();
+    private volatile boolean trackFlushing;
+
+    // dirty entries by when they are due for write-behind; unused at 0
+    private final TimerWheel<Node> flushes =
+            new TimerWheel<>(EXPIRATION_TICK_MILLIS, System.currentTimeMillis());
+    private volatile long writeBehindMillis;
+
+    // dirty entries by the WAL record they pin, oldest first, so the rows
+    // holding the backlog's low-water mark can be written back early
+    private final ConcurrentSkipListMap<Long, Node> pinning = new ConcurrentSkipListMap<>();
+    private volatile boolean trackPinning;
+
+    private final TinyLfuPolicy policy; // null when unbounded
+    volatile BiConsumer<String, CacheEntry> evictionHandler = (table, entry) -> {};
+
+    /** Told under the row's lock when a write's WAL record is covered by the row's pending one. */
+    interface CoverHandler {
+        void covered(long lsn, long pendingLsn);
+    }
+
+    volatile CoverHandler coverHandler = (lsn, pendingLsn) -> {};
+
+    // each new entry starts its versions in a fresh range, so a row that is
+    // cached again after expiring never repeats a version a caller holds
+    private final AtomicLong generations = new AtomicLong();
+
+    final LongAdder hits = new LongAdder();
+    final LongAdder misses = new LongAdder();
+    final LongAdder evictions = new LongAdder();
+
     public CacheStore(long ttlMillis) {
+        this(ttlMillis, null);
+    }
+
+    public CacheStore(long ttlMillis, SchemaRegistry schemaRegistry) {
+        this(ttlMillis, schemaRegistry, 0, 0);
+    }
+
+    /**
+     * @param maxEntries most entries kept before evicting; 0 for no limit
+     * @param maxBytes   most estimated bytes kept before evicting; 0 for no limit
+     */
+    public CacheStore(long ttlMillis,
+                      SchemaRegistry schemaRegistry,
+                      long maxEntries,
+                      long maxBytes) {
         this.ttlMillis = ttlMillis;
+        this.schemaRegistry = schemaRegistry;
+        this.policy = (maxEntries > 0 || maxBytes > 0)
+                ? new TinyLfuPolicy(maxEntries, maxBytes)
+                : null;
+    }
+
+    /**
+     * Receives every entry evicted for space. Dirty entries must be flushed
+     * by the handler; the store drops them right after.
+     */
+    public void onEvict(BiConsumer<String, CacheEntry> handler) {
+        this.evictionHandler = handler;
     }
 
     public void upsert(String table,
                        Map<String, Object> pk,
                        Map<String, Object> columns) {
+        upsert(table, pk, columns, 0);
+    }
+
+    /**
+     * Stores a row written to the WAL at {@code lsn}.
+     *
+     * @return true if the entry keeps {@code lsn} as its oldest unflushed
+     *         record; false if an older pending record already covers it
+     */
+    public boolean upsert(String table,
+                          Map<String, Object> pk,
+                          Map<String, Object> columns,
+                          long lsn) {
+        return upsert(table, pk, columns, () -> lsn);
+    }
+
+    /**
+     * Stores a row. {@code log} is called under the row's lock and returns
+     * the WAL LSN of the write, so two writes to the row are applied in the
+     * order they were logged. A write older than the last one applied to
+     * the row (logged before it but arriving after) is dropped.
+     *
+     * @return true if the entry keeps the logged LSN as its oldest unflushed
+     *         record; false if an older pending record already covers it,
+     *         or the write was dropped
+     */
+    public boolean upsert(String table,
+                          Map<String, Object> pk,
+                          Map<String, Object> columns,
+                          LongSupplier log) {
+
+        RowKey key = key(table, pk);
+        long now = System.currentTimeMillis();
+        boolean[] owned = new boolean[1];
+        CompactRow row = compact(table, columns);
+
+        CacheEntry stored = tableFor(table)
+                .compute(key, (k, existing) -> {
+                    long lsn = log.getAsLong();
+                    if (existing == null) {
+                        CacheEntry entry = new CacheEntry(compact(table, pk), row, now + ttlMillis);
+                        entry.pendingLsn = lsn;
+                        entry.appliedLsn = lsn;
+                        owned[0] = true;
+                        track(table, k, entry);
+                        return entry;
+                    }
+                    if (lsn < existing.appliedLsn && lsn != 0) {
+                        return existing;
+                    }
+                    existing.appliedLsn = lsn;
+                    existing.columns = row;
+                    existing.deltas = null; // the row's values replace any increments
+                    existing.version++;
+                    dirtied(existing, now);
+                    existing.expiresAt = now + ttlMillis;
+                    if (existing.pendingLsn == 0) {
+                        pendingFrom(existing, lsn);
+                        owned[0] = true;
+                    } else {
+                        coverHandler.covered(lsn, existing.pendingLsn);
+                    }
+                    return existing;
+                });
+        resize(stored);
+        return owned[0];
+    }
+
+    /**
+     * Adds {@code delta} to a numeric column under the row's lock, for the
+     * WAL record at {@code lsn}. A missing or null column counts as 0.
+     *
+     * @return true if the entry keeps {@code lsn} as its oldest unflushed
+     *         record; false if an older pending record already covers it
+     * @throws IllegalArgumentException if the cached value isn't a number
+     */
+    public boolean increment(String table,
+                             Map<String, Object> pk,
+                             String column,
+                             long delta,
+                             long lsn) {
+        return increment(table, pk, column, delta, () -> lsn);
+    }
+
+    /**
+     * Adds {@code delta} to a numeric column under the row's lock. A missing
+     * or null column counts as 0. {@code log} is called under the lock once
+     * the cached value has been checked and returns the WAL LSN of the
+     * increment, so a rejected increment never reaches the WAL.
+     *
+     * Increments to a row whose values are being written anyway just change
+     * the cached value. Otherwise they are summed per column and flushed as
+     * one "col = col + ?" update. A row that isn't cached keeps only those
+     * sums and reads as a miss until it is loaded.
+     *
+     * @return true if the entry keeps the logged LSN as its oldest unflushed
+     *         record; false if an older pending record already covers it
+     * @throws IllegalArgumentException if the cached value isn't a number
+     */
+    public boolean increment(String table,
+                             Map<String, Object> pk,
+                             String column,
+                             long delta,
+                             LongSupplier log) {
 
-        String keyHash = hash(pk);
+        RowKey key = key(table, pk);
         long now = System.currentTimeMillis();
+        boolean[] owned = new boolean[1];
 
-        store.computeIfAbsent(table, t -> new ConcurrentHashMap<>())
-                .compute(keyHash, (k, existing) -> {
+        CacheEntry stored = tableFor(table)
+                .compute(key, (k, existing) -> {
                     if (existing == null) {
-                        return new CacheEntry(pk, columns, now + ttlMillis);
+                        long lsn = log.getAsLong();
+                        CacheEntry entry = new CacheEntry(compact(table, pk), null, now + ttlMillis);
+                        entry.deltas = new LinkedHashMap<>();
+                        entry.deltas.put(column, delta);
+                        entry.pendingLsn = lsn;
+                        entry.appliedLsn = lsn;
+                        owned[0] = true;
+                        track(table, k, entry);
+                        return entry;
+                    }
+
+                    boolean deleted = existing.columns == null && existing.deltas == null;
+                    CompactRow row = null;
+                    if (deleted) {
+                        // after a delete the row starts again from 0
+                        row = compact(table, Map.of(column, delta));
+                    } else if (existing.columns != null) {
+                        CompactRow current = compact(table, existing.columns);
+                        row = current.with(column, add(column, current.get(column), delta));
+                    }
+
+                    long lsn = log.getAsLong();
+                    existing.appliedLsn = lsn;
+                    if (row != null) {
+                        existing.columns = row;
+                    }
+                    if (!deleted && (!existing.dirty || existing.deltas != null)) {
+                        if (existing.deltas == null) existing.deltas = new LinkedHashMap<>();
+                        existing.deltas.merge(column, delta, Long::sum);
                     }
-                    existing.columns = columns;
                     existing.version++;
-                    existing.dirty = true;
+                    dirtied(existing, now);
                     existing.expiresAt = now + ttlMillis;
+                    if (existing.pendingLsn == 0) {
+                        pendingFrom(existing, lsn);
+                        owned[0] = true;
+                    } else {
+                        coverHandler.covered(lsn, existing.pendingLsn);
+                    }
                     return existing;
                 });
+        resize(stored);
+        return owned[0];
+    }
+
+    static Object add(String column, Object value, long delta) {
+        if (value == null) return delta;
+        if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            long sum = ((Number) value).longValue() + delta;
+            return (sum == (int) sum) ? (Object) (int) sum : (Object) sum;
+        }
+        if (value instanceof Long) return Math.addExact((Long) value, delta);
+        if (value instanceof Double || value instanceof Float) {
+            return ((Number) value).doubleValue() + delta;
+        }
+        if (value instanceof BigDecimal) return ((BigDecimal) value).add(BigDecimal.valueOf(delta));
+        throw new IllegalArgumentException(
+                "Cannot increment non-numeric column " + column + ": " + value);
+    }
+
+    /**
+     * Replaces the row's columns if its version is still
+     * {@code expectedVersion}, where 0 expects the row not to be cached (or
+     * to be deleted). {@code log} is called under the row's lock only once
+     * the check passes and returns the WAL LSN of the write, so a failed
+     * attempt never reaches the WAL. If an older pending record already
+     * covers the row, the LSN is handed to {@code unowned}.
+     *
+     * @return true if the row was replaced
+     */
+    public boolean compareAndSet(String table,
+                                 Map<String, Object> pk,
+                                 long expectedVersion,
+                                 Map<String, Object> columns,
+                                 LongSupplier log,
+                                 LongConsumer unowned) {
+
+        RowKey key = key(table, pk);
+        long now = System.currentTimeMillis();
+        boolean[] replaced = new boolean[1];
+        CompactRow row = compact(table, columns);
+
+        CacheEntry stored = tableFor(table)
+                .compute(key, (k, existing) -> {
+                    long current = (existing == null || existing.columns == null)
+                            ? 0
+                            : existing.version;
+                    if (current != expectedVersion) {
+                        return existing;
+                    }
+
+                    long lsn = log.getAsLong();
+                    replaced[0] = true;
+                    if (existing == null) {
+                        CacheEntry entry = new CacheEntry(compact(table, pk), row, now + ttlMillis);
+                        entry.pendingLsn = lsn;
+                        entry.appliedLsn = lsn;
+                        track(table, k, entry);
+                        return entry;
+                    }
+                    existing.appliedLsn = lsn;
+                    existing.columns = row;
+                    existing.deltas = null;
+                    existing.version++;
+                    dirtied(existing, now);
+                    existing.expiresAt = now + ttlMillis;
+                    if (existing.pendingLsn == 0) {
+                        pendingFrom(existing, lsn);
+                    } else {
+                        coverHandler.covered(lsn, existing.pendingLsn);
+                        unowned.accept(lsn);
+                    }
+                    return existing;
+                });
+        if (replaced[0]) {
+            resize(stored);
+        }
+        return replaced[0];
+    }
+
+    /**
+     * The cached row and its version, read together under the row's lock;
+     * null if the row isn't cached or is deleted.
+     */
+    public VersionedRow getWithVersion(String table, Map<String, Object> pk) {
+        VersionedRow row = snapshot(table, pk);
+        if (row == null) {
+            misses.increment();
+        } else {
+            hits.increment();
+        }
+        return row;
+    }
+
+    // getWithVersion without counting a hit or miss
+    VersionedRow snapshot(String table, Map<String, Object> pk) {
+        Map<RowKey, CacheEntry> tableMap = store.get(table);
+        if (tableMap == null) return null;
+
+        VersionedRow[] row = new VersionedRow[1];
+        tableMap.computeIfPresent(key(table, pk), (k, entry) -> {
+            if (entry.columns != null) {
+                row[0] = new VersionedRow(entry.columns, entry.version);
+                if (policy != null && entry.node != null) {
+                    policy.recordRead(entry.node);
+                }
+            }
+            return entry;
+        });
+        return row[0];
     }
 
     public Map<String, Object> get(String table, Map<String, Object> pk) {
-        Map<String, CacheEntry> tableMap = store.get(table);
+        Map<RowKey, CacheEntry> tableMap = store.get(table);
         if (tableMap == null) return null;
 
-        CacheEntry entry = tableMap.get(hash(pk));
-        if (entry == null) return null;
+        return read(tableMap.get(key(table, pk)));
+    }
+
+    /**
+     * Lookup by a single numeric primary key. For tables whose schema has
+     * one integral key column this doesn't allocate.
+     */
+    @SuppressWarnings("unchecked")
+    public Map<String, Object> get(String table, long id) {
+        Map<RowKey, CacheEntry> tableMap = store.get(table);
+        if (tableMap instanceof LongKeyMap) {
+            return read(((LongKeyMap<CacheEntry>) tableMap).get(id));
+        }
 
-        if (System.currentTimeMillis() > entry.expiresAt) {
+        Map<String, Object> pk = keyOf(table, id);
+        if (pk == null) {
+            misses.increment();
             return null;
         }
+        return get(table, pk);
+    }
+
+    private Map<String, Object> read(CacheEntry entry) {
+        // a tombstone or pending increments alone have no row to show
+        if (entry == null || System.currentTimeMillis() > entry.expiresAt
+                || entry.columns == null) {
+            misses.increment();
+            return null;
+        }
+
+        hits.increment();
+        if (policy != null && entry.node != null) {
+            policy.recordRead(entry.node);
+        }
         return entry.columns;
     }
 
+    /** True for an entry holding only increments to a row that was never loaded. */
+    static boolean isDeltaOnly(CacheEntry entry) {
+        return entry.columns == null && entry.deltas != null;
+    }
+
+    /**
+     * The entry for a row if one is cached or still waiting to be flushed,
+     * expired or not. A tombstone has null columns.
+     */
+    public CacheEntry lookup(String table, Map<String, Object> pk) {
+        RowKey key = key(table, pk);
+
+        Map<RowKey, CacheEntry> tableMap = store.get(table);
+        CacheEntry entry = (tableMap == null) ? null : tableMap.get(key);
+        if (entry != null) return entry;
+
+        return pendingFlush(table, key);
+    }
+
+    // an entry that left the store dirty and whose flush hasn't committed
+    CacheEntry pendingFlush(String table, RowKey key) {
+        Map<RowKey, CacheEntry> pending = flushing.get(table);
+        return (pending == null) ? null : pending.get(key);
+    }
+
+    /**
+     * Caches a row read from the database as a clean entry. A write that
+     * got in first wins; increments that got in first are added to it.
+     *
+     * @return the row now cached, or null if it is a pending delete
+     */
+    public Map<String, Object> load(String table,
+                                    Map<String, Object> pk,
+                                    Map<String, Object> columns) {
+        RowKey key = key(table, pk);
+        long now = System.currentTimeMillis();
+        CompactRow row = compact(table, columns);
+
+        boolean[] grown = new boolean[1];
+
+        CacheEntry entry = tableFor(table)
+                .compute(key, (k, existing) -> {
+                    if (existing != null && isDeltaOnly(existing)) {
+                        CompactRow merged = row;
+                        for (Map.Entry<String, Long> d : existing.deltas.entrySet()) {
+                            merged = merged.with(d.getKey(),
+                                    add(d.getKey(), merged.get(d.getKey()), d.getValue()));
+                        }
+                        existing.columns = merged;
+                        grown[0] = true;
+                        return existing;
+                    }
+                    if (existing != null) {
+                        return existing;
+                    }
+                    CacheEntry loaded = new CacheEntry(compact(table, pk), row, now + ttlMillis);
+                    loaded.dirty = false;
+                    track(table, k, loaded);
+                    grown[0] = true;
+                    return loaded;
+                });
+        Map<String, Object> cached = entry.columns;
+        if (grown[0]) {
+            resize(entry);
+        }
+        return cached;
+    }
+
     public boolean delete(String table, Map<String, Object> pk) {
-        Map<String, CacheEntry> tableMap = store.get(table);
+        return delete(table, pk, 0);
+    }
+
+    /**
+     * Marks a row deleted by the WAL record at {@code lsn}. Rows that are not
+     * cached get a tombstone so the delete still reaches the database.
+     *
+     * @return true if the entry keeps {@code lsn} as its oldest unflushed
+     *         record; false if an older pending record already covers it
+     */
+    public boolean delete(String table, Map<String, Object> pk, long lsn) {
+        return delete(table, pk, () -> lsn);
+    }
+
+    /**
+     * Marks a row deleted; {@code log} is called under the row's lock and
+     * returns the WAL LSN of the delete. As for {@link #upsert}, a delete
+     * older than the row's last applied write is dropped.
+     */
+    public boolean delete(String table, Map<String, Object> pk, LongSupplier log) {
+        RowKey key = key(table, pk);
+        long now = System.currentTimeMillis();
+        boolean[] owned = new boolean[1];
+
+        CacheEntry stored = tableFor(table)
+                .compute(key, (k, existing) -> {
+                    long lsn = log.getAsLong();
+                    if (existing == null) {
+                        CacheEntry tombstone = new CacheEntry(compact(table, pk), null, now + ttlMillis);
+                        tombstone.pendingLsn = lsn;
+                        tombstone.appliedLsn = lsn;
+                        owned[0] = true;
+                        track(table, k, tombstone);
+                        return tombstone;
+                    }
+                    if (lsn < existing.appliedLsn && lsn != 0) {
+                        return existing;
+                    }
+                    existing.appliedLsn = lsn;
+                    // Mark as deleted but keep entry for flushing
+                    existing.columns = null;
+                    existing.deltas = null;
+                    dirtied(existing, now);
+                    existing.version++;
+                    if (existing.pendingLsn == 0) {
+                        pendingFrom(existing, lsn);
+                        owned[0] = true;
+                    } else {
+                        coverHandler.covered(lsn, existing.pendingLsn);
+                    }
+                    return existing;
+                });
+        resize(stored);
+        return owned[0];
+    }
+
+    public Map<String, Map<RowKey, CacheEntry>> raw() {
+        return store;
+    }
+
+    /**
+     * Removes every entry whose TTL has passed by {@code now}, handing each
+     * one to {@code onExpired} while its key is still locked. Only the
+     * expiration thread may call this.
+     */
+    public void expire(long now, BiConsumer<String, CacheEntry> onExpired) {
+        expirations.advance(now, node -> {
+            Map<RowKey, CacheEntry> tableMap = store.get(node.table);
+            if (tableMap == null) return;
+
+            boolean[] removed = new boolean[1];
+            tableMap.computeIfPresent(node.key, (k, entry) -> {
+                if (entry != node.entry) {
+                    return entry; // replaced since; the new entry has its own timer
+                }
+                if (entry.expiresAt > now) {
+                    expirations.schedule(node, entry.expiresAt);
+                    return entry;
+                }
+                retire(node.table, k, entry, onExpired);
+                removed[0] = true;
+                return null;
+            });
+            if (removed[0] && policy != null) {
+                policy.remove(node);
+            }
+        });
+    }
+
+    // last step before an entry leaves the map, under its key's lock
+    void retire(String table,
+                        RowKey key,
+                        CacheEntry entry,
+                        BiConsumer<String, CacheEntry> handler) {
+        unpin(entry);
+        if (trackFlushing && entry.dirty) {
+            flushing.computeIfAbsent(table, t -> new ConcurrentHashMap<>())
+                    .put(key, entry);
+        }
+        handler.accept(table, entry);
+    }
+
+    // tells the eviction policy about a new or resized entry, then evicts
+    private void resize(CacheEntry entry) {
+        if (policy == null || entry.node == null) return;
+
+        List<Node> victims = policy.record(entry.node, estimateBytes(entry));
+
+        for (Node victim : victims) {
+            Map<RowKey, CacheEntry> tableMap = store.get(victim.table);
+            if (tableMap == null) continue;
+
+            tableMap.computeIfPresent(victim.key, (k, e) -> {
+                if (e != victim.entry) return e;
+                retire(victim.table, k, e, evictionHandler);
+                evictions.increment();
+                return null;
+            });
+        }
+    }
+
+    /**
+     * Writes rows back this long after they first change instead of when
+     * they leave the cache; see {@link #flushDue}. 0 (the default) turns
+     * write-behind off. Set before any rows are written.
+     */
+    public void writeBehind(long delayMillis) {
+        this.writeBehindMillis = delayMillis;
+    }
+
+    /**
+     * Hands every dirty entry whose write-behind delay has passed by
+     * {@code now} to {@code onDue}, under its key's lock, then marks it
+     * clean and keeps it cached until its TTL. Entries holding only
+     * increments have nothing left to show once flushed and are removed.
+     * Only the expiration thread may call this.
+     */
+    public void flushDue(long now, BiConsumer<String, CacheEntry> onDue) {
+        if (writeBehindMillis <= 0) return;
+
+        flushes.advance(now, node -> writeBack(node, onDue));
+    }
+
+    /**
+     * Writes back the dirty entries holding the {@code max} oldest unflushed
+     * WAL records, the way {@link #flushDue} does, whether or not their
+     * write-behind delay has passed. Needs {@link #trackWriteBack}; may be
+     * called from any thread.
+     *
+     * @return how many entries were handed to {@code onDue}
+     */
+    public int writeBackOldest(int max, BiConsumer<String, CacheEntry> onDue) {
+        int handed = 0;
+        while (handed < max) {
+            Map.Entry<Long, Node> oldest = pinning.pollFirstEntry();
+            if (oldest == null) break;
+            if (writeBack(oldest.getValue(), onDue)) handed++;
+        }
+        return handed;
+    }
+
+    /** Keeps dirty entries in WAL order for {@link #writeBackOldest}. Set before any rows are written. */
+    void trackWriteBack(boolean enabled) {
+        this.trackPinning = enabled;
+    }
+
+    // hands a dirty entry to onDue and keeps it cached clean; false if
+    // there was nothing to write
+    private boolean writeBack(Node node, BiConsumer<String, CacheEntry> onDue) {
+        Map<RowKey, CacheEntry> tableMap = store.get(node.table);
         if (tableMap == null) return false;
 
-        String keyHash = hash(pk);
-        CacheEntry entry = tableMap.get(keyHash);
-        if (entry == null) return false;
+        boolean[] written = new boolean[1];
+        boolean[] removed = new boolean[1];
+        tableMap.computeIfPresent(node.key, (k, entry) -> {
+            if (entry != node.entry || !entry.dirty) {
+                return entry;
+            }
+            written[0] = true;
+            if (isDeltaOnly(entry)) {
+                retire(node.table, k, entry, onDue);
+                removed[0] = true;
+                return null;
+            }
+            onDue.accept(node.table, entry);
+            unpin(entry);
+            entry.dirty = false;
+            entry.deltas = null;
+            entry.pendingLsn = 0; // the flush releases it once committed
+            return entry;
+        });
+        if (removed[0] && policy != null) {
+            policy.remove(node);
+        }
+        return written[0];
+    }
+
+    // the entry now holds the row's oldest unflushed WAL record
+    private void pendingFrom(CacheEntry entry, long lsn) {
+        entry.pendingLsn = lsn;
+        if (trackPinning && lsn > 0) {
+            pinning.put(lsn, entry.node);
+        }
+    }
+
+    private void unpin(CacheEntry entry) {
+        if (trackPinning && entry.pendingLsn > 0) {
+            pinning.remove(entry.pendingLsn, entry.node);
+        }
+    }
 
-        // Mark as deleted but keep entry for flushing
-        entry.columns = null;
+    // starts the write-behind delay on the first write since the last flush
+    private void dirtied(CacheEntry entry, long now) {
+        if (!entry.dirty && writeBehindMillis > 0) {
+            flushes.schedule(entry.node, now + writeBehindMillis);
+        }
         entry.dirty = true;
-        entry.version++;
-        return true;
     }
 
-    public Map<String, Map<String, CacheEntry>> raw() {
-        return store;
+    /** Keeps expired dirty entries visible to {@link #lookup} until {@link #flushed}. */
+    void trackFlushing(boolean enabled) {
+        this.trackFlushing = enabled;
+    }
+
+    /** Called once a mutation has been committed to the database. */
+    public void flushed(RowMutation m) {
+        Map<RowKey, CacheEntry> pending = flushing.get(m.table);
+        if (pending == null) return;
+
+        // the LSN identifies which expired entry this mutation came from
+        pending.computeIfPresent(key(m.table, m.primaryKey),
+                (k, entry) -> entry.pendingLsn == m.lsn ? null : entry);
     }
 
-    private String hash(Map<String, Object> pk) {
-        return pk.entrySet()
-                .stream()
-                .sorted(Map.Entry.comparingByKey())
-                .map(e -> e.getKey() + "=" + e.getValue())
-                .reduce((a, b) -> a + "|" + b)
-                .orElse("");
+    /** Entries waiting for their TTL. */
+    public int scheduledExpirations() {
+        return expirations.size();
+    }
+
+    public long hitCount() {
+        return hits.sum();
+    }
+
+    public long missCount() {
+        return misses.sum();
+    }
+
+    public long evictionCount() {
+        return evictions.sum();
+    }
+
+    /** Entries counted by the eviction policy; 0 when unbounded. */
+    public long boundedEntries() {
+        return policy == null ? 0 : policy.entries();
+    }
+
+    /** Estimated bytes counted by the eviction policy; 0 when unbounded. */
+    public long boundedBytes() {
+        return policy == null ? 0 : policy.bytes();
+    }
+
+    private void track(String table, RowKey key, CacheEntry entry) {
+        entry.version = firstVersion();
+        entry.node = new Node(table, key, entry);
+        expirations.schedule(entry.node, entry.expiresAt);
+        if (trackPinning && entry.pendingLsn > 0) {
+            pinning.put(entry.pendingLsn, entry.node);
+        }
+        if (entry.dirty && writeBehindMillis > 0) {
+            flushes.schedule(entry.node, System.currentTimeMillis() + writeBehindMillis);
+        }
+    }
+
+    long firstVersion() {
+        return (generations.incrementAndGet() << 32) + 1;
+    }
+
+    /** Rough heap footprint of a cached row: entry, key and both rows. */
+    static long estimateBytes(CacheEntry entry) {
+        return 160 + estimateBytes(entry.primaryKey) + estimateBytes(entry.columns)
+                + (entry.deltas == null ? 0 : 64 + 56L * entry.deltas.size());
+    }
+
+    static long estimateBytes(Map<String, Object> row) {
+        if (row == null) return 0;
+
+        if (row instanceof CompactRow) {
+            long bytes = ((CompactRow) row).shallowBytes();
+            for (Object v : row.values()) {
+                bytes += estimateBytes(v);
+            }
+            return bytes;
+        }
+
+        long bytes = 64;
+        for (Map.Entry<String, Object> e : row.entrySet()) {
+            bytes += 32 + estimateBytes(e.getKey()) + estimateBytes(e.getValue());
+        }
+        return bytes;
+    }
+
+    private static long estimateBytes(Object v) {
+        if (v == null) return 0;
+        if (v instanceof String) return 40 + ((String) v).length();
+        if (v instanceof Integer || v instanceof Short || v instanceof Byte
+                || v instanceof Boolean || v instanceof Float) return 16;
+        if (v instanceof Long || v instanceof Double) return 24;
+        if (v instanceof byte[]) return 16 + ((byte[]) v).length;
+        if (v instanceof BigDecimal) return 64;
+        return 32;
+    }
+
+    RowKey key(String table, Map<String, Object> pk) {
+        KeyLayout layout = layouts.get(table);
+        if (layout == null) {
+            layout = resolveLayout(table, pk);
+        }
+        return layout.key(pk);
+    }
+
+    /**
+     * The primary key map for {@code id}, or null if the table's key isn't
+     * known to be a single column yet.
+     */
+    Map<String, Object> keyOf(String table, long id) {
+        KeyLayout layout = layouts.get(table);
+        if (layout == null) {
+            layout = resolveLayout(table, null);
+        }
+        if (layout == null || layout.columns().size() != 1) return null;
+        return Map.of(layout.columns().get(0), id);
+    }
+
+    private Map<RowKey, CacheEntry> tableFor(String table) {
+        Map<RowKey, CacheEntry> tableMap = store.get(table);
+        if (tableMap != null) return tableMap;
+
+        return store.computeIfAbsent(table, t -> {
+            KeyLayout layout = layouts.get(t);
+            return (layout != null && layout.singleIntegral())
+                    ? new LongKeyMap<>()
+                    : new ConcurrentHashMap<>();
+        });
+    }
+
+    /** The row in the table's column-ordinal layout, as the store keeps it. */
+    CompactRow compact(String table, Map<String, Object> row) {
+        RowLayout layout = rowLayouts.get(table);
+        if (layout == null) {
+            layout = resolveRowLayout(table);
+        }
+        return layout.compact(row);
+    }
+
+    /*
+     * Layouts are cached only once the schema has loaded. Until then a
+     * table uses a fallback, and the registry asks the database again after
+     * its retry delay; the schema's layouts replace the fallbacks as soon as
+     * it answers. Rows already cached keep working: keys come out the same
+     * either way (see KeyLayout) and each CompactRow carries its own layout.
+     */
+
+    private RowLayout resolveRowLayout(String table) {
+        TableSchema schema = schema(table);
+        if (schema == null) {
+            // columns get ordinals as rows arrive
+            return fallbackRowLayouts.computeIfAbsent(table, RowLayout::empty);
+        }
+        RowLayout layout = rowLayouts.computeIfAbsent(table, t -> RowLayout.forSchema(t, schema));
+        fallbackRowLayouts.remove(table);
+        return layout;
+    }
+
+    // pk is null when only an existing layout will do
+    private KeyLayout resolveLayout(String table, Map<String, Object> pk) {
+        TableSchema schema = schema(table);
+        if (schema == null || schema.primaryKeys.isEmpty()) {
+            // the caller's key columns, until the schema has a key to go on
+            return (pk == null)
+                    ? fallbackLayouts.get(table)
+                    : fallbackLayouts.computeIfAbsent(table, t -> KeyLayout.forKey(t, pk));
+        }
+        KeyLayout layout = layouts.computeIfAbsent(table, t -> KeyLayout.forSchema(t, schema));
+        fallbackLayouts.remove(table);
+        return layout;
+    }
+
+    // null while the table's schema can't be loaded
+    private TableSchema schema(String table) {
+        return (schemaRegistry == null) ? null : schemaRegistry.tryGet(table);
+    }
+
+    static final class Node {
+        final String table;
+        final RowKey key;
+        final CacheEntry entry;
+        final int hash;
+
+        // eviction order, guarded by TinyLfuPolicy's lock
+        Node prev;
+        Node next;
+        byte queue;
+        long weight;
+
+        Node(String table, RowKey key, CacheEntry entry) {
+            this.table = table;
+            this.key = key;
+            this.entry = entry;
+            this.hash = (key == null) ? 0 : key.hashCode() * 31 + table.hashCode();
+        }
     }
 }
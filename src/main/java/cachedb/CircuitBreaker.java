@@ -0,0 +1,58 @@
+package cachedb;
+
+/**
+ * Pauses flushing while the database is unreachable, so flush workers don't
+ * spin opening connections. Opens after {@code threshold} connection
+ * failures in a row, for a period that doubles with each further failure up
+ * to {@code maxOpenMillis}. Once the period is over the next write is the
+ * probe: success closes the breaker, failure opens it again for longer.
+ */
+final class CircuitBreaker {
+
+    private final int threshold;
+    private final long baseOpenMillis;
+    private final long maxOpenMillis;
+
+    private int failures;
+    private long openUntil;
+    private long opens;
+
+    CircuitBreaker(int threshold, long baseOpenMillis, long maxOpenMillis) {
+        this.threshold = threshold;
+        this.baseOpenMillis = baseOpenMillis;
+        this.maxOpenMillis = maxOpenMillis;
+    }
+
+    /** Blocks while the breaker is open. */
+    synchronized void await() throws InterruptedException {
+        long now;
+        while ((now = System.currentTimeMillis()) < openUntil) {
+            wait(openUntil - now);
+        }
+    }
+
+    synchronized void success() {
+        failures = 0;
+    }
+
+    /** @return how long the breaker is now open for; 0 if it stays closed */
+    synchronized long failure() {
+        failures++;
+        if (failures < threshold) return 0;
+
+        long openMillis = Math.min(maxOpenMillis,
+                baseOpenMillis << Math.min(failures - threshold, 20));
+        openUntil = System.currentTimeMillis() + openMillis;
+        opens++;
+        return openMillis;
+    }
+
+    synchronized boolean isOpen() {
+        return System.currentTimeMillis() < openUntil;
+    }
+
+    /** Times the breaker has opened. */
+    synchronized long openCount() {
+        return opens;
+    }
+}
@@ -0,0 +1,253 @@
+package cachedb;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+
+/**
+ * How values for a column are held in the cache and bound to statements,
+ * chosen from the column's JDBC type.
+ *
+ * {@link #convert} only makes changes that lose nothing: "42" becomes 42 for
+ * an INT column, but "4.5" stays a String, and the database coerces or
+ * rejects it as it did before. {@link #bind} uses the typed setter for a
+ * converted value and falls back to setObject for anything else.
+ */
+public enum ColumnType {
+
+    INT {
+        @Override
+        public Object convert(Object v) {
+            if (v instanceof Integer) return v;
+            Long l = toLong(v);
+            if (l == null) return v;
+            if (l != (int) (long) l) return l; // INT UNSIGNED can exceed int
+            return (int) (long) l;
+        }
+
+        @Override
+        void set(PreparedStatement ps, int idx, Object v) throws SQLException {
+            if (v instanceof Integer) {
+                ps.setInt(idx, (Integer) v);
+            } else if (v instanceof Long) {
+                ps.setLong(idx, (Long) v);
+            } else {
+                ps.setObject(idx, v);
+            }
+        }
+    },
+
+    LONG {
+        @Override
+        public Object convert(Object v) {
+            if (v instanceof Long) return v;
+            Long l = toLong(v);
+            return (l == null) ? v : l;
+        }
+
+        @Override
+        void set(PreparedStatement ps, int idx, Object v) throws SQLException {
+            if (v instanceof Long) {
+                ps.setLong(idx, (Long) v);
+            } else {
+                ps.setObject(idx, v);
+            }
+        }
+    },
+
+    DOUBLE {
+        @Override
+        public Object convert(Object v) {
+            if (v instanceof Double) return v;
+            if (v instanceof Float || v instanceof Integer || v instanceof Short || v instanceof Byte) {
+                return ((Number) v).doubleValue();
+            }
+            if (v instanceof String) {
+                try {
+                    Double d = Double.valueOf(((String) v).trim());
+                    return d.isInfinite() ? v : d; // out of range
+                } catch (NumberFormatException e) {
+                    return v;
+                }
+            }
+            return v;
+        }
+
+        @Override
+        void set(PreparedStatement ps, int idx, Object v) throws SQLException {
+            if (v instanceof Double) {
+                ps.setDouble(idx, (Double) v);
+            } else {
+                ps.setObject(idx, v);
+            }
+        }
+    },
+
+    DECIMAL {
+        @Override
+        public Object convert(Object v) {
+            if (v instanceof BigDecimal) return v;
+            if (v instanceof Integer || v instanceof Long || v instanceof Short || v instanceof Byte) {
+                return BigDecimal.valueOf(((Number) v).longValue());
+            }
+            if (v instanceof BigInteger) return new BigDecimal((BigInteger) v);
+            if (v instanceof Double || v instanceof Float) {
+                double d = ((Number) v).doubleValue();
+                return Double.isFinite(d) ? new BigDecimal(v.toString()) : v;
+            }
+            if (v instanceof String) {
+                try {
+                    return new BigDecimal(((String) v).trim());
+                } catch (NumberFormatException e) {
+                    return v;
+                }
+            }
+            return v;
+        }
+
+        @Override
+        void set(PreparedStatement ps, int idx, Object v) throws SQLException {
+            if (v instanceof BigDecimal) {
+                ps.setBigDecimal(idx, (BigDecimal) v);
+            } else {
+                ps.setObject(idx, v);
+            }
+        }
+    },
+
+    TIMESTAMP {
+        @Override
+        public Object convert(Object v) {
+            if (v instanceof Timestamp) return v;
+            if (v instanceof java.util.Date) return new Timestamp(((java.util.Date) v).getTime());
+            if (v instanceof Instant) return Timestamp.from((Instant) v);
+            if (v instanceof LocalDateTime) return Timestamp.valueOf((LocalDateTime) v);
+            if (v instanceof String) {
+                String s = ((String) v).trim();
+                try {
+                    return s.indexOf('T') > 0
+                            ? Timestamp.valueOf(LocalDateTime.parse(s))
+                            : Timestamp.valueOf(s);
+                } catch (IllegalArgumentException | DateTimeParseException e) {
+                    return v;
+                }
+            }
+            return v;
+        }
+
+        @Override
+        void set(PreparedStatement ps, int idx, Object v) throws SQLException {
+            if (v instanceof Timestamp) {
+                ps.setTimestamp(idx, (Timestamp) v);
+            } else {
+                ps.setObject(idx, v);
+            }
+        }
+    },
+
+    STRING {
+        @Override
+        public Object convert(Object v) {
+            if (v instanceof String) return v;
+            if (v instanceof Number || v instanceof Boolean || v instanceof Character) return v.toString();
+            return v;
+        }
+
+        @Override
+        void set(PreparedStatement ps, int idx, Object v) throws SQLException {
+            if (v instanceof String) {
+                ps.setString(idx, (String) v);
+            } else {
+                ps.setObject(idx, v);
+            }
+        }
+    },
+
+    /** Anything else (dates, binary, bits, unknown columns): left as is, bound with setObject. */
+    OTHER {
+        @Override
+        public Object convert(Object v) {
+            return v;
+        }
+
+        @Override
+        void set(PreparedStatement ps, int idx, Object v) throws SQLException {
+            ps.setObject(idx, v);
+        }
+    };
+
+    public static ColumnType of(int sqlType) {
+        switch (sqlType) {
+            case Types.TINYINT:
+            case Types.SMALLINT:
+            case Types.INTEGER:
+                return INT;
+            case Types.BIGINT:
+                return LONG;
+            case Types.REAL:
+            case Types.FLOAT:
+            case Types.DOUBLE:
+                return DOUBLE;
+            case Types.DECIMAL:
+            case Types.NUMERIC:
+                return DECIMAL;
+            case Types.TIMESTAMP:
+                return TIMESTAMP;
+            case Types.CHAR:
+            case Types.VARCHAR:
+            case Types.LONGVARCHAR:
+            case Types.NCHAR:
+            case Types.NVARCHAR:
+            case Types.LONGNVARCHAR:
+                return STRING;
+            default:
+                return OTHER;
+        }
+    }
+
+    /** The value as this column type holds it, or {@code v} itself if it can't be converted exactly. */
+    public abstract Object convert(Object v);
+
+    abstract void set(PreparedStatement ps, int idx, Object v) throws SQLException;
+
+    /** Converts {@code v} and binds it with this type's setter; null binds as {@code sqlType}. */
+    public void bind(PreparedStatement ps, int idx, Object v, int sqlType) throws SQLException {
+        if (v == null) {
+            ps.setNull(idx, sqlType);
+        } else {
+            set(ps, idx, convert(v));
+        }
+    }
+
+    // null unless v is an integral value that fits a long
+    private static Long toLong(Object v) {
+        if (v instanceof Long || v instanceof Integer || v instanceof Short || v instanceof Byte) {
+            return ((Number) v).longValue();
+        }
+        if (v instanceof BigInteger) {
+            BigInteger b = (BigInteger) v;
+            return b.bitLength() < 64 ? b.longValue() : null;
+        }
+        if (v instanceof BigDecimal) {
+            try {
+                return ((BigDecimal) v).longValueExact();
+            } catch (ArithmeticException e) {
+                return null;
+            }
+        }
+        if (v instanceof String) {
+            try {
+                return Long.valueOf(((String) v).trim());
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        return null;
+    }
+}
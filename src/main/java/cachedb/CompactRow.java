@@ -0,0 +1,105 @@
+package cachedb;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Read-only row stored as one value per column ordinal of its table's
+ * {@link RowLayout}. Column names live once in the layout instead of in
+ * every row, and there are no per-column map nodes.
+ */
+public final class CompactRow extends AbstractMap<String, Object> {
+
+    // stands in for a column present with a null value; null means absent
+    static final Object NULL = new Object();
+
+    private final RowLayout layout;
+    private final Object[] values;
+    private final int size;
+
+    CompactRow(RowLayout layout, Object[] values, int size) {
+        this.layout = layout;
+        this.values = values;
+        this.size = size;
+    }
+
+    RowLayout layout() {
+        return layout;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean containsKey(Object column) {
+        int i = layout.ordinal(column);
+        return i >= 0 && i < values.length && values[i] != null;
+    }
+
+    @Override
+    public Object get(Object column) {
+        int i = layout.ordinal(column);
+        if (i < 0 || i >= values.length) return null;
+        Object v = values[i];
+        return (v == NULL) ? null : v;
+    }
+
+    @Override
+    public Set<Map.Entry<String, Object>> entrySet() {
+        return new AbstractSet<>() {
+            @Override
+            public int size() {
+                return size;
+            }
+
+            @Override
+            public Iterator<Map.Entry<String, Object>> iterator() {
+                return new Iterator<>() {
+                    private int next = advance(0);
+
+                    @Override
+                    public boolean hasNext() {
+                        return next < values.length;
+                    }
+
+                    @Override
+                    public Map.Entry<String, Object> next() {
+                        if (!hasNext()) throw new NoSuchElementException();
+                        int i = next;
+                        next = advance(i + 1);
+                        Object v = values[i];
+                        return new SimpleImmutableEntry<>(layout.name(i), v == NULL ? null : v);
+                    }
+                };
+            }
+        };
+    }
+
+    private int advance(int from) {
+        while (from < values.length && values[from] == null) from++;
+        return from;
+    }
+
+    /** A copy with {@code column} set to {@code value}; this row is unchanged. */
+    CompactRow with(String column, Object value) {
+        int i = layout.ordinal(column);
+        if (i < 0) i = layout.add(column);
+
+        boolean present = i < values.length && values[i] != null;
+        Object[] copy = Arrays.copyOf(values, Math.max(values.length, i + 1));
+        copy[i] = (value == null) ? NULL : value;
+        return new CompactRow(layout, copy, present ? size : size + 1);
+    }
+
+    /** Rough heap footprint: the object and its value array, not the values. */
+    long shallowBytes() {
+        return 24 + 16 + 4L * values.length;
+    }
+}
@@ -7,9 +7,6 @@ import com.sun.net.httpserver.HttpExchange;
 import java.io.*;
 import java.net.InetSocketAddress;
 import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
@@ -42,6 +39,11 @@ public class Dashboard {
         server.createContext("/api/stats", new StatsHandler());
         server.createContext("/api/operations", new OperationsHandler());
         server.createContext("/api/wal", new WALHandler());
+        server.createContext("/api/pool", new PoolHandler());
+        server.createContext("/api/readthrough", new ReadThroughHandler());
+        server.createContext("/api/store", new StoreHandler());
+        server.createContext("/api/flush", new FlushHandler());
+        server.createContext("/api/backlog", new BacklogHandler());
 
         server.setExecutor(Executors.newFixedThreadPool(10));
         server.start();
@@ -83,7 +85,29 @@ public class Dashboard {
     }
 
     private void updateStats() {
-        stats.updateTime = System.currentTimeMillis();
+        long now = System.currentTimeMillis();
+        long evictions = store.evictionCount();
+        long elapsed = now - stats.updateTime;
+        if (elapsed > 0) {
+            stats.evictionsPerSec = (evictions - stats.lastEvictions) * 1000.0 / elapsed;
+        }
+        stats.lastEvictions = evictions;
+
+        FlushManager flushManager = cache.flushManager();
+        int workers = flushManager.workerCount();
+        if (stats.lastFlushedRows == null) {
+            stats.lastFlushedRows = new long[workers];
+            stats.flushedRowsPerSec = new double[workers];
+        }
+        for (int i = 0; i < workers; i++) {
+            long rows = flushManager.flushedRows(i);
+            if (elapsed > 0) {
+                stats.flushedRowsPerSec[i] = (rows - stats.lastFlushedRows[i]) * 1000.0 / elapsed;
+            }
+            stats.lastFlushedRows[i] = rows;
+        }
+
+        stats.updateTime = now;
         stats.uptime = (stats.updateTime - startTime) / 1000;
     }
 
@@ -113,25 +137,147 @@ public class Dashboard {
     }
 
     private String getWALJSON() {
-        Path walPath = Paths.get("logs", "wal.log");
-        long walSize = 0;
-        boolean exists = false;
-        try {
-            if (Files.exists(walPath)) {
-                exists = true;
-                walSize = Files.size(walPath);
-            }
-        } catch (Exception e) {
-            // Ignore
-        }
+        WALWriter wal = cache.wal();
+        long walSize = wal.sizeBytes();
         return String.format(
-            "{\"exists\":%s,\"size\":%d,\"sizeFormatted\":\"%s\"}",
-            exists,
+            "{\"exists\":%s,\"size\":%d,\"sizeFormatted\":\"%s\",\"segments\":%d,\"lastLsn\":%d,\"lowWaterMark\":%d,\"durability\":\"%s\",\"tableDurability\":%s,\"fsyncCount\":%d,\"fsyncAvgMicros\":%d,\"fsyncLastMicros\":%d,\"fsyncMaxMicros\":%d}",
+            true,
             walSize,
-            formatBytes(walSize)
+            formatBytes(walSize),
+            wal.segmentCount(),
+            wal.lastLsn(),
+            wal.lowWaterMark(),
+            wal.durability(),
+            getTableDurabilityJSON(),
+            wal.fsyncCount(),
+            wal.fsyncAvgMicros(),
+            wal.fsyncLastMicros(),
+            wal.fsyncMaxMicros()
+        );
+    }
+
+    private String getPoolJSON() {
+        if (!(cache.dataSource() instanceof PooledDataSource)) {
+            // flushes prepare their statements again on every connection
+            return "{\"pooled\":false,\"statementHits\":0,\"statementMisses\":0,\"statementHitRatio\":0.000}";
+        }
+        PooledDataSource pool = (PooledDataSource) cache.dataSource();
+        return String.format(
+            "{\"pooled\":true,\"maxSize\":%d,\"active\":%d,\"idle\":%d,\"borrows\":%d,\"borrowWaitAvgMicros\":%d,\"borrowWaitMaxMicros\":%d,\"timeouts\":%d,\"created\":%d,\"evicted\":%d,\"statementHits\":%d,\"statementMisses\":%d,\"statementHitRatio\":%.3f}",
+            pool.maxSize(),
+            pool.activeCount(),
+            pool.idleCount(),
+            pool.borrowCount(),
+            pool.borrowWaitAvgMicros(),
+            pool.borrowWaitMaxMicros(),
+            pool.timeoutCount(),
+            pool.createdCount(),
+            pool.evictedCount(),
+            pool.statementCacheHits(),
+            pool.statementCacheMisses(),
+            ratio(pool.statementCacheHits(), pool.statementCacheMisses())
+        );
+    }
+
+    private String getReadThroughJSON() {
+        RowLoader loader = cache.loader();
+        if (loader == null) {
+            return "{\"enabled\":false}";
+        }
+        return String.format(
+            "{\"enabled\":true,\"loads\":%d,\"coalesced\":%d,\"failures\":%d,\"loadAvgMicros\":%d,\"loadMaxMicros\":%d}",
+            loader.loadCount(),
+            loader.coalescedCount(),
+            loader.failureCount(),
+            loader.loadAvgMicros(),
+            loader.loadMaxMicros()
         );
     }
 
+    private String getStoreJSON() {
+        long hits = store.hitCount();
+        long misses = store.missCount();
+        long lookups = hits + misses;
+        return String.format(
+            "{\"entries\":%d,\"estimatedBytes\":%d,\"hits\":%d,\"misses\":%d,\"hitRate\":%.2f,\"evictions\":%d,\"evictionsPerSec\":%.1f}",
+            store.boundedEntries(),
+            store.boundedBytes(),
+            hits,
+            misses,
+            lookups == 0 ? 0.0 : hits * 100.0 / lookups,
+            store.evictionCount(),
+            stats.evictionsPerSec
+        );
+    }
+
+    private String getFlushJSON() {
+        FlushManager flushManager = cache.flushManager();
+        double[] rowsPerSec = stats.flushedRowsPerSec;
+        double totalPerSec = 0;
+        StringBuilder perWorker = new StringBuilder("[");
+        for (int i = 0; i < flushManager.workerCount(); i++) {
+            double perSec = rowsPerSec == null ? 0 : rowsPerSec[i];
+            totalPerSec += perSec;
+            if (i > 0) perWorker.append(',');
+            perWorker.append(String.format(
+                "{\"pending\":%d,\"rows\":%d,\"batches\":%d,\"rowsPerSec\":%.1f}",
+                flushManager.pending(i),
+                flushManager.flushedRows(i),
+                flushManager.flushedBatches(i),
+                perSec
+            ));
+        }
+        perWorker.append(']');
+        return String.format(
+            "{\"workers\":%d,\"pending\":%d,\"rows\":%d,\"batches\":%d,\"statements\":%d,\"templateHits\":%d,\"templateMisses\":%d,\"templateHitRatio\":%.3f,\"coalesced\":%d,\"retries\":%d,\"deadLettered\":%d,\"circuitOpen\":%s,\"circuitOpens\":%d,\"rowsPerSec\":%.1f,\"perWorker\":%s}",
+            flushManager.workerCount(),
+            flushManager.pending(),
+            flushManager.flushedRows(),
+            flushManager.flushedBatches(),
+            flushManager.flushedStatements(),
+            flushManager.templateHits(),
+            flushManager.templateMisses(),
+            ratio(flushManager.templateHits(), flushManager.templateMisses()),
+            flushManager.coalescedCount(),
+            flushManager.retryCount(),
+            flushManager.deadLetterCount(),
+            flushManager.circuitOpen(),
+            flushManager.circuitOpenCount(),
+            totalPerSec,
+            perWorker
+        );
+    }
+
+    private static double ratio(long hits, long misses) {
+        return hits + misses == 0 ? 0 : (double) hits / (hits + misses);
+    }
+
+    private String getBacklogJSON() {
+        WALWriter wal = cache.wal();
+        Backpressure backpressure = cache.backpressure();
+        return String.format(
+            "{\"rows\":%d,\"bytes\":%d,\"oldestAgeMillis\":%d,\"maxRows\":%d,\"maxBytes\":%d,\"writtenBack\":%d,\"delayed\":%d,\"blocked\":%d,\"rejected\":%d}",
+            wal.pinnedRecords(),
+            wal.pinnedBytes(),
+            wal.oldestPinnedAgeMillis(),
+            backpressure == null ? 0 : backpressure.maxRows,
+            backpressure == null ? 0 : backpressure.maxBytes,
+            backpressure == null ? 0 : backpressure.writtenBackCount(),
+            backpressure == null ? 0 : backpressure.delayedCount(),
+            backpressure == null ? 0 : backpressure.blockedCount(),
+            backpressure == null ? 0 : backpressure.rejectedCount()
+        );
+    }
+
+    private String getTableDurabilityJSON() {
+        StringBuilder sb = new StringBuilder("{");
+        cache.tableDurability().forEach((table, mode) -> {
+            if (sb.length() > 1) sb.append(',');
+            sb.append('"').append(table).append("\":\"").append(mode).append('"');
+        });
+        return sb.append('}').toString();
+    }
+
     private String formatBytes(long bytes) {
         if (bytes < 1024) return bytes + " B";
         if (bytes < 1024 * 1024) return String.format("%.2f KB", bytes / 1024.0);
@@ -157,6 +303,10 @@ public class Dashboard {
         long cacheHits = 0;
         long cacheMisses = 0;
         long updateTime = System.currentTimeMillis();
+        long lastEvictions = 0;
+        double evictionsPerSec = 0;
+        long[] lastFlushedRows;
+        double[] flushedRowsPerSec;
 
         double getHitRate() {
             long total = cacheHits + cacheMisses;
@@ -213,6 +363,66 @@ public class Dashboard {
         }
     }
 
+    class PoolHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            if ("GET".equals(exchange.getRequestMethod())) {
+                String json = getPoolJSON();
+                sendResponse(exchange, 200, json, "application/json");
+            } else {
+                sendResponse(exchange, 405, "Method not allowed", "text/plain");
+            }
+        }
+    }
+
+    class ReadThroughHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            if ("GET".equals(exchange.getRequestMethod())) {
+                String json = getReadThroughJSON();
+                sendResponse(exchange, 200, json, "application/json");
+            } else {
+                sendResponse(exchange, 405, "Method not allowed", "text/plain");
+            }
+        }
+    }
+
+    class StoreHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            if ("GET".equals(exchange.getRequestMethod())) {
+                String json = getStoreJSON();
+                sendResponse(exchange, 200, json, "application/json");
+            } else {
+                sendResponse(exchange, 405, "Method not allowed", "text/plain");
+            }
+        }
+    }
+
+    class FlushHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            if ("GET".equals(exchange.getRequestMethod())) {
+                String json = getFlushJSON();
+                sendResponse(exchange, 200, json, "application/json");
+            } else {
+                sendResponse(exchange, 405, "Method not allowed", "text/plain");
+            }
+        }
+    }
+
+    class BacklogHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            if ("GET".equals(exchange.getRequestMethod())) {
+                String json = getBacklogJSON();
+                sendResponse(exchange, 200, json, "application/json");
+            } else {
+                sendResponse(exchange, 405, "Method not allowed", "text/plain");
+            }
+        }
+    }
+
     private String getDashboardHTML() {
         return """
 <!DOCTYPE html>
@@ -481,6 +691,66 @@ public class Dashboard {
                 <span class="metric-label">Hit Rate</span>
                 <span class="metric-value" id="hitRateDetail">0.00%</span>
             </div>
+            <div class="metric-row">
+                <span class="metric-label">WAL Durability</span>
+                <span class="metric-value" id="walDurability">-</span>
+            </div>
+            <div class="metric-row">
+                <span class="metric-label">Fsync Latency (avg / max)</span>
+                <span class="metric-value" id="fsyncLatency">-</span>
+            </div>
+            <div class="metric-row">
+                <span class="metric-label">DB Connections (active / idle)</span>
+                <span class="metric-value" id="poolConnections">-</span>
+            </div>
+            <div class="metric-row">
+                <span class="metric-label">Connection Wait (avg / max)</span>
+                <span class="metric-value" id="poolWait">-</span>
+            </div>
+            <div class="metric-row">
+                <span class="metric-label">Read-Through Loads (coalesced)</span>
+                <span class="metric-value" id="rtLoads">-</span>
+            </div>
+            <div class="metric-row">
+                <span class="metric-label">Load Latency (avg / max)</span>
+                <span class="metric-value" id="rtLatency">-</span>
+            </div>
+            <div class="metric-row">
+                <span class="metric-label">Store Hit Rate</span>
+                <span class="metric-value" id="storeHitRate">-</span>
+            </div>
+            <div class="metric-row">
+                <span class="metric-label">Evictions (per sec)</span>
+                <span class="metric-value" id="evictions">-</span>
+            </div>
+            <div class="metric-row">
+                <span class="metric-label">Flush Queue (per worker)</span>
+                <span class="metric-value" id="flushPending">-</span>
+            </div>
+            <div class="metric-row">
+                <span class="metric-label">Flushed Rows (per sec)</span>
+                <span class="metric-value" id="flushRows">-</span>
+            </div>
+            <div class="metric-row">
+                <span class="metric-label">SQL Template / Statement Cache Hits</span>
+                <span class="metric-value" id="sqlCacheHits">-</span>
+            </div>
+            <div class="metric-row">
+                <span class="metric-label">Writes Saved by Coalescing</span>
+                <span class="metric-value" id="flushCoalesced">-</span>
+            </div>
+            <div class="metric-row">
+                <span class="metric-label">Flush Retries / Dead Letters</span>
+                <span class="metric-value" id="flushRetries">-</span>
+            </div>
+            <div class="metric-row">
+                <span class="metric-label">Unflushed Rows (oldest)</span>
+                <span class="metric-value" id="backlogRows">-</span>
+            </div>
+            <div class="metric-row">
+                <span class="metric-label">Writes Delayed / Blocked / Rejected</span>
+                <span class="metric-value" id="backlogThrottled">-</span>
+            </div>
         </div>
         
         <div class="footer">
@@ -489,6 +759,9 @@ public class Dashboard {
     </div>
     
     <script>
+        // filled in by /api/flush and /api/pool; the statement ratio is 0 without the built-in pool
+        const sqlCacheHits = { template: '-', statement: '-' };
+
         function formatUptime(seconds) {
             if (seconds < 60) return seconds + 's';
             if (seconds < 3600) return Math.floor(seconds / 60) + 'm ' + (seconds % 60) + 's';
@@ -529,9 +802,72 @@ public class Dashboard {
                 .then(r => r.json())
                 .then(data => {
                     document.getElementById('walSize').textContent = data.sizeFormatted;
-                    document.getElementById('walStatus').textContent = data.exists ? 'Active' : 'Not available';
+                    document.getElementById('walStatus').textContent =
+                        data.segments + (data.segments === 1 ? ' segment' : ' segments');
+                    document.getElementById('walDurability').textContent = data.durability;
+                    document.getElementById('fsyncLatency').textContent =
+                        data.fsyncAvgMicros + ' µs / ' + data.fsyncMaxMicros + ' µs';
                 })
                 .catch(e => console.error('WAL error:', e));
+            
+            fetch('/api/pool')
+                .then(r => r.json())
+                .then(data => {
+                    sqlCacheHits.statement = (data.statementHitRatio * 100).toFixed(1) + '%';
+                    if (!data.pooled) return;
+                    document.getElementById('poolConnections').textContent =
+                        data.active + ' / ' + data.idle + ' of ' + data.maxSize;
+                    document.getElementById('poolWait').textContent =
+                        data.borrowWaitAvgMicros + ' µs / ' + data.borrowWaitMaxMicros + ' µs';
+                })
+                .catch(e => console.error('Pool error:', e));
+            
+            fetch('/api/readthrough')
+                .then(r => r.json())
+                .then(data => {
+                    if (!data.enabled) return;
+                    document.getElementById('rtLoads').textContent =
+                        data.loads.toLocaleString() + ' (' + data.coalesced.toLocaleString() + ')';
+                    document.getElementById('rtLatency').textContent =
+                        data.loadAvgMicros + ' µs / ' + data.loadMaxMicros + ' µs';
+                })
+                .catch(e => console.error('Read-through error:', e));
+            
+            fetch('/api/store')
+                .then(r => r.json())
+                .then(data => {
+                    document.getElementById('storeHitRate').textContent = data.hitRate.toFixed(2) + '%';
+                    document.getElementById('evictions').textContent =
+                        data.evictions.toLocaleString() + ' (' + data.evictionsPerSec.toFixed(1) + '/s)';
+                })
+                .catch(e => console.error('Store error:', e));
+            
+            fetch('/api/flush')
+                .then(r => r.json())
+                .then(data => {
+                    document.getElementById('flushPending').textContent =
+                        data.pending.toLocaleString() + ' (' + data.perWorker.map(w => w.pending).join(' / ') + ')';
+                    document.getElementById('flushRows').textContent =
+                        data.rows.toLocaleString() + ' (' + data.rowsPerSec.toFixed(1) + '/s, '
+                        + data.statements.toLocaleString() + ' statements)';
+                    document.getElementById('flushCoalesced').textContent = data.coalesced.toLocaleString();
+                    sqlCacheHits.template = (data.templateHitRatio * 100).toFixed(1) + '%';
+                    document.getElementById('sqlCacheHits').textContent = sqlCacheHits.template + ' / ' + sqlCacheHits.statement;
+                    document.getElementById('flushRetries').textContent =
+                        data.retries.toLocaleString() + ' / ' + data.deadLettered.toLocaleString()
+                        + (data.circuitOpen ? ' (database unreachable, paused)' : '');
+                })
+                .catch(e => console.error('Flush error:', e));
+            
+            fetch('/api/backlog')
+                .then(r => r.json())
+                .then(data => {
+                    document.getElementById('backlogRows').textContent =
+                        data.rows.toLocaleString() + ' (' + (data.oldestAgeMillis / 1000).toFixed(1) + ' s)';
+                    document.getElementById('backlogThrottled').textContent =
+                        data.delayed.toLocaleString() + ' / ' + data.blocked.toLocaleString() + ' / ' + data.rejected.toLocaleString();
+                })
+                .catch(e => console.error('Backlog error:', e));
         }
         
         updateDashboard();
@@ -0,0 +1,96 @@
+package cachedb;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Mutations the database kept rejecting (a constraint violation, a column
+ * that no longer exists), parked as WAL-format records once their WAL
+ * records are released. Fix the cause, then put them back with
+ * {@link CacheDB#replayDeadLetters()}.
+ */
+public class DeadLetterLog {
+
+    private final Path path;
+
+    public DeadLetterLog(Path path) {
+        this.path = path;
+    }
+
+    public Path path() {
+        return path;
+    }
+
+    /** Appends the mutation and forces it to disk. */
+    synchronized void append(RowMutation m) throws IOException {
+        List<LogRecord> records = new ArrayList<>();
+        if (m.isDelete) {
+            records.add(LogRecord.delete(m.table, m.primaryKey));
+        } else if (m.isIncrement) {
+            for (Map.Entry<String, Object> delta : m.columns.entrySet()) {
+                records.add(LogRecord.delta(m.table, m.primaryKey, delta.getKey(),
+                        ((Number) delta.getValue()).longValue()));
+            }
+        } else {
+            records.add(LogRecord.put(m.table, m.primaryKey, m.columns));
+        }
+        write(path, records, StandardOpenOption.APPEND);
+    }
+
+    /**
+     * Hands every parked record to {@code apply} in order and empties the
+     * file. If {@code apply} throws, the records not yet applied stay parked.
+     *
+     * @return records applied
+     */
+    synchronized int replay(Consumer<LogRecord> apply) throws IOException {
+        if (!Files.exists(path)) return 0;
+
+        List<LogRecord> records = new ArrayList<>();
+        try (WALReader reader = new WALReader(path)) {
+            for (LogRecord r : reader) records.add(r);
+        }
+
+        int applied = 0;
+        try {
+            for (LogRecord r : records) {
+                apply.accept(r);
+                applied++;
+            }
+        } finally {
+            if (applied == records.size()) {
+                Files.delete(path);
+            } else {
+                Path rest = path.resolveSibling(path.getFileName() + ".tmp");
+                write(rest, records.subList(applied, records.size()), StandardOpenOption.TRUNCATE_EXISTING);
+                Files.move(rest, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+        }
+        return applied;
+    }
+
+    private static void write(Path file, List<LogRecord> records, StandardOpenOption mode) throws IOException {
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+        try (FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, mode)) {
+            for (LogRecord r : records) {
+                ByteBuffer buffer = LogSerializer.serialize(r);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+            channel.force(true);
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package cachedb;
+
+/**
+ * How hard the WAL works to get a record onto disk before set/delete returns.
+ */
+public enum Durability {
+
+    /** fsync every record (or every group commit). Nothing acknowledged is lost. */
+    SYNC,
+
+    /**
+     * Write to the OS and fsync in the background every sync interval.
+     * An OS crash or power loss can lose the last interval of writes.
+     */
+    INTERVAL,
+
+    /** Write to the OS and never fsync explicitly; the OS decides when. */
+    NONE
+}
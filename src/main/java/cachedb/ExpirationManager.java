@@ -1,5 +1,6 @@
 package cachedb;
 
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 public class ExpirationManager implements Runnable {
@@ -16,35 +17,51 @@ public class ExpirationManager implements Runnable {
     @Override
     public void run() {
         while (true) {
+            // only entries whose timer is due are visited, not the whole cache
             long now = System.currentTimeMillis();
-
-            store.raw().forEach((table, map) -> {
-                map.entrySet().removeIf(e -> {
-                    CacheEntry entry = e.getValue();
-                    if (entry.expiresAt <= now) {
-                        if (entry.dirty) {
-                            boolean isDelete = entry.columns == null;
-                            flushManager.enqueue(
-                                    new FlushTask(
-                                            new RowMutation(
-                                                    table,
-                                                    entry.primaryKey,
-                                                    entry.columns != null ? entry.columns : Map.of(),
-                                                    entry.version,
-                                                    isDelete
-                                            )
-                                    )
-                            );
-                        }
-                        return true;
-                    }
-                    return false;
-                });
-            });
+            store.flushDue(now, this::flush);
+            store.expire(now, this::flush);
 
             try {
-                Thread.sleep(100);
+                Thread.sleep(CacheStore.EXPIRATION_TICK_MILLIS);
             } catch (InterruptedException ignored) {}
         }
     }
+
+    /**
+     * Queues a dirty entry for the database: one leaving the cache (expired
+     * or evicted), or one due for write-behind.
+     */
+    public void flush(String table, CacheEntry entry) {
+        if (!entry.dirty) return;
+
+        if (entry.deltas != null) {
+            flushManager.enqueue(
+                    new FlushTask(
+                            RowMutation.increment(
+                                    table,
+                                    entry.primaryKey,
+                                    new LinkedHashMap<>(entry.deltas),
+                                    entry.version,
+                                    entry.pendingLsn
+                            )
+                    )
+            );
+            return;
+        }
+
+        boolean isDelete = entry.columns == null;
+        flushManager.enqueue(
+                new FlushTask(
+                        new RowMutation(
+                                table,
+                                entry.primaryKey,
+                                entry.columns != null ? entry.columns : Map.of(),
+                                entry.version,
+                                isDelete,
+                                entry.pendingLsn
+                        )
+                )
+        );
+    }
 }
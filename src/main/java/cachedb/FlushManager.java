@@ -1,105 +1,553 @@
 package cachedb;
 
 import javax.sql.DataSource;
+import java.io.IOException;
+import java.nio.file.Path;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.sql.SQLException;
+import java.sql.SQLNonTransientConnectionException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTransientConnectionException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
 
-public class FlushManager implements Runnable {
+/**
+ * Writes queued mutations to the database on one or more worker threads.
+ * Every row hashes to one worker, so its mutations are written in the order
+ * they were queued while other rows and tables flush in parallel.
+ */
+public class FlushManager {
 
-    private final BlockingQueue<FlushTask> queue = new LinkedBlockingQueue<>();
+    // connection failures in a row before flushing pauses
+    static final int BREAKER_THRESHOLD = 3;
+    static final long MAX_BACKOFF_MILLIS = 30_000;
+
+    private final Worker[] workers;
     private final DataSource dataSource;
     private final SchemaRegistry schemaRegistry;
+    private final int maxBatchSize;
+    private final long maxBatchWaitMillis;
+    private final long maxStatementBytes;
+    private final int maxAttempts;
+    private final long retryBackoffMillis;
+    private final DeadLetterLog deadLetters;
+    private final CircuitBreaker breaker;
+    private final SqlTemplates templates = new SqlTemplates();
+
+    private volatile Consumer<RowMutation> flushListener = m -> {};
+
+    private final LongAdder statements = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder deadLettered = new LongAdder();
 
     public FlushManager(DataSource ds, SchemaRegistry schemaRegistry) {
+        this(ds, schemaRegistry, new Options());
+    }
+
+    public FlushManager(DataSource ds,
+                        SchemaRegistry schemaRegistry,
+                        int maxBatchSize,
+                        long maxBatchWaitMillis) {
+        this(ds, schemaRegistry, maxBatchSize, maxBatchWaitMillis, 1);
+    }
+
+    public FlushManager(DataSource ds,
+                        SchemaRegistry schemaRegistry,
+                        int maxBatchSize,
+                        long maxBatchWaitMillis,
+                        int workers) {
+        this(ds, schemaRegistry, options(maxBatchSize, maxBatchWaitMillis, workers));
+    }
+
+    public FlushManager(DataSource ds,
+                        SchemaRegistry schemaRegistry,
+                        Options options) {
+        if (options.maxBatchSize < 1) {
+            throw new IllegalArgumentException("maxBatchSize must be >= 1");
+        }
+        if (options.workers < 1) {
+            throw new IllegalArgumentException("workers must be >= 1");
+        }
+        if (options.maxStatementBytes < 1) {
+            throw new IllegalArgumentException("maxStatementBytes must be >= 1");
+        }
+        if (options.maxAttempts < 1) {
+            throw new IllegalArgumentException("maxAttempts must be >= 1");
+        }
         this.dataSource = ds;
         this.schemaRegistry = schemaRegistry;
+        this.maxBatchSize = options.maxBatchSize;
+        this.maxBatchWaitMillis = options.maxBatchWaitMillis;
+        this.maxStatementBytes = options.maxStatementBytes;
+        this.maxAttempts = options.maxAttempts;
+        this.retryBackoffMillis = Math.max(1, options.retryBackoffMillis);
+        this.deadLetters = new DeadLetterLog(options.deadLetterPath);
+        this.breaker = new CircuitBreaker(BREAKER_THRESHOLD, retryBackoffMillis, MAX_BACKOFF_MILLIS);
+        this.workers = new Worker[options.workers];
+        for (int i = 0; i < options.workers; i++) {
+            this.workers[i] = new Worker();
+        }
     }
 
+    private static Options options(int maxBatchSize, long maxBatchWaitMillis, int workers) {
+        Options options = new Options();
+        options.maxBatchSize = maxBatchSize;
+        options.maxBatchWaitMillis = maxBatchWaitMillis;
+        options.workers = workers;
+        return options;
+    }
+
+    /** Starts one thread per worker: flush-thread-0, flush-thread-1, ... */
+    public void start() {
+        for (int i = 0; i < workers.length; i++) {
+            new Thread(workers[i], "flush-thread-" + i).start();
+        }
+    }
+
+    /**
+     * Queues a mutation on its row's worker. If that row already has one
+     * queued, the two are merged (see {@link FlushQueue}).
+     */
     public void enqueue(FlushTask task) {
-        queue.offer(task);
+        workers[workerFor(task.mutation)].queue.offer(task);
+    }
+
+    // the same row must always reach the same worker, however its key was passed
+    int workerFor(RowMutation m) {
+        int h = key(m).hashCode() * 0x9E3779B9; // spread sequential ids
+        return Math.floorMod(h ^ (h >>> 16), workers.length);
+    }
+
+    // the row's queue key, typed by its schema once loaded; never asks the database
+    private Object key(RowMutation m) {
+        return FlushQueue.key(m, schemaRegistry.cached(m.table));
+    }
+
+    /** Called on a flush thread for every mutation once it is committed. */
+    public void onFlushed(Consumer<RowMutation> listener) {
+        this.flushListener = listener;
+    }
+
+    public int workerCount() {
+        return workers.length;
+    }
+
+    /** Mutations waiting to be flushed. */
+    public int pending() {
+        int pending = 0;
+        for (Worker w : workers) pending += w.queue.size();
+        return pending;
+    }
+
+    public int pending(int worker) {
+        return workers[worker].queue.size();
+    }
+
+    /** Mutations written to the database so far. */
+    public long flushedRows() {
+        long rows = 0;
+        for (Worker w : workers) rows += w.flushedRows.get();
+        return rows;
+    }
+
+    public long flushedRows(int worker) {
+        return workers[worker].flushedRows.get();
     }
 
-    @Override
-    public void run() {
-        while (true) {
+    public long flushedBatches() {
+        long batches = 0;
+        for (Worker w : workers) batches += w.flushedBatches.get();
+        return batches;
+    }
+
+    public long flushedBatches(int worker) {
+        return workers[worker].flushedBatches.get();
+    }
+
+    /** Statements executed by committed batches; multi-row statements make this far fewer than the rows. */
+    public long flushedStatements() {
+        return statements.sum();
+    }
+
+    /** Statements whose SQL came from the template cache rather than being generated. */
+    public long templateHits() {
+        return templates.hits();
+    }
+
+    public long templateMisses() {
+        return templates.misses();
+    }
+
+    /** Mutations put back in the queue after a write failed for a reason other than the connection. */
+    public long retryCount() {
+        return retries.sum();
+    }
+
+    /** Mutations given up on and parked in the dead-letter file. */
+    public long deadLetterCount() {
+        return deadLettered.sum();
+    }
+
+    /** True while flushing is paused because the database is unreachable. */
+    public boolean circuitOpen() {
+        return breaker.isOpen();
+    }
+
+    public long circuitOpenCount() {
+        return breaker.openCount();
+    }
+
+    public DeadLetterLog deadLetters() {
+        return deadLetters;
+    }
+
+    /** Database writes saved by merging a mutation into a queued one for the same row. */
+    public long coalescedCount() {
+        long coalesced = 0;
+        for (Worker w : workers) coalesced += w.queue.coalesced();
+        return coalesced;
+    }
+
+    private class Worker implements Runnable {
+
+        final FlushQueue queue = new FlushQueue(schemaRegistry::cached);
+        final AtomicLong flushedRows = new AtomicLong();
+        final AtomicLong flushedBatches = new AtomicLong();
+
+        @Override
+        public void run() {
+            List<FlushTask> drained = new ArrayList<>(maxBatchSize);
+            while (true) {
+                try {
+                    breaker.await();
+                    queue.take(drained, maxBatchSize, maxBatchWaitMillis);
+                    flush(drained, this);
+                } catch (Exception e) {
+                    e.printStackTrace();
+                } finally {
+                    drained.clear();
+                }
+            }
+        }
+    }
+
+    /*
+     * Groups mutations by SQL template (table + operation + column set) so
+     * each group can go out as multi-row statements. A row showing up twice would let
+     * grouping reorder its writes, so that closes the current batch first.
+     * A mutation that failed before is written in a transaction of its own,
+     * so one bad row can't keep failing the rows batched with it.
+     */
+    private void flush(List<FlushTask> tasks, Worker worker) {
+        Map<String, TableSchema> schemas = new LinkedHashMap<>();
+        try {
+            for (FlushTask task : tasks) {
+                schemas.computeIfAbsent(task.mutation.table, schemaRegistry::get);
+            }
+        } catch (RuntimeException e) {
+            // schema discovery needs the database as well
+            failed(tasks, e, true, worker);
+            return;
+        }
+
+        Map<SqlTemplates.Template, List<FlushTask>> groups = new LinkedHashMap<>();
+        Set<Object> rows = new HashSet<>();
+
+        for (FlushTask task : tasks) {
+            RowMutation m = task.mutation;
+            SqlTemplates.Template template;
             try {
-                FlushTask task = queue.take();
-                flush(task);
-            } catch (Exception e) {
-                e.printStackTrace();
+                template = templates.get(m, schemas.get(m.table), 1);
+            } catch (RuntimeException e) {
+                failed(List.of(task), e, false, worker);
+                continue;
             }
+
+            if (task.attempts > 0) {
+                write(groups, worker);
+                groups.clear();
+                rows.clear();
+                write(Map.of(template, List.of(task)), worker);
+                continue;
+            }
+            if (!rows.add(key(m))) {
+                write(groups, worker);
+                groups.clear();
+                rows.clear();
+                rows.add(key(m));
+            }
+            groups.computeIfAbsent(template, t -> new ArrayList<>()).add(task);
         }
+        write(groups, worker);
     }
 
-    private void flush(FlushTask task) throws Exception {
-        RowMutation m = task.mutation;
-        TableSchema schema = schemaRegistry.get(m.table);
-
-        try (Connection c = dataSource.getConnection()) {
-            if (m.isDelete) {
-                String sql = SqlBuilder.buildDelete(m, schema);
-                try (PreparedStatement ps = c.prepareStatement(sql)) {
-                    int idx = 1;
-                    for (String pk : schema.primaryKeys) {
-                        Object value = m.primaryKey.get(pk);
-                        if (value == null && schema.primaryKeys.size() == 1 && m.primaryKey.size() == 1) {
-                            value = m.primaryKey.values().iterator().next();
-                        }
-                        ps.setObject(idx++, value);
-                    }
+    private void write(Map<SqlTemplates.Template, List<FlushTask>> groups, Worker worker) {
+        if (groups.isEmpty()) return;
 
-                    try {
-                        ps.executeUpdate();
-                        checkpoint();
-                    } catch (Exception e) {
-                        // DB down → WAL preserved
-                    }
+        Connection c;
+        try {
+            c = dataSource.getConnection();
+        } catch (Exception e) {
+            failed(tasks(groups), e, true, worker);
+            return;
+        }
 
-                    System.out.println("[FLUSHED DELETE] " + m.table + " " + m.primaryKey);
+        int executed = 0;
+        try (c) {
+            c.setAutoCommit(false);
+            try {
+                for (Map.Entry<SqlTemplates.Template, List<FlushTask>> group : groups.entrySet()) {
+                    executed += execute(c, group.getValue(), group.getKey());
                 }
-            } else {
-                String sql = SqlBuilder.buildUpsert(m, schema);
-                try (PreparedStatement ps = c.prepareStatement(sql)) {
-                    int idx = 1;
-                    for (String pk : schema.primaryKeys) {
-                        Object value = m.primaryKey.get(pk);
-                        if (value == null) {
-                            value = m.columns.get(pk);
-                        }
-                        if (value == null && schema.primaryKeys.size() == 1 && m.primaryKey.size() == 1) {
-                            value = m.primaryKey.values().iterator().next();
-                        }
-                        ps.setObject(idx++, value);
-                    }
-                    for (String col : m.columns.keySet()) {
-                        if (!schema.primaryKeys.contains(col)) {
-                            ps.setObject(idx++, m.columns.get(col));
-                        }
-                    }
+                c.commit();
+            } catch (Exception e) {
+                try {
+                    c.rollback();
+                } catch (Exception ignored) {}
+                failed(tasks(groups), e, isConnectionFailure(e), worker);
+                return;
+            }
+        } catch (Exception e) {
+            // close failed after the commit; the rows are in the database
+        }
+        breaker.success();
 
-                    try {
-                        ps.executeUpdate();
-                        checkpoint();
-                    } catch (Exception e) {
-                        // DB down → WAL preserved
-                    }
+        int rows = 0;
+        List<LogRecord> marks = new ArrayList<>();
+        for (List<FlushTask> group : groups.values()) {
+            for (FlushTask task : group) {
+                done(task, marks);
+            }
+            rows += group.size();
+            RowMutation first = group.get(0).mutation;
+            System.out.println((first.isDelete ? "[FLUSHED DELETE] "
+                    : first.isIncrement ? "[FLUSHED INCREMENT] " : "[FLUSHED] ")
+                    + first.table + " x" + group.size());
+        }
+        logFlushed(marks);
+        worker.flushedRows.addAndGet(rows);
+        worker.flushedBatches.incrementAndGet();
+        statements.add(executed);
+        checkpoint();
+    }
+
+    /*
+     * Writes a group of same-shape mutations as multi-row statements, so the
+     * server parses one statement per chunk instead of one per row. Chunks
+     * of the same size share a prepared statement and go out as one JDBC
+     * batch. Returns the number of statements executed.
+     */
+    private int execute(Connection c, List<FlushTask> group, SqlTemplates.Template single) throws Exception {
+        RowMutation first = group.get(0).mutation;
+        List<List<FlushTask>> chunks = statements(group, single, maxStatementBytes);
 
-                    System.out.println("[FLUSHED] " + m.table + " " + m.primaryKey);
+        PreparedStatement ps = null;
+        SqlTemplates.Template template = null;
+        try {
+            for (List<FlushTask> chunk : chunks) {
+                if (template == null || chunk.size() != template.rows) {
+                    if (ps != null) {
+                        ps.executeBatch();
+                        ps.close();
+                    }
+                    template = chunk.size() == 1 ? single : templates.get(first, single.schema, chunk.size());
+                    ps = c.prepareStatement(template.sql);
                 }
+                int idx = 1;
+                for (FlushTask task : chunk) {
+                    idx = template.bind(ps, idx, task.mutation);
+                }
+                ps.addBatch();
             }
+            ps.executeBatch();
+        } finally {
+            if (ps != null) ps.close();
         }
+        return chunks.size();
     }
 
-    private void checkpoint() {
+    /*
+     * Splits a group into the rows of each statement, keeping every statement
+     * within MySQL's placeholder limit and maxBytes. Deletes on a composite
+     * key stay one row per statement. {@code single} is the group's one-row
+     * template.
+     */
+    static List<List<FlushTask>> statements(List<FlushTask> group, SqlTemplates.Template single, long maxBytes) {
+        int maxRows = single.isDelete && single.schema.primaryKeys.size() > 1
+                ? 1
+                : Math.max(1, SqlBuilder.MAX_PLACEHOLDERS / Math.max(1, single.parameters));
+        long base = single.sql.length();
+
+        List<List<FlushTask>> chunks = new ArrayList<>();
+        int start = 0;
+        long bytes = base;
+        for (int i = 0; i < group.size(); i++) {
+            long rowBytes = SqlBuilder.rowBytes(group.get(i).mutation);
+            if (i > start && (i - start == maxRows || bytes + rowBytes > maxBytes)) {
+                chunks.add(group.subList(start, i));
+                start = i;
+                bytes = base;
+            }
+            bytes += rowBytes;
+        }
+        chunks.add(group.subList(start, group.size()));
+        return chunks;
+    }
+
+    private static List<FlushTask> tasks(Map<SqlTemplates.Template, List<FlushTask>> groups) {
+        List<FlushTask> tasks = new ArrayList<>();
+        for (List<FlushTask> group : groups.values()) tasks.addAll(group);
+        return tasks;
+    }
+
+    /*
+     * Puts the tasks back in their worker's queue. While the database is
+     * unreachable they are retried as soon as the circuit breaker lets
+     * flushing resume, without counting as attempts. Otherwise each waits an
+     * exponential backoff with jitter, and after maxAttempts failures is
+     * parked in the dead-letter file instead.
+     */
+    private void failed(List<FlushTask> tasks, Exception cause, boolean connection, Worker worker) {
+        if (connection) {
+            long openMillis = breaker.failure();
+            if (openMillis > 0) {
+                System.err.println("[FLUSH] database unavailable, pausing flushes for "
+                        + openMillis + " ms: " + cause);
+            }
+        } else {
+            breaker.success(); // the database answered
+        }
+
+        long now = System.currentTimeMillis();
+        for (int i = tasks.size() - 1; i >= 0; i--) { // newest first keeps each row's order
+            FlushTask task = tasks.get(i);
+            if (connection) {
+                worker.queue.requeue(task, 0);
+                continue;
+            }
+            task.attempts++;
+            // in a batch it may be another row's fault, so only a row rejected alone is parked
+            if (task.attempts >= maxAttempts && tasks.size() == 1 && deadLetter(task, cause)) {
+                continue;
+            }
+            retries.increment();
+            worker.queue.requeue(task, now + backoff(task.attempts));
+        }
+    }
+
+    // exponential, with the upper half jittered so rows failing together spread out
+    private long backoff(int attempts) {
+        long delay = Math.min(MAX_BACKOFF_MILLIS, retryBackoffMillis << Math.min(attempts - 1, 20));
+        return delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+    }
+
+    // false if it couldn't be parked, so the caller keeps retrying instead
+    private boolean deadLetter(FlushTask task, Exception cause) {
+        try {
+            deadLetters.append(task.mutation);
+        } catch (IOException e) {
+            System.err.println("[DEAD LETTER] could not write " + deadLetters.path() + ": " + e);
+            return false;
+        }
+        System.err.println("[DEAD LETTER] " + task.mutation.table + " "
+                + task.mutation.primaryKey + " after " + task.attempts + " attempts: " + cause);
+        deadLettered.increment();
+        List<LogRecord> marks = new ArrayList<>(1);
+        done(task, marks);
+        logFlushed(marks);
+        return true;
+    }
+
+    // the mutation no longer needs its WAL records; an increment adds a
+    // FLUSHED record to `marks`, so recovery won't add it a second time
+    private void done(FlushTask task, List<LogRecord> marks) {
+        RowMutation m = task.mutation;
+        long through = flushed(m);
+        flushListener.accept(m);
+        for (RowMutation older : task.replaced) {
+            through = Math.max(through, flushed(older));
+            flushListener.accept(older);
+        }
+        if (m.isIncrement && through > 0) {
+            marks.add(LogRecord.flushed(m.table, m.primaryKey, through));
+        }
+    }
+
+    private void logFlushed(List<LogRecord> marks) {
+        if (marks.isEmpty()) return;
         try {
             WALWriter wal = WALWriter.getInstance();
-            wal.sync();
-            wal.truncate();
+            long first = wal.appendAll(marks, Durability.SYNC);
+            for (int i = 0; i < marks.size(); i++) {
+                wal.release(first + i); // never replayed, so nothing to pin
+            }
+        } catch (Exception e) {
+            System.err.println("[FLUSH] could not log flushed increments: " + e);
+        }
+    }
+
+    static boolean isConnectionFailure(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof SQLTransientConnectionException
+                    || t instanceof SQLNonTransientConnectionException
+                    || t instanceof SQLRecoverableException) {
+                return true;
+            }
+            if (t instanceof SQLException) {
+                String state = ((SQLException) t).getSQLState();
+                if (state != null && state.startsWith("08")) return true; // connection exception class
+            }
+        }
+        return false;
+    }
+
+    // the newest WAL record the mutation covers; 0 if unknown
+    private long flushed(RowMutation m) {
+        try {
+            return WALWriter.getInstance().flushed(m.lsn);
+        } catch (Exception e) {
+            return 0; // swallow — DB is already durable
+        }
+    }
+
+    private void checkpoint() {
+        try {
+            WALWriter.getInstance().checkpoint();
         } catch (Exception e) {
             // swallow — DB is already durable
         }
     }
 
+    public static final class Options {
+        /** Most mutations written in one transaction. */
+        public int maxBatchSize = 500;
+        /** How long to wait for a batch to fill once the first mutation arrives; 0 takes what is queued. */
+        public long maxBatchWaitMillis = 0;
+        /**
+         * Largest multi-row statement to send, by a conservative estimate of
+         * its size with values inlined. Keep it under the server's
+         * max_allowed_packet (4 MB by default on MySQL 5.7, 64 MB on 8.0).
+         */
+        public long maxStatementBytes = 4L << 20;
+        /** Flush threads, each with its own queue and connection. */
+        public int workers = 1;
+        /**
+         * Failed writes of a mutation before it is parked in the dead-letter
+         * file; at least 1, which means no retry. A batch that fails is first
+         * retried row by row, and only a row rejected on its own is parked.
+         */
+        public int maxAttempts = 5;
+        /** First retry delay; doubles with each failure, up to 30 s. */
+        public long retryBackoffMillis = 100;
+        public Path deadLetterPath = Path.of("logs", "dead-letter.log");
+    }
 }
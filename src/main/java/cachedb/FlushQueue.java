@@ -0,0 +1,251 @@
+package cachedb;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * A flush worker's queue, keyed by row. A mutation for a row that is still
+ * queued is merged into the queued one, so a row that expires several times
+ * before the worker catches up costs one database write instead of several:
+ *
+ * <ul>
+ *   <li>put after put: one put, newer version's values win per column</li>
+ *   <li>increment after increment: one increment of the summed deltas</li>
+ *   <li>delete after anything: just the delete</li>
+ *   <li>put after delete: the delete, then the put (and later puts merge
+ *       into it), since an upsert alone would keep the deleted row's other
+ *       columns</li>
+ * </ul>
+ *
+ * Merged-away mutations are kept on the survivor so their WAL records are
+ * released once it commits.
+ *
+ * A failed mutation goes back in front of whatever was queued for its row
+ * since, and the whole row waits until the retry is due.
+ */
+final class FlushQueue {
+
+    private final Function<String, TableSchema> schemas; // null while unknown
+
+    // row key → its queued mutations; rarely more than one
+    private final LinkedHashMap<Object, Row> rows = new LinkedHashMap<>();
+    private int size;
+    private int deferred; // rows with a retry time
+    private long coalesced;
+
+    FlushQueue() {
+        this(table -> null);
+    }
+
+    /** Keys rows through their table's column types once {@code schemas} knows the table. */
+    FlushQueue(Function<String, TableSchema> schemas) {
+        this.schemas = schemas;
+    }
+
+    synchronized void offer(FlushTask task) {
+        Object key = key(task.mutation, schemas.apply(task.mutation.table));
+        Row row = rows.get(key);
+        if (row == null) {
+            rows.put(key, row = new Row());
+            notify();
+        }
+        append(row.tasks, task);
+    }
+
+    /**
+     * Puts a mutation whose write failed back ahead of anything queued for
+     * its row since, and holds the row until {@code notBefore} (0 for now).
+     * Requeue a row's mutations newest first.
+     */
+    synchronized void requeue(FlushTask task, long notBefore) {
+        Object key = key(task.mutation, schemas.apply(task.mutation.table));
+        Row row = rows.get(key);
+        if (row == null) {
+            rows.put(key, row = new Row());
+            notify();
+        }
+
+        List<FlushTask> newer = new ArrayList<>(row.tasks);
+        size -= newer.size();
+        row.tasks.clear();
+        append(row.tasks, task);
+        for (FlushTask t : newer) {
+            append(row.tasks, t);
+        }
+
+        if (notBefore > row.notBefore) {
+            if (row.notBefore == 0) deferred++;
+            row.notBefore = notBefore;
+        }
+    }
+
+    // adds a task behind a row's queued ones, merging where it can
+    private void append(List<FlushTask> queued, FlushTask task) {
+        RowMutation m = task.mutation;
+        if (queued.isEmpty()) {
+            queued.add(task);
+            size++;
+            return;
+        }
+
+        if (m.isDelete) {
+            List<RowMutation> replaced = new ArrayList<>(task.replaced);
+            for (FlushTask t : queued) {
+                replaced.add(t.mutation);
+                replaced.addAll(t.replaced);
+            }
+            coalesced += queued.size();
+            size -= queued.size() - 1;
+            queued.clear();
+            queued.add(new FlushTask(m, replaced, task.attempts));
+            return;
+        }
+
+        FlushTask last = queued.get(queued.size() - 1);
+        RowMutation merged = merge(last.mutation, m);
+        if (merged == null) {
+            queued.add(task);
+            size++;
+            return;
+        }
+
+        List<RowMutation> replaced = new ArrayList<>(last.replaced);
+        replaced.addAll(task.replaced);
+        replaced.add(last.mutation);
+        queued.set(queued.size() - 1, new FlushTask(merged, replaced,
+                Math.max(last.attempts, task.attempts)));
+        coalesced++;
+    }
+
+    /**
+     * Moves whole rows into {@code drained} until it holds {@code max}
+     * mutations, waiting for the first one that is due and then up to
+     * {@code waitMillis} for the batch to fill.
+     */
+    synchronized void take(List<FlushTask> drained, int max, long waitMillis) throws InterruptedException {
+        long untilDue;
+        while ((untilDue = untilDue()) != 0) {
+            if (untilDue < 0) {
+                wait();
+            } else {
+                wait(untilDue);
+            }
+        }
+        if (waitMillis > 0) {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(waitMillis);
+            while (size < max) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) break;
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            }
+        }
+
+        long now = System.currentTimeMillis();
+        Iterator<Row> it = rows.values().iterator();
+        while (it.hasNext() && drained.size() < max) {
+            Row row = it.next();
+            if (row.notBefore > now) continue;
+
+            drained.addAll(row.tasks);
+            size -= row.tasks.size();
+            if (row.notBefore > 0) deferred--;
+            it.remove();
+        }
+    }
+
+    // 0 if a row can be taken now, -1 if none is queued, else millis until one can
+    private long untilDue() {
+        if (rows.isEmpty()) return -1;
+        if (deferred < rows.size()) return 0;
+
+        long first = Long.MAX_VALUE;
+        for (Row row : rows.values()) {
+            first = Math.min(first, row.notBefore);
+        }
+        return Math.max(0, first - System.currentTimeMillis());
+    }
+
+    /** Mutations waiting. */
+    synchronized int size() {
+        return size;
+    }
+
+    /** Mutations merged into a queued one instead of being written. */
+    synchronized long coalesced() {
+        return coalesced;
+    }
+
+    /*
+     * Null when the two can't be written as one statement. The result keeps
+     * the newer mutation's LSN, which is the one the store's flushing
+     * overlay waits on.
+     */
+    private static RowMutation merge(RowMutation older, RowMutation newer) {
+        if (older.isDelete || older.isIncrement != newer.isIncrement) return null;
+
+        if (newer.isIncrement) {
+            Map<String, Object> deltas = new LinkedHashMap<>(older.columns);
+            newer.columns.forEach((column, delta) -> deltas.merge(column, delta,
+                    (a, b) -> ((Number) a).longValue() + ((Number) b).longValue()));
+            return RowMutation.increment(newer.table, newer.primaryKey, deltas,
+                    Math.max(older.version, newer.version), newer.lsn);
+        }
+
+        boolean inOrder = older.version <= newer.version;
+        Map<String, Object> columns = new LinkedHashMap<>(inOrder ? older.columns : newer.columns);
+        columns.putAll(inOrder ? newer.columns : older.columns);
+        return new RowMutation(newer.table, newer.primaryKey, columns,
+                Math.max(older.version, newer.version), false, newer.lsn);
+    }
+
+    /*
+     * Identifies a row however its key was passed: each value converted to
+     * its column's type when the schema is known ("7" and 7L are the same
+     * row in an INT column), whole numbers of any class as a long, and
+     * single-column keys by value alone (they may arrive under another
+     * column name, as SqlBuilder allows). Null schema for an unknown table.
+     */
+    static Object key(RowMutation m, TableSchema schema) {
+        if (m.primaryKey.size() == 1) {
+            Object value = m.primaryKey.values().iterator().next();
+            if (schema != null && schema.primaryKeys.size() == 1) {
+                value = schema.type(schema.primaryKeys.get(0)).convert(value);
+            }
+            return List.of(m.table, normalize(value));
+        }
+        Map<String, Object> pk = new HashMap<>();
+        m.primaryKey.forEach((column, value) -> pk.put(column,
+                normalize(schema == null ? value : schema.type(column).convert(value))));
+        return List.of(m.table, pk);
+    }
+
+    private static Object normalize(Object value) {
+        if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            return ((Number) value).longValue();
+        }
+        if (value instanceof BigInteger && ((BigInteger) value).bitLength() < 64) {
+            return ((BigInteger) value).longValue();
+        }
+        if (value instanceof BigDecimal) {
+            BigDecimal d = ((BigDecimal) value).stripTrailingZeros();
+            if (d.scale() <= 0 && d.precision() - d.scale() <= 18) {
+                return d.longValueExact();
+            }
+            return d; // 7.50 and 7.5 alike
+        }
+        return value;
+    }
+
+    private static final class Row {
+        final List<FlushTask> tasks = new ArrayList<>(1);
+        long notBefore; // retry time; 0 when the row isn't waiting on one
+    }
+}
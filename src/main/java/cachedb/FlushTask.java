@@ -1,10 +1,24 @@
 package cachedb;
 
+import java.util.List;
+
 public class FlushTask {
 
     public final RowMutation mutation;
 
+    // older queued mutations merged into this one; released once it commits
+    final List<RowMutation> replaced;
+
+    // failed writes so far, not counting ones where the database was unreachable
+    int attempts;
+
     public FlushTask(RowMutation mutation) {
+        this(mutation, List.of(), 0);
+    }
+
+    FlushTask(RowMutation mutation, List<RowMutation> replaced, int attempts) {
         this.mutation = mutation;
+        this.replaced = replaced;
+        this.attempts = attempts;
     }
 }
@@ -0,0 +1,78 @@
+package cachedb;
+
+/**
+ * Count-min sketch with 4-bit counters, used by {@link TinyLfuPolicy} to
+ * estimate how often a key was seen recently. Every 10 x capacity
+ * increments all counters are halved, so old popularity fades.
+ *
+ * Not thread-safe; the policy guards it with its lock.
+ */
+final class FrequencySketch {
+
+    private static final long[] SEEDS = {
+            0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L,
+            0x9ae16a3b2f90404fL, 0xcbf29ce484222325L
+    };
+    private static final long RESET_MASK = 0x7777777777777777L;
+
+    private final long[] table; // 16 counters per long
+    private final int mask;
+    private final long sampleSize;
+    private long additions;
+
+    FrequencySketch(long capacity) {
+        int size = Math.max(16, nextPowerOfTwo((int) Math.min(capacity, 1 << 26)));
+        this.table = new long[size];
+        this.mask = size - 1;
+        this.sampleSize = 10L * Math.max(capacity, 16);
+    }
+
+    int frequency(int hash) {
+        int min = 15;
+        for (int i = 0; i < 4; i++) {
+            min = Math.min(min, counter(hash, i));
+        }
+        return min;
+    }
+
+    void increment(int hash) {
+        boolean added = false;
+        for (int i = 0; i < 4; i++) {
+            int index = index(hash, i);
+            int offset = offset(hash, i);
+            if (((table[index] >>> offset) & 0xF) != 0xF) {
+                table[index] += 1L << offset;
+                added = true;
+            }
+        }
+        if (added && ++additions >= sampleSize) {
+            reset();
+        }
+    }
+
+    private void reset() {
+        for (int i = 0; i < table.length; i++) {
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        }
+        additions /= 2;
+    }
+
+    private int counter(int hash, int i) {
+        return (int) ((table[index(hash, i)] >>> offset(hash, i)) & 0xF);
+    }
+
+    private int index(int hash, int i) {
+        long h = (hash + SEEDS[i]) * SEEDS[i];
+        h += h >>> 32;
+        return (int) h & mask;
+    }
+
+    // which of the 16 counters in the long; differs per row
+    private static int offset(int hash, int i) {
+        return (((hash >>> (i * 8)) & 3) + i * 4) << 2;
+    }
+
+    private static int nextPowerOfTwo(int x) {
+        return 1 << (32 - Integer.numberOfLeadingZeros(Math.max(1, x - 1)));
+    }
+}
@@ -0,0 +1,158 @@
+package cachedb;
+
+import java.sql.Types;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Primary key layout of one table: the key columns, sorted by name, and how
+ * each value is normalised before it goes into a {@link RowKey}.
+ *
+ * A layout from the schema and the fallback used while the schema is unknown
+ * build the same key for the same values, so a table can switch to its
+ * schema's layout once it loads without losing the rows already cached.
+ * The one difference: the schema's layout also reads a non-canonical number
+ * like "007" as 7 for an integer column.
+ */
+public final class KeyLayout {
+
+    private enum Kind { INTEGRAL, OTHER }
+
+    private final String table;
+    private final String[] columns;
+    private final Kind[] kinds;
+
+    private KeyLayout(String table, String[] columns, Kind[] kinds) {
+        this.table = table;
+        this.columns = columns;
+        this.kinds = kinds;
+    }
+
+    /**
+     * Layout taken from the table's schema: primary key columns and types.
+     */
+    public static KeyLayout forSchema(String table, TableSchema schema) {
+        String[] cols = schema.primaryKeys.toArray(new String[0]);
+        Arrays.sort(cols);
+        Kind[] kinds = new Kind[cols.length];
+
+        for (int i = 0; i < cols.length; i++) {
+            Integer type = schema.columns.get(cols[i]);
+            kinds[i] = (type == null) ? Kind.OTHER : kindOf(type);
+        }
+        return new KeyLayout(table, cols, kinds);
+    }
+
+    /**
+     * Fallback when the schema is unknown: the caller's key columns, with
+     * types left to the values themselves.
+     */
+    public static KeyLayout forKey(String table, Map<String, Object> pk) {
+        String[] names = pk.keySet().toArray(new String[0]);
+        Arrays.sort(names);
+
+        Kind[] kinds = new Kind[names.length];
+        Arrays.fill(kinds, Kind.OTHER);
+        return new KeyLayout(table, names, kinds);
+    }
+
+    public List<String> columns() {
+        return List.of(columns);
+    }
+
+    /** True for a one-column key the schema says is an integer type. */
+    public boolean singleIntegral() {
+        return columns.length == 1 && kinds[0] == Kind.INTEGRAL;
+    }
+
+    public RowKey key(Map<String, Object> pk) {
+        if (columns.length == 1 && pk.size() == 1) {
+            Object value = pk.get(columns[0]);
+            if (value == null) {
+                // single PK passed under another name — same rule as FlushManager
+                value = pk.values().iterator().next();
+            }
+            return new RowKey(new Object[]{normalize(0, value)});
+        }
+
+        if (pk.size() != columns.length) {
+            throw mismatch(pk);
+        }
+
+        Object[] values = new Object[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            Object value = pk.get(columns[i]);
+            if (value == null) {
+                throw mismatch(pk);
+            }
+            values[i] = normalize(i, value);
+        }
+        return new RowKey(values);
+    }
+
+    /*
+     * Integral numbers, and text holding one in canonical form ("7", not
+     * "07" or "+7"), become the number; other numbers, booleans and
+     * characters compare by their text, like the original string keys.
+     * Anything else (dates, bytes) is kept as is.
+     */
+    private Object normalize(int i, Object value) {
+        if (RowKey.isIntegral(value)) {
+            return value;
+        }
+        if (value instanceof Number || value instanceof Boolean || value instanceof Character) {
+            value = value.toString();
+        }
+        if (!(value instanceof String)) {
+            return value;
+        }
+
+        String s = (String) value;
+        Long l = canonicalLong(s);
+        if (l == null && kinds[i] == Kind.INTEGRAL) {
+            try {
+                l = Long.parseLong(s.trim());
+            } catch (NumberFormatException e) {
+                return s;
+            }
+        }
+        return (l == null) ? s : l;
+    }
+
+    // the long s is the exact decimal form of, or null
+    private static Long canonicalLong(String s) {
+        int n = s.length();
+        int start = (n > 1 && s.charAt(0) == '-') ? 1 : 0;
+        if (n == start || n - start > 19) return null;
+        if (s.charAt(start) == '0' && (n - start > 1 || start == 1)) return null;
+
+        for (int j = start; j < n; j++) {
+            char c = s.charAt(j);
+            if (c < '0' || c > '9') return null;
+        }
+        try {
+            return Long.parseLong(s);
+        } catch (NumberFormatException e) {
+            return null; // 19 digits past Long.MAX_VALUE
+        }
+    }
+
+    private IllegalArgumentException mismatch(Map<String, Object> pk) {
+        return new IllegalArgumentException(
+                "Primary key " + pk.keySet() + " does not match "
+                        + List.of(columns) + " for table " + table);
+    }
+
+    private static Kind kindOf(int sqlType) {
+        switch (sqlType) {
+            case Types.TINYINT:
+            case Types.SMALLINT:
+            case Types.INTEGER:
+            case Types.BIGINT:
+                return Kind.INTEGRAL;
+            default:
+                return Kind.OTHER;
+        }
+    }
+}
@@ -1,36 +1,93 @@
 package cachedb;
 
+import java.util.Map;
+
 public final class LogRecord {
 
-    public static final int MAGIC = 0xCAFEBABE;
+    // LSN + binary row payload (BinaryRowCodec)
+    public static final int MAGIC = 0xCAFEF00D;
+
+    // LSN + text payload ("table|{pk}" key, Map.toString() value)
+    public static final int MAGIC_V2 = 0xCAFED00D;
+
+    // records written before LSNs existed (single logs/wal.log file)
+    public static final int MAGIC_V1 = 0xCAFEBABE;
 
     private final LogType type;
-    private final byte[] key;
-    private final byte[] value; // null for DELETE
+    private final String table;
+    private final Map<String, Object> primaryKey;
+    private final Map<String, Object> columns; // null for DELETE; column → amount for DELTA
+    private static final String THROUGH = "through"; // FLUSHED's only column
+    private final long lsn;                    // 0 until written to the WAL
 
-    private LogRecord(LogType type, byte[] key, byte[] value) {
+    private LogRecord(LogType type,
+                      String table,
+                      Map<String, Object> primaryKey,
+                      Map<String, Object> columns,
+                      long lsn) {
         this.type = type;
-        this.key = key;
-        this.value = value;
+        this.table = table;
+        this.primaryKey = primaryKey;
+        this.columns = columns;
+        this.lsn = lsn;
+    }
+
+    public static LogRecord put(String table,
+                                Map<String, Object> primaryKey,
+                                Map<String, Object> columns) {
+        return new LogRecord(LogType.PUT, table, primaryKey, columns, 0);
+    }
+
+    public static LogRecord delete(String table, Map<String, Object> primaryKey) {
+        return new LogRecord(LogType.DELETE, table, primaryKey, null, 0);
     }
 
-    public static LogRecord put(byte[] key, byte[] value) {
-        return new LogRecord(LogType.PUT, key, value);
+    public static LogRecord delta(String table,
+                                  Map<String, Object> primaryKey,
+                                  String column,
+                                  long delta) {
+        return new LogRecord(LogType.DELTA, table, primaryKey, Map.of(column, delta), 0);
     }
 
-    public static LogRecord delete(byte[] key) {
-        return new LogRecord(LogType.DELETE, key, null);
+    /** Marks the row's records up to {@code throughLsn} as flushed; never replayed. */
+    public static LogRecord flushed(String table,
+                                    Map<String, Object> primaryKey,
+                                    long throughLsn) {
+        return new LogRecord(LogType.FLUSHED, table, primaryKey, Map.of(THROUGH, throughLsn), 0);
+    }
+
+    static LogRecord read(LogType type,
+                          String table,
+                          Map<String, Object> primaryKey,
+                          Map<String, Object> columns,
+                          long lsn) {
+        return new LogRecord(type, table, primaryKey,
+                type == LogType.DELETE ? null : columns, lsn);
     }
 
     public LogType type() {
         return type;
     }
 
-    public byte[] key() {
-        return key;
+    public String table() {
+        return table;
+    }
+
+    public Map<String, Object> primaryKey() {
+        return primaryKey;
+    }
+
+    public Map<String, Object> columns() {
+        return columns;
+    }
+
+    /** For a FLUSHED record, the newest of the row's records it marks as flushed. */
+    public long flushedThrough() {
+        return ((Number) columns.get(THROUGH)).longValue();
     }
 
-    public byte[] value() {
-        return value;
+    /** Log sequence number, assigned by {@link WALWriter} when the record is written. */
+    public long lsn() {
+        return lsn;
     }
 }
@@ -2,68 +2,116 @@ package cachedb;
 
 
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 
 public final class LogSerializer {
 
+    // offset of the LSN field, patched by WALWriter when the record is written
+    static final int LSN_OFFSET = Integer.BYTES + Integer.BYTES;
+
+    static final RowCodec BINARY = new BinaryRowCodec();
+    static final RowCodec TEXT = new TextRowCodec();
+
     private LogSerializer() {}
 
     /*
      * Format:
      * [MAGIC:int]
      * [TOTAL_LENGTH:int]
+     * [LSN:long]
+     * [TYPE:byte]
+     * [TABLE_LEN:varint][TABLE:utf8]
+     * [PK_LEN:varint][PK:row]
+     * [COLS_LEN:varint][COLS:row]   (PUT and DELTA)
+     *
+     * Rows are encoded with BinaryRowCodec.
+     *
+     * Older records (MAGIC_V2 with an LSN, MAGIC_V1 without) use:
      * [TYPE:byte]
-     * [KEY_LEN:int]
-     * [KEY:bytes]
-     * [VALUE_LEN:int] (-1 for DELETE)
-     * [VALUE:bytes]
+     * [KEY_LEN:int][KEY:"table|{pk}"]
+     * [VALUE_LEN:int][VALUE:"{cols}"]  (-1 for DELETE)
      */
     public static ByteBuffer serialize(LogRecord r) {
-        int keyLen = r.key().length;
-        int valueLen = (r.value() == null) ? -1 : r.value().length;
+        byte[] table = r.table().getBytes(StandardCharsets.UTF_8);
+        byte[] pk = BINARY.encode(r.primaryKey());
+        byte[] cols = (r.type() != LogType.DELETE) ? BINARY.encode(r.columns()) : null;
 
         int totalLen =
                 Integer.BYTES + // MAGIC
                         Integer.BYTES + // TOTAL_LENGTH
+                        Long.BYTES +    // LSN
                         Byte.BYTES +
-                        Integer.BYTES + keyLen +
-                        Integer.BYTES + (valueLen > 0 ? valueLen : 0);
+                        Varint.size(table.length) + table.length +
+                        Varint.size(pk.length) + pk.length +
+                        (cols == null ? 0 : Varint.size(cols.length) + cols.length);
 
         ByteBuffer buf = ByteBuffer.allocate(totalLen);
 
         buf.putInt(LogRecord.MAGIC);
         buf.putInt(totalLen);
+        buf.putLong(r.lsn());
         buf.put(r.type().code());
 
-        buf.putInt(keyLen);
-        buf.put(r.key());
-
-        buf.putInt(valueLen);
-        if (valueLen > 0) {
-            buf.put(r.value());
+        putBytes(buf, table);
+        putBytes(buf, pk);
+        if (cols != null) {
+            putBytes(buf, cols);
         }
 
         buf.flip();
         return buf;
     }
 
-    public static LogRecord deserialize(ByteBuffer buf) {
-        byte typeCode = buf.get();
-        LogType type = LogType.fromCode(typeCode);
+    /**
+     * Reads the record body that follows MAGIC and TOTAL_LENGTH.
+     */
+    public static LogRecord deserialize(int magic, ByteBuffer buf) {
+        if (magic != LogRecord.MAGIC) {
+            return deserializeText(magic, buf);
+        }
+
+        long lsn = buf.getLong();
+        LogType type = LogType.fromCode(buf.get());
+
+        String table = new String(getBytes(buf), StandardCharsets.UTF_8);
+        byte[] pk = getBytes(buf);
+        byte[] cols = (type != LogType.DELETE) ? getBytes(buf) : null;
+
+        return LogRecord.read(type, table, BINARY.decode(pk),
+                cols == null ? null : BINARY.decode(cols), lsn);
+    }
+
+    private static LogRecord deserializeText(int magic, ByteBuffer buf) {
+        long lsn = (magic == LogRecord.MAGIC_V2) ? buf.getLong() : 0;
+
+        LogType type = LogType.fromCode(buf.get());
 
-        int keyLen = buf.getInt();
-        byte[] key = new byte[keyLen];
+        byte[] key = new byte[buf.getInt()];
         buf.get(key);
 
         int valueLen = buf.getInt();
         byte[] value = null;
-
         if (valueLen >= 0) {
             value = new byte[valueLen];
             buf.get(value);
         }
 
-        return (type == LogType.PUT)
-                ? LogRecord.put(key, value)
-                : LogRecord.delete(key);
+        // key format: table|{pk}
+        String[] parts = new String(key, StandardCharsets.UTF_8).split("\\|", 2);
+        byte[] pk = parts[1].getBytes(StandardCharsets.UTF_8);
+
+        return LogRecord.read(type, parts[0], TEXT.decode(pk),
+                value == null ? null : TEXT.decode(value), lsn);
+    }
+
+    private static void putBytes(ByteBuffer buf, byte[] bytes) {
+        Varint.put(buf, bytes.length);
+        buf.put(bytes);
+    }
+
+    private static byte[] getBytes(ByteBuffer buf) {
+        byte[] bytes = new byte[Varint.get(buf)];
+        buf.get(bytes);
+        return bytes;
     }
 }
@@ -3,7 +3,9 @@ package cachedb;
 
 public enum LogType {
     PUT((byte) 1),
-    DELETE((byte) 2);
+    DELETE((byte) 2),
+    DELTA((byte) 3), // columns hold amounts to add, not values
+    FLUSHED((byte) 4); // the row's increments up to an LSN are in the database
 
     private final byte code;
 
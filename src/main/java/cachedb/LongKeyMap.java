@@ -0,0 +1,278 @@
+package cachedb;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiFunction;
+
+/**
+ * Concurrent map for tables whose primary key is one integral column.
+ *
+ * Keys are kept as primitive longs in open-addressing tables, so
+ * {@link #get(long)} neither boxes nor allocates. Reads take no lock; writes
+ * lock one of 16 segments. A removed key leaves a tombstone that is only
+ * cleared when its segment is rehashed, so a slot once given to a key never
+ * holds another one and lock-free readers never see entries move.
+ *
+ * Also usable as a {@code Map<RowKey, V>} through the methods CacheStore
+ * needs; keys must hold a single integral value.
+ */
+final class LongKeyMap<V> extends AbstractMap<RowKey, V> {
+
+    private static final int SEGMENTS = 16;
+    private static final int INITIAL_CAPACITY = 64;
+    private static final Object TOMBSTONE = new Object();
+
+    private final Segment<V>[] segments;
+
+    LongKeyMap() {
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        Segment<V>[] segments = new Segment[SEGMENTS];
+        this.segments = segments;
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment<>();
+        }
+    }
+
+    /** True if {@code key} can be stored here. */
+    static boolean fits(RowKey key) {
+        return key.size() == 1 && RowKey.isIntegral(key.get(0));
+    }
+
+    public V get(long id) {
+        long h = mix(id);
+        return segmentFor(h).table.get(id, h);
+    }
+
+    @Override
+    public V get(Object key) {
+        if (!(key instanceof RowKey) || !fits((RowKey) key)) return null;
+        return get(idOf((RowKey) key));
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+
+    @Override
+    public V compute(RowKey key, BiFunction<? super RowKey, ? super V, ? extends V> fn) {
+        long id = idOf(key);
+        long h = mix(id);
+        Segment<V> seg = segmentFor(h);
+
+        seg.lock.lock();
+        try {
+            return seg.compute(key, id, h, fn, false);
+        } finally {
+            seg.lock.unlock();
+        }
+    }
+
+    @Override
+    public V computeIfPresent(RowKey key, BiFunction<? super RowKey, ? super V, ? extends V> fn) {
+        if (!fits(key)) return null;
+        long id = idOf(key);
+        long h = mix(id);
+        Segment<V> seg = segmentFor(h);
+
+        seg.lock.lock();
+        try {
+            return seg.compute(key, id, h, fn, true);
+        } finally {
+            seg.lock.unlock();
+        }
+    }
+
+    @Override
+    public V put(RowKey key, V value) {
+        Object[] old = new Object[1];
+        compute(key, (k, v) -> {
+            old[0] = v;
+            return value;
+        });
+        @SuppressWarnings("unchecked")
+        V previous = (V) old[0];
+        return previous;
+    }
+
+    @Override
+    public V remove(Object key) {
+        if (!(key instanceof RowKey) || !fits((RowKey) key)) return null;
+        Object[] old = new Object[1];
+        computeIfPresent((RowKey) key, (k, v) -> {
+            old[0] = v;
+            return null;
+        });
+        @SuppressWarnings("unchecked")
+        V previous = (V) old[0];
+        return previous;
+    }
+
+    @Override
+    public int size() {
+        int n = 0;
+        for (Segment<V> seg : segments) n += seg.size;
+        return n;
+    }
+
+    /** Weakly consistent, like ConcurrentHashMap's views; read-only. */
+    @Override
+    public Set<Map.Entry<RowKey, V>> entrySet() {
+        return new AbstractSet<>() {
+            @Override
+            public int size() {
+                return LongKeyMap.this.size();
+            }
+
+            @Override
+            public Iterator<Map.Entry<RowKey, V>> iterator() {
+                List<Map.Entry<RowKey, V>> snapshot = new ArrayList<>();
+                for (Segment<V> seg : segments) {
+                    seg.table.collect(snapshot);
+                }
+                return snapshot.iterator();
+            }
+        };
+    }
+
+    private Segment<V> segmentFor(long h) {
+        return segments[(int) (h >>> 60) & (SEGMENTS - 1)];
+    }
+
+    private static long idOf(RowKey key) {
+        if (!fits(key)) {
+            throw new IllegalArgumentException("Key " + key + " is not a single integral value");
+        }
+        return ((Number) key.get(0)).longValue();
+    }
+
+    private static long mix(long id) {
+        long h = id * 0x9E3779B97F4A7C15L;
+        return h ^ (h >>> 29);
+    }
+
+    private static final class Segment<V> {
+        final ReentrantLock lock = new ReentrantLock();
+        volatile Table<V> table = new Table<>(INITIAL_CAPACITY);
+        volatile int size;
+
+        // caller holds the lock
+        V compute(RowKey key, long id, long h,
+                  BiFunction<? super RowKey, ? super V, ? extends V> fn,
+                  boolean onlyIfPresent) {
+            Table<V> t = table;
+            int i = t.slot(id, h);
+            Object current = (i < 0) ? null : t.values.get(i);
+            @SuppressWarnings("unchecked")
+            V old = (current == null || current == TOMBSTONE) ? null : (V) current;
+
+            if (old == null && onlyIfPresent) return null;
+
+            V updated = fn.apply(key, old);
+            if (updated == old) return old;
+
+            if (updated == null) {
+                t.values.set(i, TOMBSTONE);
+                t.tombstones++;
+                size--;
+                return null;
+            }
+            if (i >= 0) {
+                t.values.set(i, updated); // same key, live or tombstone
+                if (current == TOMBSTONE) {
+                    t.tombstones--;
+                    size++;
+                }
+                return updated;
+            }
+
+            if ((t.used + 1) * 4 > t.keys.length() * 3) {
+                t = rehash(t);
+            }
+            t.insert(id, h, updated);
+            size++;
+            return updated;
+        }
+
+        // grows if mostly live, otherwise just drops the tombstones
+        Table<V> rehash(Table<V> old) {
+            int live = old.used - old.tombstones;
+            int capacity = old.keys.length();
+            if ((live + 1) * 2 > capacity) capacity *= 2;
+
+            Table<V> fresh = new Table<>(capacity);
+            for (int i = 0; i < old.keys.length(); i++) {
+                Object v = old.values.get(i);
+                if (v != null && v != TOMBSTONE) {
+                    long id = old.keys.get(i);
+                    fresh.insert(id, mix(id), v);
+                }
+            }
+            table = fresh;
+            return fresh;
+        }
+    }
+
+    /*
+     * A slot is empty while its value is null. Writers set the key before
+     * the value, so a reader that sees a value also sees its key.
+     */
+    private static final class Table<V> {
+        final AtomicLongArray keys;
+        final AtomicReferenceArray<Object> values;
+        final int mask;
+        int used;       // slots ever given a key, guarded by the segment lock
+        int tombstones; // guarded by the segment lock
+
+        Table(int capacity) {
+            this.keys = new AtomicLongArray(capacity);
+            this.values = new AtomicReferenceArray<>(capacity);
+            this.mask = capacity - 1;
+        }
+
+        @SuppressWarnings("unchecked")
+        V get(long id, long h) {
+            for (int i = (int) h & mask; ; i = (i + 1) & mask) {
+                Object v = values.get(i);
+                if (v == null) return null;
+                if (keys.get(i) == id) {
+                    return (v == TOMBSTONE) ? null : (V) v;
+                }
+            }
+        }
+
+        int slot(long id, long h) {
+            for (int i = (int) h & mask; ; i = (i + 1) & mask) {
+                if (values.get(i) == null) return -1;
+                if (keys.get(i) == id) return i;
+            }
+        }
+
+        void insert(long id, long h, Object value) {
+            int i = (int) h & mask;
+            while (values.get(i) != null) i = (i + 1) & mask;
+            keys.set(i, id);
+            values.set(i, value);
+            used++;
+        }
+
+        @SuppressWarnings("unchecked")
+        void collect(List<Map.Entry<RowKey, V>> out) {
+            for (int i = 0; i < keys.length(); i++) {
+                Object v = values.get(i);
+                if (v != null && v != TOMBSTONE) {
+                    out.add(new SimpleImmutableEntry<>(
+                            new RowKey(new Object[] { keys.get(i) }), (V) v));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,921 @@
+package cachedb;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import java.util.function.LongConsumer;
+import java.util.function.LongSupplier;
+
+/**
+ * {@link CacheStore} that keeps rows outside the Java heap, so a large cache
+ * adds almost nothing for the garbage collector to trace.
+ *
+ * Each row is one record, encoded with the WAL's {@link BinaryRowCodec},
+ * appended to a direct-memory slab. Rows are found through an open-addressing
+ * index, also in direct memory, that maps the table and key hash to the
+ * record's slab and offset. A rewrite appends a new record and marks the old
+ * one dead.
+ *
+ * Records are appended in write order and every write gets the same TTL, so
+ * each segment's slabs form a log ordered by expiry: expiration (and, when a
+ * limit is set, eviction) walks it from the oldest record and frees slabs
+ * once they are passed. A slab that is mostly dead before it gets there is
+ * compacted in place.
+ *
+ * Entries handed out by {@link #lookup} and to the expiration and eviction
+ * handlers are decoded copies. {@link #raw()} is always empty.
+ */
+public class OffHeapCacheStore extends CacheStore {
+
+    public static final int DEFAULT_SLAB_BYTES = 4 << 20;
+
+    private static final int SEGMENTS = 16;
+    private static final int INITIAL_INDEX_SLOTS = 1024;
+
+    private static final byte LIVE = 1;
+    private static final byte DIRTY = 2;
+    private static final byte TOMBSTONE = 4;
+
+    // record layout: length, flags, tag, expiresAt, version, pendingLsn,
+    // appliedLsn, primary key length and bytes, column length (-1 for a tombstone) and
+    // bytes, pending increments length (-1 for none) and bytes
+    private static final int FLAGS = 4;
+    private static final int TAG = 5;
+    private static final int EXPIRES = 13;
+    private static final int VERSION = 21;
+    private static final int LSN = 29;
+    private static final int APPLIED = 37;
+    private static final int PK_LENGTH = 45;
+    private static final int HEADER = 49;
+
+    // frees a direct buffer on the spot; null where the JDK doesn't allow it
+    private static final MethodHandle INVOKE_CLEANER = invokeCleaner();
+
+    private final BinaryRowCodec codec = new BinaryRowCodec();
+    private final Segment[] segments = new Segment[SEGMENTS];
+    private final int slabBytes;
+    private final long maxEntriesPerSegment; // 0 = no limit
+    private final long maxBytesPerSegment;   // 0 = no limit
+
+    // tables get small ids so the index can tell them apart by tag
+    private final Map<String, Integer> tableIds = new ConcurrentHashMap<>();
+    private volatile String[] tableNames = { null };
+
+    private final LongAdder compactions = new LongAdder();
+
+    public OffHeapCacheStore(long ttlMillis, SchemaRegistry schemaRegistry) {
+        this(ttlMillis, schemaRegistry, 0, 0, DEFAULT_SLAB_BYTES);
+    }
+
+    /**
+     * @param maxEntries most entries kept before evicting the oldest; 0 for no limit
+     * @param maxBytes   most record bytes kept before evicting the oldest; 0 for no limit
+     * @param slabBytes  size of each direct-memory slab
+     */
+    public OffHeapCacheStore(long ttlMillis,
+                             SchemaRegistry schemaRegistry,
+                             long maxEntries,
+                             long maxBytes,
+                             int slabBytes) {
+        super(ttlMillis, schemaRegistry);
+        if (slabBytes < 1024) {
+            throw new IllegalArgumentException("slabBytes must be >= 1024");
+        }
+        this.slabBytes = slabBytes;
+        this.maxEntriesPerSegment = (maxEntries <= 0) ? 0 : Math.max(1, maxEntries / SEGMENTS);
+        this.maxBytesPerSegment = (maxBytes <= 0) ? 0 : Math.max(1, maxBytes / SEGMENTS);
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment();
+        }
+    }
+
+    @Override
+    public boolean upsert(String table,
+                          Map<String, Object> pk,
+                          Map<String, Object> columns,
+                          LongSupplier log) {
+        RowKey key = key(table, pk);
+        long tag = tag(table, key);
+        byte[] pkBytes = codec.encode(pk);
+        byte[] colBytes = codec.encode(columns);
+
+        Segment seg = segmentFor(tag);
+        seg.lock.lock();
+        try {
+            int slot = seg.find(table, key, tag);
+            long lsn = log.getAsLong();
+            if (stale(seg, slot, lsn)) {
+                return false;
+            }
+            return put(seg, slot, tag, lsn, pkBytes, colBytes, null);
+        } finally {
+            seg.lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean compareAndSet(String table,
+                                 Map<String, Object> pk,
+                                 long expectedVersion,
+                                 Map<String, Object> columns,
+                                 LongSupplier log,
+                                 LongConsumer unowned) {
+        RowKey key = key(table, pk);
+        long tag = tag(table, key);
+        byte[] pkBytes = codec.encode(pk);
+        byte[] colBytes = codec.encode(columns);
+
+        Segment seg = segmentFor(tag);
+        seg.lock.lock();
+        try {
+            int slot = seg.find(table, key, tag);
+            long current = 0;
+            if (slot >= 0 && !seg.isTombstone(seg.address(slot))) {
+                current = seg.getLong(seg.address(slot), VERSION);
+            }
+            if (current != expectedVersion) {
+                return false;
+            }
+
+            long lsn = log.getAsLong();
+            if (!put(seg, slot, tag, lsn, pkBytes, colBytes, null)) {
+                unowned.accept(lsn);
+            }
+            return true;
+        } finally {
+            seg.lock.unlock();
+        }
+    }
+
+    // whether the row's record has a newer write applied than lsn
+    private static boolean stale(Segment seg, int slot, long lsn) {
+        return slot >= 0 && lsn != 0 && lsn < seg.getLong(seg.address(slot), APPLIED);
+    }
+
+    // writes a new record for the row; the caller holds the segment's lock
+    private boolean put(Segment seg, int slot, long tag, long lsn,
+                        byte[] pkBytes, byte[] colBytes, byte[] deltaBytes) {
+        long now = System.currentTimeMillis();
+
+        long version = firstVersion();
+        long pending = lsn;
+        boolean owned = true;
+        if (slot >= 0) {
+            long old = seg.address(slot);
+            version = seg.getLong(old, VERSION) + 1;
+            long oldLsn = seg.getLong(old, LSN);
+            if (oldLsn != 0) {
+                pending = oldLsn;
+                owned = false;
+                coverHandler.covered(lsn, oldLsn);
+            }
+            seg.kill(old);
+        }
+
+        long address = seg.append((byte) (LIVE | DIRTY), tag,
+                now + ttlMillis, version, pending, lsn, pkBytes, colBytes, deltaBytes);
+        seg.put(slot, tag, address);
+        seg.evictOverflow();
+        return owned;
+    }
+
+    /**
+     * Rewrites the row's record with {@code delta} added, the same way the
+     * heap store changes its entry: the cached value if there is one, and
+     * the pending sums unless the row's values are being written anyway.
+     * {@code log} is called only once the new record has been worked out.
+     */
+    @Override
+    public boolean increment(String table,
+                             Map<String, Object> pk,
+                             String column,
+                             long delta,
+                             LongSupplier log) {
+        RowKey key = key(table, pk);
+        long tag = tag(table, key);
+        byte[] pkBytes = codec.encode(pk);
+
+        Segment seg = segmentFor(tag);
+        seg.lock.lock();
+        try {
+            int slot = seg.find(table, key, tag);
+            Map<String, Object> columns = null;
+            Map<String, Object> deltas = null;
+
+            if (slot < 0) {
+                deltas = new LinkedHashMap<>();
+                deltas.put(column, delta);
+            } else {
+                CacheEntry existing = seg.entry(seg.address(slot));
+                if (existing.columns == null && existing.deltas == null) {
+                    // after a delete the row starts again from 0
+                    columns = new LinkedHashMap<>();
+                    columns.put(column, delta);
+                } else {
+                    if (existing.columns != null) {
+                        columns = new LinkedHashMap<>(existing.columns);
+                        columns.put(column, add(column, columns.get(column), delta));
+                    }
+                    if (!existing.dirty || existing.deltas != null) {
+                        deltas = (existing.deltas == null)
+                                ? new LinkedHashMap<>()
+                                : new LinkedHashMap<>(existing.deltas);
+                        deltas.merge(column, delta, (a, b) -> (Long) a + (Long) b);
+                    }
+                }
+            }
+
+            byte[] colBytes = (columns == null) ? null : codec.encode(columns);
+            byte[] deltaBytes = (deltas == null) ? null : codec.encode(deltas);
+            return put(seg, slot, tag, log.getAsLong(), pkBytes, colBytes, deltaBytes);
+        } finally {
+            seg.lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean delete(String table, Map<String, Object> pk, LongSupplier log) {
+        RowKey key = key(table, pk);
+        long tag = tag(table, key);
+        byte[] pkBytes = codec.encode(pk);
+
+        Segment seg = segmentFor(tag);
+        seg.lock.lock();
+        try {
+            int slot = seg.find(table, key, tag);
+            long lsn = log.getAsLong();
+            if (stale(seg, slot, lsn)) {
+                return false;
+            }
+
+            // a fresh deadline like any write, keeping the log in expiry order
+            long expiresAt = System.currentTimeMillis() + ttlMillis;
+            long version = firstVersion();
+            long pending = lsn;
+            boolean owned = true;
+            if (slot >= 0) {
+                long old = seg.address(slot);
+                version = seg.getLong(old, VERSION) + 1;
+                long oldLsn = seg.getLong(old, LSN);
+                if (oldLsn != 0) {
+                    pending = oldLsn;
+                    owned = false;
+                    coverHandler.covered(lsn, oldLsn);
+                }
+                seg.kill(old);
+            }
+
+            long address = seg.append((byte) (LIVE | DIRTY | TOMBSTONE), tag,
+                    expiresAt, version, pending, lsn, pkBytes, null, null);
+            seg.put(slot, tag, address);
+            seg.evictOverflow();
+            return owned;
+        } finally {
+            seg.lock.unlock();
+        }
+    }
+
+    @Override
+    public Map<String, Object> get(String table, Map<String, Object> pk) {
+        RowKey key = key(table, pk);
+        long tag = tag(table, key);
+
+        byte[] colBytes;
+        Segment seg = segmentFor(tag);
+        seg.lock.lock();
+        try {
+            int slot = seg.find(table, key, tag);
+            if (slot < 0) {
+                misses.increment();
+                return null;
+            }
+            long address = seg.address(slot);
+            if (System.currentTimeMillis() > seg.getLong(address, EXPIRES)
+                    || seg.isDeltaOnly(address) || seg.isTombstone(address)) {
+                misses.increment();
+                return null;
+            }
+            hits.increment();
+            colBytes = seg.columnBytes(address);
+        } finally {
+            seg.lock.unlock();
+        }
+        return codec.decode(colBytes);
+    }
+
+    @Override
+    VersionedRow snapshot(String table, Map<String, Object> pk) {
+        RowKey key = key(table, pk);
+        long tag = tag(table, key);
+
+        Segment seg = segmentFor(tag);
+        seg.lock.lock();
+        try {
+            int slot = seg.find(table, key, tag);
+            if (slot < 0) return null;
+            CacheEntry entry = seg.entry(seg.address(slot));
+            return (entry.columns == null) ? null : new VersionedRow(entry.columns, entry.version);
+        } finally {
+            seg.lock.unlock();
+        }
+    }
+
+    @Override
+    public CacheEntry lookup(String table, Map<String, Object> pk) {
+        RowKey key = key(table, pk);
+        long tag = tag(table, key);
+
+        Segment seg = segmentFor(tag);
+        seg.lock.lock();
+        try {
+            int slot = seg.find(table, key, tag);
+            if (slot >= 0) {
+                return seg.entry(seg.address(slot));
+            }
+        } finally {
+            seg.lock.unlock();
+        }
+        return pendingFlush(table, key);
+    }
+
+    @Override
+    public Map<String, Object> load(String table,
+                                    Map<String, Object> pk,
+                                    Map<String, Object> columns) {
+        RowKey key = key(table, pk);
+        long tag = tag(table, key);
+        byte[] pkBytes = codec.encode(pk);
+        byte[] colBytes = codec.encode(columns);
+
+        Segment seg = segmentFor(tag);
+        seg.lock.lock();
+        try {
+            int slot = seg.find(table, key, tag);
+            if (slot >= 0 && seg.isDeltaOnly(seg.address(slot))) {
+                // increments that got in first are added to the loaded row
+                long old = seg.address(slot);
+                CacheEntry existing = seg.entry(old);
+                Map<String, Object> merged = new LinkedHashMap<>(columns);
+                for (Map.Entry<String, Long> d : existing.deltas.entrySet()) {
+                    merged.put(d.getKey(), add(d.getKey(), merged.get(d.getKey()), d.getValue()));
+                }
+                seg.kill(old);
+                long address = seg.append((byte) (LIVE | DIRTY), tag,
+                        System.currentTimeMillis() + ttlMillis, existing.version,
+                        existing.pendingLsn, existing.appliedLsn, pkBytes, codec.encode(merged),
+                        codec.encode(new LinkedHashMap<>(existing.deltas)));
+                seg.put(slot, tag, address);
+                seg.evictOverflow();
+                return merged;
+            }
+            if (slot >= 0) {
+                // a write got in first
+                byte[] cached = seg.columnBytes(seg.address(slot));
+                return (cached == null) ? null : codec.decode(cached);
+            }
+            long address = seg.append(LIVE, tag,
+                    System.currentTimeMillis() + ttlMillis, firstVersion(), 0, 0, pkBytes, colBytes, null);
+            seg.put(slot, tag, address);
+            seg.evictOverflow();
+            return columns;
+        } finally {
+            seg.lock.unlock();
+        }
+    }
+
+    @Override
+    public void expire(long now, BiConsumer<String, CacheEntry> onExpired) {
+        for (Segment seg : segments) {
+            seg.lock.lock();
+            try {
+                seg.sweep(now, onExpired);
+            } finally {
+                seg.lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Evicts the oldest rows, handing them to {@code onDue}, until
+     * {@code max} dirty ones have gone: the log is already in write order,
+     * so they are the ones holding the oldest WAL records.
+     */
+    @Override
+    public int writeBackOldest(int max, BiConsumer<String, CacheEntry> onDue) {
+        int handed = 0;
+        int perSegment = Math.max(1, (max + SEGMENTS - 1) / SEGMENTS);
+        for (Segment seg : segments) {
+            if (handed >= max) break;
+            seg.lock.lock();
+            try {
+                handed += seg.evictOldest(Math.min(perSegment, max - handed), onDue);
+            } finally {
+                seg.lock.unlock();
+            }
+        }
+        return handed;
+    }
+
+    /** Always empty: rows are not kept as heap entries. */
+    @Override
+    public Map<String, Map<RowKey, CacheEntry>> raw() {
+        return Collections.emptyMap();
+    }
+
+    @Override
+    public int scheduledExpirations() {
+        return (int) boundedEntries();
+    }
+
+    /** Live rows, with or without a limit. */
+    @Override
+    public long boundedEntries() {
+        long n = 0;
+        for (Segment seg : segments) n += seg.entries;
+        return n;
+    }
+
+    /** Bytes of live records, with or without a limit. */
+    @Override
+    public long boundedBytes() {
+        long n = 0;
+        for (Segment seg : segments) n += seg.liveBytes;
+        return n;
+    }
+
+    /** Direct memory held by slabs and indexes, live or not. */
+    public long offHeapBytes() {
+        long n = 0;
+        for (Segment seg : segments) n += seg.allocatedBytes;
+        return n;
+    }
+
+    public long compactionCount() {
+        return compactions.sum();
+    }
+
+    private Segment segmentFor(long tag) {
+        int h = (int) (tag ^ (tag >>> 32));
+        return segments[(h ^ (h >>> 16)) & (SEGMENTS - 1)];
+    }
+
+    // non-zero: table ids start at 1
+    private long tag(String table, RowKey key) {
+        return ((long) tableId(table) << 32) | (key.hashCode() & 0xFFFFFFFFL);
+    }
+
+    private int tableId(String table) {
+        Integer id = tableIds.get(table);
+        return (id != null) ? id : addTable(table);
+    }
+
+    private synchronized int addTable(String table) {
+        Integer id = tableIds.get(table);
+        if (id != null) return id;
+
+        String[] names = Arrays.copyOf(tableNames, tableNames.length + 1);
+        names[names.length - 1] = table;
+        tableNames = names;
+        tableIds.put(table, names.length - 1);
+        return names.length - 1;
+    }
+
+    private static MethodHandle invokeCleaner() {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            return MethodHandles.lookup()
+                    .findVirtual(unsafeClass, "invokeCleaner",
+                            MethodType.methodType(void.class, ByteBuffer.class))
+                    .bindTo(field.get(null));
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Gives a buffer nothing refers to any more back to the OS now, rather
+     * than whenever the collector gets to it: direct memory doesn't count
+     * towards the heap, so replaced slabs and indexes would otherwise pile
+     * up unnoticed.
+     */
+    private static void free(ByteBuffer buf) {
+        if (INVOKE_CLEANER == null) return; // left to the collector
+        try {
+            INVOKE_CLEANER.invokeExact(buf);
+        } catch (Throwable e) {
+            // left to the collector
+        }
+    }
+
+    private static int home(long tag, int mask) {
+        return (int) ((tag * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+    }
+
+    private static final class Slab {
+        final int id;
+        ByteBuffer buf;
+        int head; // oldest record not yet swept
+        int end;  // where the next record goes
+        int live; // bytes of live records
+
+        Slab(int id, ByteBuffer buf) {
+            this.id = id;
+            this.buf = buf;
+        }
+    }
+
+    /*
+     * One lock, index and slab log per segment. Index slots are 16 bytes:
+     * the tag (0 = empty) and the record address, slab id << 32 | offset.
+     */
+    private final class Segment {
+        final ReentrantLock lock = new ReentrantLock();
+
+        ByteBuffer index = ByteBuffer.allocateDirect(INITIAL_INDEX_SLOTS * 16);
+        int mask = INITIAL_INDEX_SLOTS - 1;
+        int used;
+
+        final List<Slab> log = new ArrayList<>(); // oldest first
+        final Map<Integer, Slab> slabs = new HashMap<>();
+        final List<ByteBuffer> spare = new ArrayList<>();
+        Slab active;
+        int nextSlabId;
+
+        long entries;
+        long liveBytes;
+        long allocatedBytes = (long) INITIAL_INDEX_SLOTS * 16;
+
+        /* ---- index ---- */
+
+        /** Slot of the row, or -(free slot + 1) if it isn't indexed. */
+        int find(String table, RowKey key, long tag) {
+            int i = home(tag, mask);
+            while (true) {
+                long t = index.getLong(i * 16);
+                if (t == 0) return -(i + 1);
+                if (t == tag && keyAt(address(i), table).equals(key)) return i;
+                i = (i + 1) & mask;
+            }
+        }
+
+        long address(int slot) {
+            return index.getLong(slot * 16 + 8);
+        }
+
+        // slot from find(): overwrite a hit, or fill the free slot of a miss
+        void put(int slot, long tag, long address) {
+            if (slot >= 0) {
+                index.putLong(slot * 16 + 8, address);
+                return;
+            }
+            if ((used + 1) * 10L > (mask + 1) * 7L) {
+                grow();
+                slot = -(freeSlot(tag) + 1);
+            }
+            int i = -(slot + 1);
+            index.putLong(i * 16, tag);
+            index.putLong(i * 16 + 8, address);
+            used++;
+        }
+
+        int freeSlot(long tag) {
+            int i = home(tag, mask);
+            while (index.getLong(i * 16) != 0) i = (i + 1) & mask;
+            return i;
+        }
+
+        int slotOf(long tag, long address) {
+            int i = home(tag, mask);
+            while (true) {
+                long t = index.getLong(i * 16);
+                if (t == 0) return -1;
+                if (t == tag && address(i) == address) return i;
+                i = (i + 1) & mask;
+            }
+        }
+
+        // backward-shift delete, so probes never need tombstone slots
+        void removeSlot(int slot) {
+            int i = slot;
+            int j = slot;
+            while (true) {
+                j = (j + 1) & mask;
+                long t = index.getLong(j * 16);
+                if (t == 0) break;
+                int h = home(t, mask);
+                boolean stays = (i <= j) ? (i < h && h <= j) : (i < h || h <= j);
+                if (!stays) {
+                    index.putLong(i * 16, t);
+                    index.putLong(i * 16 + 8, address(j));
+                    i = j;
+                }
+            }
+            index.putLong(i * 16, 0);
+            index.putLong(i * 16 + 8, 0);
+            used--;
+        }
+
+        void grow() {
+            ByteBuffer old = index;
+            int oldSlots = mask + 1;
+
+            index = ByteBuffer.allocateDirect(oldSlots * 2 * 16);
+            mask = oldSlots * 2 - 1;
+            allocatedBytes += (long) oldSlots * 16;
+
+            for (int s = 0; s < oldSlots; s++) {
+                long t = old.getLong(s * 16);
+                if (t == 0) continue;
+                int i = freeSlot(t);
+                index.putLong(i * 16, t);
+                index.putLong(i * 16 + 8, old.getLong(s * 16 + 8));
+            }
+            free(old);
+        }
+
+        /* ---- records ---- */
+
+        long append(byte flags, long tag, long expiresAt, long version,
+                    long lsn, long applied, byte[] pk, byte[] cols, byte[] deltas) {
+            int length = HEADER + pk.length + 4 + (cols == null ? 0 : cols.length)
+                    + 4 + (deltas == null ? 0 : deltas.length);
+            if (active == null || active.buf.capacity() - active.end < length) {
+                active = newSlab(length);
+            }
+
+            ByteBuffer b = active.buf;
+            int off = active.end;
+            b.putInt(off, length);
+            b.put(off + FLAGS, flags);
+            b.putLong(off + TAG, tag);
+            b.putLong(off + EXPIRES, expiresAt);
+            b.putLong(off + VERSION, version);
+            b.putLong(off + LSN, lsn);
+            b.putLong(off + APPLIED, applied);
+            b.putInt(off + PK_LENGTH, pk.length);
+            b.put(off + HEADER, pk);
+            int colsAt = off + HEADER + pk.length;
+            b.putInt(colsAt, cols == null ? -1 : cols.length);
+            if (cols != null) {
+                b.put(colsAt + 4, cols);
+            }
+            int deltasAt = colsAt + 4 + (cols == null ? 0 : cols.length);
+            b.putInt(deltasAt, deltas == null ? -1 : deltas.length);
+            if (deltas != null) {
+                b.put(deltasAt + 4, deltas);
+            }
+
+            active.end += length;
+            active.live += length;
+            entries++;
+            liveBytes += length;
+            return ((long) active.id << 32) | off;
+        }
+
+        Slab newSlab(int minBytes) {
+            ByteBuffer buf = null;
+            if (minBytes <= slabBytes && !spare.isEmpty()) {
+                buf = spare.remove(spare.size() - 1);
+            }
+            if (buf == null) {
+                buf = ByteBuffer.allocateDirect(Math.max(slabBytes, minBytes));
+                allocatedBytes += buf.capacity();
+            }
+            Slab slab = new Slab(nextSlabId++, buf);
+            log.add(slab);
+            slabs.put(slab.id, slab);
+            return slab;
+        }
+
+        void freeSlab(Slab slab) {
+            log.remove(slab);
+            slabs.remove(slab.id);
+            release(slab.buf);
+        }
+
+        // keeps a full-size slab buffer for the next slab, frees the rest
+        void release(ByteBuffer buf) {
+            if (buf.capacity() == slabBytes && spare.size() < 2) {
+                spare.add(buf);
+            } else {
+                allocatedBytes -= buf.capacity();
+                free(buf);
+            }
+        }
+
+        // marks a record dead; the index slot is the caller's to update
+        void kill(long address) {
+            Slab slab = slabs.get((int) (address >>> 32));
+            int off = (int) address;
+            int length = slab.buf.getInt(off);
+
+            slab.buf.put(off + FLAGS, (byte) (slab.buf.get(off + FLAGS) & ~LIVE));
+            slab.live -= length;
+            entries--;
+            liveBytes -= length;
+
+            if (slab != active && slab.live * 2 < slab.end - slab.head && slab.end - slab.head > 4096) {
+                compact(slab);
+            }
+        }
+
+        // copies the live records to a smaller buffer, keeping their order
+        void compact(Slab slab) {
+            ByteBuffer fresh = ByteBuffer.allocateDirect(Math.max(slab.live, 1));
+            int to = 0;
+            for (int off = slab.head; off < slab.end; ) {
+                int length = slab.buf.getInt(off);
+                if ((slab.buf.get(off + FLAGS) & LIVE) != 0) {
+                    fresh.put(to, slab.buf, off, length);
+                    long tag = slab.buf.getLong(off + TAG);
+                    int slot = slotOf(tag, ((long) slab.id << 32) | off);
+                    index.putLong(slot * 16 + 8, ((long) slab.id << 32) | to);
+                    to += length;
+                }
+                off += length;
+            }
+
+            allocatedBytes += fresh.capacity();
+            release(slab.buf);
+            slab.buf = fresh;
+            slab.head = 0;
+            slab.end = to;
+            compactions.increment();
+        }
+
+        boolean isTombstone(long address) {
+            ByteBuffer b = slabs.get((int) (address >>> 32)).buf;
+            return (b.get((int) address + FLAGS) & TOMBSTONE) != 0;
+        }
+
+        long getLong(long address, int field) {
+            return slabs.get((int) (address >>> 32)).buf.getLong((int) address + field);
+        }
+
+        RowKey keyAt(long address, String table) {
+            ByteBuffer b = slabs.get((int) (address >>> 32)).buf;
+            int off = (int) address;
+            byte[] pk = new byte[b.getInt(off + PK_LENGTH)];
+            b.get(off + HEADER, pk);
+            return key(table, codec.decode(pk));
+        }
+
+        byte[] columnBytes(long address) {
+            ByteBuffer b = slabs.get((int) (address >>> 32)).buf;
+            return bytesAt(b, columnsAt(b, (int) address));
+        }
+
+        byte[] deltaBytes(long address) {
+            ByteBuffer b = slabs.get((int) (address >>> 32)).buf;
+            int colsAt = columnsAt(b, (int) address);
+            return bytesAt(b, colsAt + 4 + Math.max(b.getInt(colsAt), 0));
+        }
+
+        // only increments to a row that was never loaded, read as a miss
+        boolean isDeltaOnly(long address) {
+            ByteBuffer b = slabs.get((int) (address >>> 32)).buf;
+            int colsAt = columnsAt(b, (int) address);
+            return b.getInt(colsAt) < 0 && b.getInt(colsAt + 4) >= 0;
+        }
+
+        int columnsAt(ByteBuffer b, int off) {
+            return off + HEADER + b.getInt(off + PK_LENGTH);
+        }
+
+        // a length-prefixed field, null for length -1
+        byte[] bytesAt(ByteBuffer b, int at) {
+            int length = b.getInt(at);
+            if (length < 0) return null;
+
+            byte[] bytes = new byte[length];
+            b.get(at + 4, bytes);
+            return bytes;
+        }
+
+        CacheEntry entry(long address) {
+            ByteBuffer b = slabs.get((int) (address >>> 32)).buf;
+            int off = (int) address;
+            byte flags = b.get(off + FLAGS);
+
+            byte[] pk = new byte[b.getInt(off + PK_LENGTH)];
+            b.get(off + HEADER, pk);
+            byte[] cols = columnBytes(address);
+
+            CacheEntry entry = new CacheEntry(codec.decode(pk),
+                    cols == null ? null : codec.decode(cols),
+                    b.getLong(off + EXPIRES));
+            entry.version = b.getLong(off + VERSION);
+            entry.dirty = (flags & DIRTY) != 0;
+            entry.pendingLsn = b.getLong(off + LSN);
+            entry.appliedLsn = b.getLong(off + APPLIED);
+
+            byte[] deltas = deltaBytes(address);
+            if (deltas != null) {
+                entry.deltas = new LinkedHashMap<>();
+                for (Map.Entry<String, Object> d : codec.decode(deltas).entrySet()) {
+                    entry.deltas.put(d.getKey(), ((Number) d.getValue()).longValue());
+                }
+            }
+            return entry;
+        }
+
+        /* ---- expiration and eviction ---- */
+
+        void sweep(long now, BiConsumer<String, CacheEntry> onExpired) {
+            while (!log.isEmpty()) {
+                Slab slab = log.get(0);
+                if (slab.head >= slab.end) {
+                    if (slab != active) {
+                        freeSlab(slab);
+                        continue;
+                    }
+                    slab.head = 0; // nothing live left: reuse the active slab
+                    slab.end = 0;
+                    return;
+                }
+
+                int off = slab.head;
+                ByteBuffer b = slab.buf;
+                if ((b.get(off + FLAGS) & LIVE) != 0) {
+                    boolean expired = b.getLong(off + EXPIRES) <= now;
+                    boolean evict = !expired && overLimit();
+                    if (!expired && !evict) return;
+
+                    retireOldest(slab, off, expired ? onExpired : evictionHandler);
+                    if (evict) evictions.increment();
+                }
+                slab.head += b.getInt(off);
+            }
+        }
+
+        // evicts from the oldest record until `dirty` dirty rows have been handed over
+        int evictOldest(int dirty, BiConsumer<String, CacheEntry> handler) {
+            int handed = 0;
+            while (handed < dirty && !log.isEmpty()) {
+                Slab slab = log.get(0);
+                if (slab.head >= slab.end) {
+                    if (slab != active) {
+                        freeSlab(slab);
+                        continue;
+                    }
+                    slab.head = 0;
+                    slab.end = 0;
+                    break;
+                }
+
+                int off = slab.head;
+                ByteBuffer b = slab.buf;
+                byte flags = b.get(off + FLAGS);
+                if ((flags & LIVE) != 0) {
+                    if ((flags & DIRTY) != 0) handed++;
+                    retireOldest(slab, off, handler);
+                    evictions.increment();
+                }
+                slab.head += b.getInt(off);
+            }
+            return handed;
+        }
+
+        void evictOverflow() {
+            if (overLimit()) {
+                sweep(Long.MIN_VALUE, evictionHandler);
+            }
+        }
+
+        boolean overLimit() {
+            return (maxEntriesPerSegment > 0 && entries > maxEntriesPerSegment)
+                    || (maxBytesPerSegment > 0 && liveBytes > maxBytesPerSegment);
+        }
+
+        void retireOldest(Slab slab, int off, BiConsumer<String, CacheEntry> handler) {
+            long address = ((long) slab.id << 32) | off;
+            long tag = slab.buf.getLong(off + TAG);
+            CacheEntry entry = entry(address);
+            String table = tableNames[(int) (tag >>> 32)];
+
+            removeSlot(slotOf(tag, address));
+            int length = slab.buf.getInt(off);
+            slab.buf.put(off + FLAGS, (byte) (slab.buf.get(off + FLAGS) & ~LIVE));
+            slab.live -= length;
+            entries--;
+            liveBytes -= length;
+
+            retire(table, key(table, entry.primaryKey), entry, handler);
+        }
+    }
+}
@@ -0,0 +1,524 @@
+package cachedb;
+
+import javax.sql.DataSource;
+import java.io.Closeable;
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Logger;
+
+/**
+ * Fixed-size JDBC connection pool.
+ *
+ * Each slot moves between EMPTY, IDLE and IN_USE with a CAS, so borrowing
+ * and returning never take a lock. Connections idle for a while are
+ * validated before being handed out, and a housekeeping thread closes
+ * connections that sat idle past {@code idleTimeoutMillis} or lived past
+ * {@code maxLifetimeMillis}.
+ *
+ * Each connection keeps its most recently used prepared statements. Closing
+ * one only clears it, and preparing the same SQL again on that connection
+ * hands it back instead of preparing it anew.
+ */
+public class PooledDataSource implements DataSource, Closeable {
+
+    private static final int EMPTY = 0;
+    private static final int IDLE = 1;
+    private static final int IN_USE = 2;
+    private static final int RESERVED = 3; // being opened, validated or closed
+
+    // upper bound on a wait without a wakeup, in case one was missed
+    private static final long MAX_PARK_NANOS = 10_000_000;
+
+    // skip isValid() for connections returned this recently
+    private static final long VALIDATION_BYPASS_MILLIS = 500;
+
+    private final String url;
+    private final String user;
+    private final String password;
+    private final Options options;
+
+    private final Slot[] slots;
+    private final Queue<Thread> waiters = new ConcurrentLinkedQueue<>();
+    private final Thread housekeeper;
+    private volatile boolean closed;
+
+    private final AtomicLong borrows = new AtomicLong();
+    private final AtomicLong borrowWaitNanos = new AtomicLong();
+    private final AtomicLong maxBorrowWaitNanos = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong evicted = new AtomicLong();
+    private final AtomicLong statementHits = new AtomicLong();
+    private final AtomicLong statementMisses = new AtomicLong();
+
+    public PooledDataSource(String url, String user, String password) {
+        this(url, user, password, new Options());
+    }
+
+    public PooledDataSource(String url, String user, String password, Options options) {
+        if (options.maxSize < 1) {
+            throw new IllegalArgumentException("maxSize must be >= 1");
+        }
+        this.url = url;
+        this.user = user;
+        this.password = password;
+        this.options = options;
+
+        this.slots = new Slot[options.maxSize];
+        for (int i = 0; i < slots.length; i++) {
+            slots[i] = new Slot();
+        }
+
+        this.housekeeper = new Thread(this::housekeep, "pool-housekeeper");
+        this.housekeeper.setDaemon(true);
+        this.housekeeper.start();
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        if (closed) throw new SQLException("Pool is closed");
+
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(options.connectionTimeoutMillis);
+
+        while (true) {
+            Slot slot = acquireIdle();
+            if (slot == null) {
+                slot = open();
+            }
+            if (slot != null) {
+                recordBorrow(System.nanoTime() - start);
+                return slot.lease();
+            }
+
+            if (System.nanoTime() > deadline) {
+                timeouts.incrementAndGet();
+                throw new SQLTimeoutException("No connection available after "
+                        + options.connectionTimeoutMillis + " ms (pool size " + slots.length + ")");
+            }
+            // queue up so giveBack() can wake us, then look once more before parking
+            Thread self = Thread.currentThread();
+            waiters.add(self);
+            if (idleCount() == 0) {
+                LockSupport.parkNanos(Math.min(deadline - System.nanoTime(), MAX_PARK_NANOS));
+            }
+            waiters.remove(self);
+        }
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        throw new SQLException("PooledDataSource only hands out connections for its own user");
+    }
+
+    private Slot acquireIdle() {
+        int start = ThreadLocalRandom.current().nextInt(slots.length);
+        for (int i = 0; i < slots.length; i++) {
+            Slot slot = slots[(start + i) % slots.length];
+            if (slot.state.get() != IDLE || !slot.state.compareAndSet(IDLE, RESERVED)) {
+                continue;
+            }
+            if (expired(slot, System.currentTimeMillis()) || !validate(slot)) {
+                evict(slot);
+                continue;
+            }
+            slot.state.set(IN_USE);
+            return slot;
+        }
+        return null;
+    }
+
+    private Slot open() throws SQLException {
+        for (Slot slot : slots) {
+            if (slot.state.get() != EMPTY || !slot.state.compareAndSet(EMPTY, RESERVED)) {
+                continue;
+            }
+            try {
+                slot.raw = DriverManager.getConnection(url, user, password);
+            } catch (SQLException e) {
+                slot.state.set(EMPTY);
+                throw e;
+            }
+            slot.createdAt = System.currentTimeMillis();
+            slot.returnedAt = slot.createdAt;
+            slot.broken = false;
+            created.incrementAndGet();
+            slot.state.set(IN_USE);
+            return slot;
+        }
+        return null;
+    }
+
+    private boolean validate(Slot slot) {
+        if (System.currentTimeMillis() - slot.returnedAt < VALIDATION_BYPASS_MILLIS) {
+            return true;
+        }
+        try {
+            return slot.raw.isValid(options.validationTimeoutSeconds);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private boolean expired(Slot slot, long now) {
+        return options.maxLifetimeMillis > 0
+                && now - slot.createdAt > options.maxLifetimeMillis;
+    }
+
+    // caller holds the slot in RESERVED
+    private void evict(Slot slot) {
+        slot.statements.clear(); // closed with the connection
+        try {
+            slot.raw.close();
+        } catch (SQLException ignored) {
+        }
+        slot.raw = null;
+        evicted.incrementAndGet();
+        slot.state.set(EMPTY);
+        wakeWaiter();
+    }
+
+    private void giveBack(Slot slot) {
+        if (slot.broken || closed) {
+            slot.state.set(RESERVED);
+            evict(slot);
+            return;
+        }
+        try {
+            slot.dropOpenStatements();
+            if (!slot.raw.getAutoCommit()) {
+                slot.raw.rollback();
+                slot.raw.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            slot.state.set(RESERVED);
+            evict(slot);
+            return;
+        }
+        slot.returnedAt = System.currentTimeMillis();
+        slot.state.set(IDLE);
+        wakeWaiter();
+    }
+
+    private void wakeWaiter() {
+        Thread waiter = waiters.poll();
+        if (waiter != null) {
+            LockSupport.unpark(waiter);
+        }
+    }
+
+    private void housekeep() {
+        long period = Math.max(1000, Math.min(options.idleTimeoutMillis, 30_000) / 2);
+        while (!closed) {
+            try {
+                Thread.sleep(period);
+            } catch (InterruptedException e) {
+                return;
+            }
+            long now = System.currentTimeMillis();
+            for (Slot slot : slots) {
+                if (slot.state.get() != IDLE || !slot.state.compareAndSet(IDLE, RESERVED)) {
+                    continue;
+                }
+                boolean idleTooLong = options.idleTimeoutMillis > 0
+                        && now - slot.returnedAt > options.idleTimeoutMillis;
+                if (idleTooLong || expired(slot, now)) {
+                    evict(slot);
+                } else {
+                    slot.state.set(IDLE);
+                }
+            }
+        }
+    }
+
+    private void recordBorrow(long waitNanos) {
+        borrows.incrementAndGet();
+        borrowWaitNanos.addAndGet(waitNanos);
+        maxBorrowWaitNanos.accumulateAndGet(waitNanos, Math::max);
+    }
+
+    /** Closes idle connections; connections in use are closed when returned. */
+    @Override
+    public void close() {
+        closed = true;
+        housekeeper.interrupt();
+        for (Slot slot : slots) {
+            if (slot.state.compareAndSet(IDLE, RESERVED)) {
+                evict(slot);
+            }
+        }
+    }
+
+    public int maxSize() {
+        return slots.length;
+    }
+
+    public int activeCount() {
+        return count(IN_USE);
+    }
+
+    public int idleCount() {
+        return count(IDLE);
+    }
+
+    public long borrowCount() {
+        return borrows.get();
+    }
+
+    public long borrowWaitAvgMicros() {
+        long n = borrows.get();
+        return n == 0 ? 0 : borrowWaitNanos.get() / n / 1000;
+    }
+
+    public long borrowWaitMaxMicros() {
+        return maxBorrowWaitNanos.get() / 1000;
+    }
+
+    public long timeoutCount() {
+        return timeouts.get();
+    }
+
+    public long createdCount() {
+        return created.get();
+    }
+
+    public long evictedCount() {
+        return evicted.get();
+    }
+
+    /** prepareStatement calls answered from a connection's statement cache. */
+    public long statementCacheHits() {
+        return statementHits.get();
+    }
+
+    public long statementCacheMisses() {
+        return statementMisses.get();
+    }
+
+    private int count(int state) {
+        int n = 0;
+        for (Slot slot : slots) {
+            if (slot.state.get() == state) n++;
+        }
+        return n;
+    }
+
+    /* ---- Unused methods (required by interface) ---- */
+
+    @Override public PrintWriter getLogWriter() { return null; }
+    @Override public void setLogWriter(PrintWriter out) {}
+    @Override public void setLoginTimeout(int seconds) {}
+    @Override public int getLoginTimeout() { return 0; }
+    @Override public Logger getParentLogger() { return Logger.getGlobal(); }
+    @Override public <T> T unwrap(Class<T> iface) { return null; }
+    @Override public boolean isWrapperFor(Class<?> iface) { return false; }
+
+    public static final class Options {
+        public int maxSize = 10;
+        /** How long getConnection waits for a free slot before failing. */
+        public long connectionTimeoutMillis = 30_000;
+        /** Idle connections older than this are closed; 0 keeps them. */
+        public long idleTimeoutMillis = 10 * 60_000;
+        /** Connections older than this are replaced; 0 disables. */
+        public long maxLifetimeMillis = 30 * 60_000;
+        public int validationTimeoutSeconds = 5;
+        /** Prepared statements kept open per connection, least recently used dropped first; 0 disables. */
+        public int statementCacheSize = 64;
+    }
+
+    private final class Slot {
+        final AtomicInteger state = new AtomicInteger(EMPTY);
+        Connection raw;
+        long createdAt;
+        volatile long returnedAt;
+        volatile boolean broken;
+
+        // SQL → statement; only touched by the slot's current holder
+        final LinkedHashMap<String, CachedStatement> statements = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedStatement> eldest) {
+                if (size() <= options.statementCacheSize) return false;
+                eldest.getValue().evict();
+                return true;
+            }
+        };
+
+        PreparedStatement prepare(String sql) throws SQLException {
+            CachedStatement cached = statements.get(sql);
+            if (cached != null && !cached.inUse) {
+                statementHits.incrementAndGet();
+            } else {
+                statementMisses.incrementAndGet();
+                PreparedStatement ps = raw.prepareStatement(sql);
+                if (cached != null) {
+                    return ps; // the cached one is still open elsewhere; this one closes for real
+                }
+                cached = new CachedStatement(this, ps);
+                statements.put(sql, cached);
+            }
+            cached.inUse = true;
+            return cached.handle;
+        }
+
+        // statements the holder never closed can't be handed to the next one
+        void dropOpenStatements() {
+            statements.values().removeIf(cached -> {
+                if (!cached.inUse) return false;
+                cached.inUse = false;
+                cached.closeQuietly();
+                return true;
+            });
+        }
+
+        Connection lease() {
+            return (Connection) Proxy.newProxyInstance(
+                    Connection.class.getClassLoader(),
+                    new Class<?>[] { Connection.class },
+                    new Lease(this));
+        }
+    }
+
+    // the handle given to callers; close() returns the slot instead of closing
+    private final class Lease implements InvocationHandler {
+        private final Slot slot;
+        private final Connection raw;
+        private boolean returned;
+
+        Lease(Slot slot) {
+            this.slot = slot;
+            this.raw = slot.raw;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (!returned) {
+                        returned = true;
+                        giveBack(slot);
+                    }
+                    return null;
+                case "prepareStatement":
+                    if (!returned && args.length == 1 && options.statementCacheSize > 0) {
+                        return slot.prepare((String) args[0]);
+                    }
+                    break;
+                case "isClosed":
+                    return returned || raw.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "Pooled" + raw;
+                default:
+                    break;
+            }
+            if (returned) {
+                throw new SQLException("Connection is closed");
+            }
+            return call(slot, raw, method, args);
+        }
+    }
+
+    private static Object call(Slot slot, Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof SQLException) {
+                String state = ((SQLException) cause).getSQLState();
+                // 08xxx: connection exceptions, don't hand this one out again
+                if (state != null && state.startsWith("08")) {
+                    slot.broken = true;
+                }
+            }
+            throw cause;
+        }
+    }
+
+    // a pooled statement; close() clears it for reuse instead of closing it
+    private static final class CachedStatement implements InvocationHandler {
+        private final Slot slot;
+        private final PreparedStatement raw;
+        final PreparedStatement handle;
+        boolean inUse;
+        private boolean evicted;
+
+        CachedStatement(Slot slot, PreparedStatement raw) {
+            this.slot = slot;
+            this.raw = raw;
+            this.handle = (PreparedStatement) Proxy.newProxyInstance(
+                    PreparedStatement.class.getClassLoader(),
+                    new Class<?>[] { PreparedStatement.class },
+                    this);
+        }
+
+        // dropped from the cache: closes now, or when its holder closes it
+        void evict() {
+            evicted = true;
+            if (!inUse) {
+                closeQuietly();
+            }
+        }
+
+        void closeQuietly() {
+            try {
+                raw.close();
+            } catch (SQLException ignored) {
+            }
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (!inUse) return null;
+                    inUse = false;
+                    if (evicted) {
+                        closeQuietly();
+                    } else {
+                        try {
+                            raw.clearBatch();
+                            raw.clearParameters();
+                        } catch (SQLException e) {
+                            slot.statements.values().remove(this);
+                            closeQuietly();
+                        }
+                    }
+                    return null;
+                case "isClosed":
+                    return !inUse || raw.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "Pooled" + raw;
+                default:
+                    break;
+            }
+            if (!inUse) {
+                throw new SQLException("Statement is closed");
+            }
+            return call(slot, raw, method, args);
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package cachedb;
+
+import java.util.Map;
+
+/**
+ * Encodes the primary key and column maps of a WAL record.
+ */
+public interface RowCodec {
+
+    byte[] encode(Map<String, Object> row);
+
+    Map<String, Object> decode(byte[] bytes);
+}
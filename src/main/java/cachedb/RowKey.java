@@ -0,0 +1,84 @@
+package cachedb;
+
+/**
+ * Immutable primary key of a cached row.
+ *
+ * Values are held in the order {@link KeyLayout} lists the key columns and
+ * the hash is computed once, so map lookups never rebuild or re-hash the key.
+ * Integral numbers compare by value, so {@code 1} and {@code 1L} are the same key.
+ */
+public final class RowKey {
+
+    private final Object[] values;
+    private final int hash;
+
+    RowKey(Object[] values) {
+        this.values = values;
+
+        int h = 1;
+        for (Object v : values) {
+            h = 31 * h + hashOf(v);
+        }
+        this.hash = h;
+    }
+
+    public int size() {
+        return values.length;
+    }
+
+    public Object get(int index) {
+        return values[index];
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof RowKey)) return false;
+
+        RowKey other = (RowKey) o;
+        if (hash != other.hash || values.length != other.values.length) {
+            return false;
+        }
+        for (int i = 0; i < values.length; i++) {
+            if (!same(values[i], other.values[i])) return false;
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("(");
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) sb.append(", ");
+            sb.append(values[i]);
+        }
+        return sb.append(')').toString();
+    }
+
+    static boolean isIntegral(Object v) {
+        return v instanceof Long
+                || v instanceof Integer
+                || v instanceof Short
+                || v instanceof Byte;
+    }
+
+    private static int hashOf(Object v) {
+        if (v == null) return 0;
+        if (isIntegral(v)) return Long.hashCode(((Number) v).longValue());
+        return v.hashCode();
+    }
+
+    private static boolean same(Object a, Object b) {
+        if (a == b) return true;
+        if (a == null || b == null) return false;
+        if (isIntegral(a) && isIntegral(b)) {
+            return ((Number) a).longValue() == ((Number) b).longValue();
+        }
+        return a.equals(b);
+    }
+}
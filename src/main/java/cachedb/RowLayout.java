@@ -0,0 +1,91 @@
+package cachedb;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Column ordinals of one table, used to store cached rows as a
+ * {@link CompactRow} instead of a map per row.
+ *
+ * Starts from the schema's columns in table order. A column the schema
+ * didn't list (or every column, when the schema is unknown) gets the next
+ * ordinal the first time a row uses it. Ordinals never change, so rows
+ * built against an earlier, shorter layout stay readable.
+ */
+public final class RowLayout {
+
+    private final String table;
+    private final Map<String, Integer> ordinals = new ConcurrentHashMap<>();
+    private volatile String[] names;
+
+    private RowLayout(String table, String[] names) {
+        this.table = table;
+        this.names = names;
+        for (int i = 0; i < names.length; i++) {
+            ordinals.put(names[i], i);
+        }
+    }
+
+    public static RowLayout forSchema(String table, TableSchema schema) {
+        return new RowLayout(table, schema.columns.keySet().toArray(new String[0]));
+    }
+
+    /** Layout for a table whose schema is unknown; columns are added as seen. */
+    public static RowLayout empty(String table) {
+        return new RowLayout(table, new String[0]);
+    }
+
+    public String table() {
+        return table;
+    }
+
+    public int width() {
+        return names.length;
+    }
+
+    public String name(int ordinal) {
+        return names[ordinal];
+    }
+
+    /** Ordinal of {@code column}, or -1 if no row has used it. */
+    public int ordinal(Object column) {
+        Integer i = ordinals.get(column);
+        return (i == null) ? -1 : i;
+    }
+
+    /** Packs {@code row} into this layout. A CompactRow of this layout is reused as is. */
+    public CompactRow compact(Map<String, Object> row) {
+        if (row instanceof CompactRow && ((CompactRow) row).layout() == this) {
+            return (CompactRow) row;
+        }
+
+        int[] slots = new int[row.size()];
+        int width = 0;
+        int n = 0;
+        for (String column : row.keySet()) {
+            int i = ordinal(column);
+            if (i < 0) i = add(column);
+            slots[n++] = i;
+            width = Math.max(width, i + 1);
+        }
+
+        Object[] values = new Object[width];
+        n = 0;
+        for (Object value : row.values()) {
+            values[slots[n++]] = (value == null) ? CompactRow.NULL : value;
+        }
+        return new CompactRow(this, values, row.size());
+    }
+
+    synchronized int add(String column) {
+        Integer existing = ordinals.get(column);
+        if (existing != null) return existing;
+
+        String[] grown = Arrays.copyOf(names, names.length + 1);
+        grown[names.length] = column;
+        names = grown; // publish the name before the ordinal
+        ordinals.put(column, names.length - 1);
+        return names.length - 1;
+    }
+}
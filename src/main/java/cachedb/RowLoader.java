@@ -0,0 +1,256 @@
+package cachedb;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Read-through loading for {@link CacheDB#get}: a miss selects the row by
+ * primary key and caches it as a clean entry. Concurrent misses on the same
+ * row wait for one shared SELECT instead of each running their own.
+ */
+public class RowLoader {
+
+    /** Most keys {@link #loadAll} binds into one SELECT. */
+    public static final int MAX_KEYS_PER_SELECT = 1000;
+
+    private final DataSource dataSource;
+    private final SchemaRegistry schemaRegistry;
+    private final CacheStore store;
+
+    // table → key → load in progress
+    private final Map<String, Map<RowKey, CompletableFuture<Map<String, Object>>>> inFlight =
+            new ConcurrentHashMap<>();
+
+    private final AtomicLong loads = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong loadNanos = new AtomicLong();
+    private final AtomicLong maxLoadNanos = new AtomicLong();
+
+    public RowLoader(DataSource dataSource,
+                     SchemaRegistry schemaRegistry,
+                     CacheStore store) {
+        this.dataSource = dataSource;
+        this.schemaRegistry = schemaRegistry;
+        this.store = store;
+    }
+
+    /**
+     * Returns the row from the database (caching it), or null if there is
+     * no such row.
+     */
+    public Map<String, Object> load(String table, Map<String, Object> pk) {
+        Map<RowKey, CompletableFuture<Map<String, Object>>> tableLoads =
+                inFlight.computeIfAbsent(table, t -> new ConcurrentHashMap<>());
+        RowKey key = store.key(table, pk);
+
+        CompletableFuture<Map<String, Object>> mine = new CompletableFuture<>();
+        CompletableFuture<Map<String, Object>> running = tableLoads.putIfAbsent(key, mine);
+        if (running != null) {
+            coalesced.incrementAndGet();
+            return await(running);
+        }
+
+        try {
+            Map<String, Object> row = select(table, pk);
+            mine.complete(row == null ? null : store.load(table, pk, row));
+        } catch (Exception e) {
+            failures.incrementAndGet();
+            mine.completeExceptionally(e);
+        } finally {
+            // removed only after the row is cached, so later misses find it there
+            tableLoads.remove(key, mine);
+        }
+        return await(mine);
+    }
+
+    /**
+     * {@link #load} for several rows of one table, one element per key in
+     * the same order. Rows nobody is loading yet are selected together with
+     * {@code WHERE pk IN (...)}; rows already being loaded share that load.
+     */
+    public List<Map<String, Object>> loadAll(String table, List<Map<String, Object>> pks) {
+        Map<RowKey, CompletableFuture<Map<String, Object>>> tableLoads =
+                inFlight.computeIfAbsent(table, t -> new ConcurrentHashMap<>());
+
+        List<CompletableFuture<Map<String, Object>>> results = new ArrayList<>(pks.size());
+        Map<RowKey, CompletableFuture<Map<String, Object>>> mine = new LinkedHashMap<>();
+        Map<RowKey, Map<String, Object>> toSelect = new LinkedHashMap<>();
+        for (Map<String, Object> pk : pks) {
+            RowKey key = store.key(table, pk);
+            CompletableFuture<Map<String, Object>> load = mine.get(key);
+            if (load == null) {
+                CompletableFuture<Map<String, Object>> fresh = new CompletableFuture<>();
+                load = tableLoads.putIfAbsent(key, fresh);
+                if (load != null) {
+                    coalesced.incrementAndGet();
+                } else {
+                    load = fresh;
+                    mine.put(key, fresh);
+                    toSelect.put(key, pk);
+                }
+            }
+            results.add(load);
+        }
+
+        if (!mine.isEmpty()) {
+            List<Map.Entry<RowKey, Map<String, Object>>> keys = new ArrayList<>(toSelect.entrySet());
+            try {
+                TableSchema schema = schemaRegistry.get(table);
+                int perSelect = Math.min(MAX_KEYS_PER_SELECT,
+                        SqlBuilder.MAX_PLACEHOLDERS / Math.max(1, schema.primaryKeys.size()));
+                for (int from = 0; from < keys.size(); from += perSelect) {
+                    List<Map.Entry<RowKey, Map<String, Object>>> chunk =
+                            keys.subList(from, Math.min(keys.size(), from + perSelect));
+                    Map<RowKey, Map<String, Object>> rows = selectAll(table, schema, chunk);
+                    for (Map.Entry<RowKey, Map<String, Object>> e : chunk) {
+                        Map<String, Object> row = rows.get(e.getKey());
+                        mine.get(e.getKey()).complete(
+                                row == null ? null : store.load(table, e.getValue(), row));
+                    }
+                }
+            } catch (Exception e) {
+                failures.incrementAndGet();
+                mine.values().forEach(load -> load.completeExceptionally(e));
+            } finally {
+                // removed only after the rows are cached, so later misses find them there
+                mine.forEach(tableLoads::remove);
+            }
+        }
+
+        List<Map<String, Object>> rows = new ArrayList<>(results.size());
+        for (CompletableFuture<Map<String, Object>> load : results) {
+            rows.add(await(load));
+        }
+        return rows;
+    }
+
+    private Map<String, Object> select(String table, Map<String, Object> pk) throws SQLException {
+        TableSchema schema = schemaRegistry.get(table);
+        long start = System.nanoTime();
+
+        try (Connection c = dataSource.getConnection();
+             PreparedStatement ps = c.prepareStatement(SqlBuilder.buildSelect(table, schema))) {
+
+            bind(ps, 1, schema, pk);
+
+            try (ResultSet rs = ps.executeQuery()) {
+                if (!rs.next()) return null;
+                return columns(rs, schema);
+            }
+        } finally {
+            timed(start);
+        }
+    }
+
+    // the rows found, by their key
+    private Map<RowKey, Map<String, Object>> selectAll(String table,
+                                                       TableSchema schema,
+                                                       List<Map.Entry<RowKey, Map<String, Object>>> keys)
+            throws SQLException {
+        long start = System.nanoTime();
+
+        try (Connection c = dataSource.getConnection();
+             PreparedStatement ps = c.prepareStatement(
+                     SqlBuilder.buildSelectIn(table, schema, keys.size()))) {
+
+            int idx = 1;
+            for (Map.Entry<RowKey, Map<String, Object>> key : keys) {
+                idx = bind(ps, idx, schema, key.getValue());
+            }
+
+            Map<RowKey, Map<String, Object>> rows = new HashMap<>();
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    Map<String, Object> pk = new LinkedHashMap<>();
+                    for (String col : schema.primaryKeys) {
+                        pk.put(col, rs.getObject(col));
+                    }
+                    rows.put(store.key(table, pk), columns(rs, schema));
+                }
+            }
+            return rows;
+        } finally {
+            timed(start);
+        }
+    }
+
+    // binds pk's primary key columns from idx on; returns the next index
+    private static int bind(PreparedStatement ps,
+                            int idx,
+                            TableSchema schema,
+                            Map<String, Object> pk) throws SQLException {
+        for (String col : schema.primaryKeys) {
+            Object value = pk.get(col);
+            if (value == null && schema.primaryKeys.size() == 1 && pk.size() == 1) {
+                value = pk.values().iterator().next();
+            }
+            ps.setObject(idx++, value);
+        }
+        return idx;
+    }
+
+    // same shape as set(): primary key columns live in the key
+    private static Map<String, Object> columns(ResultSet rs, TableSchema schema) throws SQLException {
+        ResultSetMetaData meta = rs.getMetaData();
+        Map<String, Object> row = new HashMap<>();
+        for (int i = 1; i <= meta.getColumnCount(); i++) {
+            String col = meta.getColumnLabel(i);
+            if (!schema.primaryKeys.contains(col)) {
+                row.put(col, rs.getObject(i));
+            }
+        }
+        return row;
+    }
+
+    private void timed(long start) {
+        long nanos = System.nanoTime() - start;
+        loads.incrementAndGet();
+        loadNanos.addAndGet(nanos);
+        maxLoadNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    private static Map<String, Object> await(CompletableFuture<Map<String, Object>> load) {
+        try {
+            return load.join();
+        } catch (CompletionException e) {
+            throw new RuntimeException("Read-through load failed", e.getCause());
+        }
+    }
+
+    /** SELECTs issued. */
+    public long loadCount() {
+        return loads.get();
+    }
+
+    /** Misses that waited for another caller's load instead of issuing their own. */
+    public long coalescedCount() {
+        return coalesced.get();
+    }
+
+    public long failureCount() {
+        return failures.get();
+    }
+
+    public long loadAvgMicros() {
+        long n = loads.get();
+        return n == 0 ? 0 : loadNanos.get() / n / 1000;
+    }
+
+    public long loadMaxMicros() {
+        return maxLoadNanos.get() / 1000;
+    }
+}
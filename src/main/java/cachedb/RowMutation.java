@@ -9,6 +9,8 @@ public class RowMutation {
     public final Map<String, Object> columns;
     public final long version;
     public final boolean isDelete;
+    public final boolean isIncrement; // columns hold amounts to add
+    public final long lsn; // oldest WAL record covered by this mutation
 
     public RowMutation(String table,
                        Map<String, Object> pk,
@@ -19,6 +21,8 @@ public class RowMutation {
         this.columns = columns;
         this.version = version;
         this.isDelete = false;
+        this.isIncrement = false;
+        this.lsn = 0;
     }
 
     public RowMutation(String table,
@@ -26,10 +30,40 @@ public class RowMutation {
                        Map<String, Object> columns,
                        long version,
                        boolean isDelete) {
+        this(table, pk, columns, version, isDelete, 0);
+    }
+
+    public RowMutation(String table,
+                       Map<String, Object> pk,
+                       Map<String, Object> columns,
+                       long version,
+                       boolean isDelete,
+                       long lsn) {
+        this(table, pk, columns, version, isDelete, false, lsn);
+    }
+
+    private RowMutation(String table,
+                        Map<String, Object> pk,
+                        Map<String, Object> columns,
+                        long version,
+                        boolean isDelete,
+                        boolean isIncrement,
+                        long lsn) {
         this.table = table;
         this.primaryKey = pk;
         this.columns = columns;
         this.version = version;
         this.isDelete = isDelete;
+        this.isIncrement = isIncrement;
+        this.lsn = lsn;
+    }
+
+    /** Adds each of {@code deltas} to its column instead of writing values. */
+    public static RowMutation increment(String table,
+                                        Map<String, Object> pk,
+                                        Map<String, Object> deltas,
+                                        long version,
+                                        long lsn) {
+        return new RowMutation(table, pk, deltas, version, false, true, lsn);
     }
 }
@@ -3,21 +3,76 @@ package cachedb;
 import javax.sql.DataSource;
 import java.sql.*;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 
 public class SchemaRegistry {
 
+    /** How long a table whose schema failed to load waits before {@link #tryGet} asks again. */
+    public static final long RETRY_MILLIS = 5_000;
+
     private final DataSource ds;
+    private final long retryMillis;
     private final Map<String, TableSchema> cache = new ConcurrentHashMap<>();
 
+    // table → when loading its schema last failed, and the load under way
+    private final Map<String, Long> failedAt = new ConcurrentHashMap<>();
+    private final Map<String, CompletableFuture<TableSchema>> loading = new ConcurrentHashMap<>();
+
     public SchemaRegistry(DataSource ds) {
+        this(ds, RETRY_MILLIS);
+    }
+
+    public SchemaRegistry(DataSource ds, long retryMillis) {
         this.ds = ds;
+        this.retryMillis = retryMillis;
     }
 
     public TableSchema get(String table) {
         return cache.computeIfAbsent(table, this::load);
     }
 
+    /**
+     * The table's schema, or null if it can't be loaded right now. Only a
+     * loaded schema is kept; after a failure the database isn't asked again
+     * for the table until the retry delay has passed, so callers on a hot
+     * path can fall back without a round trip per call. Callers arriving
+     * while a load is under way share its outcome.
+     */
+    public TableSchema tryGet(String table) {
+        TableSchema schema = cache.get(table);
+        if (schema != null) return schema;
+        if (backingOff(table)) return null;
+
+        CompletableFuture<TableSchema> attempt = new CompletableFuture<>();
+        CompletableFuture<TableSchema> inFlight = loading.putIfAbsent(table, attempt);
+        if (inFlight != null) {
+            return inFlight.join();
+        }
+        try {
+            if (!backingOff(table)) { // unless an attempt just finished
+                schema = get(table);
+                failedAt.remove(table);
+            }
+        } catch (RuntimeException e) {
+            failedAt.put(table, System.currentTimeMillis());
+        } finally {
+            loading.remove(table);
+            attempt.complete(schema);
+        }
+        return (schema != null) ? schema : cache.get(table);
+    }
+
+    /** The table's schema if it is already loaded; never asks the database. */
+    public TableSchema cached(String table) {
+        return cache.get(table);
+    }
+
+    private boolean backingOff(String table) {
+        Long failed = failedAt.get(table);
+        return failed != null && System.currentTimeMillis() - failed < retryMillis;
+    }
+
     private TableSchema load(String table) {
         try (Connection c = ds.getConnection()) {
             DatabaseMetaData meta = c.getMetaData();
@@ -28,7 +83,7 @@ public class SchemaRegistry {
                 pks.add(pkRs.getString("COLUMN_NAME"));
             }
 
-            Map<String, Integer> cols = new HashMap<>();
+            Map<String, Integer> cols = new LinkedHashMap<>();
             ResultSet colRs = meta.getColumns(null, null, table, null);
             while (colRs.next()) {
                 cols.put(colRs.getString("COLUMN_NAME"),
@@ -4,19 +4,20 @@ import java.util.*;
 
 public class SqlBuilder {
 
+    /** Most ? placeholders MySQL accepts in one prepared statement. */
+    public static final int MAX_PLACEHOLDERS = 65_535;
+
     public static String buildUpsert(RowMutation m, TableSchema schema) {
+        return buildUpsert(m, schema, 1);
+    }
 
-        List<String> cols = new ArrayList<>();
-        cols.addAll(schema.primaryKeys);
-        for (String col : m.columns.keySet()) {
-            if (!schema.primaryKeys.contains(col)) {
-                cols.add(col);
-            }
-        }
+    /**
+     * One upsert for {@code rows} rows shaped like {@code m} (same table and
+     * columns), bound one row after another.
+     */
+    public static String buildUpsert(RowMutation m, TableSchema schema, int rows) {
 
-        String colList = String.join(", ", cols);
-        String placeholders =
-                String.join(", ", Collections.nCopies(cols.size(), "?"));
+        List<String> cols = columns(m, schema);
 
         String updates = m.columns.keySet().stream()
                 .map(c -> c + " = VALUES(" + c + ")")
@@ -24,7 +25,31 @@ public class SqlBuilder {
                 .orElse("");
 
         return "INSERT INTO " + m.table +
-                " (" + colList + ") VALUES (" + placeholders + ")" +
+                " (" + String.join(", ", cols) + ") VALUES " + values(cols.size(), rows) +
+                " ON DUPLICATE KEY UPDATE " + updates;
+    }
+
+    public static String buildIncrement(RowMutation m, TableSchema schema) {
+        return buildIncrement(m, schema, 1);
+    }
+
+    /**
+     * Adds the mutation's amounts to their columns, creating the row (with
+     * the amounts as values) if it doesn't exist. A NULL column counts as 0.
+     * With {@code rows} > 1, does the same for that many rows shaped like
+     * {@code m}.
+     */
+    public static String buildIncrement(RowMutation m, TableSchema schema, int rows) {
+
+        List<String> cols = columns(m, schema);
+
+        String updates = cols.subList(schema.primaryKeys.size(), cols.size()).stream()
+                .map(c -> c + " = COALESCE(" + c + ", 0) + VALUES(" + c + ")")
+                .reduce((a, b) -> a + ", " + b)
+                .orElse("");
+
+        return "INSERT INTO " + m.table +
+                " (" + String.join(", ", cols) + ") VALUES " + values(cols.size(), rows) +
                 " ON DUPLICATE KEY UPDATE " + updates;
     }
 
@@ -36,4 +61,88 @@ public class SqlBuilder {
 
         return "DELETE FROM " + m.table + " WHERE " + whereClause;
     }
+
+    /**
+     * Deletes {@code rows} rows as {@code pk IN (?, ...)}. More than one row
+     * needs a single-column primary key.
+     */
+    public static String buildDelete(RowMutation m, TableSchema schema, int rows) {
+        if (rows == 1) {
+            return buildDelete(m, schema);
+        }
+        if (schema.primaryKeys.size() != 1) {
+            throw new IllegalArgumentException(
+                    "Multi-row delete needs a single-column primary key: " + m.table);
+        }
+        return "DELETE FROM " + m.table + " WHERE " + schema.primaryKeys.get(0) +
+                " IN (" + String.join(", ", Collections.nCopies(rows, "?")) + ")";
+    }
+
+    public static String buildSelect(String table, TableSchema schema) {
+        String whereClause = schema.primaryKeys.stream()
+                .map(pk -> pk + " = ?")
+                .reduce((a, b) -> a + " AND " + b)
+                .orElse("");
+
+        return "SELECT * FROM " + table + " WHERE " + whereClause;
+    }
+
+    /**
+     * Selects {@code keys} rows by primary key in one statement:
+     * {@code WHERE id IN (?, ?)}, or {@code WHERE (a, b) IN ((?, ?), (?, ?))}
+     * for a composite key. Parameters go key by key, in primary key order.
+     */
+    public static String buildSelectIn(String table, TableSchema schema, int keys) {
+        int width = schema.primaryKeys.size();
+        String one = (width == 1) ? "?" : "(" + String.join(", ", Collections.nCopies(width, "?")) + ")";
+        String columns = (width == 1)
+                ? schema.primaryKeys.get(0)
+                : "(" + String.join(", ", schema.primaryKeys) + ")";
+
+        return "SELECT * FROM " + table + " WHERE " + columns
+                + " IN (" + String.join(", ", Collections.nCopies(keys, one)) + ")";
+    }
+
+    /**
+     * Rough upper bound on what one row of {@code m} adds to a multi-row
+     * statement once the driver has inlined its values, for keeping
+     * statements under the server's max_allowed_packet.
+     */
+    public static long rowBytes(RowMutation m) {
+        long bytes = 4; // "(", ")" and ", "
+        for (Object value : m.primaryKey.values()) {
+            bytes += valueBytes(value) + 2;
+        }
+        if (!m.isDelete) {
+            for (Object value : m.columns.values()) {
+                bytes += valueBytes(value) + 2;
+            }
+        }
+        return bytes;
+    }
+
+    // quoted, with every character escaped in the worst case
+    private static long valueBytes(Object value) {
+        if (value == null) return 4;
+        if (value instanceof Number || value instanceof Boolean) return 24;
+        if (value instanceof byte[]) return 3 + 2L * ((byte[]) value).length; // X'..'
+        String s = value.toString();
+        return 2 + 2L * s.length() * (s.chars().allMatch(ch -> ch < 0x80) ? 1 : 3);
+    }
+
+    // primary key columns, then the mutation's other columns
+    private static List<String> columns(RowMutation m, TableSchema schema) {
+        List<String> cols = new ArrayList<>(schema.primaryKeys);
+        for (String col : m.columns.keySet()) {
+            if (!schema.primaryKeys.contains(col)) {
+                cols.add(col);
+            }
+        }
+        return cols;
+    }
+
+    private static String values(int columns, int rows) {
+        String row = "(" + String.join(", ", Collections.nCopies(columns, "?")) + ")";
+        return String.join(", ", Collections.nCopies(rows, row));
+    }
 }
@@ -0,0 +1,144 @@
+package cachedb;
+
+import java.sql.PreparedStatement;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Flush SQL and its binding order, built once per table, operation, column
+ * set (in any order) and row count. The flush path looks a mutation's
+ * template up instead of generating the statement text for every batch, and
+ * the text it gets back is identical each time, so a statement cache on the
+ * connection can hand back the same prepared statement.
+ */
+final class SqlTemplates {
+
+    // distinct shapes x row counts kept; past this the cache starts over
+    static final int MAX_TEMPLATES = 4096;
+
+    private static final int UPSERT = 0;
+    private static final int INCREMENT = 1;
+    private static final int DELETE = 2;
+
+    private final Map<Key, Template> templates = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /** The statement writing {@code rows} rows shaped like {@code m}. */
+    Template get(RowMutation m, TableSchema schema, int rows) {
+        int kind = m.isDelete ? DELETE : m.isIncrement ? INCREMENT : UPSERT;
+        Set<String> columns = m.isDelete ? Set.of() : m.columns.keySet();
+
+        Template template = templates.get(new Key(m.table, kind, columns, rows));
+        if (template != null && template.schema == schema) {
+            hits.increment();
+            return template;
+        }
+        misses.increment();
+
+        Template built = new Template(m, schema, rows);
+        Key key = new Key(m.table, kind, Set.copyOf(columns), rows);
+        if (template != null) {
+            templates.put(key, built); // the table's schema was reloaded
+            return built;
+        }
+        if (templates.size() >= MAX_TEMPLATES) {
+            templates.clear();
+        }
+        template = templates.putIfAbsent(key, built);
+        return template != null ? template : built;
+    }
+
+    long hits() {
+        return hits.sum();
+    }
+
+    long misses() {
+        return misses.sum();
+    }
+
+    int size() {
+        return templates.size();
+    }
+
+    private record Key(String table, int kind, Set<String> columns, int rows) {}
+
+    static final class Template {
+
+        final String sql;
+        final TableSchema schema;
+        final int rows;
+        final boolean isDelete;
+        final int parameters; // per row
+
+        // bound after the key columns, in the order the SQL lists them
+        private final String[] columns;
+
+        // setter and JDBC type per parameter of a row: key columns, then columns
+        private final ColumnType[] types;
+        private final int[] sqlTypes;
+
+        private Template(RowMutation m, TableSchema schema, int rows) {
+            // sorted, so every column order of the same set shares the text
+            Map<String, Object> sorted = new TreeMap<>(m.columns);
+            RowMutation shape = m.isIncrement
+                    ? RowMutation.increment(m.table, m.primaryKey, sorted, 0, 0)
+                    : new RowMutation(m.table, m.primaryKey, sorted, 0, m.isDelete, 0);
+
+            this.sql = m.isDelete
+                    ? SqlBuilder.buildDelete(shape, schema, rows)
+                    : m.isIncrement
+                    ? SqlBuilder.buildIncrement(shape, schema, rows)
+                    : SqlBuilder.buildUpsert(shape, schema, rows);
+            this.schema = schema;
+            this.rows = rows;
+            this.isDelete = m.isDelete;
+            this.columns = m.isDelete
+                    ? new String[0]
+                    : shape.columns.keySet().stream()
+                            .filter(c -> !schema.primaryKeys.contains(c))
+                            .toArray(String[]::new);
+            this.parameters = schema.primaryKeys.size() + columns.length;
+
+            this.types = new ColumnType[parameters];
+            this.sqlTypes = new int[parameters];
+            int i = 0;
+            for (String column : schema.primaryKeys) {
+                types[i] = schema.type(column);
+                sqlTypes[i++] = schema.sqlType(column);
+            }
+            for (String column : columns) {
+                types[i] = schema.type(column);
+                sqlTypes[i++] = schema.sqlType(column);
+            }
+        }
+
+        /**
+         * Binds one row of {@code m} from {@code idx} on: key, then columns
+         * (increments bind their amounts like upserts bind values), each with
+         * its column type's setter. Returns the next free index.
+         */
+        int bind(PreparedStatement ps, int idx, RowMutation m) throws Exception {
+            int p = 0;
+            for (String pk : schema.primaryKeys) {
+                Object value = m.primaryKey.get(pk);
+                if (value == null && !isDelete) {
+                    value = m.columns.get(pk);
+                }
+                if (value == null && schema.primaryKeys.size() == 1 && m.primaryKey.size() == 1) {
+                    value = m.primaryKey.values().iterator().next();
+                }
+                types[p].bind(ps, idx++, value, sqlTypes[p]);
+                p++;
+            }
+            for (String col : columns) {
+                types[p].bind(ps, idx++, m.columns.get(col), sqlTypes[p]);
+                p++;
+            }
+            return idx;
+        }
+    }
+}
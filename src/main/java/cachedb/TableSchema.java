@@ -1,5 +1,7 @@
 package cachedb;
 
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -8,9 +10,43 @@ public class TableSchema {
     public final List<String> primaryKeys;
     public final Map<String, Integer> columns;
 
+    // worked out once per table, since SchemaRegistry keeps the schema
+    private final Map<String, ColumnType> types = new HashMap<>();
+
     public TableSchema(List<String> pks,
                        Map<String, Integer> columns) {
         this.primaryKeys = pks;
         this.columns = columns;
+        columns.forEach((column, sqlType) -> types.put(column, ColumnType.of(sqlType)));
+    }
+
+    /** How values of {@code column} are held and bound; OTHER for a column the schema doesn't list. */
+    public ColumnType type(String column) {
+        return types.getOrDefault(column, ColumnType.OTHER);
+    }
+
+    /** JDBC type of {@code column}, or {@link java.sql.Types#OTHER} if the schema doesn't list it. */
+    public int sqlType(String column) {
+        return columns.getOrDefault(column, java.sql.Types.OTHER);
+    }
+
+    /**
+     * {@code row} with each value converted to its column's type (see
+     * {@link ColumnType#convert}); {@code row} itself if nothing changed.
+     */
+    public Map<String, Object> convert(Map<String, Object> row) {
+        if (types.isEmpty()) return row;
+
+        Map<String, Object> converted = null;
+        for (Map.Entry<String, Object> e : row.entrySet()) {
+            Object value = e.getValue();
+            if (value == null) continue;
+            Object typed = type(e.getKey()).convert(value);
+            if (typed != value) {
+                if (converted == null) converted = new LinkedHashMap<>(row);
+                converted.put(e.getKey(), typed);
+            }
+        }
+        return converted == null ? row : converted;
     }
 }
@@ -0,0 +1,23 @@
+package cachedb;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * The original WAL payload: {@code Map.toString()} on the way in and
+ * {@link SimpleCodec#parseMap} on the way out. Every value comes back as a
+ * String, and values containing ", " or "=" don't round-trip.
+ * Kept to read WAL files written before {@link BinaryRowCodec}.
+ */
+public final class TextRowCodec implements RowCodec {
+
+    @Override
+    public byte[] encode(Map<String, Object> row) {
+        return row.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public Map<String, Object> decode(byte[] bytes) {
+        return SimpleCodec.parseMap(new String(bytes, StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,131 @@
+package cachedb;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Consumer;
+
+/**
+ * Hierarchical timing wheel: 4 levels of 64 buckets. With 100 ms ticks the
+ * levels cover 6.4 s, 7 min, 7.5 h and 19 days; later deadlines wait in the
+ * top level and are re-placed as it turns.
+ *
+ * A tick only touches the bucket that is due, plus one bucket per higher
+ * level every 64, 4096, ... ticks, so its cost follows the number of timers
+ * expiring rather than the number scheduled.
+ *
+ * {@link #schedule} may be called from any thread. {@link #advance} must
+ * only be called from one thread.
+ */
+public final class TimerWheel<T> {
+
+    private static final int BITS = 6;
+    private static final int BUCKETS = 1 << BITS;
+    private static final int MASK = BUCKETS - 1;
+    private static final int LEVELS = 4;
+    private static final long MAX_DELTA = (1L << (BITS * LEVELS)) - 1;
+
+    private final long tickMillis;
+    private final List<Node<T>>[][] wheel;
+    private final Queue<Node<T>> incoming = new ConcurrentLinkedQueue<>();
+
+    private long tick; // next tick to process
+    private int size;
+
+    public TimerWheel(long tickMillis, long nowMillis) {
+        this.tickMillis = tickMillis;
+        this.tick = nowMillis / tickMillis;
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        List<Node<T>>[][] wheel = new List[LEVELS][BUCKETS];
+        this.wheel = wheel;
+        for (List<Node<T>>[] level : wheel) {
+            for (int i = 0; i < BUCKETS; i++) {
+                level[i] = new ArrayList<>();
+            }
+        }
+    }
+
+    /** Fires {@code item} on the first {@link #advance} at or after {@code deadlineMillis}. */
+    public void schedule(T item, long deadlineMillis) {
+        incoming.add(new Node<>(item, ceilDiv(deadlineMillis, tickMillis)));
+    }
+
+    /**
+     * Processes every tick up to {@code nowMillis}, passing each due item to
+     * {@code expired}. Items scheduled from inside {@code expired} are picked
+     * up by the next call.
+     */
+    public void advance(long nowMillis, Consumer<T> expired) {
+        Node<T> node;
+        while ((node = incoming.poll()) != null) {
+            insert(node);
+            size++;
+        }
+
+        long target = nowMillis / tickMillis;
+        while (tick <= target) {
+            for (int level = LEVELS - 1; level > 0; level--) {
+                if ((tick & ((1L << (BITS * level)) - 1)) == 0) {
+                    cascade(level);
+                }
+            }
+
+            List<Node<T>> due = wheel[0][(int) (tick & MASK)];
+            if (!due.isEmpty()) {
+                wheel[0][(int) (tick & MASK)] = new ArrayList<>();
+                size -= due.size();
+                for (Node<T> n : due) {
+                    expired.accept(n.item);
+                }
+            }
+            tick++;
+        }
+    }
+
+    /** Timers currently in the wheel, not counting ones scheduled since the last advance. */
+    public int size() {
+        return size;
+    }
+
+    private void cascade(int level) {
+        int index = (int) ((tick >>> (BITS * level)) & MASK);
+        List<Node<T>> bucket = wheel[level][index];
+        if (bucket.isEmpty()) return;
+
+        wheel[level][index] = new ArrayList<>();
+        for (Node<T> n : bucket) {
+            insert(n);
+        }
+    }
+
+    private void insert(Node<T> node) {
+        long deadline = Math.max(node.deadlineTick, tick);
+        long delta = deadline - tick;
+        if (delta > MAX_DELTA) {
+            deadline = tick + MAX_DELTA;
+            delta = MAX_DELTA;
+        }
+
+        int level = 0;
+        while (delta >= (1L << (BITS * (level + 1)))) {
+            level++;
+        }
+        int index = (int) ((deadline >>> (BITS * level)) & MASK);
+        wheel[level][index].add(node);
+    }
+
+    private static long ceilDiv(long x, long y) {
+        return -Math.floorDiv(-x, y);
+    }
+
+    private static final class Node<T> {
+        final T item;
+        final long deadlineTick;
+
+        Node(T item, long deadlineTick) {
+            this.item = item;
+            this.deadlineTick = deadlineTick;
+        }
+    }
+}
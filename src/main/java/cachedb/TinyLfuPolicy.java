@@ -0,0 +1,273 @@
+package cachedb;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * W-TinyLFU eviction order for a bounded {@link CacheStore}.
+ *
+ * New entries go into a small LRU window (1% of capacity). Entries leaving
+ * the window only get into the main space if a {@link FrequencySketch} says
+ * they are used more often than the main space's next victim. The main
+ * space is a segmented LRU: probation (20%) for entries seen once, protected
+ * (80%) for entries read again.
+ *
+ * The policy only picks victims; CacheStore removes them from its maps.
+ * Reads are recorded into a lossy ring buffer and replayed under the lock
+ * in batches, so the read path never blocks on it.
+ */
+final class TinyLfuPolicy {
+
+    static final byte NONE = 0;
+    static final byte WINDOW = 1;
+    static final byte PROBATION = 2;
+    static final byte PROTECTED = 3;
+
+    private static final int READ_BUFFER_SIZE = 256;
+    private static final int READ_BUFFER_MASK = READ_BUFFER_SIZE - 1;
+    private static final int DRAIN_EVERY = 64 - 1;
+
+    private final long maxEntries; // 0 = no entry limit
+    private final long maxBytes;   // 0 = no byte limit
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final FrequencySketch sketch;
+    private final Queue window = new Queue();
+    private final Queue probation = new Queue();
+    private final Queue protectedQueue = new Queue();
+
+    private final AtomicReferenceArray<CacheStore.Node> readBuffer =
+            new AtomicReferenceArray<>(READ_BUFFER_SIZE);
+    private final AtomicLong reads = new AtomicLong();
+
+    // read without the lock by metrics
+    private volatile long entries;
+    private volatile long bytes;
+
+    TinyLfuPolicy(long maxEntries, long maxBytes) {
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+        // size the sketch for the entry limit, or a guess from the byte limit
+        this.sketch = new FrequencySketch(maxEntries > 0 ? maxEntries : maxBytes / 256);
+    }
+
+    void recordRead(CacheStore.Node node) {
+        long i = reads.getAndIncrement();
+        readBuffer.lazySet((int) (i & READ_BUFFER_MASK), node);
+        if ((i & DRAIN_EVERY) == DRAIN_EVERY && lock.tryLock()) {
+            try {
+                drainReads();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Adds a new entry, or records a new size for one already tracked, and
+     * returns the entries to evict.
+     */
+    List<CacheStore.Node> record(CacheStore.Node node, long weight) {
+        lock.lock();
+        try {
+            drainReads();
+            if (node.weight == 0 && node.queue == NONE) {
+                add(node, weight);
+            } else if (node.queue != NONE) {
+                queueOf(node).bytes += weight - node.weight;
+                bytes += weight - node.weight;
+                node.weight = weight;
+            } else {
+                return List.of(); // already evicted or removed
+            }
+
+            List<CacheStore.Node> victims = new ArrayList<>(2);
+            while (windowOver()) {
+                admit(window.pollFirst(), victims);
+            }
+            evictOverflow(victims);
+            return victims;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void remove(CacheStore.Node node) {
+        lock.lock();
+        try {
+            unlink(node);
+            node.weight = -1; // gone for good, even if record() comes later
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    long entries() {
+        return entries;
+    }
+
+    long bytes() {
+        return bytes;
+    }
+
+    private void add(CacheStore.Node node, long weight) {
+        sketch.increment(node.hash);
+
+        node.weight = weight;
+        window.addLast(node, WINDOW);
+        entries++;
+        bytes += weight;
+    }
+
+    // window → main space, if it beats the main space's victim
+    private void admit(CacheStore.Node candidate, List<CacheStore.Node> victims) {
+        entries--;
+        bytes -= candidate.weight;
+
+        if (!overMax(1, candidate.weight)) {
+            probation.addLast(candidate, PROBATION);
+            entries++;
+            bytes += candidate.weight;
+            return;
+        }
+
+        CacheStore.Node victim = probation.peekFirst();
+        if (victim == null) victim = protectedQueue.peekFirst();
+
+        if (victim != null && sketch.frequency(candidate.hash) > sketch.frequency(victim.hash)) {
+            probation.addLast(candidate, PROBATION);
+            entries++;
+            bytes += candidate.weight;
+            unlink(victim);
+            victims.add(victim);
+        } else {
+            victims.add(candidate);
+        }
+    }
+
+    private void evictOverflow(List<CacheStore.Node> victims) {
+        while (overMax(0, 0)) {
+            CacheStore.Node victim = probation.peekFirst();
+            if (victim == null) victim = protectedQueue.peekFirst();
+            if (victim == null) victim = window.peekFirst();
+            if (victim == null) return;
+
+            unlink(victim);
+            victims.add(victim);
+        }
+    }
+
+    private void drainReads() {
+        for (int i = 0; i < READ_BUFFER_SIZE; i++) {
+            CacheStore.Node node = readBuffer.getAndSet(i, null);
+            if (node != null) {
+                onRead(node);
+            }
+        }
+    }
+
+    private void onRead(CacheStore.Node node) {
+        if (node.queue == NONE) return;
+        sketch.increment(node.hash);
+
+        switch (node.queue) {
+            case WINDOW:
+                window.moveToLast(node);
+                break;
+            case PROBATION:
+                probation.remove(node);
+                protectedQueue.addLast(node, PROTECTED);
+                while (protectedOver()) {
+                    CacheStore.Node demoted = protectedQueue.pollFirst();
+                    probation.addLast(demoted, PROBATION);
+                }
+                break;
+            case PROTECTED:
+                protectedQueue.moveToLast(node);
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void unlink(CacheStore.Node node) {
+        if (node.queue == NONE) return;
+        queueOf(node).remove(node);
+        entries--;
+        bytes -= node.weight;
+    }
+
+    private Queue queueOf(CacheStore.Node node) {
+        switch (node.queue) {
+            case WINDOW: return window;
+            case PROBATION: return probation;
+            default: return protectedQueue;
+        }
+    }
+
+    private boolean overMax(long extraEntries, long extraBytes) {
+        return (maxEntries > 0 && entries + extraEntries > maxEntries)
+                || (maxBytes > 0 && bytes + extraBytes > maxBytes);
+    }
+
+    private boolean windowOver() {
+        return (maxEntries > 0 && window.count > Math.max(1, maxEntries / 100))
+                || (maxBytes > 0 && window.bytes > maxBytes / 100);
+    }
+
+    private boolean protectedOver() {
+        return (maxEntries > 0 && protectedQueue.count > maxEntries * 8 / 10)
+                || (maxBytes > 0 && protectedQueue.bytes > maxBytes * 8 / 10);
+    }
+
+    // intrusive doubly-linked LRU list; first = least recently used
+    private static final class Queue {
+        private final CacheStore.Node head = new CacheStore.Node(null, null, null);
+        long count;
+        long bytes;
+
+        Queue() {
+            head.prev = head;
+            head.next = head;
+        }
+
+        CacheStore.Node peekFirst() {
+            return head.next == head ? null : head.next;
+        }
+
+        CacheStore.Node pollFirst() {
+            CacheStore.Node first = peekFirst();
+            if (first != null) remove(first);
+            return first;
+        }
+
+        void addLast(CacheStore.Node node, byte queue) {
+            node.prev = head.prev;
+            node.next = head;
+            head.prev.next = node;
+            head.prev = node;
+            node.queue = queue;
+            count++;
+            bytes += node.weight;
+        }
+
+        void remove(CacheStore.Node node) {
+            node.prev.next = node.next;
+            node.next.prev = node.prev;
+            node.prev = null;
+            node.next = null;
+            node.queue = NONE;
+            count--;
+            bytes -= node.weight;
+        }
+
+        void moveToLast(CacheStore.Node node) {
+            byte queue = node.queue;
+            remove(node);
+            addLast(node, queue);
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package cachedb;
+
+import java.nio.ByteBuffer;
+
+/**
+ * LEB128 varints, zigzag-encoded for signed values.
+ */
+final class Varint {
+
+    private Varint() {}
+
+    static int size(int value) {
+        return sizeLong(value & 0xFFFFFFFFL);
+    }
+
+    static int sizeLong(long value) {
+        int size = 1;
+        while ((value & ~0x7FL) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    static void put(ByteBuffer buf, int value) {
+        putLong(buf, value & 0xFFFFFFFFL);
+    }
+
+    static void putLong(ByteBuffer buf, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buf.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buf.put((byte) value);
+    }
+
+    static int get(ByteBuffer buf) {
+        return (int) getLong(buf);
+    }
+
+    static long getLong(ByteBuffer buf) {
+        long result = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = buf.get();
+            result |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return result;
+        }
+        throw new IllegalArgumentException("Malformed varint");
+    }
+
+    static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
@@ -0,0 +1,18 @@
+package cachedb;
+
+import java.util.Map;
+
+/**
+ * A cached row with the version to pass to {@link CacheDB#compareAndSet}.
+ * Versions are opaque: they only tell whether the row changed since.
+ */
+public final class VersionedRow {
+
+    public final Map<String, Object> columns;
+    public final long version; // 0 when the row isn't cached
+
+    public VersionedRow(Map<String, Object> columns, long version) {
+        this.columns = columns;
+        this.version = version;
+    }
+}
@@ -58,7 +58,10 @@ public class WALReader implements Iterable<LogRecord>, Closeable {
                     int magic = header.getInt();
                     int totalLen = header.getInt();
 
-                    if (magic != LogRecord.MAGIC || totalLen <= 0) {
+                    if ((magic != LogRecord.MAGIC
+                            && magic != LogRecord.MAGIC_V2
+                            && magic != LogRecord.MAGIC_V1)
+                            || totalLen <= 8) {
                         return null; // corruption → stop
                     }
 
@@ -71,10 +74,10 @@ public class WALReader implements Iterable<LogRecord>, Closeable {
                     recordBuf.flip();
 
                     position += totalLen;
-                    return LogSerializer.deserialize(recordBuf);
+                    return LogSerializer.deserialize(magic, recordBuf);
 
-                } catch (IOException e) {
-                    return null; // safe stop on any IO issue
+                } catch (IOException | RuntimeException e) {
+                    return null; // safe stop on any IO issue or garbled record
                 }
             }
         };
@@ -4,24 +4,176 @@ import java.io.Closeable;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static cachedb.LogSerializer.serialize;
 
+/**
+ * Segmented write-ahead log.
+ *
+ * Records get a monotonically increasing LSN and go to the active segment
+ * file, which rolls over once it reaches the configured size. Every LSN is
+ * pinned until the mutation it belongs to has been flushed to the database;
+ * {@link #checkpoint()} deletes closed segments that lie entirely below the
+ * lowest pinned LSN (the low-water mark).
+ *
+ * The active segment is never deleted, so checkpoint also writes the
+ * low-water mark to a small file. Records below it are already in the
+ * database, and recovery skips them ({@link #checkpointLsn()}); replaying
+ * an increment that was flushed would apply it twice. Increments above it
+ * can be flushed while an older row holds the mark back, so their flush
+ * logs a {@link LogType#FLUSHED} record for the row, and recovery skips the
+ * row's records up to the LSN it names.
+ */
 public class WALWriter implements Closeable {
 
+    private static final String SEGMENT_PREFIX = "wal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    static final String CHECKPOINT_FILE = "checkpoint";
+
     private static volatile WALWriter INSTANCE;
 
-    private final FileChannel channel;
+    private final Path dir;
+    private final long segmentBytes;
+    private final Durability durability;
 
-    public WALWriter(Path path) throws IOException {
-        channel = FileChannel.open(
-                path,
-                StandardOpenOption.CREATE,
-                StandardOpenOption.WRITE,
-                StandardOpenOption.APPEND
-        );
+    /* ---- segments, guarded by this ---- */
+
+    private final Deque<Segment> closed = new ArrayDeque<>();
+    private final List<Path> recoverable;
+    private Segment active;
+    private FileChannel channel;
+    private long nextLsn;
+
+    // low-water mark in the checkpoint file; held at the first record to
+    // replay until recovery has pinned what it still needs
+    private final long checkpointLsn;
+    private long writtenCheckpoint;
+    private long recoveryFloor;
+
+    // LSNs whose mutations are not yet in the database → when and how big
+    private final ConcurrentSkipListMap<Long, Pin> pinned = new ConcurrentSkipListMap<>();
+    private final AtomicLong pinnedCount = new AtomicLong(); // skip list size() is O(n)
+    private final AtomicLong pinnedBytes = new AtomicLong();
+
+    // pinned LSN → newest record released as covered by it (see cover)
+    private final ConcurrentHashMap<Long, Long> coveredThrough = new ConcurrentHashMap<>();
+
+    /* ---- background sync (Durability.INTERVAL) ---- */
+
+    private final ScheduledExecutorService syncer;
+    private boolean unsynced;
+    private long syncedLsn; // every record up to here is on disk
+
+    /* ---- fsync latency ---- */
+
+    private volatile long forceCount;
+    private volatile long forceNanosTotal;
+    private volatile long forceNanosLast;
+    private volatile long forceNanosMax;
+
+    /* ---- group commit ---- */
+
+    private final boolean groupCommit;
+    private final int commitBatchSize;
+    private final long commitWaitNanos;
+
+    private final ReentrantLock commitLock = new ReentrantLock();
+    private final Condition batchFull = commitLock.newCondition();
+    private final Condition batchDone = commitLock.newCondition();
+    private Batch current = new Batch();
+    private boolean leaderActive;
+
+    /* ---- asynchronous appends ---- */
+
+    private static final int MAX_ASYNC_BATCH = 1024;
+
+    private final BlockingQueue<PendingAppend> asyncQueue = new LinkedBlockingQueue<>();
+    private Thread asyncWriter; // started by the first appendAsync
+
+    public WALWriter(Path dir) throws IOException {
+        this(dir, new Options());
+    }
+
+    /**
+     * Opens the WAL in {@code dir}. Existing segments are kept for recovery
+     * (see {@link #recoverableSegments()}) and a fresh active segment is
+     * started after the highest LSN found in them.
+     */
+    public WALWriter(Path dir, Options options) throws IOException {
+        this.dir = dir;
+        this.segmentBytes = options.segmentBytes;
+        this.durability = options.durability;
+        this.groupCommit = options.groupCommit;
+        this.commitBatchSize = Math.max(1, options.commitBatchSize);
+        this.commitWaitNanos = TimeUnit.MICROSECONDS.toNanos(options.commitWaitMicros);
+
+        Files.createDirectories(dir);
+        List<Path> existing = new ArrayList<>(segments(dir));
+        this.nextLsn = nextLsnAfter(existing);
+
+        // a last segment without a single readable record is reused by name
+        if (!existing.isEmpty()
+                && firstLsnOf(existing.get(existing.size() - 1)) == nextLsn) {
+            Files.delete(existing.remove(existing.size() - 1));
+        }
+        this.recoverable = List.copyOf(existing);
+        this.checkpointLsn = readCheckpoint(dir);
+        this.writtenCheckpoint = checkpointLsn;
+        this.recoveryFloor = recoverable.isEmpty()
+                ? Long.MAX_VALUE
+                : Math.max(checkpointLsn, firstLsnOf(recoverable.get(0)));
+
+        // existing segments cover contiguous LSN ranges up to nextLsn - 1
+        for (int i = 0; i < recoverable.size(); i++) {
+            Path path = recoverable.get(i);
+            long last = (i + 1 < recoverable.size())
+                    ? firstLsnOf(recoverable.get(i + 1)) - 1
+                    : nextLsn - 1;
+            Segment s = new Segment(path, firstLsnOf(path));
+            s.lastLsn = last;
+            closed.add(s);
+        }
+        // LSNs never go back, even if the segments were removed by hand
+        nextLsn = Math.max(nextLsn, checkpointLsn);
+        openSegment();
+
+        if (options.syncIntervalMillis > 0) {
+            syncer = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "wal-sync-thread");
+                t.setDaemon(true);
+                return t;
+            });
+            syncer.scheduleWithFixedDelay(
+                    this::syncIfNeeded,
+                    options.syncIntervalMillis,
+                    options.syncIntervalMillis,
+                    TimeUnit.MILLISECONDS
+            );
+        } else {
+            syncer = null;
+        }
         INSTANCE = this;
     }
 
@@ -33,25 +185,634 @@ public class WALWriter implements Closeable {
         return w;
     }
 
-    public synchronized void append(LogRecord record) throws IOException {
+    /**
+     * Segments that existed when the writer was opened, oldest first.
+     */
+    public List<Path> recoverableSegments() {
+        return recoverable;
+    }
+
+    /**
+     * The low-water mark the last checkpoint before this writer was opened
+     * wrote; 0 if there was none. Every record below it was flushed, so
+     * recovery skips those records.
+     */
+    public long checkpointLsn() {
+        return checkpointLsn;
+    }
+
+    /**
+     * Tells the writer that the recoverable segments have been replayed and
+     * the records still needed are pinned. Until then the low-water mark
+     * stays at the first record recovery may need, so a checkpoint during
+     * recovery neither deletes its segments nor records them as flushed.
+     */
+    public synchronized void recovered() {
+        recoveryFloor = Long.MAX_VALUE;
+    }
+
+    /**
+     * Appends a record with the writer's default durability.
+     *
+     * @return the record's LSN, pinned until {@link #release(long)}
+     */
+    public long append(LogRecord record) throws IOException {
+        return append(record, durability);
+    }
+
+    /**
+     * Appends a record. With {@link Durability#SYNC} this returns once the
+     * record is on disk; otherwise once it has been handed to the OS.
+     *
+     * @return the record's LSN, pinned until {@link #release(long)}
+     */
+    public long append(LogRecord record, Durability durability) throws IOException {
         ByteBuffer buffer = serialize(record);
-        while (buffer.hasRemaining()) {
-            channel.write(buffer);
+
+        if (durability != Durability.SYNC) {
+            return appendBuffered(buffer);
+        } else if (groupCommit) {
+            return groupAppend(buffer);
+        } else {
+            return appendAndForce(buffer);
+        }
+    }
+
+    /**
+     * Appends records in one write and, with {@link Durability#SYNC}, one
+     * fsync. The records get consecutive LSNs in list order.
+     *
+     * @return the first record's LSN; record {@code i} has LSN {@code first + i}
+     */
+    public long appendAll(List<LogRecord> records, Durability durability) throws IOException {
+        if (records.isEmpty()) {
+            throw new IllegalArgumentException("No records to append");
+        }
+        List<ByteBuffer> buffers = new ArrayList<>(records.size());
+        for (LogRecord record : records) {
+            buffers.add(serialize(record));
+        }
+
+        if (durability != Durability.SYNC) {
+            return appendBuffered(buffers);
+        } else if (groupCommit) {
+            return groupAppend(buffers);
+        } else {
+            return writeBatch(buffers);
+        }
+    }
+
+    /**
+     * Queues a record for the WAL's own writer thread, which writes whatever
+     * has queued up with one fsync. The future completes with the record's
+     * LSN once the record is as durable as {@code durability} asks, or
+     * exceptionally if the write fails.
+     *
+     * Stages chained onto the future may run on the writer thread, so
+     * anything that blocks should use the {@code *Async} variants.
+     */
+    public CompletableFuture<Long> appendAsync(LogRecord record, Durability durability) {
+        PendingAppend pending = new PendingAppend(serialize(record), durability == Durability.SYNC);
+        startAsyncWriter();
+        asyncQueue.add(pending);
+        return pending.future;
+    }
+
+    private synchronized void startAsyncWriter() {
+        if (asyncWriter != null) return;
+        asyncWriter = new Thread(this::writeAsync, "wal-async-thread");
+        asyncWriter.setDaemon(true);
+        asyncWriter.start();
+    }
+
+    private void writeAsync() {
+        List<PendingAppend> batch = new ArrayList<>();
+        List<ByteBuffer> buffers = new ArrayList<>();
+        while (true) {
+            try {
+                batch.add(asyncQueue.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            asyncQueue.drainTo(batch, MAX_ASYNC_BATCH - 1);
+
+            boolean sync = false;
+            for (PendingAppend p : batch) {
+                buffers.add(p.buffer);
+                sync |= p.sync;
+            }
+
+            long firstLsn;
+            try {
+                firstLsn = sync ? writeBatch(buffers) : appendBuffered(buffers);
+            } catch (IOException | RuntimeException e) {
+                for (PendingAppend p : batch) p.future.completeExceptionally(e);
+                batch.clear();
+                buffers.clear();
+                continue;
+            }
+
+            for (int i = 0; i < batch.size(); i++) {
+                batch.get(i).future.complete(firstLsn + i);
+            }
+            batch.clear();
+            buffers.clear();
+        }
+    }
+
+    private long appendAndForce(ByteBuffer buffer) throws IOException {
+        return writeBatch(List.of(buffer));
+    }
+
+    private long appendBuffered(ByteBuffer buffer) throws IOException {
+        return appendBuffered(List.of(buffer));
+    }
+
+    private synchronized long appendBuffered(List<ByteBuffer> buffers) throws IOException {
+        long lsn = write(buffers);
+        unsynced = true;
+        return lsn;
+    }
+
+    /*
+     * Leader/follower group commit. Every appender adds its record to the
+     * open batch. If no leader is writing, the appender becomes the leader:
+     * it closes the batch, writes it with one fsync and wakes the followers.
+     * Records arriving while a leader is busy form the next batch.
+     */
+    private long groupAppend(ByteBuffer buffer) throws IOException {
+        return groupAppend(List.of(buffer));
+    }
+
+    // the buffers go into one batch together, so their LSNs stay consecutive
+    private long groupAppend(List<ByteBuffer> buffers) throws IOException {
+        commitLock.lock();
+        try {
+            Batch batch = current;
+            int index = batch.buffers.size();
+            batch.buffers.addAll(buffers);
+            if (batch.buffers.size() >= commitBatchSize) {
+                batchFull.signal();
+            }
+
+            while (!batch.done) {
+                if (leaderActive) {
+                    batchDone.awaitUninterruptibly();
+                    continue;
+                }
+
+                // no leader and our batch is not done → it is the open batch
+                leaderActive = true;
+                long nanos = commitWaitNanos;
+                while (batch.buffers.size() < commitBatchSize && nanos > 0) {
+                    try {
+                        nanos = batchFull.awaitNanos(nanos);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
+                }
+                current = new Batch();
+
+                commitLock.unlock();
+                try {
+                    batch.firstLsn = writeBatch(batch.buffers);
+                } catch (IOException | RuntimeException e) {
+                    batch.error = e;
+                } finally {
+                    // whatever happened, the followers must not wait forever
+                    commitLock.lock();
+                    batch.done = true;
+                    leaderActive = false;
+                    batchDone.signalAll();
+                }
+            }
+
+            if (batch.error != null) {
+                throw new IOException("WAL group commit failed", batch.error);
+            }
+            return batch.firstLsn + index;
+        } finally {
+            commitLock.unlock();
+        }
+    }
+
+    private synchronized long writeBatch(List<ByteBuffer> buffers) throws IOException {
+        long firstLsn = write(buffers);
+        try {
+            force(true);
+        } catch (IOException e) {
+            // the writers are told it failed, so nobody will release these
+            for (int i = 0; i < buffers.size(); i++) release(firstLsn + i);
+            throw e;
+        }
+        return firstLsn;
+    }
+
+    /*
+     * Assigns consecutive LSNs and writes the records to the active segment,
+     * rolling to a new one first if it is full, then pins the LSNs.
+     * Callers hold the monitor, so file order is LSN order.
+     */
+    private long write(List<ByteBuffer> buffers) throws IOException {
+        long bytes = 0;
+        for (ByteBuffer b : buffers) bytes += b.remaining();
+
+        if (active.bytes > 0 && active.bytes + bytes > segmentBytes) {
+            roll();
+        }
+
+        long firstLsn = nextLsn;
+        int[] sizes = new int[buffers.size()];
+        for (int i = 0; i < sizes.length; i++) {
+            ByteBuffer b = buffers.get(i);
+            b.putLong(LogSerializer.LSN_OFFSET, nextLsn++);
+            sizes[i] = b.remaining();
+        }
+
+        ByteBuffer[] array = buffers.toArray(new ByteBuffer[0]);
+        long remaining = bytes;
+        try {
+            while (remaining > 0) {
+                remaining -= channel.write(array);
+            }
+        } catch (IOException | RuntimeException e) {
+            discardPartial(firstLsn, e);
+            throw e;
+        }
+
+        // only once written: a failed write leaves nothing pinned for good
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < sizes.length; i++) {
+            pin(firstLsn + i, sizes[i], now);
+        }
+
+        active.bytes += bytes;
+        active.lastLsn = nextLsn - 1;
+        return firstLsn;
+    }
+
+    /*
+     * Cuts the active segment back to its last whole record after a failed
+     * write, so later records don't land behind a torn one that recovery
+     * stops at, and hands the LSNs out again. If the segment can't be cut,
+     * writing moves on to a new segment and those LSNs are skipped.
+     */
+    private void discardPartial(long firstLsn, Exception failure) {
+        if (!channel.isOpen()) {
+            nextLsn = firstLsn; // closed, so nothing more reaches the segment
+            return;
+        }
+        try {
+            channel.truncate(active.bytes);
+            nextLsn = firstLsn;
+            return;
+        } catch (IOException e) {
+            failure.addSuppressed(e);
+        }
+        try {
+            channel.close();
+            closed.add(active);
+            openSegment();
+        } catch (IOException e) {
+            failure.addSuppressed(e);
+        }
+    }
+
+    private void roll() throws IOException {
+        force(true);
+        channel.close();
+        closed.add(active);
+        openSegment();
+    }
+
+    private void openSegment() throws IOException {
+        Path path = dir.resolve(String.format(
+                "%s%020d%s", SEGMENT_PREFIX, nextLsn, SEGMENT_SUFFIX));
+        channel = FileChannel.open(
+                path,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND
+        );
+        active = new Segment(path, nextLsn);
+        active.bytes = channel.size();
+    }
+
+    /* ------------ LSN tracking ------------ */
+
+    /**
+     * Keeps the segment holding {@code lsn}, a record of {@code bytes}, until
+     * the LSN is released. Used for records replayed during recovery.
+     */
+    public void pin(long lsn, int bytes) {
+        if (lsn > 0) pin(lsn, bytes, System.currentTimeMillis());
+    }
+
+    private void pin(long lsn, int bytes, long now) {
+        if (pinned.putIfAbsent(lsn, new Pin(now, bytes)) == null) {
+            pinnedCount.incrementAndGet();
+            pinnedBytes.addAndGet(bytes);
+        }
+    }
+
+    /**
+     * Marks the mutation logged at {@code lsn} as flushed, or as covered by an
+     * older pinned record for the same row.
+     */
+    public void release(long lsn) {
+        if (lsn <= 0) return;
+
+        Pin pin = pinned.remove(lsn);
+        if (pin != null) {
+            pinnedCount.decrementAndGet();
+            pinnedBytes.addAndGet(-pin.bytes);
+        }
+        coveredThrough.remove(lsn);
+    }
+
+    /**
+     * Notes that the record at {@code lsn} is written to the database with
+     * the row's pending record at {@code pendingLsn}. The caller still
+     * releases {@code lsn}.
+     */
+    public void cover(long lsn, long pendingLsn) {
+        if (lsn > 0 && pendingLsn > 0) {
+            coveredThrough.merge(pendingLsn, lsn, Math::max);
+        }
+    }
+
+    /**
+     * Releases {@code lsn} once its mutation is in the database.
+     *
+     * @return the newest record that mutation covers: {@code lsn} or a
+     *         record released as covered by it
+     */
+    public long flushed(long lsn) {
+        Long covered = coveredThrough.get(lsn);
+        release(lsn);
+        return (covered == null) ? lsn : Math.max(lsn, covered);
+    }
+
+    /** Records still pinned: roughly one per row written but not yet flushed. */
+    public long pinnedRecords() {
+        return pinnedCount.get();
+    }
+
+    /** Serialized size of the pinned records. */
+    public long pinnedBytes() {
+        return pinnedBytes.get();
+    }
+
+    /** How long ago the oldest pinned record was written; 0 if none is. */
+    public long oldestPinnedAgeMillis() {
+        Map.Entry<Long, Pin> oldest = pinned.firstEntry();
+        return oldest == null ? 0 : Math.max(0, System.currentTimeMillis() - oldest.getValue().millis);
+    }
+
+    /**
+     * Lowest LSN that may still be needed for recovery.
+     */
+    public synchronized long lowWaterMark() {
+        long lowest;
+        try {
+            lowest = pinned.firstKey();
+        } catch (NoSuchElementException e) {
+            lowest = nextLsn;
+        }
+        return Math.min(lowest, recoveryFloor);
+    }
+
+    /**
+     * Records the low-water mark in the checkpoint file and deletes closed
+     * segments whose records are all below it.
+     *
+     * @return number of segments deleted
+     */
+    public synchronized int checkpoint() throws IOException {
+        long lowWaterMark = lowWaterMark();
+        if (lowWaterMark > writtenCheckpoint) {
+            writeCheckpoint(lowWaterMark);
+            writtenCheckpoint = lowWaterMark;
+        }
+        int deleted = 0;
+
+        while (!closed.isEmpty() && closed.peekFirst().lastLsn < lowWaterMark) {
+            Files.deleteIfExists(closed.pollFirst().path);
+            deleted++;
         }
-        channel.force(true);
+        return deleted;
     }
 
     public synchronized void sync() throws IOException {
-        channel.force(true);
+        force(true);
+    }
+
+    /**
+     * Makes the records up to {@code lsn} durable, unless an fsync since
+     * they were written already has. Writers that appended with
+     * {@link Durability#NONE} and wait here share fsyncs.
+     */
+    public synchronized void syncThrough(long lsn) throws IOException {
+        if (lsn > syncedLsn) {
+            force(true);
+        }
+    }
+
+    private synchronized void syncIfNeeded() {
+        if (!unsynced) return;
+        try {
+            force(false);
+        } catch (IOException e) {
+            System.err.println("Warning: WAL background sync failed: " + e.getMessage());
+        }
+    }
+
+    // callers hold the monitor
+    private void force(boolean metaData) throws IOException {
+        long start = System.nanoTime();
+        channel.force(metaData);
+        long elapsed = System.nanoTime() - start;
+
+        unsynced = false;
+        syncedLsn = nextLsn - 1;
+        forceCount++;
+        forceNanosTotal += elapsed;
+        forceNanosLast = elapsed;
+        if (elapsed > forceNanosMax) forceNanosMax = elapsed;
+    }
+
+    /* ------------ stats ------------ */
+
+    public Durability durability() {
+        return durability;
+    }
+
+    public synchronized int segmentCount() {
+        return closed.size() + 1;
     }
 
-    public synchronized void truncate() throws IOException {
-        channel.truncate(0);
-        channel.position(0);
+    public synchronized long sizeBytes() {
+        long total = active.bytes;
+        for (Segment s : closed) {
+            try {
+                total += Files.size(s.path);
+            } catch (IOException e) {
+                // deleted underneath us
+            }
+        }
+        return total;
+    }
+
+    public synchronized long lastLsn() {
+        return nextLsn - 1;
+    }
+
+    public long fsyncCount() {
+        return forceCount;
+    }
+
+    public long fsyncAvgMicros() {
+        long count = forceCount;
+        return count == 0 ? 0 : forceNanosTotal / count / 1000;
+    }
+
+    public long fsyncLastMicros() {
+        return forceNanosLast / 1000;
+    }
+
+    public long fsyncMaxMicros() {
+        return forceNanosMax / 1000;
     }
 
     @Override
     public void close() throws IOException {
-        channel.close();
+        if (syncer != null) {
+            syncer.shutdown();
+        }
+        synchronized (this) {
+            if (asyncWriter != null) {
+                asyncWriter.interrupt();
+            }
+            channel.close();
+        }
+        PendingAppend pending;
+        while ((pending = asyncQueue.poll()) != null) {
+            pending.future.completeExceptionally(new IOException("WAL closed"));
+        }
+    }
+
+    /* ------------ segment files ------------ */
+
+    /**
+     * WAL segment files in {@code dir}, oldest first.
+     */
+    public static List<Path> segments(Path dir) throws IOException {
+        if (!Files.isDirectory(dir)) return List.of();
+
+        try (Stream<Path> files = Files.list(dir)) {
+            return files
+                    .filter(p -> {
+                        String name = p.getFileName().toString();
+                        return name.startsWith(SEGMENT_PREFIX)
+                                && name.endsWith(SEGMENT_SUFFIX);
+                    })
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private void writeCheckpoint(long lsn) throws IOException {
+        try (FileChannel c = FileChannel.open(dir.resolve(CHECKPOINT_FILE),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            ByteBuffer buf = ByteBuffer.allocate(Long.BYTES).putLong(0, lsn);
+            while (buf.hasRemaining()) {
+                c.write(buf, buf.position());
+            }
+            c.force(false);
+        }
+    }
+
+    private static long readCheckpoint(Path dir) throws IOException {
+        Path file = dir.resolve(CHECKPOINT_FILE);
+        if (!Files.exists(file)) return 0;
+
+        byte[] bytes = Files.readAllBytes(file);
+        return (bytes.length == Long.BYTES) ? ByteBuffer.wrap(bytes).getLong() : 0;
+    }
+
+    private static long firstLsnOf(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(
+                SEGMENT_PREFIX.length(),
+                name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    private static long nextLsnAfter(List<Path> segments) throws IOException {
+        if (segments.isEmpty()) return 1;
+
+        Path last = segments.get(segments.size() - 1);
+        long next = firstLsnOf(last);
+        try (WALReader reader = new WALReader(last)) {
+            for (LogRecord r : reader) {
+                next = Math.max(next, r.lsn() + 1);
+            }
+        }
+        return next;
+    }
+
+    public static final class Options {
+        /** Default durability for tables without their own setting. */
+        public Durability durability = Durability.SYNC;
+        /** Background fsync period for {@link Durability#INTERVAL}; 0 disables it. */
+        public long syncIntervalMillis = 0;
+        public boolean groupCommit = false;
+        /** Max records written by a single group commit. */
+        public int commitBatchSize = 1;
+        /** How long a leader waits for more records before writing a partial batch. */
+        public long commitWaitMicros = 0;
+        /** Size at which the active segment is closed and a new one started. */
+        public long segmentBytes = 64L * 1024 * 1024;
+    }
+
+    private static final class Segment {
+        final Path path;
+        final long firstLsn;
+        long lastLsn;
+        long bytes;
+
+        Segment(Path path, long firstLsn) {
+            this.path = path;
+            this.firstLsn = firstLsn;
+            this.lastLsn = firstLsn - 1;
+        }
+    }
+
+    private static final class Pin {
+        final long millis;
+        final int bytes;
+
+        Pin(long millis, int bytes) {
+            this.millis = millis;
+            this.bytes = bytes;
+        }
+    }
+
+    private static final class PendingAppend {
+        final ByteBuffer buffer;
+        final boolean sync;
+        final CompletableFuture<Long> future = new CompletableFuture<>();
+
+        PendingAppend(ByteBuffer buffer, boolean sync) {
+            this.buffer = buffer;
+            this.sync = sync;
+        }
+    }
+
+    private static final class Batch {
+        final List<ByteBuffer> buffers = new ArrayList<>();
+        long firstLsn;
+        boolean done;
+        Exception error;
     }
 }
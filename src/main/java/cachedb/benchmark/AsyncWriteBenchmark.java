@@ -0,0 +1,91 @@
+package cachedb.benchmark;
+
+import cachedb.CacheDB;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * set() against setAsync() with 1 to 64 caller threads, SYNC durability.
+ * Sync callers run without and with group commit; async callers keep up to
+ * {@link #WINDOW} writes in flight each. Reports throughput and the mean
+ * time from call to durable acknowledgement.
+ */
+public class AsyncWriteBenchmark extends CacheDBBenchmarkBase {
+
+    private static final int WRITES = 8_000;
+    private static final int WINDOW = 32;
+    private static final int[] THREADS = { 1, 4, 16, 64 };
+
+    private final AtomicLong latencyNanos = new AtomicLong();
+
+    public static void main(String[] args) throws Exception {
+        AsyncWriteBenchmark bench = new AsyncWriteBenchmark();
+
+        System.out.printf("%-8s %-18s %12s %14s%n", "threads", "mode", "writes/s", "mean ack us");
+        for (int threads : THREADS) {
+            bench.run(threads, "set", false);
+            bench.run(threads, "set+groupCommit", true);
+            bench.run(threads, "setAsync", false);
+        }
+        System.exit(0);
+    }
+
+    private void run(int threads, String mode, boolean groupCommit) throws Exception {
+        clearWal();
+        cache = builder(3600)
+                .dashboard(false)
+                .groupCommit(groupCommit)
+                .build();
+        latencyNanos.set(0);
+
+        int perThread = WRITES / threads;
+        boolean async = mode.equals("setAsync");
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int base = t * perThread;
+            workers.add(new Thread(() -> {
+                if (async) {
+                    writeAsync(base, perThread);
+                } else {
+                    writeSync(base, perThread);
+                }
+            }));
+        }
+
+        long start = System.nanoTime();
+        for (Thread w : workers) w.start();
+        for (Thread w : workers) w.join();
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        int total = perThread * threads;
+        System.out.printf("%-8d %-18s %12.0f %14.1f%n", threads, mode,
+                total / seconds, latencyNanos.get() / 1000.0 / total);
+    }
+
+    private void writeSync(int base, int count) {
+        for (int i = base; i < base + count; i++) {
+            long start = System.nanoTime();
+            cache.set("users", Map.of("id", i), Map.of("name", "User-" + i));
+            latencyNanos.addAndGet(System.nanoTime() - start);
+        }
+    }
+
+    private void writeAsync(int base, int count) {
+        Deque<CompletableFuture<Void>> inFlight = new ArrayDeque<>();
+        for (int i = base; i < base + count; i++) {
+            if (inFlight.size() == WINDOW) {
+                inFlight.poll().join();
+            }
+            long start = System.nanoTime();
+            inFlight.add(cache.setAsync("users", Map.of("id", i), Map.of("name", "User-" + i))
+                    .whenComplete((v, e) -> latencyNanos.addAndGet(System.nanoTime() - start)));
+        }
+        for (CompletableFuture<Void> f : inFlight) f.join();
+    }
+}
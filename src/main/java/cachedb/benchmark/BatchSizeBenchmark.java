@@ -0,0 +1,69 @@
+package cachedb.benchmark;
+
+import cachedb.CacheDB;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Per-row cost of multiSet / multiGet / multiDelete at batch sizes 1, 16
+ * and 256, with SYNC durability (one fsync per batch). The database is
+ * only touched when rows expire, so a long TTL keeps it out of the picture.
+ */
+public class BatchSizeBenchmark extends CacheDBBenchmarkBase {
+
+    private static final int ROWS = 4096;
+    private static final int[] BATCH_SIZES = { 1, 16, 256 };
+
+    public static void main(String[] args) throws Exception {
+        BatchSizeBenchmark bench = new BatchSizeBenchmark();
+
+        System.out.printf("%-6s %14s %14s %14s%n", "batch", "set us/row", "get us/row", "delete us/row");
+        for (int batch : BATCH_SIZES) {
+            clearWal();
+            bench.cache = bench.builder(3600).dashboard(false).build();
+            bench.run(batch);
+        }
+        System.exit(0);
+    }
+
+    private void run(int batch) {
+        long start = System.nanoTime();
+        for (int from = 0; from < ROWS; from += batch) {
+            Map<Map<String, Object>, Map<String, Object>> rows = new LinkedHashMap<>();
+            for (int i = from; i < from + batch; i++) {
+                rows.put(Map.of("id", i), Map.of("name", "User-" + i, "visits", (long) i));
+            }
+            cache.multiSet("users", rows);
+        }
+        double setMicros = (System.nanoTime() - start) / 1000.0 / ROWS;
+
+        start = System.nanoTime();
+        int found = 0;
+        for (int from = 0; from < ROWS; from += batch) {
+            for (Map<String, Object> row : cache.multiGet("users", keys(from, batch))) {
+                if (row != null) found++;
+            }
+        }
+        double getMicros = (System.nanoTime() - start) / 1000.0 / ROWS;
+        if (found != ROWS) throw new IllegalStateException("missing rows: " + (ROWS - found));
+
+        start = System.nanoTime();
+        for (int from = 0; from < ROWS; from += batch) {
+            cache.multiDelete("users", keys(from, batch));
+        }
+        double deleteMicros = (System.nanoTime() - start) / 1000.0 / ROWS;
+
+        System.out.printf("%-6d %14.2f %14.2f %14.2f%n", batch, setMicros, getMicros, deleteMicros);
+    }
+
+    private static List<Map<String, Object>> keys(int from, int batch) {
+        List<Map<String, Object>> keys = new ArrayList<>(batch);
+        for (int i = from; i < from + batch; i++) {
+            keys.add(Map.of("id", i));
+        }
+        return keys;
+    }
+}
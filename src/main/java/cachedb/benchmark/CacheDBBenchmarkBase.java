@@ -2,24 +2,46 @@ package cachedb.benchmark;
 
 import cachedb.CacheDB;
 import cachedb.SimpleDataSource;
+import cachedb.WALWriter;
 
 import javax.sql.DataSource;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 
 public abstract class CacheDBBenchmarkBase {
 
     protected CacheDB cache;
 
     protected void setup(int ttlSeconds) throws IOException {
+        cache = builder(ttlSeconds).build();
+    }
+
+    protected CacheDB.Builder builder(int ttlSeconds) {
         DataSource ds = new SimpleDataSource(
                 "jdbc:mysql://localhost:3306/cachedb",
                 "root",
                 "defg5678@"
         );
 
-        cache = CacheDB.builder()
+        return CacheDB.builder()
                 .dataSource(ds)
-                .ttlSeconds(ttlSeconds)
-                .build();
+                .ttlSeconds(ttlSeconds);
+    }
+
+    protected static final Path WAL_DIR = Path.of("logs");
+
+    protected static void clearWal() throws IOException {
+        for (Path segment : WALWriter.segments(WAL_DIR)) {
+            Files.deleteIfExists(segment);
+        }
+    }
+
+    protected static long walSize() throws IOException {
+        long size = 0;
+        for (Path segment : WALWriter.segments(WAL_DIR)) {
+            size += Files.size(segment);
+        }
+        return size;
     }
 }
@@ -0,0 +1,73 @@
+package cachedb.benchmark;
+
+import cachedb.BinaryRowCodec;
+import cachedb.RowCodec;
+import cachedb.TextRowCodec;
+
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Compares the legacy text WAL payload against {@link BinaryRowCodec}:
+ * encode/decode time and encoded size for a users row and an
+ * order_items row. Runs without a database.
+ */
+public class CodecBenchmark {
+
+    private static final int ITERATIONS = 2_000_000;
+
+    public static void main(String[] args) {
+        Map<String, Object> user = new HashMap<>();
+        user.put("id", 42);
+        user.put("name", "Alice Smith");
+        user.put("email", "alice@example.com");
+        user.put("visits", 123_456L);
+
+        Map<String, Object> orderItem = new HashMap<>();
+        orderItem.put("order_id", 100);
+        orderItem.put("item_id", 3);
+        orderItem.put("qty", 2);
+        orderItem.put("price", new BigDecimal("19.99"));
+
+        RowCodec text = new TextRowCodec();
+        RowCodec binary = new BinaryRowCodec();
+
+        // two rounds: the first one is warmup
+        for (int round = 0; round < 2; round++) {
+            boolean report = round == 1;
+            run("users       text  ", report, text, user);
+            run("users       binary", report, binary, user);
+            run("order_items text  ", report, text, orderItem);
+            run("order_items binary", report, binary, orderItem);
+        }
+    }
+
+    private static void run(String name, boolean report,
+                            RowCodec codec, Map<String, Object> row) {
+        int size = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            size += codec.encode(row).length;
+        }
+        long encodeNanos = System.nanoTime() - start;
+
+        byte[] bytes = codec.encode(row);
+        int columns = 0;
+        start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            columns += codec.decode(bytes).size();
+        }
+        long decodeNanos = System.nanoTime() - start;
+
+        if (size == 0 || columns == 0) throw new IllegalStateException();
+
+        if (report) {
+            System.out.printf("%s %7.1f ns/encode %7.1f ns/decode %4d bytes%n",
+                    name,
+                    (double) encodeNanos / ITERATIONS,
+                    (double) decodeNanos / ITERATIONS,
+                    bytes.length);
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package cachedb.benchmark;
+
+import cachedb.CacheStore;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Replays a Zipfian key trace against a bounded CacheStore (W-TinyLFU)
+ * and a plain LRU of the same size, loading each miss as a clean row.
+ * Reports hit ratio and throughput. Runs without a database.
+ */
+public class EvictionBenchmark {
+
+    private static final int KEYS = 100_000;
+    private static final int REQUESTS = 2_000_000;
+    private static final double SKEW = 0.99;
+
+    public static void main(String[] args) {
+        int[] trace = zipfTrace(KEYS, REQUESTS, SKEW, 42);
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        Map<String, Object>[] keys = new Map[KEYS];
+        for (int i = 0; i < KEYS; i++) {
+            keys[i] = Map.of("id", i);
+        }
+        Map<String, Object> row = Map.of("name", "User");
+
+        for (double fraction : new double[] { 0.01, 0.05, 0.10 }) {
+            int size = (int) (KEYS * fraction);
+            System.out.println();
+            System.out.println("Cache size: " + size + " (" + (int) (fraction * 100) + "% of keys)");
+            runTinyLfu(trace, keys, row, size);
+            runLru(trace, size);
+        }
+    }
+
+    private static void runTinyLfu(int[] trace,
+                                   Map<String, Object>[] keys,
+                                   Map<String, Object> row,
+                                   int size) {
+        CacheStore store = new CacheStore(3_600_000, null, size, 0);
+
+        long start = System.nanoTime();
+        for (int k : trace) {
+            if (store.get("users", keys[k]) == null) {
+                store.load("users", keys[k], row);
+            }
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        long hits = store.hitCount();
+        System.out.printf("W-TinyLFU  hit ratio %6.2f%%  %,12.0f ops/sec  %d evictions%n",
+                hits * 100.0 / trace.length, trace.length / seconds, store.evictionCount());
+    }
+
+    private static void runLru(int[] trace, int size) {
+        Map<Integer, Boolean> lru = new LinkedHashMap<>(size * 2, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Boolean> eldest) {
+                return size() > size;
+            }
+        };
+
+        long hits = 0;
+        for (int k : trace) {
+            if (lru.get(k) != null) {
+                hits++;
+            } else {
+                lru.put(k, Boolean.TRUE);
+            }
+        }
+        System.out.printf("LRU        hit ratio %6.2f%%%n", hits * 100.0 / trace.length);
+    }
+
+    // inverse-CDF sampling; rank 0 is the most popular key
+    private static int[] zipfTrace(int keys, int requests, double skew, long seed) {
+        double[] cdf = new double[keys];
+        double sum = 0;
+        for (int i = 0; i < keys; i++) {
+            sum += 1.0 / Math.pow(i + 1, skew);
+            cdf[i] = sum;
+        }
+
+        // shuffle ranks onto ids so popular keys aren't neighbours
+        int[] ids = new int[keys];
+        for (int i = 0; i < keys; i++) ids[i] = i;
+        Random random = new Random(seed);
+        for (int i = keys - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int t = ids[i]; ids[i] = ids[j]; ids[j] = t;
+        }
+
+        int[] trace = new int[requests];
+        for (int r = 0; r < requests; r++) {
+            double u = random.nextDouble() * sum;
+            int lo = 0, hi = keys - 1;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (cdf[mid] < u) lo = mid + 1; else hi = mid;
+            }
+            trace[r] = ids[lo];
+        }
+        return trace;
+    }
+}
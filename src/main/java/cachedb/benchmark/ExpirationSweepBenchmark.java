@@ -0,0 +1,87 @@
+package cachedb.benchmark;
+
+import cachedb.CacheEntry;
+import cachedb.CacheStore;
+import cachedb.RowKey;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Map;
+
+/**
+ * CPU time per expiration tick with 1M and 10M cached rows: the old
+ * full-map scan vs the timer wheel. The wheel is driven through a whole
+ * TTL, so its figures include cascading rows down the levels and expiring
+ * all of them. Runs without a database; 10M rows need -Xmx8g or so.
+ */
+public class ExpirationSweepBenchmark {
+
+    private static final long TTL_MILLIS = 600_000;
+
+    public static void main(String[] args) {
+        int[] sizes = args.length > 0
+                ? new int[] { Integer.parseInt(args[0]) }
+                : new int[] { 1_000_000, 10_000_000 };
+
+        for (int size : sizes) {
+            run(size);
+        }
+    }
+
+    private static void run(int size) {
+        CacheStore store = new CacheStore(TTL_MILLIS);
+        Map<String, Object> columns = Map.of("name", "User");
+
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < size; i++) {
+            store.upsert("users", Map.of("id", i), columns);
+        }
+
+        ThreadMXBean cpu = ManagementFactory.getThreadMXBean();
+        System.out.println();
+        System.out.println("Rows: " + size);
+
+        // nothing is due yet, so this is the pure cost of looking
+        for (int round = 0; round < 3; round++) {
+            long before = cpu.getCurrentThreadCpuTime();
+            int expired = fullScan(store, System.currentTimeMillis());
+            long nanos = cpu.getCurrentThreadCpuTime() - before;
+            System.out.printf("full scan    %8.3f ms CPU per tick (%d expired)%n",
+                    nanos / 1e6, expired);
+        }
+
+        // step the wheel tick by tick until every row has expired
+        long tick = CacheStore.EXPIRATION_TICK_MILLIS;
+        long end = System.currentTimeMillis() + TTL_MILLIS + 2 * tick;
+        int[] expired = new int[1];
+        long ticks = 0;
+        long totalNanos = 0;
+        long maxNanos = 0;
+        for (long now = start; now <= end; now += tick) {
+            long before = cpu.getCurrentThreadCpuTime();
+            store.expire(now, (table, entry) -> expired[0]++);
+            long nanos = cpu.getCurrentThreadCpuTime() - before;
+            totalNanos += nanos;
+            maxNanos = Math.max(maxNanos, nanos);
+            ticks++;
+        }
+
+        System.out.printf("timer wheel  %8.3f ms CPU per tick on average, %.3f ms max (%d ticks, %d expired)%n",
+                totalNanos / 1e6 / ticks, maxNanos / 1e6, ticks, expired[0]);
+    }
+
+    // what ExpirationManager did before the timer wheel
+    private static int fullScan(CacheStore store, long now) {
+        int[] expired = new int[1];
+        for (Map<RowKey, CacheEntry> map : store.raw().values()) {
+            for (RowKey key : map.keySet()) {
+                map.computeIfPresent(key, (k, e) -> {
+                    if (e.expiresAt > now) return e;
+                    expired[0]++;
+                    return null;
+                });
+            }
+        }
+        return expired[0];
+    }
+}
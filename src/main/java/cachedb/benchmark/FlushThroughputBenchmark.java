@@ -0,0 +1,80 @@
+package cachedb.benchmark;
+
+import cachedb.FlushManager;
+import cachedb.FlushTask;
+import cachedb.RowMutation;
+import cachedb.SchemaRegistry;
+import cachedb.SimpleDataSource;
+
+import javax.sql.DataSource;
+import java.util.Map;
+
+/**
+ * Rows flushed per second by a FlushManager draining a burst of expired
+ * rows: one row per transaction (the old behaviour) vs batches, then a
+ * batch of single-row statements vs multi-row ones, then batches split over
+ * 1 to 8 key-partitioned flush workers.
+ * Needs the MySQL instance the other benchmarks use.
+ */
+public class FlushThroughputBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+
+        DataSource ds = new SimpleDataSource(
+                "jdbc:mysql://localhost:3306/cachedb",
+                "root",
+                "defg5678@"
+        );
+
+        run(ds, rows, 1, 1);
+        run(ds, rows, 100, 1);
+        run(ds, rows, 500, 1);
+        run(ds, rows, 2000, 1);
+
+        // a 1-byte cap leaves one row per statement, as plain JDBC batching sends them
+        run(ds, rows, 500, 1, 1);
+
+        run(ds, rows, 500, 2);
+        run(ds, rows, 500, 4);
+        run(ds, rows, 500, 8);
+
+        System.exit(0);
+    }
+
+    private static void run(DataSource ds, int rows, int batchSize, int workers) throws Exception {
+        run(ds, rows, batchSize, workers, new FlushManager.Options().maxStatementBytes);
+    }
+
+    private static void run(DataSource ds, int rows, int batchSize, int workers,
+                            long maxStatementBytes) throws Exception {
+        FlushManager.Options options = new FlushManager.Options();
+        options.maxBatchSize = batchSize;
+        options.workers = workers;
+        options.maxStatementBytes = maxStatementBytes;
+        FlushManager flushManager = new FlushManager(ds, new SchemaRegistry(ds), options);
+
+        for (int i = 0; i < rows; i++) {
+            flushManager.enqueue(new FlushTask(new RowMutation(
+                    "users",
+                    Map.of("id", i),
+                    Map.of("name", "User-" + i),
+                    1)));
+        }
+
+        long start = System.nanoTime();
+        flushManager.start();
+        while (flushManager.flushedRows() < rows) {
+            Thread.sleep(5);
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        System.out.println();
+        System.out.println("Batch size: " + batchSize + ", workers: " + workers
+                + ", max statement bytes: " + maxStatementBytes);
+        System.out.println("Rows: " + rows + " in " + flushManager.flushedBatches() + " batches, "
+                + flushManager.flushedStatements() + " statements");
+        System.out.println("Time (s): " + seconds);
+        System.out.println("Throughput (rows/sec): " + rows / seconds);
+    }
+}
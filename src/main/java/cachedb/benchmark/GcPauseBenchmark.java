@@ -0,0 +1,116 @@
+package cachedb.benchmark;
+
+import cachedb.CacheStore;
+import cachedb.OffHeapCacheStore;
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+import javax.management.NotificationEmitter;
+import javax.management.openmbean.CompositeData;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * GC pauses with a large cache on the heap versus off-heap: fills each store,
+ * then runs a get/set mix and records every collection the JVM reports.
+ * Also times one full GC with the store live.
+ *
+ * Usage: GcPauseBenchmark [rows] [seconds], e.g. run with -Xmx4g -XX:+UseG1GC.
+ * Runs without a database.
+ */
+public class GcPauseBenchmark {
+
+    private static final AtomicLong pauses = new AtomicLong();
+    private static final AtomicLong pauseMillis = new AtomicLong();
+    private static final AtomicLong maxPauseMillis = new AtomicLong();
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+        listenForPauses();
+
+        System.out.println("Rows: " + rows + ", workload: " + seconds + " s");
+        run("heap    ", new CacheStore(3_600_000), rows, seconds);
+        run("off-heap", new OffHeapCacheStore(3_600_000, null), rows, seconds);
+    }
+
+    private static void run(String name, CacheStore store, int rows, int seconds) {
+        for (int i = 0; i < rows; i++) {
+            store.upsert("users", Map.of("id", i), row(i), 0);
+        }
+
+        long heapUsed = usedHeapAfterGc();
+        long start = System.nanoTime();
+        System.gc();
+        long fullGcMillis = (System.nanoTime() - start) / 1_000_000;
+
+        reset();
+        Random random = new Random(7);
+        long ops = 0;
+        long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+        while (System.nanoTime() < deadline) {
+            for (int n = 0; n < 1000; n++) {
+                int id = random.nextInt(rows);
+                if ((n & 1) == 0) {
+                    store.get("users", Map.of("id", id));
+                } else {
+                    store.upsert("users", Map.of("id", id), row(id), 0);
+                }
+            }
+            ops += 1000;
+        }
+
+        System.out.printf("%s heap used %,6d MB | full GC %,5d ms | workload %,9d ops/s, "
+                        + "%d pauses, total %,d ms, max %,d ms%n",
+                name, heapUsed >> 20, fullGcMillis, ops / seconds,
+                pauses.get(), pauseMillis.get(), maxPauseMillis.get());
+        if (store instanceof OffHeapCacheStore) {
+            System.out.printf("%s direct memory %,d MB, %d compactions%n", name,
+                    ((OffHeapCacheStore) store).offHeapBytes() >> 20,
+                    ((OffHeapCacheStore) store).compactionCount());
+        }
+    }
+
+    private static Map<String, Object> row(int i) {
+        return Map.of(
+                "name", "User-" + i,
+                "email", "user" + i + "@example.com",
+                "visits", (long) i * 7,
+                "score", i % 100);
+    }
+
+    private static void listenForPauses() {
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            ((NotificationEmitter) gc).addNotificationListener((notification, handback) -> {
+                if (!GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION
+                        .equals(notification.getType())) {
+                    return;
+                }
+                GarbageCollectionNotificationInfo info = GarbageCollectionNotificationInfo
+                        .from((CompositeData) notification.getUserData());
+                // concurrent cycles don't stop the application
+                if (info.getGcName().contains("Concurrent")) return;
+
+                long millis = info.getGcInfo().getDuration();
+                pauses.incrementAndGet();
+                pauseMillis.addAndGet(millis);
+                maxPauseMillis.accumulateAndGet(millis, Math::max);
+            }, null, null);
+        }
+    }
+
+    private static void reset() {
+        pauses.set(0);
+        pauseMillis.set(0);
+        maxPauseMillis.set(0);
+    }
+
+    private static long usedHeapAfterGc() {
+        System.gc();
+        Runtime rt = Runtime.getRuntime();
+        return rt.totalMemory() - rt.freeMemory();
+    }
+}
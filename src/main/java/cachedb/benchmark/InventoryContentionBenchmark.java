@@ -0,0 +1,96 @@
+package cachedb.benchmark;
+
+import cachedb.VersionedRow;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Inventory decrements on a few hot products from 1 to 64 threads: get+set
+ * under one global lock against getWithVersion+compareAndSet retries.
+ * Reports decrements per second and failed compare-and-sets per decrement.
+ *
+ * Usage: InventoryContentionBenchmark [products] [decrements]. SYNC
+ * durability, so the locked path also holds the lock across each fsync.
+ */
+public class InventoryContentionBenchmark extends CacheDBBenchmarkBase {
+
+    private static final int[] THREADS = { 1, 4, 16, 64 };
+
+    private final Object globalLock = new Object();
+    private final AtomicLong retries = new AtomicLong();
+
+    public static void main(String[] args) throws Exception {
+        int products = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        int decrements = args.length > 1 ? Integer.parseInt(args[1]) : 8_000;
+
+        InventoryContentionBenchmark bench = new InventoryContentionBenchmark();
+        System.out.printf("%-8s %-14s %14s %16s%n", "threads", "mode", "decrements/s", "retries/decrement");
+        for (int threads : THREADS) {
+            bench.run(threads, "global lock", false, products, decrements);
+            bench.run(threads, "compareAndSet", true, products, decrements);
+        }
+        System.exit(0);
+    }
+
+    private void run(int threads, String mode, boolean cas,
+                     int products, int decrements) throws Exception {
+        clearWal();
+        cache = builder(3600)
+                .dashboard(false)
+                .build();
+        retries.set(0);
+
+        for (int p = 0; p < products; p++) {
+            cache.set("products", Map.of("product_id", p), Map.of("name", "Product-" + p, "stock", decrements));
+        }
+
+        int perThread = decrements / threads;
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            workers.add(new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int n = 0; n < perThread; n++) {
+                    Map<String, Object> pk = Map.of("product_id", random.nextInt(products));
+                    if (cas) {
+                        decrementWithCas(pk);
+                    } else {
+                        decrementLocked(pk);
+                    }
+                }
+            }));
+        }
+
+        long start = System.nanoTime();
+        for (Thread w : workers) w.start();
+        for (Thread w : workers) w.join();
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        int total = perThread * threads;
+        System.out.printf("%-8d %-14s %14.0f %16.2f%n", threads, mode,
+                total / seconds, (double) retries.get() / total);
+    }
+
+    private void decrementLocked(Map<String, Object> pk) {
+        synchronized (globalLock) {
+            Map<String, Object> row = cache.get("products", pk);
+            int stock = (Integer) row.get("stock");
+            cache.set("products", pk, Map.of("name", row.get("name"), "stock", stock - 1));
+        }
+    }
+
+    private void decrementWithCas(Map<String, Object> pk) {
+        while (true) {
+            VersionedRow row = cache.getWithVersion("products", pk);
+            int stock = (Integer) row.columns.get("stock");
+            if (cache.compareAndSet("products", pk, row.version,
+                    Map.of("name", row.columns.get("name"), "stock", stock - 1))) {
+                return;
+            }
+            retries.incrementAndGet();
+        }
+    }
+}
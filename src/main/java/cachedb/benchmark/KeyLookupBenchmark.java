@@ -0,0 +1,144 @@
+package cachedb.benchmark;
+
+import cachedb.CacheStore;
+import cachedb.KeyLayout;
+import cachedb.RowKey;
+import cachedb.SchemaRegistry;
+import cachedb.TableSchema;
+
+import java.lang.management.ManagementFactory;
+import java.sql.Types;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Compares the old stream-built String key against {@link RowKey}
+ * for a single PK (users.id) and a composite PK (order_items), and
+ * CacheStore.get by key map against get by long id, with bytes
+ * allocated per lookup. Runs without a database.
+ */
+public class KeyLookupBenchmark {
+
+    private static final int ENTRIES = 100_000;
+    private static final int ITERATIONS = 5_000_000;
+
+    public static void main(String[] args) {
+        KeyLayout users = KeyLayout.forSchema("users", new TableSchema(
+                List.of("id"),
+                Map.of("id", Types.INTEGER, "name", Types.VARCHAR)));
+
+        KeyLayout orderItems = KeyLayout.forSchema("order_items", new TableSchema(
+                List.of("order_id", "item_id"),
+                Map.of("order_id", Types.INTEGER, "item_id", Types.INTEGER,
+                        "qty", Types.INTEGER)));
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        Map<String, Object>[] single = new Map[ENTRIES];
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        Map<String, Object>[] composite = new Map[ENTRIES];
+        for (int i = 0; i < ENTRIES; i++) {
+            single[i] = Map.of("id", i);
+            composite[i] = Map.of("order_id", i / 10, "item_id", i % 10);
+        }
+
+        // two rounds: the first one is warmup
+        for (int round = 0; round < 2; round++) {
+            boolean report = round == 1;
+            run("single   String", report, stringLookup(single));
+            run("single   RowKey", report, rowKeyLookup(users, single));
+            run("composite String", report, stringLookup(composite));
+            run("composite RowKey", report, rowKeyLookup(orderItems, composite));
+            run("store    get(Map)", report, storeMapLookup(single));
+            run("store    get(long)", report, storeLongLookup());
+        }
+    }
+
+    private static CacheStore usersStore() {
+        SchemaRegistry schema = new SchemaRegistry(null) {
+            @Override
+            public TableSchema get(String table) {
+                return new TableSchema(List.of("id"),
+                        Map.of("id", Types.BIGINT, "name", Types.VARCHAR));
+            }
+        };
+        CacheStore store = new CacheStore(3_600_000, schema);
+        for (int i = 0; i < ENTRIES; i++) {
+            store.upsert("users", Map.of("id", i), Map.of("name", "User-" + i));
+        }
+        return store;
+    }
+
+    private static Runnable storeMapLookup(Map<String, Object>[] keys) {
+        CacheStore store = usersStore();
+        return () -> {
+            int hits = 0;
+            for (int i = 0; i < ITERATIONS; i++) {
+                if (store.get("users", keys[i % keys.length]) != null) hits++;
+            }
+            if (hits != ITERATIONS) throw new IllegalStateException("missed");
+        };
+    }
+
+    private static Runnable storeLongLookup() {
+        CacheStore store = usersStore();
+        return () -> {
+            int hits = 0;
+            for (int i = 0; i < ITERATIONS; i++) {
+                if (store.get("users", (long) (i % ENTRIES)) != null) hits++;
+            }
+            if (hits != ITERATIONS) throw new IllegalStateException("missed");
+        };
+    }
+
+    private static Runnable stringLookup(Map<String, Object>[] keys) {
+        Map<String, Object> map = new ConcurrentHashMap<>();
+        for (Map<String, Object> pk : keys) map.put(legacyHash(pk), pk);
+
+        return () -> {
+            int hits = 0;
+            for (int i = 0; i < ITERATIONS; i++) {
+                if (map.get(legacyHash(keys[i % keys.length])) != null) hits++;
+            }
+            if (hits != ITERATIONS) throw new IllegalStateException("missed");
+        };
+    }
+
+    private static Runnable rowKeyLookup(KeyLayout layout, Map<String, Object>[] keys) {
+        Map<RowKey, Object> map = new ConcurrentHashMap<>();
+        for (Map<String, Object> pk : keys) map.put(layout.key(pk), pk);
+
+        return () -> {
+            int hits = 0;
+            for (int i = 0; i < ITERATIONS; i++) {
+                if (map.get(layout.key(keys[i % keys.length])) != null) hits++;
+            }
+            if (hits != ITERATIONS) throw new IllegalStateException("missed");
+        };
+    }
+
+    private static void run(String name, boolean report, Runnable body) {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long allocated = threads.getCurrentThreadAllocatedBytes();
+        long start = System.nanoTime();
+        body.run();
+        long elapsed = System.nanoTime() - start;
+        allocated = threads.getCurrentThreadAllocatedBytes() - allocated;
+
+        if (report) {
+            System.out.printf("%-18s %8.1f ns/lookup %8.1f bytes/lookup%n",
+                    name, (double) elapsed / ITERATIONS, (double) allocated / ITERATIONS);
+        }
+    }
+
+    // the key format CacheStore used before RowKey
+    private static String legacyHash(Map<String, Object> pk) {
+        return pk.entrySet()
+                .stream()
+                .sorted(Map.Entry.comparingByKey())
+                .map(e -> e.getKey() + "=" + e.getValue())
+                .reduce((a, b) -> a + "|" + b)
+                .orElse("");
+    }
+}
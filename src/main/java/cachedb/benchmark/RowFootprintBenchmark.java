@@ -0,0 +1,120 @@
+package cachedb.benchmark;
+
+import cachedb.CacheEntry;
+import cachedb.CacheStore;
+import cachedb.RowLayout;
+import cachedb.TableSchema;
+
+import java.sql.Types;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Heap used per cached row of a 10-column table: the caller's HashMaps
+ * the store used to keep, against the {@link cachedb.CompactRow} layout.
+ * Measured from used heap after GC, so run it with a fixed heap
+ * (e.g. -Xms1g -Xmx1g). Runs without a database.
+ */
+public class RowFootprintBenchmark {
+
+    private static final int ROWS = 200_000;
+
+    // keeps the measured rows reachable across the GC
+    private static volatile Object sink;
+
+    public static void main(String[] args) {
+        Map<String, Integer> columns = new LinkedHashMap<>();
+        columns.put("id", Types.BIGINT);
+        for (int c = 1; c < 10; c++) {
+            columns.put("col_" + c, c % 2 == 0 ? Types.BIGINT : Types.VARCHAR);
+        }
+        RowLayout layout = RowLayout.forSchema("wide", new TableSchema(List.of("id"), columns));
+
+        // warmup
+        fillMaps(ROWS / 10);
+        fillCompact(layout, ROWS / 10);
+
+        long empty = usedHeap();
+        long values = retained(ValuesOnly::new, empty);
+        long maps = retained(() -> fillMaps(ROWS), empty);
+        long compact = retained(() -> fillCompact(layout, ROWS), empty);
+        long store = retained(RowFootprintBenchmark::fillStore, empty);
+
+        System.out.println("10-column rows: " + ROWS);
+        System.out.printf("column values only        %5d bytes/row%n", values / ROWS);
+        System.out.printf("entry + HashMap rows      %5d bytes/row%n", maps / ROWS);
+        System.out.printf("entry + CompactRow rows   %5d bytes/row%n", compact / ROWS);
+        System.out.printf("CacheStore (all overhead) %5d bytes/row%n", store / ROWS);
+        System.out.printf("row payload saved         %5.1f%%%n",
+                100.0 * (maps - compact) / (maps - values));
+    }
+
+    // column names are built per row, like rows decoded from JDBC or the WAL
+    private static Map<String, Object> row(int i) {
+        Map<String, Object> row = new HashMap<>();
+        for (int c = 1; c < 10; c++) {
+            row.put("col_" + c, c % 2 == 0 ? (Object) (long) (i * 10 + c) : "value-" + i + "-" + c);
+        }
+        return row;
+    }
+
+    private static Object[] fillMaps(int n) {
+        Object[] entries = new Object[n];
+        for (int i = 0; i < n; i++) {
+            Map<String, Object> pk = new HashMap<>();
+            pk.put("id", (long) i);
+            entries[i] = new CacheEntry(pk, row(i), 0);
+        }
+        return entries;
+    }
+
+    private static Object[] fillCompact(RowLayout layout, int n) {
+        Object[] entries = new Object[n];
+        for (int i = 0; i < n; i++) {
+            Map<String, Object> pk = new HashMap<>();
+            pk.put("id", (long) i);
+            entries[i] = new CacheEntry(layout.compact(pk), layout.compact(row(i)), 0);
+        }
+        return entries;
+    }
+
+    private static Object fillStore() {
+        CacheStore store = new CacheStore(3_600_000);
+        for (int i = 0; i < ROWS; i++) {
+            store.upsert("wide", Map.of("id", (long) i), row(i));
+        }
+        return store;
+    }
+
+    // the values alone, so the per-row overhead can be told apart from the data
+    private static final class ValuesOnly {
+        final Object[] rows = new Object[ROWS];
+
+        ValuesOnly() {
+            for (int i = 0; i < ROWS; i++) {
+                rows[i] = new Object[] { (long) i, row(i).values().toArray() };
+            }
+        }
+    }
+
+    private static long retained(Supplier<Object> fill, long baseline) {
+        sink = fill.get();
+        long used = usedHeap() - baseline;
+        sink = null;
+        return used;
+    }
+
+    private static long usedHeap() {
+        Runtime rt = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException ignored) {}
+        }
+        return rt.totalMemory() - rt.freeMemory();
+    }
+}
@@ -1,7 +1,5 @@
 package cachedb.benchmark;
 
-import java.nio.file.Files;
-import java.nio.file.Path;
 import java.util.Map;
 
 public class WalGrowthBenchmark extends CacheDBBenchmarkBase {
@@ -20,7 +18,7 @@ public class WalGrowthBenchmark extends CacheDBBenchmarkBase {
             );
         }
 
-        long size = Files.size(Path.of("logs/wal.log"));
+        long size = walSize();
 
 
         System.out.println("Writes: " + writes);
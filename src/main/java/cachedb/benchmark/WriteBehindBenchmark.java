@@ -0,0 +1,92 @@
+package cachedb.benchmark;
+
+import cachedb.CacheEntry;
+import cachedb.CacheStore;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Hit rate against database freshness for three settings: a short TTL, a
+ * long TTL, and a long TTL with a short write-behind delay. Runs a skewed
+ * 90% read / 10% write mix against a CacheStore, reloading rows on a miss
+ * as read-through would, and records how long each write waited before it
+ * was handed to the flusher.
+ *
+ * Usage: WriteBehindBenchmark [seconds per run]. Runs without a database.
+ */
+public class WriteBehindBenchmark {
+
+    private static final int KEYS = 200_000;
+
+    public static void main(String[] args) {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+
+        System.out.printf("%-26s %9s %10s %13s %12s%n",
+                "setting", "hit rate", "DB writes", "mean lag ms", "max lag ms");
+        run("ttl 2s", 2_000, 0, seconds);
+        run("ttl 60s", 60_000, 0, seconds);
+        run("ttl 60s, write-behind 2s", 60_000, 2_000, seconds);
+    }
+
+    private static void run(String name, long ttlMillis, long writeBehindMillis, int seconds) {
+        CacheStore store = new CacheStore(ttlMillis);
+        store.writeBehind(writeBehindMillis);
+
+        // key → when its oldest unflushed write happened
+        Map<Object, Long> dirtySince = new HashMap<>();
+        long[] flushes = new long[1];
+        long[] lagMillis = new long[2]; // total, max
+
+        Random random = new Random(11);
+        long start = System.currentTimeMillis();
+        long end = start + seconds * 1000L;
+        long nextTick = start;
+
+        while (true) {
+            long now = System.currentTimeMillis();
+            if (now >= nextTick) {
+                store.flushDue(now, (table, e) -> flushed(e, now, dirtySince, flushes, lagMillis));
+                store.expire(now, (table, e) -> flushed(e, now, dirtySince, flushes, lagMillis));
+                nextTick = now + CacheStore.EXPIRATION_TICK_MILLIS;
+                if (now >= end) break;
+            }
+
+            for (int n = 0; n < 100; n++) {
+                double u = random.nextDouble();
+                int id = (int) (u * u * KEYS); // skewed toward low ids
+                Map<String, Object> pk = Map.of("id", id);
+
+                if (random.nextInt(10) == 0) {
+                    store.upsert("users", pk, Map.of("name", "User-" + id, "visits", (long) n), 0);
+                    dirtySince.putIfAbsent(id, now);
+                } else if (store.get("users", pk) == null) {
+                    store.load("users", pk, Map.of("name", "User-" + id, "visits", 0L));
+                }
+            }
+        }
+
+        // writes never handed to the flusher count with their age so far
+        long now = System.currentTimeMillis();
+        for (long since : dirtySince.values()) {
+            lagMillis[1] = Math.max(lagMillis[1], now - since);
+        }
+
+        long reads = store.hitCount() + store.missCount();
+        System.out.printf("%-26s %8.1f%% %10d %13.0f %12d%n", name,
+                100.0 * store.hitCount() / reads, flushes[0],
+                flushes[0] == 0 ? 0.0 : (double) lagMillis[0] / flushes[0], lagMillis[1]);
+    }
+
+    private static void flushed(CacheEntry e, long now, Map<Object, Long> dirtySince,
+                                long[] flushes, long[] lagMillis) {
+        if (!e.dirty) return;
+        Long since = dirtySince.remove(e.primaryKey.get("id"));
+        if (since == null) return;
+
+        flushes[0]++;
+        lagMillis[0] += now - since;
+        lagMillis[1] = Math.max(lagMillis[1], now - since);
+    }
+}
@@ -1,11 +1,14 @@
 package cachedb.benchmark;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 
 public class WriteThroughputBenchmark extends CacheDBBenchmarkBase {
 
     public static void main(String[] args) throws Exception {
         int writes = 10_000;
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 8;
 
         WriteThroughputBenchmark bench = new WriteThroughputBenchmark();
         bench.setup(300);
@@ -27,5 +30,46 @@ public class WriteThroughputBenchmark extends CacheDBBenchmarkBase {
         System.out.println("Writes: " + writes);
         System.out.println("Time (s): " + seconds);
         System.out.println("Throughput (ops/sec): " + ops);
+
+        // Multi-threaded: fsync per record vs group commit
+        bench.runConcurrent(writes, threads, false);
+        bench.runConcurrent(writes, threads, true);
+    }
+
+    private void runConcurrent(int writes, int threads, boolean groupCommit) throws Exception {
+        clearWal();
+        cache = builder(300)
+                .dashboard(false)
+                .groupCommit(groupCommit)
+                .build();
+
+        int perThread = writes / threads;
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int base = t * perThread;
+            workers.add(new Thread(() -> {
+                for (int i = base; i < base + perThread; i++) {
+                    cache.set(
+                            "users",
+                            Map.of("id", i),
+                            Map.of("name", "User-" + i)
+                    );
+                }
+            }));
+        }
+
+        long start = System.currentTimeMillis();
+        for (Thread w : workers) w.start();
+        for (Thread w : workers) w.join();
+        long end = System.currentTimeMillis();
+
+        double seconds = (end - start) / 1000.0;
+        double ops = (perThread * threads) / seconds;
+
+        System.out.println();
+        System.out.println((groupCommit ? "Group commit" : "Per-record fsync")
+                + " (" + threads + " threads)");
+        System.out.println("Time (s): " + seconds);
+        System.out.println("Throughput (ops/sec): " + ops);
     }
 }
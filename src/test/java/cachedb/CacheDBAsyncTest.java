@@ -0,0 +1,95 @@
+package cachedb;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CacheDBAsyncTest {
+
+    private DataSource ds;
+
+    @BeforeEach
+    void setup() throws Exception {
+        ds = new SimpleDataSource(
+                "jdbc:mysql://localhost:3306/cachedb",
+                "root",
+                "defg5678@"
+        );
+
+        CacheDBTestBase.clearWal();
+    }
+
+    private CacheDB open() throws Exception {
+        return CacheDB.builder()
+                .dataSource(ds)
+                .ttlSeconds(10)
+                .dashboard(false)
+                .build();
+    }
+
+    @Test
+    void pipelinedWritesAreVisibleAndDurable() throws Exception {
+
+        CacheDB db1 = open();
+
+        List<CompletableFuture<Void>> writes = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            writes.add(db1.setAsync("users", Map.of("id", i), Map.of("name", "User-" + i)));
+        }
+        CompletableFuture.allOf(writes.toArray(new CompletableFuture[0])).join();
+
+        assertEquals("User-0", db1.get("users", Map.of("id", 0)).get("name"));
+        assertEquals("User-199", db1.get("users", Map.of("id", 199)).get("name"));
+
+        db1.deleteAsync("users", Map.of("id", 5)).join();
+        assertNull(db1.get("users", Map.of("id", 5)));
+
+        // ---------- restart ----------
+        CacheDB db2 = open();
+
+        assertEquals("User-199", db2.get("users", Map.of("id", 199)).get("name"));
+        assertNull(db2.get("users", Map.of("id", 5)));
+    }
+
+    @Test
+    void laterAsyncWriteWins() throws Exception {
+
+        CacheDB cache = open();
+
+        CompletableFuture<Void> first = cache.setAsync("users", Map.of("id", 1), Map.of("name", "v1"));
+        CompletableFuture<Void> second = cache.setAsync("users", Map.of("id", 1), Map.of("name", "v2"));
+        second.join();
+
+        assertTrue(first.isDone());
+        assertEquals("v2", cache.get("users", Map.of("id", 1)).get("name"));
+    }
+
+    @Test
+    void olderWriteArrivingLateIsDropped() {
+
+        // an async write's LSN is taken before it reaches the store, so a
+        // write logged after it can get there first
+        for (CacheStore store : List.of(new CacheStore(60_000),
+                new OffHeapCacheStore(60_000, null, 0, 0, 64 * 1024))) {
+            Map<String, Object> pk = Map.of("id", 1);
+            store.upsert("users", pk, Map.of("name", "v1"), 1);
+            store.upsert("users", pk, Map.of("name", "v3"), 3);
+
+            assertFalse(store.upsert("users", pk, Map.of("name", "v2"), 2));
+            assertFalse(store.delete("users", pk, 2));
+            assertEquals("v3", store.get("users", pk).get("name"));
+            assertEquals(3, store.lookup("users", pk).appliedLsn);
+
+            store.delete("users", pk, 4);
+            assertFalse(store.upsert("users", pk, Map.of("name", "v2"), 2));
+            assertNull(store.get("users", pk));
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package cachedb;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.sql.DataSource;
+import java.sql.Types;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CacheDBBackpressureTest {
+
+    private DataSource ds;
+
+    @BeforeEach
+    void setup() throws Exception {
+        ds = new SimpleDataSource(
+                "jdbc:mysql://localhost:3306/cachedb",
+                "root",
+                "defg5678@"
+        );
+
+        CacheDBTestBase.clearWal();
+    }
+
+    // rows stay dirty for the whole test: long TTL, and no database to flush to
+    private CacheDB open(long timeoutMillis) throws Exception {
+        return open(ds, timeoutMillis);
+    }
+
+    private static CacheDB open(DataSource ds, long timeoutMillis) throws Exception {
+        return CacheDB.builder()
+                .dataSource(ds)
+                .ttlSeconds(3600)
+                .maxDirtyRows(10)
+                .backpressureTimeoutMillis(timeoutMillis)
+                .dashboard(false)
+                .build();
+    }
+
+    @Test
+    void healthyDatabaseKeepsUpPastTheCeiling() throws Exception {
+
+        CacheDBFlushRetryTest.FakeDatabase db = new CacheDBFlushRetryTest.FakeDatabase();
+        db.schemas.put("users", new TableSchema(List.of("id"),
+                Map.of("id", Types.INTEGER, "name", Types.VARCHAR)));
+
+        CacheDB cache = open(db.dataSource(), 10_000);
+        for (int i = 0; i < 100; i++) {
+            cache.set("users", Map.of("id", i), Map.of("name", "User-" + i));
+        }
+
+        Backpressure backpressure = cache.backpressure();
+        assertTrue(backpressure.writtenBackCount() > 0);
+        assertEquals(0, backpressure.delayedCount());
+        assertEquals(0, backpressure.rejectedCount());
+        assertTrue(cache.wal().pinnedRecords() <= 10);
+        assertFalse(db.rows.isEmpty());
+
+        // written back, not evicted
+        for (int i = 0; i < 100; i++) {
+            assertEquals("User-" + i, cache.get("users", Map.of("id", i)).get("name"));
+        }
+    }
+
+    @Test
+    void offHeapStoreWritesBackToo() throws Exception {
+
+        CacheDBFlushRetryTest.FakeDatabase db = new CacheDBFlushRetryTest.FakeDatabase();
+        db.schemas.put("users", new TableSchema(List.of("id"),
+                Map.of("id", Types.INTEGER, "name", Types.VARCHAR)));
+
+        CacheDB cache = CacheDB.builder()
+                .dataSource(db.dataSource())
+                .ttlSeconds(3600)
+                .offHeap(true)
+                .maxDirtyRows(10)
+                .backpressureTimeoutMillis(10_000)
+                .dashboard(false)
+                .build();
+        for (int i = 0; i < 100; i++) {
+            cache.set("users", Map.of("id", i), Map.of("name", "User-" + i));
+        }
+
+        assertTrue(cache.backpressure().writtenBackCount() > 0);
+        assertEquals(0, cache.backpressure().rejectedCount());
+        assertTrue(cache.wal().pinnedRecords() <= 10);
+    }
+
+    @Test
+    void writesAreDelayedThenRejectedWhileFlushesFail() throws Exception {
+
+        CacheDB cache = open(100);
+        for (int i = 0; i < 9; i++) {
+            cache.set("users", Map.of("id", i), Map.of("name", "User-" + i));
+        }
+        Backpressure backpressure = cache.backpressure();
+        assertTrue(backpressure.writtenBackCount() > 0);
+
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!cache.flushManager().circuitOpen()) {
+            assertTrue(System.currentTimeMillis() < deadline, "timed out");
+            Thread.sleep(10);
+        }
+        cache.set("users", Map.of("id", 9), Map.of("name", "User-9"));
+        assertEquals(10, cache.wal().pinnedRecords());
+        assertTrue(cache.wal().pinnedBytes() > 0);
+
+        assertTrue(backpressure.delayedCount() >= 1);
+        assertEquals(0, backpressure.blockedCount());
+
+        long start = System.nanoTime();
+        assertThrows(BacklogFullException.class,
+                () -> cache.set("users", Map.of("id", 10), Map.of("name", "User-10")));
+        assertTrue(System.nanoTime() - start >= 100_000_000L);
+        assertThrows(BacklogFullException.class,
+                () -> cache.delete("users", Map.of("id", 1)));
+
+        assertEquals(2, backpressure.blockedCount());
+        assertEquals(2, backpressure.rejectedCount());
+        assertNull(cache.get("users", Map.of("id", 10)));
+        assertEquals(10, cache.wal().pinnedRecords());
+    }
+
+    @Test
+    void asyncWritesFailInsteadOfWaiting() throws Exception {
+
+        CacheDB cache = open(60_000);
+        for (int i = 0; i < 10; i++) {
+            cache.set("users", Map.of("id", i), Map.of("name", "User-" + i));
+        }
+
+        CompletableFuture<Void> write = cache.setAsync("users", Map.of("id", 10), Map.of("name", "User-10"));
+        ExecutionException e = assertThrows(ExecutionException.class, write::get);
+        assertTrue(e.getCause() instanceof BacklogFullException);
+        assertEquals(1, cache.backpressure().rejectedCount());
+    }
+
+    @Test
+    void blockedWriteProceedsOnceFlushesCatchUp() throws Exception {
+
+        CacheDB cache = open(10_000);
+        for (int i = 0; i < 10; i++) {
+            cache.set("users", Map.of("id", i), Map.of("name", "User-" + i));
+        }
+        Thread.sleep(20);
+        assertTrue(cache.wal().oldestPinnedAgeMillis() >= 20);
+
+        // stands in for a flush committing the oldest row
+        Thread flusher = new Thread(() -> {
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException ignored) {}
+            cache.wal().release(cache.wal().lowWaterMark());
+        });
+        flusher.start();
+
+        cache.set("users", Map.of("id", 10), Map.of("name", "User-10"));
+        flusher.join();
+
+        assertEquals("User-10", cache.get("users", Map.of("id", 10)).get("name"));
+        assertEquals(1, cache.backpressure().blockedCount());
+        assertEquals(0, cache.backpressure().rejectedCount());
+    }
+}
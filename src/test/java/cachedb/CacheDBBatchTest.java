@@ -0,0 +1,94 @@
+package cachedb;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CacheDBBatchTest {
+
+    private DataSource ds;
+
+    @BeforeEach
+    void setup() throws Exception {
+        ds = new SimpleDataSource(
+                "jdbc:mysql://localhost:3306/cachedb",
+                "root",
+                "defg5678@"
+        );
+
+        CacheDBTestBase.clearWal();
+    }
+
+    private CacheDB open() throws Exception {
+        return CacheDB.builder()
+                .dataSource(ds)
+                .ttlSeconds(10)
+                .dashboard(false)
+                .build();
+    }
+
+    @Test
+    void multiSetIsOneFsync() throws Exception {
+
+        CacheDB cache = open();
+
+        Map<Map<String, Object>, Map<String, Object>> rows = new LinkedHashMap<>();
+        for (int i = 0; i < 100; i++) {
+            rows.put(Map.of("id", i), Map.of("name", "User-" + i));
+        }
+
+        long fsyncs = cache.wal().fsyncCount();
+        long lastLsn = cache.wal().lastLsn();
+        cache.multiSet("users", rows);
+
+        assertEquals(fsyncs + 1, cache.wal().fsyncCount());
+        assertEquals(lastLsn + 100, cache.wal().lastLsn());
+
+        List<Map<String, Object>> keys = new ArrayList<>();
+        keys.add(Map.of("id", 42));
+        keys.add(Map.of("id", 500));
+        keys.add(Map.of("id", 0));
+
+        List<Map<String, Object>> result = cache.multiGet("users", keys);
+        assertEquals(3, result.size());
+        assertEquals("User-42", result.get(0).get("name"));
+        assertNull(result.get(1));
+        assertEquals("User-0", result.get(2).get("name"));
+    }
+
+    @Test
+    void multiDeleteAndRecovery() throws Exception {
+
+        CacheDB db1 = open();
+
+        Map<Map<String, Object>, Map<String, Object>> rows = new LinkedHashMap<>();
+        for (int i = 0; i < 10; i++) {
+            rows.put(Map.of("id", i), Map.of("name", "User-" + i));
+        }
+        db1.multiSet("users", rows);
+
+        long fsyncs = db1.wal().fsyncCount();
+        db1.multiDelete("users", List.of(Map.of("id", 1), Map.of("id", 2)));
+        assertEquals(fsyncs + 1, db1.wal().fsyncCount());
+
+        assertNull(db1.get("users", Map.of("id", 1)));
+        assertNull(db1.get("users", Map.of("id", 2)));
+
+        // ---------- restart ----------
+        CacheDB db2 = open();
+
+        List<Map<String, Object>> result = db2.multiGet("users",
+                List.of(Map.of("id", 0), Map.of("id", 1), Map.of("id", 2), Map.of("id", 9)));
+        assertEquals("User-0", result.get(0).get("name"));
+        assertNull(result.get(1));
+        assertNull(result.get(2));
+        assertEquals("User-9", result.get(3).get("name"));
+    }
+}
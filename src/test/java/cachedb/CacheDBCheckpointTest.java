@@ -4,6 +4,7 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
 import javax.sql.DataSource;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Map;
@@ -12,9 +13,6 @@ import static org.junit.jupiter.api.Assertions.*;
 
 public class CacheDBCheckpointTest {
 
-    private static final Path WAL_PATH =
-            Path.of("logs", "wal.log");
-
     private DataSource ds;
 
     @BeforeEach
@@ -25,36 +23,11 @@ public class CacheDBCheckpointTest {
                 "defg5678@"
         );
 
-        Files.createDirectories(WAL_PATH.getParent());
-        Files.deleteIfExists(WAL_PATH);
-    }
-
-    @Test
-    void checkpointClearsWal() throws Exception {
-
-        CacheDB db = CacheDB.builder()
-                .dataSource(ds)
-                .ttlSeconds(10)
-                .build();
-
-        db.set(
-                "users",
-                Map.of("id", 1),
-                Map.of("name", "Alice")
-        );
-
-        // WAL should exist and be non-empty
-        assertTrue(Files.size(WAL_PATH) > 0);
-
-        // Force checkpoint
-        db.checkpoint();
-
-        // WAL should be empty
-        assertEquals(0, Files.size(WAL_PATH));
+        CacheDBTestBase.clearWal();
     }
 
     @Test
-    void recoveryDoesNotReplayAfterCheckpoint() throws Exception {
+    void checkpointKeepsUnflushedWrites() throws Exception {
 
         CacheDB db1 = CacheDB.builder()
                 .dataSource(ds)
@@ -67,7 +40,7 @@ public class CacheDBCheckpointTest {
                 Map.of("name", "Bob")
         );
 
-        // Simulate successful flush + checkpoint
+        // Not flushed yet, so checkpoint must not drop it
         db1.checkpoint();
         db1 = null; // crash
 
@@ -76,11 +49,11 @@ public class CacheDBCheckpointTest {
                 .ttlSeconds(10)
                 .build();
 
-        // If WAL was cleared, recovery should NOT reinsert
         Map<String, Object> result =
                 db2.get("users", Map.of("id", 2));
 
-        assertNull(result);
+        assertNotNull(result);
+        assertEquals("Bob", result.get("name"));
     }
 
     @Test
@@ -128,6 +101,141 @@ public class CacheDBCheckpointTest {
         db.checkpoint();
         db.checkpoint(); // second call should not fail
 
-        assertEquals(0, Files.size(WAL_PATH));
+        assertTrue(walSize() > 0);
+    }
+
+    @Test
+    void walRollsIntoSegments() throws Exception {
+
+        CacheDB db1 = CacheDB.builder()
+                .dataSource(ds)
+                .ttlSeconds(10)
+                .walSegmentBytes(1024)
+                .build();
+
+        for (int i = 0; i < 200; i++) {
+            db1.set("users", Map.of("id", i),
+                    Map.of("name", "User-" + i));
+        }
+        db1.checkpoint();
+
+        assertTrue(WALWriter.segments(CacheDBTestBase.WAL_DIR).size() > 1);
+
+        db1 = null; // crash
+
+        CacheDB db2 = CacheDB.builder()
+                .dataSource(ds)
+                .ttlSeconds(10)
+                .build();
+
+        for (int i = 0; i < 200; i++) {
+            assertEquals("User-" + i,
+                    db2.get("users", Map.of("id", i)).get("name"));
+        }
+    }
+
+    @Test
+    void checkpointDeletesOnlyFlushedSegments() throws Exception {
+
+        Path dir = Files.createTempDirectory("wal-test");
+        WALWriter.Options options = new WALWriter.Options();
+        options.segmentBytes = 256;
+
+        WALWriter wal = new WALWriter(dir, options);
+        long[] lsns = new long[40];
+        for (int i = 0; i < lsns.length; i++) {
+            lsns[i] = wal.append(LogRecord.put("users",
+                    Map.of("id", i), Map.of("name", "User-" + i)));
+        }
+        int segments = wal.segmentCount();
+        assertTrue(segments > 2);
+
+        // everything flushed except the very first record
+        for (int i = 1; i < lsns.length; i++) {
+            wal.release(lsns[i]);
+        }
+        assertEquals(0, wal.checkpoint());
+        assertEquals(lsns[0], wal.lowWaterMark());
+
+        wal.release(lsns[0]);
+        assertEquals(segments - 1, wal.checkpoint());
+        assertEquals(1, wal.segmentCount());
+
+        wal.close();
+    }
+
+    @Test
+    void checkpointRecordsTheLowWaterMark() throws Exception {
+
+        Path dir = Files.createTempDirectory("wal-test");
+        WALWriter wal = new WALWriter(dir);
+        long first = wal.append(LogRecord.put("users", Map.of("id", 1), Map.of("name", "A")));
+        long second = wal.append(LogRecord.put("users", Map.of("id", 2), Map.of("name", "B")));
+        wal.release(first); // flushed
+        wal.checkpoint();
+        wal.close();
+
+        WALWriter reopened = new WALWriter(dir);
+        assertEquals(second, reopened.checkpointLsn());
+
+        // held at the first record to replay until recovery is done
+        reopened.checkpoint();
+        assertEquals(second, reopened.lowWaterMark());
+        reopened.recovered();
+        assertEquals(reopened.lastLsn() + 1, reopened.lowWaterMark());
+
+        reopened.close();
+    }
+
+    @Test
+    void failedWriteLeavesNothingPinned() throws Exception {
+
+        WALWriter wal = new WALWriter(Files.createTempDirectory("wal-test"));
+        wal.close();
+
+        assertThrows(java.io.IOException.class, () -> wal.append(
+                LogRecord.put("users", Map.of("id", 1), Map.of("name", "A")), Durability.SYNC));
+        assertThrows(java.io.IOException.class, () -> wal.append(
+                LogRecord.put("users", Map.of("id", 2), Map.of("name", "B")), Durability.NONE));
+        assertEquals(0, wal.pinnedRecords());
+        assertEquals(0, wal.pinnedBytes());
+        assertEquals(0, wal.lastLsn()); // the failed writes give their LSNs back
+    }
+
+    @Test
+    void legacyWalFileIsMigrated() throws Exception {
+
+        byte[] key = "users|{id=7}".getBytes();
+        byte[] value = "{name=Grace}".getBytes();
+        int totalLen = 4 + 4 + 1 + 4 + key.length + 4 + value.length;
+
+        ByteBuffer buf = ByteBuffer.allocate(totalLen);
+        buf.putInt(LogRecord.MAGIC_V1);
+        buf.putInt(totalLen);
+        buf.put(LogType.PUT.code());
+        buf.putInt(key.length);
+        buf.put(key);
+        buf.putInt(value.length);
+        buf.put(value);
+
+        Path legacy = CacheDBTestBase.WAL_DIR.resolve("wal.log");
+        Files.write(legacy, buf.array());
+
+        CacheDB db = CacheDB.builder()
+                .dataSource(ds)
+                .ttlSeconds(10)
+                .build();
+
+        assertEquals("Grace", db.get("users", Map.of("id", 7)).get("name"));
+        assertFalse(Files.exists(legacy));
+        assertTrue(walSize() > 0);
+    }
+
+    private static long walSize() throws Exception {
+        long size = 0;
+        for (Path segment : WALWriter.segments(CacheDBTestBase.WAL_DIR)) {
+            size += Files.size(segment);
+        }
+        return size;
     }
 }
@@ -0,0 +1,144 @@
+package cachedb;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CacheDBCoalescingTest {
+
+    private static FlushTask put(int id, Map<String, Object> columns, long version, long lsn) {
+        return new FlushTask(new RowMutation("users", Map.of("id", id), columns, version, false, lsn));
+    }
+
+    private static FlushTask delete(int id, long version, long lsn) {
+        return new FlushTask(new RowMutation("users", Map.of("id", id), Map.of(), version, true, lsn));
+    }
+
+    private static List<FlushTask> takeAll(FlushQueue queue) throws InterruptedException {
+        List<FlushTask> drained = new ArrayList<>();
+        queue.take(drained, Integer.MAX_VALUE, 0);
+        return drained;
+    }
+
+    @Test
+    void newerPutReplacesQueuedOne() throws Exception {
+
+        FlushQueue queue = new FlushQueue();
+        queue.offer(put(1, Map.of("name", "Alice", "email", "a@x.com"), 1, 10));
+        queue.offer(put(1, Map.of("name", "Alice-v2"), 2, 11));
+        queue.offer(put(2, Map.of("name", "Bob"), 1, 12));
+        assertEquals(2, queue.size());
+        assertEquals(1, queue.coalesced());
+
+        List<FlushTask> drained = takeAll(queue);
+        assertEquals(2, drained.size());
+
+        FlushTask alice = drained.get(0);
+        assertEquals(Map.of("name", "Alice-v2", "email", "a@x.com"), alice.mutation.columns);
+        assertEquals(2, alice.mutation.version);
+        assertEquals(11, alice.mutation.lsn);
+        assertEquals(List.of(10L), alice.replaced.stream().map(m -> m.lsn).toList());
+        assertEquals(0, queue.size());
+    }
+
+    @Test
+    void olderVersionNeverOverwritesNewerValues() throws Exception {
+
+        FlushQueue queue = new FlushQueue();
+        queue.offer(put(1, Map.of("name", "new"), 5, 20));
+        queue.offer(put(1, Map.of("name", "old", "age", 30), 3, 21));
+
+        RowMutation merged = takeAll(queue).get(0).mutation;
+        assertEquals(Map.of("name", "new", "age", 30), merged.columns);
+        assertEquals(5, merged.version);
+    }
+
+    @Test
+    void deleteThenPutKeepsBothInOrder() throws Exception {
+
+        FlushQueue queue = new FlushQueue();
+        queue.offer(put(1, Map.of("name", "Alice"), 1, 1));
+        queue.offer(delete(1, 2, 2));
+        assertEquals(1, queue.size()); // the put is never written
+
+        queue.offer(put(1, Map.of("name", "Alice-again"), 3, 3));
+        queue.offer(put(1, Map.of("email", "a@x.com"), 4, 4));
+        assertEquals(2, queue.size());
+        assertEquals(2, queue.coalesced());
+
+        List<FlushTask> drained = takeAll(queue);
+        assertTrue(drained.get(0).mutation.isDelete);
+        assertEquals(List.of(1L), drained.get(0).replaced.stream().map(m -> m.lsn).toList());
+        assertEquals(Map.of("name", "Alice-again", "email", "a@x.com"), drained.get(1).mutation.columns);
+
+        // a delete drops everything queued before it
+        queue.offer(delete(1, 5, 5));
+        queue.offer(put(1, Map.of("name", "x"), 6, 6));
+        queue.offer(delete(1, 7, 7));
+        drained = takeAll(queue);
+        assertEquals(1, drained.size());
+        assertEquals(7, drained.get(0).mutation.lsn);
+        assertEquals(2, drained.get(0).replaced.size());
+    }
+
+    @Test
+    void incrementsAreSummedAcrossKeyTypes() throws Exception {
+
+        FlushQueue queue = new FlushQueue();
+        queue.offer(new FlushTask(RowMutation.increment("page_views", Map.of("page_id", 7),
+                Map.of("views", 3L), 1, 1)));
+        queue.offer(new FlushTask(RowMutation.increment("page_views", Map.of("page_id", 7L),
+                Map.of("views", 4L, "clicks", 1L), 2, 2)));
+        // a put can't absorb an increment, or the other way round
+        queue.offer(new FlushTask(new RowMutation("page_views", Map.of("page_id", 7),
+                Map.of("views", 100L), 3, false, 3)));
+
+        List<FlushTask> drained = takeAll(queue);
+        assertEquals(2, drained.size());
+        assertTrue(drained.get(0).mutation.isIncrement);
+        assertEquals(Map.of("views", 7L, "clicks", 1L), drained.get(0).mutation.columns);
+        assertFalse(drained.get(1).mutation.isIncrement);
+    }
+
+    @Test
+    void takeMovesWholeRows() throws Exception {
+
+        FlushQueue queue = new FlushQueue();
+        queue.offer(delete(1, 1, 1));
+        queue.offer(put(1, Map.of("name", "a"), 2, 2));
+        queue.offer(put(2, Map.of("name", "b"), 1, 3));
+
+        List<FlushTask> drained = new ArrayList<>();
+        queue.take(drained, 1, 0);
+        assertEquals(2, drained.size()); // row 1's delete and put go together
+        assertEquals(1, queue.size());
+    }
+
+    @Test
+    void keysMatchAcrossValueClasses() throws Exception {
+
+        TableSchema users = new TableSchema(List.of("id"), Map.of("id", Types.INTEGER, "name", Types.VARCHAR));
+        FlushQueue queue = new FlushQueue(table -> table.equals("users") ? users : null);
+        queue.offer(new FlushTask(new RowMutation("users", Map.of("id", "7"), Map.of("name", "a"), 1, false, 1)));
+        queue.offer(new FlushTask(new RowMutation("users", Map.of("id", 7L), Map.of("name", "b"), 2, false, 2)));
+        queue.offer(new FlushTask(new RowMutation("users", Map.of("id", BigInteger.valueOf(7)), Map.of("name", "c"), 3, false, 3)));
+        queue.offer(new FlushTask(new RowMutation("users", Map.of("id", new BigDecimal("7.00")), Map.of("name", "d"), 4, false, 4)));
+        assertEquals(1, queue.size());
+        assertEquals(3, queue.coalesced());
+
+        // without a schema, whole numbers still match, strings don't
+        FlushQueue untyped = new FlushQueue();
+        untyped.offer(new FlushTask(new RowMutation("users", Map.of("id", BigInteger.valueOf(7)), Map.of("name", "a"), 1, false, 1)));
+        untyped.offer(new FlushTask(new RowMutation("users", Map.of("id", new BigDecimal("7.0")), Map.of("name", "b"), 2, false, 2)));
+        untyped.offer(new FlushTask(new RowMutation("users", Map.of("id", 7), Map.of("name", "c"), 3, false, 3)));
+        untyped.offer(new FlushTask(new RowMutation("users", Map.of("id", "7"), Map.of("name", "d"), 4, false, 4)));
+        assertEquals(2, untyped.size());
+    }
+}
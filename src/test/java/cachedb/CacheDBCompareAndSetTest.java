@@ -0,0 +1,127 @@
+package cachedb;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CacheDBCompareAndSetTest {
+
+    private DataSource ds;
+
+    @BeforeEach
+    void setup() throws Exception {
+        ds = new SimpleDataSource(
+                "jdbc:mysql://localhost:3306/cachedb",
+                "root",
+                "defg5678@"
+        );
+
+        CacheDBTestBase.clearWal();
+    }
+
+    private CacheDB open(boolean offHeap) throws Exception {
+        return CacheDB.builder()
+                .dataSource(ds)
+                .ttlSeconds(10)
+                .offHeap(offHeap)
+                .dashboard(false)
+                .build();
+    }
+
+    @Test
+    void staleVersionIsRejectedWithoutLogging() throws Exception {
+
+        CacheDB cache = open(false);
+        cache.set("products", Map.of("product_id", 101), Map.of("name", "Laptop", "stock", 50));
+
+        VersionedRow read = cache.getWithVersion("products", Map.of("product_id", 101));
+        assertEquals(50, read.columns.get("stock"));
+
+        assertTrue(cache.compareAndSet("products", Map.of("product_id", 101), read.version,
+                Map.of("name", "Laptop", "stock", 49)));
+
+        long lastLsn = cache.wal().lastLsn();
+        assertFalse(cache.compareAndSet("products", Map.of("product_id", 101), read.version,
+                Map.of("name", "Laptop", "stock", 48)));
+        assertEquals(lastLsn, cache.wal().lastLsn());
+
+        VersionedRow now = cache.getWithVersion("products", Map.of("product_id", 101));
+        assertEquals(49, now.columns.get("stock"));
+        assertNotEquals(read.version, now.version);
+    }
+
+    @Test
+    void versionZeroMeansNotCached() throws Exception {
+
+        CacheDB cache = open(false);
+        Map<String, Object> pk = Map.of("product_id", 102);
+
+        assertNull(cache.getWithVersion("products", pk));
+        assertTrue(cache.compareAndSet("products", pk, 0, Map.of("stock", 10)));
+        assertFalse(cache.compareAndSet("products", pk, 0, Map.of("stock", 20)));
+
+        cache.delete("products", pk);
+        assertNull(cache.getWithVersion("products", pk));
+        assertTrue(cache.compareAndSet("products", pk, 0, Map.of("stock", 30)));
+        assertEquals(30, cache.get("products", pk).get("stock"));
+    }
+
+    @Test
+    void concurrentDecrementsNeverOversell() throws Exception {
+
+        for (boolean offHeap : new boolean[] { false, true }) {
+            CacheDBTestBase.clearWal();
+            CacheDB cache = open(offHeap);
+            Map<String, Object> pk = Map.of("product_id", 103);
+            cache.set("products", pk, Map.of("stock", 1000));
+
+            AtomicInteger sold = new AtomicInteger();
+            List<Thread> threads = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                Thread thread = new Thread(() -> {
+                    while (true) {
+                        VersionedRow row = cache.getWithVersion("products", pk);
+                        int stock = (Integer) row.columns.get("stock");
+                        if (stock == 0) return;
+                        if (cache.compareAndSet("products", pk, row.version, Map.of("stock", stock - 1))) {
+                            sold.incrementAndGet();
+                        }
+                    }
+                });
+                threads.add(thread);
+                thread.start();
+            }
+            for (Thread thread : threads) thread.join();
+
+            assertEquals(1000, sold.get());
+            assertEquals(0, cache.get("products", pk).get("stock"));
+
+            // accepted writes are ordinary puts in the WAL
+            CacheDB reopened = open(offHeap);
+            assertEquals(0, reopened.get("products", pk).get("stock"));
+        }
+    }
+
+    @Test
+    void rowCachedAgainGetsNewVersions() {
+
+        CacheStore store = new CacheStore(60_000);
+        store.upsert("products", Map.of("product_id", 104), Map.of("stock", 5), 1);
+        long before = store.getWithVersion("products", Map.of("product_id", 104)).version;
+
+        store.expire(System.currentTimeMillis() + 120_000, (table, e) -> {});
+        store.upsert("products", Map.of("product_id", 104), Map.of("stock", 5), 2);
+
+        long after = store.getWithVersion("products", Map.of("product_id", 104)).version;
+        assertNotEquals(before, after);
+        assertFalse(store.compareAndSet("products", Map.of("product_id", 104), before,
+                Map.of("stock", 4), () -> 3, lsn -> {}));
+    }
+}
@@ -2,6 +2,9 @@ package cachedb;
 
 import org.junit.jupiter.api.Test;
 
+import java.sql.Types;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -32,4 +35,53 @@ class CacheDBCompositeKeyTest extends CacheDBTestBase {
                 Map.of("order_id", 100, "item_id", 3)
         ));
     }
+
+    @Test
+    void keyColumnOrderAndNumberWidthDoNotMatter() {
+
+        Map<String, Object> pk = new LinkedHashMap<>();
+        pk.put("item_id", 4);
+        pk.put("order_id", 101);
+
+        cache.set("order_items", pk, Map.of("qty", 5));
+
+        Map<String, Object> reordered = new LinkedHashMap<>();
+        reordered.put("order_id", 101L);
+        reordered.put("item_id", 4L);
+
+        var row = cache.get("order_items", reordered);
+
+        assertNotNull(row);
+        assertEquals(5, row.get("qty"));
+    }
+
+    @Test
+    void schemaLoadedLaterReplacesTheFallbackLayouts() {
+
+        boolean[] reachable = new boolean[1];
+        SchemaRegistry schemas = new SchemaRegistry(null, 0) {
+            @Override
+            public TableSchema get(String table) {
+                if (!reachable[0]) throw new RuntimeException("database unreachable");
+                return new TableSchema(List.of("order_id", "item_id"), Map.of(
+                        "order_id", Types.INTEGER, "item_id", Types.INTEGER,
+                        "qty", Types.INTEGER, "note", Types.VARCHAR));
+            }
+        };
+        CacheStore store = new CacheStore(60_000, schemas);
+
+        store.upsert("order_items", Map.of("order_id", 1, "item_id", "2"), Map.of("qty", 5));
+        CompactRow before = (CompactRow) store.get("order_items", Map.of("order_id", 1, "item_id", 2));
+        assertEquals(3, before.layout().width()); // qty and the key columns, as they arrived
+
+        reachable[0] = true;
+
+        // keyed the same way by the schema's layout
+        assertEquals(5, store.get("order_items", Map.of("item_id", 2L, "order_id", "1")).get("qty"));
+
+        store.upsert("order_items", Map.of("order_id", 1, "item_id", 3), Map.of("qty", 6));
+        CompactRow after = (CompactRow) store.get("order_items", Map.of("order_id", 1, "item_id", 3));
+        assertFalse(before.layout() == after.layout());
+        assertEquals(4, after.layout().width());
+    }
 }
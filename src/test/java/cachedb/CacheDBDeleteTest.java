@@ -4,8 +4,6 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
 import javax.sql.DataSource;
-import java.nio.file.Files;
-import java.nio.file.Path;
 import java.util.Map;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -23,9 +21,7 @@ public class CacheDBDeleteTest {
         );
 
         // Clean WAL before every test
-        Path wal = Path.of("logs", "wal.log");
-        Files.createDirectories(wal.getParent());
-        Files.deleteIfExists(wal);
+        CacheDBTestBase.clearWal();
     }
 
     @Test
@@ -0,0 +1,99 @@
+package cachedb;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.sql.DataSource;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CacheDBEvictionTest {
+
+    private DataSource ds;
+
+    @BeforeEach
+    void setup() throws Exception {
+        ds = new SimpleDataSource(
+                "jdbc:mysql://localhost:3306/cachedb",
+                "root",
+                "defg5678@"
+        );
+
+        CacheDBTestBase.clearWal();
+    }
+
+    @Test
+    void storeStaysWithinMaxEntries() throws Exception {
+
+        CacheDB cache = CacheDB.builder()
+                .dataSource(ds)
+                .ttlSeconds(60)
+                .maxEntries(100)
+                .dashboard(false)
+                .build();
+
+        for (int i = 0; i < 1000; i++) {
+            cache.set("users", Map.of("id", i), Map.of("name", "User-" + i));
+        }
+
+        CacheStore store = cache.store();
+        assertTrue(store.boundedEntries() <= 100);
+        assertEquals(store.boundedEntries(), store.raw().get("users").size());
+        assertEquals(900, store.evictionCount());
+    }
+
+    @Test
+    void evictedDirtyRowsAreNotLost() throws Exception {
+
+        CacheDB cache = CacheDB.builder()
+                .dataSource(ds)
+                .ttlSeconds(60)
+                .maxEntries(10)
+                .readThrough(true)
+                .dashboard(false)
+                .build();
+
+        for (int i = 0; i < 100; i++) {
+            cache.set("users", Map.of("id", 200 + i), Map.of("name", "User-" + i));
+        }
+
+        // evicted rows were handed to the flusher: each one comes back from
+        // the database, or from the pending-flush set until it lands there
+        for (int i = 0; i < 100; i++) {
+            assertEquals("User-" + i,
+                    cache.get("users", Map.of("id", 200 + i)).get("name"));
+        }
+    }
+
+    @Test
+    void frequentlyReadRowsSurviveAScan() throws Exception {
+
+        CacheDB cache = CacheDB.builder()
+                .dataSource(ds)
+                .ttlSeconds(60)
+                .maxEntries(100)
+                .dashboard(false)
+                .build();
+
+        for (int i = 0; i < 50; i++) {
+            cache.set("users", Map.of("id", i), Map.of("name", "Hot-" + i));
+        }
+        for (int round = 0; round < 5; round++) {
+            for (int i = 0; i < 50; i++) {
+                cache.get("users", Map.of("id", i));
+            }
+        }
+
+        // a one-off scan over many cold rows
+        for (int i = 1000; i < 2000; i++) {
+            cache.set("users", Map.of("id", i), Map.of("name", "Cold-" + i));
+        }
+
+        int survivors = 0;
+        for (int i = 0; i < 50; i++) {
+            if (cache.get("users", Map.of("id", i)) != null) survivors++;
+        }
+        assertTrue(survivors >= 40, "hot rows kept: " + survivors);
+    }
+}
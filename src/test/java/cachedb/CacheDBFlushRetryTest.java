@@ -0,0 +1,306 @@
+package cachedb;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.sql.DataSource;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLIntegrityConstraintViolationException;
+import java.sql.SQLNonTransientConnectionException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CacheDBFlushRetryTest {
+
+    private Path deadLetters;
+
+    @BeforeEach
+    void setup() throws Exception {
+        deadLetters = Files.createTempDirectory("cachedb").resolve("dead-letter.log");
+    }
+
+    /*
+     * A database that is unreachable while `down` is set and rejects any
+     * statement with a row named "bad"; the parameters of committed
+     * statements land in `rows`. Table metadata comes from `schemas`; a
+     * query finds the rows of `selectable` whose key is among its parameters.
+     */
+    static final class FakeDatabase {
+        volatile boolean down;
+        final AtomicInteger connections = new AtomicInteger();
+        final List<List<Object>> rows = new CopyOnWriteArrayList<>(); // one entry per statement executed
+        final List<String> statements = new CopyOnWriteArrayList<>();
+        final Map<String, TableSchema> schemas = new ConcurrentHashMap<>();
+        final Map<Object, Map<String, Object>> selectable = new ConcurrentHashMap<>(); // key → all columns
+
+        DataSource dataSource() {
+            return (DataSource) Proxy.newProxyInstance(getClass().getClassLoader(),
+                    new Class<?>[] { DataSource.class }, (proxy, method, args) -> {
+                        if (!method.getName().equals("getConnection")) return null;
+                        connections.incrementAndGet();
+                        if (down) {
+                            throw new SQLNonTransientConnectionException("Connection refused", "08001");
+                        }
+                        return connection();
+                    });
+        }
+
+        private Connection connection() {
+            List<List<Object>> uncommitted = new ArrayList<>();
+            return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(),
+                    new Class<?>[] { Connection.class }, (proxy, method, args) -> {
+                        switch (method.getName()) {
+                            case "prepareStatement":
+                                statements.add((String) args[0]);
+                                return statement(uncommitted);
+                            case "commit": rows.addAll(uncommitted); return null;
+                            case "rollback": uncommitted.clear(); return null;
+                            case "getMetaData": return metaData();
+                            default: return null;
+                        }
+                    });
+        }
+
+        private DatabaseMetaData metaData() {
+            return (DatabaseMetaData) Proxy.newProxyInstance(getClass().getClassLoader(),
+                    new Class<?>[] { DatabaseMetaData.class }, (proxy, method, args) -> {
+                        TableSchema schema = schemas.get((String) args[2]);
+                        List<Map<String, Object>> found = new ArrayList<>();
+                        if (schema != null && method.getName().equals("getPrimaryKeys")) {
+                            for (String pk : schema.primaryKeys) found.add(Map.of("COLUMN_NAME", pk));
+                        } else if (schema != null && method.getName().equals("getColumns")) {
+                            schema.columns.forEach((column, type) ->
+                                    found.add(Map.of("COLUMN_NAME", column, "DATA_TYPE", type)));
+                        }
+                        return resultSet(found);
+                    });
+        }
+
+        private ResultSet resultSet(List<Map<String, Object>> found) {
+            Iterator<Map<String, Object>> it = found.iterator();
+            Object[] current = new Object[1];
+            return (ResultSet) Proxy.newProxyInstance(getClass().getClassLoader(),
+                    new Class<?>[] { ResultSet.class }, (proxy, method, args) -> {
+                        switch (method.getName()) {
+                            case "next":
+                                if (!it.hasNext()) return false;
+                                current[0] = it.next();
+                                return true;
+                            case "getString":
+                            case "getInt": return ((Map<?, ?>) current[0]).get(args[0]);
+                            case "getObject":
+                                if (args[0] instanceof String) return ((Map<?, ?>) current[0]).get(args[0]);
+                                return new ArrayList<>(((Map<?, ?>) current[0]).values()).get((Integer) args[0] - 1);
+                            case "getMetaData": return metaData(new ArrayList<>(((Map<?, ?>) current[0]).keySet()));
+                            default: return null;
+                        }
+                    });
+        }
+
+        private PreparedStatement statement(List<List<Object>> uncommitted) {
+            List<Object> params = new ArrayList<>();
+            List<List<Object>> batch = new ArrayList<>();
+            return (PreparedStatement) Proxy.newProxyInstance(getClass().getClassLoader(),
+                    new Class<?>[] { PreparedStatement.class }, (proxy, method, args) -> {
+                        switch (method.getName()) {
+                            case "setObject":
+                            case "setInt":
+                            case "setLong":
+                            case "setString": params.add(args[1]); return null;
+                            case "setNull": params.add(null); return null;
+                            case "addBatch": batch.add(new ArrayList<>(params)); params.clear(); return null;
+                            case "executeBatch":
+                                for (List<Object> row : batch) {
+                                    if (row.contains("bad")) {
+                                        throw new SQLIntegrityConstraintViolationException("Duplicate entry", "23000");
+                                    }
+                                }
+                                uncommitted.addAll(batch);
+                                return new int[batch.size()];
+                            case "executeQuery":
+                                List<Map<String, Object>> found = new ArrayList<>();
+                                for (Object key : params) {
+                                    if (selectable.containsKey(key)) found.add(selectable.get(key));
+                                }
+                                return resultSet(found);
+                            default: return null;
+                        }
+                    });
+        }
+
+        private ResultSetMetaData metaData(List<?> columns) {
+            return (ResultSetMetaData) Proxy.newProxyInstance(getClass().getClassLoader(),
+                    new Class<?>[] { ResultSetMetaData.class }, (proxy, method, args) -> {
+                        switch (method.getName()) {
+                            case "getColumnCount": return columns.size();
+                            case "getColumnLabel": return columns.get((Integer) args[0] - 1);
+                            default: return null;
+                        }
+                    });
+        }
+    }
+
+    private FlushManager flushManager(FakeDatabase db, int maxAttempts) {
+        DataSource ds = db.dataSource();
+        SchemaRegistry schemas = new SchemaRegistry(ds) {
+            @Override
+            public TableSchema get(String table) {
+                return new TableSchema(List.of("id"), Map.of("id", Types.INTEGER, "name", Types.VARCHAR));
+            }
+        };
+
+        FlushManager.Options options = new FlushManager.Options();
+        options.maxAttempts = maxAttempts;
+        options.retryBackoffMillis = 20;
+        options.deadLetterPath = deadLetters;
+        return new FlushManager(ds, schemas, options);
+    }
+
+    private static FlushTask put(int id, String name) {
+        return new FlushTask(new RowMutation("users", Map.of("id", id), Map.of("name", name), 1));
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "timed out");
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    void rejectedRowIsDeadLetteredWithoutHoldingBackTheRest() throws Exception {
+
+        FakeDatabase db = new FakeDatabase();
+        FlushManager flushManager = flushManager(db, 3);
+        flushManager.enqueue(put(1, "Alice"));
+        flushManager.enqueue(put(2, "bad"));
+        flushManager.enqueue(put(3, "Carol"));
+        flushManager.start();
+
+        await(() -> flushManager.deadLetterCount() == 1);
+        await(() -> flushManager.flushedRows() == 2);
+
+        // the failed batch is retried row by row, so only the bad row retries again
+        assertEquals(4, flushManager.retryCount());
+        assertEquals(0, flushManager.pending());
+        assertEquals(Set.of(List.of(1, "Alice"), List.of(3, "Carol")), new HashSet<>(db.rows)); // retries are jittered
+        assertFalse(flushManager.circuitOpen());
+
+        List<LogRecord> parked = new ArrayList<>();
+        try (WALReader reader = new WALReader(deadLetters)) {
+            reader.forEach(parked::add);
+        }
+        assertEquals(1, parked.size());
+        assertEquals(LogType.PUT, parked.get(0).type());
+        assertEquals("bad", parked.get(0).columns().get("name"));
+    }
+
+    @Test
+    void oneAttemptParksARejectedRowWithoutRetryingIt() throws Exception {
+
+        FakeDatabase db = new FakeDatabase();
+        FlushManager flushManager = flushManager(db, 1);
+        flushManager.enqueue(put(1, "Alice"));
+        flushManager.enqueue(put(2, "bad"));
+        flushManager.enqueue(put(3, "Carol"));
+        flushManager.start();
+
+        await(() -> flushManager.deadLetterCount() == 1);
+        await(() -> flushManager.flushedRows() == 2);
+
+        // the batch is split up once; the bad row alone is not retried
+        assertEquals(3, flushManager.retryCount());
+        assertEquals(Set.of(List.of(1, "Alice"), List.of(3, "Carol")), new HashSet<>(db.rows));
+
+        assertThrows(IllegalArgumentException.class, () -> CacheDB.builder().flushMaxAttempts(0));
+    }
+
+    @Test
+    void unreachableDatabasePausesFlushing() throws Exception {
+
+        FakeDatabase db = new FakeDatabase();
+        db.down = true;
+        FlushManager flushManager = flushManager(db, 2);
+        flushManager.enqueue(put(1, "Alice"));
+        flushManager.start();
+
+        Thread.sleep(400);
+        assertTrue(flushManager.circuitOpenCount() >= 1);
+        assertTrue(db.connections.get() < 10, "connections: " + db.connections.get());
+
+        // arrives while paused and merges with the queued write
+        flushManager.enqueue(put(1, "Alice-v2"));
+        db.down = false;
+        await(() -> flushManager.flushedRows() == 1);
+
+        assertEquals(List.of(List.of(1, "Alice-v2")), db.rows);
+        assertEquals(0, flushManager.retryCount());
+        assertEquals(0, flushManager.deadLetterCount());
+        assertFalse(Files.exists(deadLetters));
+    }
+
+    @Test
+    void retryGoesAheadOfNewerWritesAndWaits() throws Exception {
+
+        FlushQueue queue = new FlushQueue();
+        queue.offer(new FlushTask(new RowMutation("users", Map.of("id", 1), Map.of(), 3, true, 3)));
+        queue.offer(new FlushTask(new RowMutation("users", Map.of("id", 1), Map.of("name", "c"), 4, false, 4)));
+
+        long start = System.currentTimeMillis();
+        queue.requeue(new FlushTask(new RowMutation("users", Map.of("id", 1), Map.of("name", "a"), 2, false, 2)),
+                start + 100);
+
+        List<FlushTask> drained = new ArrayList<>();
+        queue.take(drained, 100, 0);
+        assertTrue(System.currentTimeMillis() - start >= 100);
+
+        // the older put is dropped by the delete queued after it
+        assertEquals(2, drained.size());
+        assertTrue(drained.get(0).mutation.isDelete);
+        assertEquals(List.of(2L), drained.get(0).replaced.stream().map(m -> m.lsn).toList());
+        assertEquals(Map.of("name", "c"), drained.get(1).mutation.columns);
+    }
+
+    @Test
+    void deadLettersReplayThroughTheCache() throws Exception {
+
+        CacheDBTestBase.clearWal();
+        Path path = Path.of("logs", "dead-letter.log");
+        Files.deleteIfExists(path);
+
+        DeadLetterLog log = new DeadLetterLog(path);
+        log.append(new RowMutation("users", Map.of("id", 1), Map.of("name", "Alice"), 1));
+        log.append(RowMutation.increment("page_views", Map.of("page_id", 1), Map.of("views", 5L), 1, 0));
+
+        CacheDB cache = CacheDB.builder()
+                .dataSource(new SimpleDataSource("jdbc:mysql://localhost:3306/cachedb", "root", "defg5678@"))
+                .ttlSeconds(60)
+                .dashboard(false)
+                .build();
+
+        assertEquals(2, cache.replayDeadLetters());
+        assertEquals("Alice", cache.get("users", Map.of("id", 1)).get("name"));
+        assertEquals(Map.of("views", 5L), cache.store().lookup("page_views", Map.of("page_id", 1)).deltas);
+        assertFalse(Files.exists(path));
+        assertEquals(0, cache.replayDeadLetters());
+    }
+}
@@ -0,0 +1,70 @@
+package cachedb;
+
+import org.junit.jupiter.api.Test;
+
+import javax.sql.DataSource;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CacheDBFlushWorkersTest {
+
+    private final DataSource ds = new SimpleDataSource(
+            "jdbc:mysql://localhost:3306/cachedb",
+            "root",
+            "defg5678@"
+    );
+
+    @Test
+    void rowAlwaysReachesTheSameWorker() {
+
+        FlushManager flushManager = new FlushManager(ds, new SchemaRegistry(ds), 500, 0, 4);
+
+        for (int id = -50; id < 1000; id++) {
+            int worker = flushManager.workerFor(new RowMutation("users", Map.of("id", id), Map.of("name", "a"), 1));
+            assertEquals(worker, flushManager.workerFor(
+                    new RowMutation("users", Map.of("id", (long) id), Map.of("name", "b"), 2)));
+            assertEquals(worker, flushManager.workerFor(
+                    new RowMutation("users", Map.of("user_id", id), Map.of(), 3, true, 3)));
+        }
+    }
+
+    @Test
+    void rowsAreSpreadOverWorkers() {
+
+        FlushManager flushManager = new FlushManager(ds, new SchemaRegistry(ds), 500, 0, 4);
+
+        for (int id = 0; id < 1000; id++) {
+            flushManager.enqueue(new FlushTask(
+                    new RowMutation("users", Map.of("id", id), Map.of("name", "User-" + id), 1)));
+            flushManager.enqueue(new FlushTask(
+                    new RowMutation("orders", Map.of("order_id", id, "user_id", 7), Map.of("total", id), 1)));
+        }
+
+        int total = 0;
+        for (int w = 0; w < flushManager.workerCount(); w++) {
+            assertTrue(flushManager.pending(w) > 300, "worker " + w + ": " + flushManager.pending(w));
+            total += flushManager.pending(w);
+        }
+        assertEquals(2000, total);
+        assertEquals(2000, flushManager.pending());
+    }
+
+    @Test
+    void builderConfiguresWorkers() throws Exception {
+
+        CacheDBTestBase.clearWal();
+        CacheDB cache = CacheDB.builder()
+                .dataSource(ds)
+                .flushWorkers(3)
+                .dashboard(false)
+                .build();
+        assertEquals(3, cache.flushManager().workerCount());
+
+        assertThrows(IllegalArgumentException.class, () -> CacheDB.builder()
+                .dataSource(ds)
+                .flushWorkers(0)
+                .dashboard(false)
+                .build());
+    }
+}
@@ -0,0 +1,206 @@
+package cachedb;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.sql.DataSource;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CacheDBIncrementTest {
+
+    private DataSource ds;
+
+    @BeforeEach
+    void setup() throws Exception {
+        ds = new SimpleDataSource(
+                "jdbc:mysql://localhost:3306/cachedb",
+                "root",
+                "defg5678@"
+        );
+
+        CacheDBTestBase.clearWal();
+    }
+
+    private CacheDB open() throws Exception {
+        return CacheDB.builder()
+                .dataSource(ds)
+                .ttlSeconds(10)
+                .durability(Durability.NONE)
+                .dashboard(false)
+                .build();
+    }
+
+    @Test
+    void concurrentIncrementsAreNotLost() throws Exception {
+
+        CacheDB cache = open();
+        cache.set("page_views", Map.of("page_id", 1), Map.of("url", "/home", "views", 0));
+
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < 1000; i++) {
+                    cache.increment("page_views", Map.of("page_id", 1), "views", 1);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) thread.join();
+
+        Map<String, Object> row = cache.get("page_views", Map.of("page_id", 1));
+        assertEquals(8000, row.get("views"));
+        assertEquals("/home", row.get("url"));
+    }
+
+    @Test
+    void incrementsAreReplayedOnRecovery() throws Exception {
+
+        CacheDB db1 = open();
+        db1.set("page_views", Map.of("page_id", 7), Map.of("views", 10L));
+        for (int i = 0; i < 5; i++) {
+            db1.increment("page_views", Map.of("page_id", 7), "views", 2);
+        }
+        db1.increment("page_views", Map.of("page_id", 7), "likes", 3);
+        db1.wal().sync();
+
+        CacheDB db2 = open();
+        Map<String, Object> row = db2.get("page_views", Map.of("page_id", 7));
+        assertEquals(20L, row.get("views"));
+        assertEquals(3L, row.get("likes"));
+    }
+
+    @Test
+    void flushedIncrementsAreNotReplayed() throws Exception {
+
+        CacheDBFlushRetryTest.FakeDatabase db = new CacheDBFlushRetryTest.FakeDatabase();
+        db.schemas.put("page_views", new TableSchema(List.of("page_id"),
+                Map.of("page_id", Types.INTEGER, "views", Types.BIGINT)));
+
+        CacheDB db1 = writeBehind(db.dataSource());
+        db1.increment("page_views", Map.of("page_id", 9), "views", 5);
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (db1.wal().pinnedRecords() > 0) {
+            assertTrue(System.currentTimeMillis() < deadline, "timed out");
+            Thread.sleep(10);
+        }
+        db1.checkpoint();
+        assertEquals(List.of(List.of(9, 5L)), db.rows);
+
+        // crash and restart twice without another write
+        for (int i = 0; i < 2; i++) {
+            CacheDB restarted = writeBehind(db.dataSource());
+            Thread.sleep(300); // well past the write-behind delay
+            assertEquals(0, restarted.wal().pinnedRecords());
+        }
+        assertEquals(List.of(List.of(9, 5L)), db.rows); // not added again
+    }
+
+    @Test
+    void flushedIncrementsAreNotReplayedWhileAnotherRowHoldsTheCheckpoint() throws Exception {
+
+        CacheDBFlushRetryTest.FakeDatabase db = new CacheDBFlushRetryTest.FakeDatabase();
+        db.schemas.put("page_views", new TableSchema(List.of("page_id"),
+                Map.of("page_id", Types.INTEGER, "views", Types.BIGINT)));
+        db.schemas.put("users", new TableSchema(List.of("id"),
+                Map.of("id", Types.INTEGER, "name", Types.VARCHAR)));
+
+        CacheDB db1 = CacheDB.builder()
+                .dataSource(db.dataSource())
+                .ttlSeconds(10)
+                .writeBehindMillis(50)
+                .flushMaxAttempts(1_000) // the rejected row stays pending
+                .durability(Durability.NONE)
+                .dashboard(false)
+                .build();
+        db1.set("users", Map.of("id", 1), Map.of("name", "bad"));
+        db1.increment("page_views", Map.of("page_id", 9), "views", 5);
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (db.rows.isEmpty() || db1.wal().pinnedRecords() > 1) {
+            assertTrue(System.currentTimeMillis() < deadline, "timed out");
+            Thread.sleep(10);
+        }
+        db1.checkpoint();
+        assertEquals(List.of(List.of(9, 5L)), db.rows);
+
+        // the users row still holds the checkpoint below the increment
+        CacheDB restarted = writeBehind(db.dataSource());
+        Thread.sleep(300); // well past the write-behind delay
+        assertEquals(List.of(List.of(9, 5L)), db.rows); // not added again
+    }
+
+    private CacheDB writeBehind(DataSource dataSource) throws Exception {
+        return CacheDB.builder()
+                .dataSource(dataSource)
+                .ttlSeconds(10)
+                .writeBehindMillis(50)
+                .durability(Durability.NONE)
+                .dashboard(false)
+                .build();
+    }
+
+    @Test
+    void nonNumericColumnIsRejected() throws Exception {
+
+        CacheDB cache = open();
+        cache.set("page_views", Map.of("page_id", 2), Map.of("url", "/about"));
+        long lastLsn = cache.wal().lastLsn();
+
+        assertThrows(IllegalArgumentException.class,
+                () -> cache.increment("page_views", Map.of("page_id", 2), "url", 1));
+        assertEquals("/about", cache.get("page_views", Map.of("page_id", 2)).get("url"));
+        assertEquals(lastLsn, cache.wal().lastLsn()); // checked before it was logged
+    }
+
+    @Test
+    void uncachedRowsFlushSummedDeltas() {
+
+        CacheStore store = new CacheStore(60_000);
+        for (int i = 0; i < 100; i++) {
+            store.increment("page_views", Map.of("page_id", 3), "views", 1, i + 1);
+        }
+        store.increment("page_views", Map.of("page_id", 3), "clicks", -2, 101);
+
+        // the base value lives in the database, so there is nothing to read
+        assertNull(store.get("page_views", Map.of("page_id", 3)));
+
+        // loading it adds the increments still waiting to be flushed
+        Map<String, Object> loaded = store.load("page_views", Map.of("page_id", 3),
+                Map.of("views", 40L, "clicks", 5));
+        assertEquals(140L, loaded.get("views"));
+        assertEquals(3, loaded.get("clicks"));
+
+        List<CacheEntry> expired = new ArrayList<>();
+        store.expire(System.currentTimeMillis() + 120_000, (table, e) -> expired.add(e));
+
+        CacheEntry entry = expired.get(0);
+        assertEquals(Map.of("views", 100L, "clicks", -2L), entry.deltas);
+        assertEquals(1, entry.pendingLsn);
+
+        RowMutation m = RowMutation.increment("page_views", entry.primaryKey,
+                Map.of("views", 100L), entry.version, entry.pendingLsn);
+        TableSchema schema = new TableSchema(List.of("page_id"), Map.of());
+        assertEquals("INSERT INTO page_views (page_id, views) VALUES (?, ?)"
+                        + " ON DUPLICATE KEY UPDATE views = COALESCE(views, 0) + VALUES(views)",
+                SqlBuilder.buildIncrement(m, schema));
+    }
+
+    @Test
+    void setReplacesPendingIncrements() {
+
+        CacheStore store = new CacheStore(60_000);
+        store.increment("page_views", Map.of("page_id", 4), "views", 5, 1);
+        store.upsert("page_views", Map.of("page_id", 4), Map.of("views", 50L), 2);
+        store.increment("page_views", Map.of("page_id", 4), "views", 1, 3);
+
+        CacheEntry entry = store.lookup("page_views", Map.of("page_id", 4));
+        assertNull(entry.deltas); // the whole row is written instead
+        assertEquals(51L, entry.columns.get("views"));
+        assertEquals(1, entry.pendingLsn);
+    }
+}
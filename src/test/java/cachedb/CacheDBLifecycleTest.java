@@ -2,6 +2,7 @@ package cachedb;
 
 import org.junit.jupiter.api.Test;
 
+import java.util.HashMap;
 import java.util.Map;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -35,4 +36,38 @@ class CacheDBLifecycleTest extends CacheDBTestBase {
 
         assertNull(cache.get("users", Map.of("id", 1)));
     }
+
+    @Test
+    void rewriteExtendsTtl() throws Exception {
+
+        cache.set("users", Map.of("id", 2), Map.of("name", "Bob"));
+
+        Thread.sleep(1500);
+
+        cache.set("users", Map.of("id", 2), Map.of("name", "Bob-v2"));
+
+        // past the first write's TTL, inside the second one's
+        Thread.sleep(1000);
+        assertEquals("Bob-v2", cache.get("users", Map.of("id", 2)).get("name"));
+
+        Thread.sleep(2000);
+        assertNull(cache.get("users", Map.of("id", 2)));
+    }
+
+    @Test
+    void getReturnsTheColumnsLastWritten() {
+
+        cache.set("users", Map.of("id", 3), Map.of("name", "Carol", "email", "carol@test.com"));
+
+        Map<String, Object> cols = new HashMap<>();
+        cols.put("name", "Carol-v2");
+        cols.put("nickname", null);
+        cache.set("users", Map.of("id", 3), cols);
+
+        var row = cache.get("users", Map.of("id", 3));
+        assertEquals(cols, row);
+        assertFalse(row.containsKey("email"));
+        assertTrue(row.containsKey("nickname"));
+        assertNull(row.get("nickname"));
+    }
 }
@@ -0,0 +1,75 @@
+package cachedb;
+
+import org.junit.jupiter.api.Test;
+
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CacheDBLongKeyTest extends CacheDBTestBase {
+
+    // stands in for the database's metadata: users(id BIGINT PRIMARY KEY, name)
+    private static SchemaRegistry usersSchema() {
+        return new SchemaRegistry(null) {
+            @Override
+            public TableSchema get(String table) {
+                return new TableSchema(List.of("id"),
+                        Map.of("id", Types.BIGINT, "name", Types.VARCHAR));
+            }
+        };
+    }
+
+    @Test
+    void integralKeyTableUsesLongKeyMap() {
+
+        CacheStore store = new CacheStore(60_000, usersSchema());
+
+        store.upsert("users", Map.of("id", 7), Map.of("name", "Grace"));
+
+        assertTrue(store.raw().get("users") instanceof LongKeyMap);
+        assertEquals("Grace", store.get("users", 7L).get("name"));
+        assertEquals("Grace", store.get("users", Map.of("id", 7L)).get("name"));
+        assertEquals("Grace", store.get("users", Map.of("id", "7")).get("name"));
+        assertNull(store.get("users", 8L));
+
+        store.delete("users", Map.of("id", 7));
+        assertNull(store.get("users", 7L));
+    }
+
+    @Test
+    void longKeyMapSurvivesChurnAndExpiry() {
+
+        CacheStore store = new CacheStore(60_000, usersSchema());
+
+        for (int round = 0; round < 3; round++) {
+            for (long id = 0; id < 5_000; id++) {
+                store.upsert("users", Map.of("id", id), Map.of("name", "User-" + id + "-" + round));
+            }
+            List<CacheEntry> expired = new ArrayList<>();
+            if (round < 2) {
+                // each round's clock must pass the last one's, which the wheel has already reached
+                store.expire(System.currentTimeMillis() + 120_000 * (round + 1), (t, e) -> expired.add(e));
+                assertEquals(5_000, expired.size());
+                assertEquals(0, store.raw().get("users").size());
+            }
+        }
+
+        assertEquals(5_000, store.raw().get("users").size());
+        for (long id = 0; id < 5_000; id++) {
+            assertEquals("User-" + id + "-2", store.get("users", id).get("name"));
+        }
+    }
+
+    @Test
+    void getByLongIdWithoutSchema() {
+
+        cache.set("users", Map.of("id", 11), Map.of("name", "Ada"));
+
+        assertEquals("Ada", cache.get("users", 11L).get("name"));
+        assertNull(cache.get("users", 4_000_000_012L)); // not written by any test
+        assertNull(cache.get("unknown_table", 1L));
+    }
+}
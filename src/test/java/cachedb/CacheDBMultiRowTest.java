@@ -0,0 +1,118 @@
+package cachedb;
+
+import org.junit.jupiter.api.Test;
+
+import javax.sql.DataSource;
+import java.nio.file.Files;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CacheDBMultiRowTest {
+
+    private static final TableSchema USERS =
+            new TableSchema(List.of("id"), Map.of("id", Types.INTEGER, "name", Types.VARCHAR));
+
+    private static FlushTask put(int id, String name) {
+        return new FlushTask(new RowMutation("users", Map.of("id", id), Map.of("name", name), 1));
+    }
+
+    private static FlushTask delete(int id) {
+        return new FlushTask(new RowMutation("users", Map.of("id", id), Map.of(), 1, true, 0));
+    }
+
+    private static List<List<FlushTask>> statements(List<FlushTask> group, TableSchema schema, long maxBytes) {
+        return FlushManager.statements(group, new SqlTemplates().get(group.get(0).mutation, schema, 1), maxBytes);
+    }
+
+    @Test
+    void buildsMultiRowStatements() {
+
+        RowMutation put = put(1, "a").mutation;
+        assertEquals("INSERT INTO users (id, name) VALUES (?, ?), (?, ?), (?, ?)"
+                        + " ON DUPLICATE KEY UPDATE name = VALUES(name)",
+                SqlBuilder.buildUpsert(put, USERS, 3));
+        assertEquals(SqlBuilder.buildUpsert(put, USERS), SqlBuilder.buildUpsert(put, USERS, 1));
+
+        RowMutation increment = RowMutation.increment("page_views", Map.of("page_id", 1), Map.of("views", 1L), 1, 0);
+        TableSchema pageViews = new TableSchema(List.of("page_id"), Map.of("page_id", Types.INTEGER, "views", Types.BIGINT));
+        assertEquals("INSERT INTO page_views (page_id, views) VALUES (?, ?), (?, ?)"
+                        + " ON DUPLICATE KEY UPDATE views = COALESCE(views, 0) + VALUES(views)",
+                SqlBuilder.buildIncrement(increment, pageViews, 2));
+
+        assertEquals("DELETE FROM users WHERE id IN (?, ?, ?)", SqlBuilder.buildDelete(delete(1).mutation, USERS, 3));
+
+        TableSchema orders = new TableSchema(List.of("order_id", "user_id"),
+                Map.of("order_id", Types.INTEGER, "user_id", Types.INTEGER));
+        RowMutation orderDelete = new RowMutation("orders", Map.of("order_id", 1, "user_id", 2), Map.of(), 1, true, 0);
+        assertEquals("DELETE FROM orders WHERE order_id = ? AND user_id = ?", SqlBuilder.buildDelete(orderDelete, orders, 1));
+        assertThrows(IllegalArgumentException.class, () -> SqlBuilder.buildDelete(orderDelete, orders, 2));
+    }
+
+    @Test
+    void statementsStayWithinPlaceholderAndSizeLimits() {
+
+        List<FlushTask> group = new ArrayList<>();
+        for (int id = 0; id < 40_000; id++) group.add(put(id, "u"));
+
+        // two placeholders a row
+        List<List<FlushTask>> chunks = statements(group, USERS, Long.MAX_VALUE);
+        assertEquals(List.of(32_767, 7_233), chunks.stream().map(List::size).toList());
+
+        group.clear();
+        for (int id = 0; id < 10; id++) group.add(put(id, "x".repeat(1000)));
+        chunks = statements(group, USERS, 9_000);
+        assertEquals(List.of(4, 4, 2), chunks.stream().map(List::size).toList());
+        assertSame(group.get(4), chunks.get(1).get(0));
+
+        // a row bigger than the cap still goes out, on its own
+        chunks = statements(group.subList(0, 2), USERS, 100);
+        assertEquals(List.of(1, 1), chunks.stream().map(List::size).toList());
+
+        TableSchema orders = new TableSchema(List.of("order_id", "user_id"),
+                Map.of("order_id", Types.INTEGER, "user_id", Types.INTEGER));
+        List<FlushTask> deletes = List.of(
+                new FlushTask(new RowMutation("orders", Map.of("order_id", 1, "user_id", 2), Map.of(), 1, true, 0)),
+                new FlushTask(new RowMutation("orders", Map.of("order_id", 2, "user_id", 2), Map.of(), 1, true, 0)));
+        assertEquals(2, statements(deletes, orders, Long.MAX_VALUE).size());
+    }
+
+    @Test
+    void sameShapeRowsAreFlushedAsOneStatement() throws Exception {
+
+        CacheDBFlushRetryTest.FakeDatabase db = new CacheDBFlushRetryTest.FakeDatabase();
+        DataSource ds = db.dataSource();
+        SchemaRegistry schemas = new SchemaRegistry(ds) {
+            @Override
+            public TableSchema get(String table) {
+                return USERS;
+            }
+        };
+        FlushManager.Options options = new FlushManager.Options();
+        options.deadLetterPath = Files.createTempDirectory("cachedb").resolve("dead-letter.log");
+        FlushManager flushManager = new FlushManager(ds, schemas, options);
+
+        flushManager.enqueue(put(1, "Alice"));
+        flushManager.enqueue(put(2, "Bob"));
+        flushManager.enqueue(put(3, "Carol"));
+        flushManager.enqueue(delete(4));
+        flushManager.enqueue(delete(5));
+        flushManager.start();
+
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (flushManager.flushedRows() < 5) {
+            assertTrue(System.currentTimeMillis() < deadline, "timed out");
+            Thread.sleep(10);
+        }
+
+        assertEquals(List.of(
+                "INSERT INTO users (id, name) VALUES (?, ?), (?, ?), (?, ?) ON DUPLICATE KEY UPDATE name = VALUES(name)",
+                "DELETE FROM users WHERE id IN (?, ?)"), db.statements);
+        assertEquals(List.of(List.of(1, "Alice", 2, "Bob", 3, "Carol"), List.of(4, 5)), db.rows);
+        assertEquals(2, flushManager.flushedStatements());
+        assertEquals(1, flushManager.flushedBatches());
+    }
+}
@@ -0,0 +1,194 @@
+package cachedb;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.sql.DataSource;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CacheDBOffHeapTest {
+
+    private DataSource ds;
+
+    @BeforeEach
+    void setup() throws Exception {
+        ds = new SimpleDataSource(
+                "jdbc:mysql://localhost:3306/cachedb",
+                "root",
+                "defg5678@"
+        );
+
+        CacheDBTestBase.clearWal();
+    }
+
+    @Test
+    void setUpdateDeleteAndRecover() throws Exception {
+
+        CacheDB db1 = CacheDB.builder()
+                .dataSource(ds)
+                .ttlSeconds(10)
+                .offHeap(true)
+                .dashboard(false)
+                .build();
+
+        db1.set("users", Map.of("id", 1), Map.of("name", "Alice", "visits", 3L));
+        db1.set("users", Map.of("id", 2), Map.of("name", "Bob"));
+        db1.set("users", Map.of("id", 1), Map.of("name", "Alice-v2", "visits", 4L));
+        db1.delete("users", Map.of("id", 2));
+
+        assertEquals(Map.of("name", "Alice-v2", "visits", 4L), db1.get("users", Map.of("id", 1)));
+        assertNull(db1.get("users", Map.of("id", 2)));
+
+        // ---------- restart, replaying the WAL into a new off-heap store ----------
+        CacheDB db2 = CacheDB.builder()
+                .dataSource(ds)
+                .ttlSeconds(10)
+                .offHeap(true)
+                .dashboard(false)
+                .build();
+
+        assertEquals("Alice-v2", db2.get("users", Map.of("id", 1)).get("name"));
+        assertNull(db2.get("users", Map.of("id", 2)));
+    }
+
+    @Test
+    void rewritesAreCompactedAndExpiredRowsHandedOver() {
+
+        long directBefore = directMemoryUsed();
+        OffHeapCacheStore store = new OffHeapCacheStore(60_000, null, 0, 0, 64 * 1024);
+
+        for (int i = 0; i < 20_000; i++) {
+            store.upsert("users", Map.of("id", i), Map.of("name", "User-" + i), i + 1);
+        }
+        long firstVersion = store.lookup("users", Map.of("id", 5)).version;
+
+        // rewrite most rows so older slabs end up mostly dead
+        for (int i = 0; i < 18_000; i++) {
+            store.upsert("users", Map.of("id", i), Map.of("name", "User-" + i + "-v2"), 0);
+        }
+
+        assertEquals(20_000, store.boundedEntries());
+        assertTrue(store.compactionCount() > 0);
+        // replaced slabs and indexes are freed, not left for the collector
+        assertTrue(directMemoryUsed() - directBefore <= store.offHeapBytes() + 64 * 1024);
+        assertEquals("User-5-v2", store.get("users", Map.of("id", 5)).get("name"));
+        assertEquals("User-19999", store.get("users", Map.of("id", 19_999)).get("name"));
+
+        CacheEntry entry = store.lookup("users", Map.of("id", 5));
+        assertEquals(firstVersion + 1, entry.version);
+        assertEquals(6, entry.pendingLsn); // the first write still pins the WAL
+        assertTrue(entry.dirty);
+
+        List<CacheEntry> expired = new ArrayList<>();
+        store.expire(System.currentTimeMillis() + 120_000, (table, e) -> expired.add(e));
+
+        assertEquals(20_000, expired.size());
+        assertEquals(0, store.boundedEntries());
+        assertNull(store.get("users", Map.of("id", 5)));
+    }
+
+    @Test
+    void oldestRowsAreEvictedOverTheLimit() {
+
+        OffHeapCacheStore store = new OffHeapCacheStore(60_000, null, 1_600, 0, 64 * 1024);
+        Map<Object, CacheEntry> evicted = new HashMap<>();
+        store.onEvict((table, e) -> evicted.put(e.primaryKey.get("id"), e));
+
+        for (int i = 0; i < 10_000; i++) {
+            store.upsert("users", Map.of("id", i), Map.of("name", "User-" + i), i + 1);
+        }
+
+        assertTrue(store.boundedEntries() <= 1_600);
+        assertEquals(10_000, store.boundedEntries() + evicted.size());
+        assertEquals(evicted.size(), store.evictionCount());
+        assertTrue(evicted.containsKey(0));
+        assertNotNull(store.get("users", Map.of("id", 9_999)));
+    }
+
+    @Test
+    void tombstonesGetAFreshDeadline() throws Exception {
+
+        OffHeapCacheStore store = new OffHeapCacheStore(60_000, null, 0, 0, 64 * 1024);
+
+        store.upsert("users", Map.of("id", 1), Map.of("name", "Alice"), 1);
+        long written = System.currentTimeMillis();
+        Thread.sleep(50);
+        store.delete("users", Map.of("id", 1), 2);
+
+        // past the row's deadline but not the delete's
+        List<CacheEntry> expired = new ArrayList<>();
+        store.expire(written + 60_001, (table, e) -> expired.add(e));
+
+        assertTrue(expired.isEmpty());
+        assertEquals(1, store.boundedEntries());
+        assertNull(store.lookup("users", Map.of("id", 1)).columns);
+    }
+
+    @Test
+    void deletedRowReadsAsAMiss() {
+
+        for (CacheStore store : List.of(new CacheStore(60_000),
+                new OffHeapCacheStore(60_000, null, 0, 0, 64 * 1024))) {
+            store.upsert("users", Map.of("id", 1), Map.of("name", "Alice"), 1);
+            store.delete("users", Map.of("id", 1), 2);
+
+            assertNull(store.get("users", Map.of("id", 1)));
+            assertEquals(0, store.hitCount());
+            assertEquals(1, store.missCount());
+        }
+    }
+
+    @Test
+    void incrementsRewriteTheRecord() {
+
+        OffHeapCacheStore store = new OffHeapCacheStore(60_000, null, 0, 0, 64 * 1024);
+
+        // not cached: only the sums are kept, and reads miss
+        store.increment("pages", Map.of("id", 1), "views", 2, 1);
+        assertNull(store.get("pages", Map.of("id", 1)));
+        assertEquals(Map.of("views", 2L), store.lookup("pages", Map.of("id", 1)).deltas);
+
+        // loading the row adds them
+        assertEquals(Map.of("views", 12L),
+                store.load("pages", Map.of("id", 1), Map.of("views", 10L)));
+        assertFalse(store.increment("pages", Map.of("id", 1), "views", 1, 2));
+
+        CacheEntry entry = store.lookup("pages", Map.of("id", 1));
+        assertEquals(Map.of("views", 13L), entry.columns);
+        assertEquals(Map.of("views", 3L), entry.deltas);
+        assertEquals(1, entry.pendingLsn);
+        assertTrue(entry.dirty);
+
+        // a written row just changes its value
+        store.upsert("pages", Map.of("id", 2), Map.of("views", 5, "title", "Home"), 3);
+        store.increment("pages", Map.of("id", 2), "views", 4, 4);
+        assertEquals(Map.of("views", 9, "title", "Home"), store.get("pages", Map.of("id", 2)));
+        assertNull(store.lookup("pages", Map.of("id", 2)).deltas);
+
+        assertThrows(IllegalArgumentException.class,
+                () -> store.increment("pages", Map.of("id", 2), "title", 1,
+                        () -> {
+                            throw new AssertionError("logged before the value was checked");
+                        }));
+        assertEquals(Map.of("views", 9, "title", "Home"), store.get("pages", Map.of("id", 2)));
+
+        // after a delete the row starts again from 0
+        store.delete("pages", Map.of("id", 2), 6);
+        store.increment("pages", Map.of("id", 2), "views", 1, 7);
+        assertEquals(Map.of("views", 1L), store.get("pages", Map.of("id", 2)));
+    }
+
+    private static long directMemoryUsed() {
+        for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+            if (pool.getName().equals("direct")) return pool.getMemoryUsed();
+        }
+        return 0;
+    }
+}
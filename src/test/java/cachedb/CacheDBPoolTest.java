@@ -0,0 +1,60 @@
+package cachedb;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CacheDBPoolTest {
+
+    @BeforeEach
+    void setup() throws Exception {
+        CacheDBTestBase.clearWal();
+    }
+
+    @Test
+    void jdbcUrlUsesPooledDataSource() throws Exception {
+
+        CacheDB db = CacheDB.builder()
+                .jdbcUrl("jdbc:mysql://localhost:3306/cachedb", "root", "defg5678@")
+                .poolSize(2)
+                .ttlSeconds(1)
+                .dashboard(false)
+                .build();
+
+        PooledDataSource pool = (PooledDataSource) db.dataSource();
+        assertEquals(2, pool.maxSize());
+
+        for (int i = 0; i < 50; i++) {
+            db.set("users", Map.of("id", i), Map.of("name", "User-" + i));
+        }
+        assertEquals("User-7", db.get("users", Map.of("id", 7)).get("name"));
+
+        Thread.sleep(3000);
+
+        // every flush returned its connection, and the pool never grew
+        assertEquals(0, pool.activeCount());
+        assertTrue(pool.createdCount() <= 2);
+    }
+
+    @Test
+    void explicitDataSourceWins() throws Exception {
+
+        SimpleDataSource ds = new SimpleDataSource(
+                "jdbc:mysql://localhost:3306/cachedb",
+                "root",
+                "defg5678@"
+        );
+
+        CacheDB db = CacheDB.builder()
+                .dataSource(ds)
+                .jdbcUrl("jdbc:mysql://localhost:3306/other", "root", "x")
+                .ttlSeconds(10)
+                .dashboard(false)
+                .build();
+
+        assertSame(ds, db.dataSource());
+    }
+}
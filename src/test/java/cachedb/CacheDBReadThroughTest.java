@@ -0,0 +1,152 @@
+package cachedb;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CacheDBReadThroughTest {
+
+    private DataSource ds;
+
+    @BeforeEach
+    void setup() throws Exception {
+        ds = new SimpleDataSource(
+                "jdbc:mysql://localhost:3306/cachedb",
+                "root",
+                "defg5678@"
+        );
+
+        CacheDBTestBase.clearWal();
+    }
+
+    @Test
+    void expiredRowIsReadBack() throws Exception {
+
+        CacheDB cache = CacheDB.builder()
+                .dataSource(ds)
+                .ttlSeconds(1)
+                .readThrough(true)
+                .dashboard(false)
+                .build();
+
+        cache.set("users", Map.of("id", 11), Map.of("name", "Alice"));
+
+        Thread.sleep(2500);
+
+        // flushed and expired: loaded back from the database, or still
+        // waiting for its flush, never the pre-write database row
+        assertEquals("Alice", cache.get("users", Map.of("id", 11)).get("name"));
+    }
+
+    @Test
+    void pendingDeleteIsNotLoaded() throws Exception {
+
+        CacheDB cache = CacheDB.builder()
+                .dataSource(ds)
+                .ttlSeconds(10)
+                .readThrough(true)
+                .dashboard(false)
+                .build();
+
+        cache.set("users", Map.of("id", 12), Map.of("name", "Bob"));
+        cache.delete("users", Map.of("id", 12));
+
+        assertNull(cache.get("users", Map.of("id", 12)));
+        assertEquals(0, cache.loader().loadCount());
+    }
+
+    @Test
+    void multiGetLoadsMissesInOneSelect() throws Exception {
+
+        CacheDBFlushRetryTest.FakeDatabase db = new CacheDBFlushRetryTest.FakeDatabase();
+        db.schemas.put("users", new TableSchema(List.of("id"),
+                Map.of("id", Types.INTEGER, "name", Types.VARCHAR)));
+        for (int id = 1; id <= 3; id++) {
+            Map<String, Object> row = new LinkedHashMap<>();
+            row.put("id", id);
+            row.put("name", "Db-" + id);
+            db.selectable.put(id, row);
+        }
+
+        CacheDB cache = CacheDB.builder()
+                .dataSource(db.dataSource())
+                .ttlSeconds(10)
+                .readThrough(true)
+                .dashboard(false)
+                .build();
+        cache.set("users", Map.of("id", 2), Map.of("name", "Cached-2"));
+
+        List<Map<String, Object>> rows = cache.multiGet("users",
+                List.of(Map.of("id", 1), Map.of("id", 2), Map.of("id", 3), Map.of("id", 4), Map.of("id", 1)));
+
+        assertEquals("Db-1", rows.get(0).get("name"));
+        assertEquals("Cached-2", rows.get(1).get("name"));
+        assertEquals("Db-3", rows.get(2).get("name"));
+        assertNull(rows.get(3));
+        assertEquals("Db-1", rows.get(4).get("name"));
+        assertEquals(1, cache.loader().loadCount());
+        assertEquals(List.of("SELECT * FROM users WHERE id IN (?, ?, ?)"), db.statements);
+
+        // now cached
+        assertEquals("Db-3", cache.get("users", Map.of("id", 3)).get("name"));
+        assertEquals(1, cache.loader().loadCount());
+    }
+
+    @Test
+    void concurrentMissesShareOneLoad() throws Exception {
+
+        // every connection attempt is slow and then fails
+        DataSource slow = new SimpleDataSource("jdbc:none", "", "") {
+            @Override
+            public Connection getConnection() throws SQLException {
+                try {
+                    Thread.sleep(300);
+                } catch (InterruptedException ignored) {}
+                throw new SQLException("down");
+            }
+        };
+
+        CacheDB cache = CacheDB.builder()
+                .dataSource(slow)
+                .ttlSeconds(10)
+                .readThrough(true)
+                .dashboard(false)
+                .build();
+
+        int threads = 8;
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> readers = new ArrayList<>();
+        List<Throwable> errors = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            readers.add(new Thread(() -> {
+                try {
+                    start.await();
+                    cache.get("users", Map.of("id", 13));
+                } catch (Throwable e) {
+                    synchronized (errors) {
+                        errors.add(e);
+                    }
+                }
+            }));
+        }
+        for (Thread r : readers) r.start();
+        start.countDown();
+        for (Thread r : readers) r.join();
+
+        // one caller hit the database, everyone shared its failure
+        assertEquals(threads, errors.size());
+        assertEquals(1, cache.loader().failureCount());
+        assertEquals(threads - 1, cache.loader().coalescedCount());
+    }
+}
@@ -4,12 +4,15 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
 import javax.sql.DataSource;
-import java.nio.file.Files;
-import java.nio.file.Path;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class CacheDBRecoveryTest {
 
@@ -24,9 +27,7 @@ public class CacheDBRecoveryTest {
         );
 
         // Clean WAL before every test
-        Path wal = Path.of("logs", "wal.log");
-        Files.createDirectories(wal.getParent());
-        Files.deleteIfExists(wal);
+        CacheDBTestBase.clearWal();
     }
 
     @Test
@@ -146,6 +147,129 @@ public class CacheDBRecoveryTest {
                         Map.of("order_id", 100, "item_id", 3)
                 );
 
-        assertEquals("2", result.get("qty"));
+        assertEquals(2, result.get("qty"));
+    }
+
+    @Test
+    void recoversConcurrentGroupCommitWrites() throws Exception {
+
+        CacheDB db1 = CacheDB.builder()
+                .dataSource(ds)
+                .ttlSeconds(10)
+                .groupCommit(true)
+                .commitBatchSize(16)
+                .commitWaitMicros(100)
+                .build();
+
+        List<Thread> writers = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            int base = t * 50;
+            writers.add(new Thread(() -> {
+                for (int i = base; i < base + 50; i++) {
+                    db1.set("users", Map.of("id", i),
+                            Map.of("name", "User-" + i));
+                }
+            }));
+        }
+        for (Thread w : writers) w.start();
+        for (Thread w : writers) w.join();
+
+        // crash
+
+        CacheDB db2 = CacheDB.builder()
+                .dataSource(ds)
+                .ttlSeconds(10)
+                .build();
+
+        for (int i = 0; i < 200; i++) {
+            Map<String, Object> result =
+                    db2.get("users", Map.of("id", i));
+            assertNotNull(result);
+            assertEquals("User-" + i, result.get("name"));
+        }
+    }
+
+    @Test
+    void recoversWritesWithRelaxedDurability() throws Exception {
+
+        CacheDB db1 = CacheDB.builder()
+                .dataSource(ds)
+                .ttlSeconds(10)
+                .durability(Durability.NONE)
+                .durability("orders", Durability.INTERVAL)
+                .syncIntervalMillis(20)
+                .build();
+
+        db1.set("users", Map.of("id", 1),
+                Map.of("name", "Alice"));
+        db1.set("orders", Map.of("order_id", 100),
+                Map.of("status", "PAID"));
+
+        db1 = null; // process crash; the OS still has the writes
+
+        CacheDB db2 = CacheDB.builder()
+                .dataSource(ds)
+                .ttlSeconds(10)
+                .build();
+
+        assertEquals("Alice",
+                db2.get("users", Map.of("id", 1)).get("name"));
+        assertEquals("PAID",
+                db2.get("orders", Map.of("order_id", 100)).get("status"));
+    }
+
+    @Test
+    void recoveryPreservesValueTypes() throws Exception {
+
+        CacheDB db1 = CacheDB.builder()
+                .dataSource(ds)
+                .ttlSeconds(10)
+                .build();
+
+        Map<String, Object> cols = new HashMap<>();
+        cols.put("note", "a=b, c=d");
+        cols.put("views", 12_000_000_000L);
+        cols.put("score", 4.5);
+        cols.put("balance", new BigDecimal("1234.50"));
+        cols.put("nickname", null);
+
+        db1.set("users", Map.of("id", 8), cols);
+
+        db1 = null; // crash
+
+        CacheDB db2 = CacheDB.builder()
+                .dataSource(ds)
+                .ttlSeconds(10)
+                .build();
+
+        Map<String, Object> result =
+                db2.get("users", Map.of("id", 8));
+
+        assertEquals(cols, result);
+    }
+
+    @Test
+    void writesToARowApplyInLogOrder() throws Exception {
+
+        // a write that logs after another must wait for the row, or the cache
+        // could end up showing a value recovery won't
+        for (CacheStore store : List.of(new CacheStore(60_000),
+                new OffHeapCacheStore(60_000, null, 0, 0, 64 * 1024))) {
+            Map<String, Object> pk = Map.of("id", 9);
+            Thread[] second = new Thread[1];
+            store.upsert("users", pk, Map.of("name", "first"), () -> {
+                second[0] = new Thread(() -> store.upsert("users", pk, Map.of("name", "second"), () -> 2));
+                second[0].start();
+                try {
+                    second[0].join(100);
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                assertTrue(second[0].isAlive());
+                return 1;
+            });
+            second[0].join();
+            assertEquals("second", store.get("users", pk).get("name"));
+        }
     }
 }
@@ -0,0 +1,220 @@
+package cachedb;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.DriverPropertyInfo;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CacheDBSqlTemplateTest {
+
+    private static final TableSchema USERS = new TableSchema(List.of("id"),
+            Map.of("id", Types.INTEGER, "name", Types.VARCHAR, "email", Types.VARCHAR));
+
+    private final CountingDriver driver = new CountingDriver();
+    private PooledDataSource pool;
+
+    @BeforeEach
+    void setup() throws Exception {
+        DriverManager.registerDriver(driver);
+        CountingDriver.prepared.set(0);
+        CountingDriver.closed.clear();
+
+        PooledDataSource.Options options = new PooledDataSource.Options();
+        options.maxSize = 1;
+        options.statementCacheSize = 2;
+        pool = new PooledDataSource("jdbc:counting:test", "u", "p", options);
+    }
+
+    @AfterEach
+    void teardown() throws Exception {
+        pool.close();
+        DriverManager.deregisterDriver(driver);
+    }
+
+    private static Map<String, Object> ordered(Object... kv) {
+        Map<String, Object> map = new LinkedHashMap<>();
+        for (int i = 0; i < kv.length; i += 2) map.put((String) kv[i], kv[i + 1]);
+        return map;
+    }
+
+    // a statement that only records what is bound to it
+    private static PreparedStatement recorder(List<Object> bound) {
+        return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+                new Class<?>[] { PreparedStatement.class }, (proxy, method, args) -> {
+                    if (method.getName().startsWith("set")) bound.add(args[1]);
+                    return null;
+                });
+    }
+
+    @Test
+    void columnOrderDoesNotMatter() throws Exception {
+
+        SqlTemplates templates = new SqlTemplates();
+        RowMutation a = new RowMutation("users", Map.of("id", 1), ordered("name", "Alice", "email", "a@x.com"), 1);
+        RowMutation b = new RowMutation("users", Map.of("id", 2), ordered("email", "b@x.com", "name", "Bob"), 1);
+
+        SqlTemplates.Template template = templates.get(a, USERS, 1);
+        assertSame(template, templates.get(b, USERS, 1));
+        assertEquals("INSERT INTO users (id, email, name) VALUES (?, ?, ?)"
+                + " ON DUPLICATE KEY UPDATE email = VALUES(email), name = VALUES(name)", template.sql);
+        assertEquals(1, templates.misses());
+        assertEquals(1, templates.hits());
+
+        // both bind in the template's order, whatever order their maps iterate in
+        List<Object> bound = new ArrayList<>();
+        PreparedStatement ps = recorder(bound);
+        assertEquals(4, template.bind(ps, 1, a));
+        template.bind(ps, 4, b);
+        assertEquals(List.of(1, "a@x.com", "Alice", 2, "b@x.com", "Bob"), bound);
+
+        SqlTemplates.Template two = templates.get(a, USERS, 2);
+        assertFalse(template == two);
+        assertTrue(two.sql.contains("VALUES (?, ?, ?), (?, ?, ?)"));
+
+        // separate templates for another operation, and for a reloaded schema
+        RowMutation delete = new RowMutation("users", Map.of("id", 1), Map.of(), 2, true, 0);
+        assertEquals("DELETE FROM users WHERE id = ?", templates.get(delete, USERS, 1).sql);
+        TableSchema reloaded = new TableSchema(USERS.primaryKeys, USERS.columns);
+        assertFalse(template == templates.get(b, reloaded, 1));
+        assertSame(templates.get(b, reloaded, 1), templates.get(a, reloaded, 1));
+        assertEquals(3, templates.size());
+    }
+
+    @Test
+    void flushesReuseTemplates() throws Exception {
+
+        CacheDBFlushRetryTest.FakeDatabase db = new CacheDBFlushRetryTest.FakeDatabase();
+        SchemaRegistry schemas = new SchemaRegistry(db.dataSource()) {
+            @Override
+            public TableSchema get(String table) {
+                return USERS;
+            }
+        };
+        FlushManager.Options options = new FlushManager.Options();
+        options.deadLetterPath = Files.createTempDirectory("cachedb").resolve("dead-letter.log");
+        FlushManager flushManager = new FlushManager(db.dataSource(), schemas, options);
+        flushManager.start();
+
+        for (int id = 0; id < 5; id++) {
+            flushManager.enqueue(new FlushTask(new RowMutation("users", Map.of("id", id),
+                    id % 2 == 0 ? ordered("name", "n", "email", "e") : ordered("email", "e", "name", "n"), 1)));
+            long rows = id + 1;
+            long deadline = System.currentTimeMillis() + 10_000;
+            while (flushManager.flushedRows() < rows) {
+                assertTrue(System.currentTimeMillis() < deadline, "timed out");
+                Thread.sleep(5);
+            }
+        }
+
+        assertEquals(1, flushManager.templateMisses());
+        assertEquals(4, flushManager.templateHits());
+        assertEquals(1, db.statements.stream().distinct().count());
+    }
+
+    /*
+     * Hands out connections that count the statements prepared on them and
+     * the ones actually closed.
+     */
+    public static final class CountingDriver implements Driver {
+        static final AtomicInteger prepared = new AtomicInteger();
+        static final List<String> closed = new CopyOnWriteArrayList<>();
+
+        @Override
+        public Connection connect(String url, Properties info) {
+            if (!acceptsURL(url)) return null;
+            return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                    new Class<?>[] { Connection.class }, (proxy, method, args) -> {
+                        switch (method.getName()) {
+                            case "prepareStatement": return statement((String) args[0]);
+                            case "getAutoCommit":
+                            case "isValid": return true;
+                            default: return null;
+                        }
+                    });
+        }
+
+        private PreparedStatement statement(String sql) {
+            prepared.incrementAndGet();
+            return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+                    new Class<?>[] { PreparedStatement.class }, (proxy, method, args) -> {
+                        if (method.getName().equals("close")) closed.add(sql);
+                        if (method.getName().equals("isClosed")) return closed.contains(sql);
+                        return null;
+                    });
+        }
+
+        @Override public boolean acceptsURL(String url) { return url.startsWith("jdbc:counting:"); }
+        @Override public DriverPropertyInfo[] getPropertyInfo(String url, Properties info) { return new DriverPropertyInfo[0]; }
+        @Override public int getMajorVersion() { return 1; }
+        @Override public int getMinorVersion() { return 0; }
+        @Override public boolean jdbcCompliant() { return false; }
+        @Override public Logger getParentLogger() { return Logger.getGlobal(); }
+    }
+
+    private void prepareAndClose(String sql) throws SQLException {
+        try (Connection c = pool.getConnection();
+             PreparedStatement ps = c.prepareStatement(sql)) {
+            ps.addBatch();
+        }
+    }
+
+    @Test
+    void poolReusesPreparedStatementsPerConnection() throws Exception {
+
+        prepareAndClose("A");
+        prepareAndClose("A");
+        prepareAndClose("B");
+        prepareAndClose("A");
+        assertEquals(2, CountingDriver.prepared.get());
+        assertEquals(2, pool.statementCacheHits());
+        assertEquals(2, pool.statementCacheMisses());
+        assertTrue(CountingDriver.closed.isEmpty());
+
+        // a third statement pushes out the least recently used one
+        prepareAndClose("C");
+        assertEquals(List.of("B"), CountingDriver.closed);
+
+        try (Connection c = pool.getConnection()) {
+            PreparedStatement first = c.prepareStatement("A");
+            PreparedStatement second = c.prepareStatement("A"); // first is still open
+            assertFalse(first == second);
+            second.close();
+            first.close();
+            assertThrows(SQLException.class, first::addBatch);
+        }
+        assertEquals(4, CountingDriver.prepared.get());
+        assertEquals(List.of("B", "A"), CountingDriver.closed);
+    }
+
+    @Test
+    void statementLeftOpenIsNotHandedToTheNextBorrower() throws Exception {
+
+        Connection c = pool.getConnection();
+        PreparedStatement leaked = c.prepareStatement("A");
+        c.close();
+        assertEquals(List.of("A"), CountingDriver.closed);
+
+        prepareAndClose("A");
+        assertEquals(2, CountingDriver.prepared.get());
+        assertThrows(SQLException.class, leaked::addBatch);
+    }
+}
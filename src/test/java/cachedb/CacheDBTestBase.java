@@ -5,6 +5,8 @@ import org.junit.jupiter.api.BeforeEach;
 
 import javax.sql.DataSource;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 
 public abstract class CacheDBTestBase {
 
@@ -23,4 +25,15 @@ public abstract class CacheDBTestBase {
                 .ttlSeconds(2)
                 .build();
     }
+
+    static final Path WAL_DIR = Path.of("logs");
+
+    static void clearWal() throws IOException {
+        Files.createDirectories(WAL_DIR);
+        for (Path segment : WALWriter.segments(WAL_DIR)) {
+            Files.deleteIfExists(segment);
+        }
+        Files.deleteIfExists(WAL_DIR.resolve("wal.log"));
+        Files.deleteIfExists(WAL_DIR.resolve(WALWriter.CHECKPOINT_FILE));
+    }
 }
@@ -0,0 +1,218 @@
+package cachedb;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.sql.DataSource;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CacheDBTypedBindingTest {
+
+    private static final Map<String, Integer> ITEM_COLUMNS = new LinkedHashMap<>();
+    static {
+        ITEM_COLUMNS.put("id", Types.INTEGER);
+        ITEM_COLUMNS.put("stock", Types.BIGINT);
+        ITEM_COLUMNS.put("weight", Types.DOUBLE);
+        ITEM_COLUMNS.put("price", Types.DECIMAL);
+        ITEM_COLUMNS.put("updated_at", Types.TIMESTAMP);
+        ITEM_COLUMNS.put("name", Types.VARCHAR);
+        ITEM_COLUMNS.put("photo", Types.BLOB);
+    }
+
+    private static final TableSchema ITEMS = new TableSchema(List.of("id"), ITEM_COLUMNS);
+
+    @BeforeEach
+    void setup() throws Exception {
+        CacheDBTestBase.clearWal();
+    }
+
+    @Test
+    void valuesAreConvertedOnlyWhenNothingIsLost() {
+
+        Map<String, Object> row = new LinkedHashMap<>();
+        row.put("stock", "12");
+        row.put("weight", 2);
+        row.put("price", "19.99");
+        row.put("updated_at", "2024-03-01 10:15:00");
+        row.put("name", 42);
+        row.put("photo", "raw");
+        row.put("note", "not in the schema");
+
+        Map<String, Object> typed = ITEMS.convert(row);
+        assertEquals(12L, typed.get("stock"));
+        assertEquals(2.0, typed.get("weight"));
+        assertEquals(new BigDecimal("19.99"), typed.get("price"));
+        assertEquals(Timestamp.valueOf("2024-03-01 10:15:00"), typed.get("updated_at"));
+        assertEquals("42", typed.get("name"));
+        assertEquals("raw", typed.get("photo"));
+        assertEquals("not in the schema", typed.get("note"));
+        assertEquals("12", row.get("stock")); // the caller's map is left alone
+
+        // already typed: the same map comes back
+        assertSame(typed, ITEMS.convert(typed));
+
+        // left for the database to coerce or reject, as before
+        assertEquals("4.5", ColumnType.INT.convert("4.5"));
+        assertEquals("abc", ColumnType.LONG.convert("abc"));
+        assertEquals("1e999", ColumnType.DOUBLE.convert("1e999"));
+        assertEquals("yesterday", ColumnType.TIMESTAMP.convert("yesterday"));
+        assertEquals(3_000_000_000L, ColumnType.INT.convert(3_000_000_000L)); // INT UNSIGNED
+        assertEquals(7, ColumnType.INT.convert(7L));
+    }
+
+    @Test
+    void flushBindsWithTheColumnTypesSetter() throws Exception {
+
+        List<String> calls = new ArrayList<>();
+        PreparedStatement ps = (PreparedStatement) Proxy.newProxyInstance(
+                PreparedStatement.class.getClassLoader(), new Class<?>[] { PreparedStatement.class },
+                (proxy, method, args) -> {
+                    calls.add(method.getName() + "(" + args[0] + ", " + args[1] + ")");
+                    return null;
+                });
+
+        // as a legacy text WAL record would have it
+        Map<String, Object> columns = new LinkedHashMap<>();
+        columns.put("stock", "12");
+        columns.put("weight", "2.5");
+        columns.put("price", "19.99");
+        columns.put("updated_at", "2024-03-01 10:15:00");
+        columns.put("name", "Lamp");
+        columns.put("photo", null);
+        RowMutation m = new RowMutation("items", Map.of("id", "7"), columns, 1);
+
+        SqlTemplates.Template template = new SqlTemplates().get(m, ITEMS, 1);
+        assertEquals(8, template.bind(ps, 1, m));
+        assertEquals(List.of(
+                "setInt(1, 7)",
+                "setString(2, Lamp)",
+                "setNull(3, " + Types.BLOB + ")",
+                "setBigDecimal(4, 19.99)",
+                "setLong(5, 12)",
+                "setTimestamp(6, 2024-03-01 10:15:00.0)",
+                "setDouble(7, 2.5)"), calls);
+    }
+
+    @Test
+    void setStoresTypedValues() throws Exception {
+
+        CacheDB cache = CacheDB.builder()
+                .dataSource(metadataOnly(Map.of("items", ITEMS)))
+                .ttlSeconds(3600)
+                .dashboard(false)
+                .build();
+
+        Map<String, Object> row = new LinkedHashMap<>();
+        row.put("stock", "12");
+        row.put("price", 20);
+        row.put("name", "Lamp");
+        cache.set("items", Map.of("id", 1), row);
+
+        Map<String, Object> cached = cache.get("items", Map.of("id", 1));
+        assertEquals(12L, cached.get("stock"));
+        assertEquals(BigDecimal.valueOf(20), cached.get("price"));
+        assertEquals("Lamp", cached.get("name"));
+
+        // tables the schema doesn't know keep what the caller passed
+        cache.set("notes", Map.of("id", 1), Map.of("body", 5));
+        assertEquals(5, cache.get("notes", Map.of("id", 1)).get("body"));
+
+        // the WAL holds the typed values too
+        List<LogRecord> logged = new ArrayList<>();
+        cache.wal().sync();
+        for (java.nio.file.Path segment : WALWriter.segments(java.nio.file.Path.of("logs"))) {
+            try (WALReader reader = new WALReader(segment)) {
+                reader.forEach(logged::add);
+            }
+        }
+        assertEquals(12L, logged.get(0).columns().get("stock"));
+    }
+
+    @Test
+    void schemaThatFailsToLoadIsTriedAgain() throws Exception {
+
+        boolean[] reachable = new boolean[1];
+        DataSource metadata = metadataOnly(Map.of("items", ITEMS));
+        DataSource flaky = (DataSource) Proxy.newProxyInstance(
+                DataSource.class.getClassLoader(), new Class<?>[] { DataSource.class },
+                (proxy, method, args) -> {
+                    if (!reachable[0]) throw new SQLException("database unreachable");
+                    return method.invoke(metadata, args);
+                });
+
+        CacheDB cache = CacheDB.builder()
+                .dataSource(flaky)
+                .ttlSeconds(3600)
+                .dashboard(false)
+                .build();
+
+        cache.set("items", Map.of("id", 1), Map.of("stock", "12"));
+        assertEquals("12", cache.get("items", Map.of("id", 1)).get("stock"));
+
+        reachable[0] = true;
+        Thread.sleep(SchemaRegistry.RETRY_MILLIS + 100);
+
+        cache.set("items", Map.of("id", 2), Map.of("stock", "13"));
+        assertEquals(13L, cache.get("items", Map.of("id", 2)).get("stock"));
+    }
+
+    // a database that only answers schema questions, from `schemas`
+    private static DataSource metadataOnly(Map<String, TableSchema> schemas) {
+        DatabaseMetaData meta = (DatabaseMetaData) Proxy.newProxyInstance(
+                DatabaseMetaData.class.getClassLoader(), new Class<?>[] { DatabaseMetaData.class },
+                (proxy, method, args) -> {
+                    TableSchema schema = schemas.get((String) args[2]);
+                    List<Map<String, Object>> rows = new ArrayList<>();
+                    if (schema != null && method.getName().equals("getPrimaryKeys")) {
+                        for (String pk : schema.primaryKeys) rows.add(Map.of("COLUMN_NAME", pk));
+                    } else if (schema != null && method.getName().equals("getColumns")) {
+                        schema.columns.forEach((column, type) ->
+                                rows.add(Map.of("COLUMN_NAME", column, "DATA_TYPE", type)));
+                    }
+                    return resultSet(rows);
+                });
+        Connection connection = (Connection) Proxy.newProxyInstance(
+                Connection.class.getClassLoader(), new Class<?>[] { Connection.class },
+                (proxy, method, args) -> {
+                    if (method.getName().equals("getMetaData")) return meta;
+                    if (method.getName().equals("close")) return null;
+                    throw new SQLException("metadata only");
+                });
+        return (DataSource) Proxy.newProxyInstance(
+                DataSource.class.getClassLoader(), new Class<?>[] { DataSource.class },
+                (proxy, method, args) -> method.getName().equals("getConnection") ? connection : null);
+    }
+
+    private static ResultSet resultSet(List<Map<String, Object>> rows) {
+        Iterator<Map<String, Object>> it = rows.iterator();
+        Object[] current = new Object[1];
+        return (ResultSet) Proxy.newProxyInstance(
+                ResultSet.class.getClassLoader(), new Class<?>[] { ResultSet.class },
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "next":
+                            if (!it.hasNext()) return false;
+                            current[0] = it.next();
+                            return true;
+                        case "getString": return ((Map<?, ?>) current[0]).get(args[0]);
+                        case "getInt": return ((Map<?, ?>) current[0]).get(args[0]);
+                        default: return null;
+                    }
+                });
+    }
+}
@@ -0,0 +1,98 @@
+package cachedb;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CacheDBWriteBehindTest {
+
+    @Test
+    void dueRowsAreFlushedAndStayCached() {
+
+        CacheStore store = new CacheStore(3_600_000);
+        store.writeBehind(500);
+
+        store.upsert("users", Map.of("id", 1), Map.of("name", "Alice"), 1);
+        store.upsert("users", Map.of("id", 1), Map.of("name", "Alice-v2"), 2);
+        store.delete("users", Map.of("id", 2), 3);
+
+        long now = System.currentTimeMillis();
+        List<CacheEntry> due = new ArrayList<>();
+        store.flushDue(now, (table, e) -> due.add(e));
+        assertTrue(due.isEmpty()); // not yet
+
+        store.flushDue(now + 1_000, (table, e) -> {
+            assertTrue(e.dirty);
+            due.add(e);
+        });
+        assertEquals(2, due.size());
+
+        // still cached, now clean
+        assertEquals("Alice-v2", store.get("users", Map.of("id", 1)).get("name"));
+        CacheEntry entry = store.lookup("users", Map.of("id", 1));
+        assertFalse(entry.dirty);
+        assertEquals(0, entry.pendingLsn);
+        assertNull(store.get("users", Map.of("id", 2)));
+        assertNotNull(store.lookup("users", Map.of("id", 2)));
+
+        // the next write starts a new delay
+        store.upsert("users", Map.of("id", 1), Map.of("name", "Alice-v3"), 4);
+        assertTrue(store.lookup("users", Map.of("id", 1)).dirty);
+        List<Long> lsns = new ArrayList<>();
+        store.flushDue(now + 3_000, (table, e) -> lsns.add(e.pendingLsn));
+        assertEquals(List.of(4L), lsns);
+    }
+
+    @Test
+    void cleanRowsExpireWithoutAnotherFlush() {
+
+        CacheStore store = new CacheStore(2_000);
+        store.writeBehind(100);
+
+        store.upsert("users", Map.of("id", 1), Map.of("name", "Alice"), 1);
+        store.flushDue(System.currentTimeMillis() + 500, (table, e) -> {});
+
+        List<CacheEntry> expired = new ArrayList<>();
+        store.expire(System.currentTimeMillis() + 5_000, (table, e) -> expired.add(e));
+        assertEquals(1, expired.size());
+        assertFalse(expired.get(0).dirty);
+        assertNull(store.get("users", Map.of("id", 1)));
+    }
+
+    @Test
+    void flushedIncrementsWithoutARowAreDropped() {
+
+        CacheStore store = new CacheStore(3_600_000);
+        store.writeBehind(100);
+
+        store.increment("page_views", Map.of("page_id", 1), "views", 3, 1);
+        store.upsert("page_views", Map.of("page_id", 2), Map.of("views", 10L), 2);
+        store.increment("page_views", Map.of("page_id", 2), "views", 1, 3);
+
+        List<CacheEntry> due = new ArrayList<>();
+        store.flushDue(System.currentTimeMillis() + 1_000, (table, e) -> due.add(e));
+        assertEquals(2, due.size());
+
+        assertNull(store.lookup("page_views", Map.of("page_id", 1)));
+        assertEquals(11L, store.get("page_views", Map.of("page_id", 2)).get("views"));
+
+        // increments to the now clean row are flushed as deltas
+        store.increment("page_views", Map.of("page_id", 2), "views", 5, 4);
+        assertEquals(Map.of("views", 5L), store.lookup("page_views", Map.of("page_id", 2)).deltas);
+    }
+
+    @Test
+    void offHeapRejectsWriteBehind() {
+        CacheDB.Builder builder = CacheDB.builder()
+                .dataSource(new SimpleDataSource("jdbc:mysql://localhost:3306/cachedb", "root", "defg5678@"))
+                .offHeap(true)
+                .writeBehindMillis(1000)
+                .dashboard(false);
+
+        assertThrows(IllegalStateException.class, builder::build);
+    }
+}